@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AmfMessageDeserializer;
+import flex.messaging.io.amf.AmfMessageSerializer;
+import flex.messaging.io.amf.AmfSerializationPool;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.io.amfx.AmfxMessageDeserializer;
+import flex.messaging.io.amfx.AmfxMessageSerializer;
+import flex.messaging.io.payloads.Payload;
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.util.UUIDUtils;
+
+/**
+ * Serializes and deserializes complete AMF/HTTP and AMFX messages carrying
+ * a payload as the body of an acknowledgement, the way an endpoint writes a
+ * remoting response and reads it back.
+ * <p>
+ * Run with <code>-prof gc</code> to see the allocation rate along with the
+ * throughput. With <code>pooled</code> set, the AMF serializers, deserializers
+ * and response buffers are taken from an <code>AmfSerializationPool</code> the
+ * way <code>SerializationFilter</code> does.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MessageCodecBenchmark
+{
+    public enum Format
+    {
+        AMF0(MessageIOConstants.AMF0),
+        AMF3(MessageIOConstants.AMF3),
+        AMFX(MessageIOConstants.AMF3);
+
+        final int version;
+
+        Format(int version)
+        {
+            this.version = version;
+        }
+    }
+
+    @Param
+    public Format format;
+
+    @Param
+    public Payload payload;
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private SerializationContext context;
+    private AmfSerializationPool pool;
+    private ActionMessage message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        context = payload.createContext();
+        pool = pooled && format != Format.AMFX ? new AmfSerializationPool(AmfSerializationPool.DEFAULT_CAPACITY,
+                AmfSerializationPool.DEFAULT_MAX_TABLE_SIZE, AmfSerializationPool.DEFAULT_MAX_BUFFER_SIZE) : null;
+        SerializationContext.setSerializationContext(context);
+
+        AcknowledgeMessage ack = new AcknowledgeMessage();
+        ack.setMessageId(UUIDUtils.createUUID());
+        ack.setCorrelationId(UUIDUtils.createUUID());
+        ack.setClientId(UUIDUtils.createUUID());
+        ack.setBody(payload.create());
+
+        message = new ActionMessage(format.version);
+        message.addBody(new MessageBody("/1/onResult", null, ack));
+        encoded = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException
+    {
+        if (pool != null)
+        {
+            AmfSerializationPool.PooledBuffer bytes = pool.getBuffer();
+            MessageSerializer serializer = pool.getSerializer(context);
+            serializer.setVersion(format.version);
+            serializer.initialize(context, bytes, null);
+            serializer.writeMessage(message);
+            pool.releaseSerializer(serializer);
+            byte[] result = bytes.toByteArray();
+            pool.releaseBuffer(bytes);
+            return result;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded != null ? encoded.length : 8192);
+        MessageSerializer serializer = format == Format.AMFX ? new AmfxMessageSerializer() : new AmfMessageSerializer();
+        serializer.setVersion(format.version);
+        serializer.initialize(context, bytes, null);
+        serializer.writeMessage(message);
+        bytes.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ActionMessage deserialize() throws ClassNotFoundException, IOException
+    {
+        MessageDeserializer deserializer;
+        if (pool != null)
+            deserializer = pool.getDeserializer(context);
+        else
+            deserializer = format == Format.AMFX ? new AmfxMessageDeserializer() : new AmfMessageDeserializer();
+        deserializer.initialize(context, new ByteArrayInputStream(encoded), null);
+        ActionMessage result = new ActionMessage();
+        ActionContext actionContext = new ActionContext();
+        actionContext.setRequestMessage(result);
+        deserializer.readMessage(result, actionContext);
+        if (pool != null)
+            pool.releaseDeserializer(deserializer);
+        return result;
+    }
+}
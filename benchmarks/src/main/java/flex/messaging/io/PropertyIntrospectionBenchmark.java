@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import flex.messaging.io.payloads.Counterparty;
+import flex.messaging.io.payloads.Trade;
+
+/**
+ * Looks up the PropertyProxy of a bean and reads its properties from many
+ * threads at once, the way concurrent requests do while serializing their
+ * responses. This measures contention on the shared introspection caches of
+ * BeanProxy and PropertyProxyRegistry rather than the cost of reflection.
+ * <p>
+ * Runs with 64 threads by default; use <code>-t</code> to compare other
+ * levels of concurrency.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(2)
+public class PropertyIntrospectionBenchmark
+{
+    private Trade trade;
+
+    @Setup
+    public void setUp()
+    {
+        Counterparty counterparty = new Counterparty();
+        counterparty.setName("Counterparty");
+        counterparty.setCountry("US");
+
+        trade = new Trade();
+        trade.setId(1);
+        trade.setSymbol("IBM");
+        trade.setSide("BUY");
+        trade.setPrice(101.25);
+        trade.setQuantity(300);
+        trade.setTradeDate(new Date(0));
+        trade.setCounterparty(counterparty);
+    }
+
+    @Benchmark
+    public PropertyProxy lookupProxy()
+    {
+        return PropertyProxyRegistry.getProxy(trade);
+    }
+
+    @Benchmark
+    public void readProperties(Blackhole blackhole)
+    {
+        PropertyProxy proxy = PropertyProxyRegistry.getProxy(trade);
+        List names = proxy.getPropertyNames(trade);
+        for (int i = 0; i < names.size(); i++)
+            blackhole.consume(proxy.getValue(trade, (String)names.get(i)));
+    }
+}
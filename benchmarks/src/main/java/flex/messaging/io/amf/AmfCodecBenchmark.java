@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.payloads.Payload;
+
+/**
+ * Encodes and decodes payloads with the AMF 0 and AMF 3 codecs on their own,
+ * the way the endpoints use them: a new input or output for every value.
+ * <p>
+ * Run with <code>-prof gc</code> to see the allocation rate along with the
+ * throughput.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class AmfCodecBenchmark
+{
+    public enum Codec
+    {
+        AMF0
+        {
+            @Override AbstractAmfOutput createOutput(SerializationContext context)
+            {
+                return new Amf0Output(context);
+            }
+
+            @Override AbstractAmfInput createInput(SerializationContext context)
+            {
+                return new Amf0Input(context);
+            }
+        },
+
+        AMF3
+        {
+            @Override AbstractAmfOutput createOutput(SerializationContext context)
+            {
+                return new Amf3Output(context);
+            }
+
+            @Override AbstractAmfInput createInput(SerializationContext context)
+            {
+                return new Amf3Input(context);
+            }
+        },
+
+        /**
+         * AMF 3 decoded from the array of a fully buffered packet.
+         */
+        AMF3_BYTE_ARRAY
+        {
+            @Override AbstractAmfOutput createOutput(SerializationContext context)
+            {
+                return new Amf3Output(context);
+            }
+
+            @Override AbstractAmfInput createInput(SerializationContext context)
+            {
+                return new ByteArrayAmf3Input(context);
+            }
+
+            @Override InputStream openStream(byte[] b)
+            {
+                return new ByteArrayAmfInputStream(b);
+            }
+        };
+
+        abstract AbstractAmfOutput createOutput(SerializationContext context);
+
+        abstract AbstractAmfInput createInput(SerializationContext context);
+
+        InputStream openStream(byte[] b)
+        {
+            return new ByteArrayInputStream(b);
+        }
+    }
+
+    @Param
+    public Codec codec;
+
+    @Param
+    public Payload payload;
+
+    private SerializationContext context;
+    private Object value;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        context = payload.createContext();
+        SerializationContext.setSerializationContext(context);
+        value = payload.create();
+        encoded = write(value);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException
+    {
+        return write(value);
+    }
+
+    @Benchmark
+    public Object decode() throws ClassNotFoundException, IOException
+    {
+        return read(encoded);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws ClassNotFoundException, IOException
+    {
+        return read(write(value));
+    }
+
+    private byte[] write(Object o) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded != null ? encoded.length : 8192);
+        AbstractAmfOutput output = codec.createOutput(context);
+        output.setOutputStream(bytes);
+        output.writeObject(o);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private Object read(byte[] b) throws ClassNotFoundException, IOException
+    {
+        AbstractAmfInput input = codec.createInput(context);
+        input.setInputStream(codec.openStream(b));
+        return input.readObject();
+    }
+}
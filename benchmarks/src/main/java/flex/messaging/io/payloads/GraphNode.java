@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.payloads;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import flex.messaging.io.amf.ASObject;
+
+/**
+ * A node of a deep object graph. Every node refers back to its parent and
+ * shares its attributes object with its siblings, so most of the graph is
+ * written as references.
+ */
+public class GraphNode
+{
+    private String name;
+    private int depth;
+    private GraphNode parent;
+    private List<GraphNode> children = new ArrayList<GraphNode>();
+    private ASObject attributes;
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public void setDepth(int depth)
+    {
+        this.depth = depth;
+    }
+
+    public GraphNode getParent()
+    {
+        return parent;
+    }
+
+    public void setParent(GraphNode parent)
+    {
+        this.parent = parent;
+    }
+
+    public List<GraphNode> getChildren()
+    {
+        return children;
+    }
+
+    public void setChildren(List<GraphNode> children)
+    {
+        this.children = children;
+    }
+
+    public ASObject getAttributes()
+    {
+        return attributes;
+    }
+
+    public void setAttributes(ASObject attributes)
+    {
+        this.attributes = attributes;
+    }
+}
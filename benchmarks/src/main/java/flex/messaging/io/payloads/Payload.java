@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.payloads;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import flex.messaging.io.ArrayCollection;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.ASObject;
+import flex.messaging.validators.ClassDeserializationValidator;
+
+/**
+ * The payloads the codec benchmarks serialize. Each one exercises a
+ * different part of the serializers; all of them are built from a fixed
+ * seed so runs are comparable.
+ */
+public enum Payload
+{
+    /**
+     * Typed beans written through BeanProxy, sharing counterparty beans and
+     * symbol strings.
+     */
+    BEANS
+    {
+        @Override public Object create()
+        {
+            Random random = new Random(SEED);
+            Counterparty[] counterparties = new Counterparty[10];
+            for (int i = 0; i < counterparties.length; i++)
+            {
+                Counterparty counterparty = new Counterparty();
+                counterparty.setId("CP" + i);
+                counterparty.setName("Counterparty " + i);
+                counterparty.setCountry(i % 2 == 0 ? "US" : "GB");
+                counterparty.setCreditLimit(1000000 * (i + 1));
+                counterparties[i] = counterparty;
+            }
+
+            List<Trade> trades = new ArrayList<Trade>(ROWS);
+            for (int i = 0; i < ROWS; i++)
+            {
+                Trade trade = new Trade();
+                trade.setId(1000000L + i);
+                trade.setSymbol(SYMBOLS[random.nextInt(SYMBOLS.length)]);
+                trade.setSide(random.nextBoolean() ? "BUY" : "SELL");
+                trade.setPrice(random.nextInt(100000) / 100.0);
+                trade.setQuantity(random.nextInt(10000));
+                trade.setSettled(random.nextBoolean());
+                trade.setTradeDate(new Date(TIME + i * 1000L));
+                trade.setCounterparty(counterparties[random.nextInt(counterparties.length)]);
+                trades.add(trade);
+            }
+            return trades;
+        }
+    },
+
+    /**
+     * Anonymous objects with the same keys, as sent by untyped clients.
+     */
+    AS_OBJECTS
+    {
+        @Override public Object create()
+        {
+            return rows().toArray();
+        }
+    },
+
+    /**
+     * An ArrayCollection of anonymous objects.
+     */
+    ARRAY_COLLECTION
+    {
+        @Override public Object create()
+        {
+            return new ArrayCollection(rows());
+        }
+    },
+
+    /**
+     * Typed int, double and String vectors. AMF 0 and AMFX write them as
+     * arrays and collections.
+     */
+    VECTORS
+    {
+        @Override public Object create()
+        {
+            Random random = new Random(SEED);
+            int[] ints = new int[VECTOR_LENGTH];
+            double[] doubles = new double[VECTOR_LENGTH];
+            List<String> strings = new ArrayList<String>(VECTOR_LENGTH);
+            for (int i = 0; i < VECTOR_LENGTH; i++)
+            {
+                ints[i] = random.nextInt();
+                doubles[i] = random.nextDouble();
+                strings.add(SYMBOLS[random.nextInt(SYMBOLS.length)]);
+            }
+
+            ASObject vectors = new ASObject();
+            vectors.put("ints", ints);
+            vectors.put("doubles", doubles);
+            vectors.put("strings", strings);
+            return vectors;
+        }
+
+        @Override public void configure(SerializationContext context)
+        {
+            context.preferVectors = true;
+        }
+    },
+
+    /**
+     * A deep tree of typed nodes with back references and shared children
+     * attributes.
+     */
+    DEEP_GRAPH
+    {
+        @Override public Object create()
+        {
+            GraphNode root = new GraphNode();
+            root.setName("root");
+            addChildren(root, 1);
+            return root;
+        }
+
+        private void addChildren(GraphNode parent, int depth)
+        {
+            if (depth > GRAPH_DEPTH)
+                return;
+
+            ASObject attributes = new ASObject();
+            attributes.put("depth", Integer.valueOf(depth));
+            attributes.put("label", "level " + depth);
+            for (int i = 0; i < GRAPH_FAN_OUT; i++)
+            {
+                GraphNode child = new GraphNode();
+                child.setName("node" + i);
+                child.setDepth(depth);
+                child.setParent(parent);
+                child.setAttributes(attributes);
+                parent.getChildren().add(child);
+                addChildren(child, depth + 1);
+            }
+        }
+    },
+
+    /**
+     * A few large strings, including non-ASCII characters.
+     */
+    LARGE_STRINGS
+    {
+        @Override public Object create()
+        {
+            Random random = new Random(SEED);
+            String alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 \u00e9\u00fc\u00df\u4e2d\u6587";
+            ASObject document = new ASObject();
+            for (int i = 0; i < 4; i++)
+            {
+                StringBuilder sb = new StringBuilder(LARGE_STRING_LENGTH);
+                for (int j = 0; j < LARGE_STRING_LENGTH; j++)
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                document.put("text" + i, sb.toString());
+            }
+            return document;
+        }
+    };
+
+    private static final long SEED = 20161017L;
+    private static final long TIME = 1476662400000L;
+    private static final int ROWS = 500;
+    // Kept under AmfxInput.INITIAL_ARRAY_CAPACITY; AMFX can't read larger
+    // arrays back into an anonymous object.
+    private static final int VECTOR_LENGTH = 1000;
+    private static final int GRAPH_DEPTH = 6;
+    private static final int GRAPH_FAN_OUT = 4;
+    private static final int LARGE_STRING_LENGTH = 64 * 1024;
+    private static final String[] SYMBOLS = {"ADBE", "AAPL", "GOOG", "IBM", "MSFT", "ORCL", "SAP", "INTC"};
+
+    /**
+     * Builds the payload.
+     *
+     * @return the payload.
+     */
+    public abstract Object create();
+
+    /**
+     * Applies the serialization settings the payload needs.
+     *
+     * @param context the context to configure.
+     */
+    public void configure(SerializationContext context)
+    {
+        // No-op.
+    }
+
+    /**
+     * Creates a serialization context for the payload that allows its
+     * classes to be deserialized.
+     *
+     * @return the serialization context.
+     */
+    public SerializationContext createContext()
+    {
+        SerializationContext context = new SerializationContext();
+        ClassDeserializationValidator validator = new ClassDeserializationValidator();
+        validator.addAllowClassPattern("flex\\.messaging\\.io\\.payloads\\..*");
+        // Typed vectors are read back as arrays of boxed values.
+        validator.addAllowClassPattern("\\[Ljava\\.lang\\.(Integer|Double|String|Object);");
+        context.setDeserializationValidator(validator);
+        configure(context);
+        return context;
+    }
+
+    private static List<ASObject> rows()
+    {
+        Random random = new Random(SEED);
+        List<ASObject> rows = new ArrayList<ASObject>(ROWS);
+        for (int i = 0; i < ROWS; i++)
+        {
+            ASObject row = new ASObject();
+            row.put("id", Integer.valueOf(i));
+            row.put("symbol", SYMBOLS[random.nextInt(SYMBOLS.length)]);
+            row.put("bid", Double.valueOf(random.nextInt(100000) / 100.0));
+            row.put("ask", Double.valueOf(random.nextInt(100000) / 100.0));
+            row.put("volume", Integer.valueOf(random.nextInt(1000000)));
+            row.put("time", new Date(TIME + i * 1000L));
+            rows.add(row);
+        }
+        return rows;
+    }
+}
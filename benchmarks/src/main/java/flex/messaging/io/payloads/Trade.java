@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.payloads;
+
+import java.util.Date;
+
+/**
+ * A typical remoting DTO, serialized through BeanProxy.
+ */
+public class Trade
+{
+    private long id;
+    private String symbol;
+    private String side;
+    private double price;
+    private int quantity;
+    private boolean settled;
+    private Date tradeDate;
+    private Counterparty counterparty;
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public void setId(long id)
+    {
+        this.id = id;
+    }
+
+    public String getSymbol()
+    {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol)
+    {
+        this.symbol = symbol;
+    }
+
+    public String getSide()
+    {
+        return side;
+    }
+
+    public void setSide(String side)
+    {
+        this.side = side;
+    }
+
+    public double getPrice()
+    {
+        return price;
+    }
+
+    public void setPrice(double price)
+    {
+        this.price = price;
+    }
+
+    public int getQuantity()
+    {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity)
+    {
+        this.quantity = quantity;
+    }
+
+    public boolean isSettled()
+    {
+        return settled;
+    }
+
+    public void setSettled(boolean settled)
+    {
+        this.settled = settled;
+    }
+
+    public Date getTradeDate()
+    {
+        return tradeDate;
+    }
+
+    public void setTradeDate(Date tradeDate)
+    {
+        this.tradeDate = tradeDate;
+    }
+
+    public Counterparty getCounterparty()
+    {
+        return counterparty;
+    }
+
+    public void setCounterparty(Counterparty counterparty)
+    {
+        this.counterparty = counterparty;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.MessageDestination;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.services.MessageService;
+
+/**
+ * Measures the rate at which subscriptions can be added and removed on a
+ * destination by several threads, while another thread keeps resolving the
+ * subscribers of a published message under the subscribe lock, as a
+ * MessageService push does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionChurnBenchmark
+{
+    private static final int STABLE_SUBSCRIBERS = 50;
+
+    private SubscriptionManager subscriptionManager;
+    private Message published;
+
+    @State(Scope.Thread)
+    public static class ChurnThread
+    {
+        int thread;
+        int next;
+
+        @Setup
+        public void setUp(ThreadParams params)
+        {
+            thread = params.getThreadIndex();
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        MessageBroker broker = new MessageBroker(false);
+
+        MessageService service = new MessageService();
+        service.setId("message-service");
+        broker.addService(service);
+
+        final MessageDestination destination = new MessageDestination();
+        destination.setId("topic");
+        destination.getServerSettings().setAllowSubtopics(true);
+        destination.setService(service);
+
+        subscriptionManager = new SubscriptionManager(destination)
+        {
+            @Override
+            protected MessageClient newMessageClient(Object clientId, String endpointId)
+            {
+                return new MessageClient(clientId, destination, endpointId, false);
+            }
+        };
+        for (int i = 0; i < STABLE_SUBSCRIBERS; i++)
+            subscriptionManager.addSubscriber("stable" + i, null, "prices.stable", "endpoint");
+
+        published = new AsyncMessage();
+        published.setHeader(AsyncMessage.SUBTOPIC_HEADER_NAME, "prices.stable");
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(4)
+    public void subscribeAndUnsubscribe(ChurnThread churnThread)
+    {
+        int i = churnThread.next++;
+        String clientId = "churn" + churnThread.thread + "-" + i;
+        // Half of the churn shares a subtopic across threads.
+        String subtopic = (i % 2 == 0) ? "prices.shared" : "prices.churn" + churnThread.thread + "." + (i % 10);
+        subscriptionManager.addSubscriber(clientId, null, subtopic, "endpoint");
+        subscriptionManager.removeSubscriber(clientId, null, subtopic, "endpoint");
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public Set<Object> resolveSubscribers()
+    {
+        subscriptionManager.getSubscribeLock().readLock().lock();
+        try
+        {
+            return subscriptionManager.getSubscriberIds(published, false);
+        }
+        finally
+        {
+            subscriptionManager.getSubscribeLock().readLock().unlock();
+        }
+    }
+}
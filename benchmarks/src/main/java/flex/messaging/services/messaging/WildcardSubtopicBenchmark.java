@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares resolving the wildcard subscriptions that match a published
+ * subtopic with a linear scan over every wildcard subtopic, as the
+ * SubscriptionManager used to do, against a lookup in the
+ * WildcardSubtopicIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WildcardSubtopicBenchmark
+{
+    private static final String SEPARATOR = ".";
+
+    @Param({"1000", "100000"})
+    public int subscriptions;
+
+    private List<Subtopic> wildcardSubtopics;
+    private WildcardSubtopicIndex<Subtopic> index;
+    private Subtopic[] published;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(17);
+        Set<String> patterns = new LinkedHashSet<String>();
+        while (patterns.size() < subscriptions)
+        {
+            // Mix of trailing and inner wildcards over a market data style hierarchy,
+            // e.g. "exchange12.sector7.*" or "exchange3.*.symbol512".
+            String exchange = "exchange" + random.nextInt(50);
+            String sector = "sector" + random.nextInt(40);
+            String symbol = "symbol" + random.nextInt(1000);
+            switch (random.nextInt(3))
+            {
+                case 0:
+                    patterns.add(exchange + SEPARATOR + sector + SEPARATOR + "*");
+                    break;
+                case 1:
+                    patterns.add(exchange + SEPARATOR + "*" + SEPARATOR + symbol);
+                    break;
+                default:
+                    patterns.add(exchange + SEPARATOR + sector + SEPARATOR + symbol + SEPARATOR + "*");
+                    break;
+            }
+        }
+
+        wildcardSubtopics = new ArrayList<Subtopic>(patterns.size());
+        index = new WildcardSubtopicIndex<Subtopic>();
+        for (String pattern : patterns)
+        {
+            Subtopic subtopic = new Subtopic(pattern, SEPARATOR);
+            wildcardSubtopics.add(subtopic);
+            index.put(subtopic, subtopic);
+        }
+
+        published = new Subtopic[1024];
+        for (int i = 0; i < published.length; i++)
+        {
+            published[i] = new Subtopic("exchange" + random.nextInt(50) + SEPARATOR + "sector" + random.nextInt(40)
+                    + SEPARATOR + "symbol" + random.nextInt(1000) + SEPARATOR + "trades", SEPARATOR);
+        }
+    }
+
+    @Benchmark
+    public List<Subtopic> linearScan()
+    {
+        Subtopic subtopic = nextSubtopic();
+        List<Subtopic> matches = new ArrayList<Subtopic>();
+        for (Subtopic wildcardSubtopic : wildcardSubtopics)
+        {
+            if (wildcardSubtopic.matches(subtopic))
+                matches.add(wildcardSubtopic);
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public List<Subtopic> index()
+    {
+        Subtopic subtopic = nextSubtopic();
+        List<Subtopic> matches = new ArrayList<Subtopic>();
+        index.addMatches(subtopic, matches);
+        return matches;
+    }
+
+    private Subtopic nextSubtopic()
+    {
+        return published[next++ & (published.length - 1)];
+    }
+}
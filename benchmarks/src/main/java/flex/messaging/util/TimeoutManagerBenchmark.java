@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a TimeoutManager backed by a ScheduledThreadPoolExecutor against one
+ * backed by a HashedWheelTimer while it monitors a large number of objects:
+ * touching an object, replacing an object (cancelling its timeout and scheduling
+ * a new one) and scheduling a batch of objects that all time out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class TimeoutManagerBenchmark
+{
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int EXPIRING_OBJECTS = 100000;
+
+    @Param({"executor", "wheel"})
+    public String scheduler;
+
+    @Param({"1000000"})
+    public int objects;
+
+    private TimeoutManager manager;
+    private MonitoredObject[] monitored;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        manager = "wheel".equals(scheduler)
+                ? new TimeoutManager(null, TimeoutManager.DEFAULT_WHEEL_TICK_MILLIS, TimeoutManager.DEFAULT_TICKS_PER_WHEEL)
+                : new TimeoutManager();
+        monitored = new MonitoredObject[objects];
+        for (int i = 0; i < objects; i++)
+        {
+            monitored[i] = new MonitoredObject(IDLE_TIMEOUT_MILLIS, null);
+            manager.scheduleTimeout(monitored[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        manager.shutdown();
+    }
+
+    /**
+     * Marks an object as used, as each request of a FlexClient does.
+     */
+    @Benchmark
+    public void touch()
+    {
+        monitored[nextIndex()].updateLastUse();
+    }
+
+    /**
+     * Cancels the timeout of an object and schedules a new object in its place,
+     * as when a session is invalidated and another one is created.
+     */
+    @Benchmark
+    public void replace()
+    {
+        int i = nextIndex();
+        monitored[i].cancelTimeout();
+        monitored[i] = new MonitoredObject(IDLE_TIMEOUT_MILLIS, null);
+        manager.scheduleTimeout(monitored[i]);
+    }
+
+    /**
+     * Schedules a batch of objects with a short timeout alongside the monitored
+     * objects and waits until all of them have timed out.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void expire() throws InterruptedException
+    {
+        CountDownLatch latch = new CountDownLatch(EXPIRING_OBJECTS);
+        for (int i = 0; i < EXPIRING_OBJECTS; i++)
+            manager.scheduleTimeout(new MonitoredObject(1, latch));
+        latch.await();
+    }
+
+    private int nextIndex()
+    {
+        int i = next++;
+        if (next == objects)
+            next = 0;
+        return i;
+    }
+
+    private static class MonitoredObject extends TimeoutAbstractObject
+    {
+        private final CountDownLatch latch;
+
+        MonitoredObject(long timeoutPeriod, CountDownLatch latch)
+        {
+            this.latch = latch;
+            setTimeoutPeriod(timeoutPeriod);
+            updateLastUse();
+        }
+
+        public void timeout()
+        {
+            if (latch != null)
+                latch.countDown();
+        }
+    }
+}
@@ -139,6 +139,9 @@ public interface ConfigurationConstants
     String FACTORY_ELEMENT = "factory";
     String UUID_GENERATOR_ELEMENT = "uuid-generator";
     String DOTNET_FRAMEWORK_VERSION = "dotnet-framework-version";
+    String GENERATED_PROPERTY_PROXIES_ELEMENT = "generated-property-proxies";
+    String GENERATED_PROXY_CLASS_ELEMENT = "class";
+    String GENERATED_PROXY_PACKAGE_ELEMENT = "package";
 
     // FlexClient
     String FLEX_CLIENT_ELEMENT = "flex-client";
@@ -350,7 +353,12 @@ public interface ConfigurationConstants
     // System
 
     String[] SYSTEM_CHILDREN = {
-        LOCALE_ELEMENT, ENFORCE_ENDOINT_VALIDATION, REDEPLOY_ELEMENT, MANAGEABLE_ELEMENT, UUID_GENERATOR_ELEMENT, DOTNET_FRAMEWORK_VERSION
+        LOCALE_ELEMENT, ENFORCE_ENDOINT_VALIDATION, REDEPLOY_ELEMENT, MANAGEABLE_ELEMENT, UUID_GENERATOR_ELEMENT, DOTNET_FRAMEWORK_VERSION,
+        GENERATED_PROPERTY_PROXIES_ELEMENT
+    };
+
+    String[] GENERATED_PROPERTY_PROXIES_CHILDREN = {
+        GENERATED_PROXY_CLASS_ELEMENT, GENERATED_PROXY_PACKAGE_ELEMENT
     };
 
     String[] REDEPLOY_CHILDREN = {
@@ -36,7 +36,8 @@ public class FlexClientManagerControl extends BaseControl implements FlexClientM
     public void onRegistrationComplete()
     {
         String name = getObjectName().getCanonicalName();
-        getRegistrar().registerObject(AdminConsoleTypes.GENERAL_POLLABLE, name, "FlexClientCount");
+        getRegistrar().registerObjects(AdminConsoleTypes.GENERAL_POLLABLE, name,
+                new String[] {"FlexClientCount", "DroppedMessageCount", "SlowConsumerDisconnectCount"});
     }
 
     /* (non-Javadoc)
@@ -87,6 +88,22 @@ public class FlexClientManagerControl extends BaseControl implements FlexClientM
         return new Integer(flexClientManager.getFlexClient(clientId).getSubscriptionCount());
     }
     
+    /* (non-Javadoc)
+     * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getClientOutboundQueueSize(java.lang.String)
+     */
+    public Integer getClientOutboundQueueSize(String clientId)
+    {
+        return new Integer(flexClientManager.getFlexClient(clientId).getOutboundQueueSize());
+    }
+
+    /* (non-Javadoc)
+     * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getClientDroppedMessageCount(java.lang.String)
+     */
+    public Long getClientDroppedMessageCount(String clientId)
+    {
+        return new Long(flexClientManager.getFlexClient(clientId).getDroppedMessageCount());
+    }
+
     /* (non-Javadoc)
      * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getFlexClientCount()
      */
@@ -94,4 +111,28 @@ public class FlexClientManagerControl extends BaseControl implements FlexClientM
     {
         return new Integer(flexClientManager.getFlexClientCount());
     }    
+
+    /* (non-Javadoc)
+     * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getLaggingClientIds()
+     */
+    public String[] getLaggingClientIds()
+    {
+        return flexClientManager.getLaggingClientIds();
+    }
+
+    /* (non-Javadoc)
+     * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getDroppedMessageCount()
+     */
+    public Long getDroppedMessageCount()
+    {
+        return new Long(flexClientManager.getDroppedMessageCount());
+    }
+
+    /* (non-Javadoc)
+     * @see flex.management.runtime.messaging.client.FlexClientManagerControlMBean#getSlowConsumerDisconnectCount()
+     */
+    public Long getSlowConsumerDisconnectCount()
+    {
+        return new Long(flexClientManager.getSlowConsumerDisconnectCount());
+    }
 }
@@ -67,4 +67,50 @@ public interface FlexClientManagerControlMBean extends BaseControlMBean
      * @throws IOException Throws IOException.
      */
     Integer getFlexClientCount() throws IOException;
+
+    /**
+     * Returns the number of messages in the outbound queues of the client with the clientId.
+     *
+     * @param clientId The client id.
+     * @return The number of queued outbound messages for the client with the clientId.
+     * @throws IOException Throws IOException.
+     */
+    Integer getClientOutboundQueueSize(String clientId) throws IOException;
+
+    /**
+     * Returns the number of outbound messages dropped for the client with the clientId
+     * because its outbound queue exceeded the limits of the endpoint.
+     *
+     * @param clientId The client id.
+     * @return The number of dropped outbound messages for the client with the clientId.
+     * @throws IOException Throws IOException.
+     */
+    Long getClientDroppedMessageCount(String clientId) throws IOException;
+
+    /**
+     * Returns ids of clients whose outbound queue exceeded the limits of the endpoint
+     * since it was last flushed empty.
+     *
+     * @return An array of client ids.
+     * @throws IOException Throws IOException.
+     */
+    String[] getLaggingClientIds() throws IOException;
+
+    /**
+     * Returns the number of outbound messages dropped because the outbound queue of
+     * a client exceeded the limits of the endpoint.
+     *
+     * @return The number of dropped outbound messages.
+     * @throws IOException Throws IOException.
+     */
+    Long getDroppedMessageCount() throws IOException;
+
+    /**
+     * Returns the number of clients disconnected because their outbound queue
+     * exceeded the limits of the endpoint.
+     *
+     * @return The number of slow-consumer disconnects.
+     * @throws IOException Throws IOException.
+     */
+    Long getSlowConsumerDisconnectCount() throws IOException;
 }
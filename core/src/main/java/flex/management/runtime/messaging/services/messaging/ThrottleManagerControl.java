@@ -18,6 +18,7 @@ package flex.management.runtime.messaging.services.messaging;
 
 import flex.management.BaseControl;
 import flex.management.runtime.AdminConsoleTypes;
+import flex.messaging.services.messaging.AdaptiveClientFrequency;
 import flex.messaging.services.messaging.ThrottleManager;
 
 import java.util.Date;
@@ -70,7 +71,8 @@ public class ThrottleManagerControl extends BaseControl implements
                 "DestinationIncomingMessageThrottleCount", "DestinationIncomingMessageThrottleFrequency",
                 "DestinationOutgoingMessageThrottleCount", "DestinationOutgoingMessageThrottleFrequency",
                 "LastClientIncomingMessageThrottleTimestamp", "LastClientOutgoingMessageThrottleTimestamp",
-                "LastDestinationIncomingMessageThrottleTimestamp", "LastDestinationOutgoingMessageThrottleTimestamp"
+                "LastDestinationIncomingMessageThrottleTimestamp", "LastDestinationOutgoingMessageThrottleTimestamp",
+                "AdaptiveFrequencyDecreaseCount", "AdaptiveFrequencyIncreaseCount"
         };
 
         getRegistrar().registerObjects(AdminConsoleTypes.DESTINATION_POLLABLE, name, attributes);
@@ -299,4 +301,61 @@ public class ThrottleManagerControl extends BaseControl implements
         }
         return new Double(0);
     }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptivelyThrottledClientIds()
+     */
+    public String[] getAdaptivelyThrottledClientIds()
+    {
+        return throttleManager.getAdaptivelyThrottledClientIds();
+    }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptiveClientFrequency(java.lang.String)
+     */
+    public Integer getAdaptiveClientFrequency(String clientId)
+    {
+        AdaptiveClientFrequency clientFrequency = throttleManager.getAdaptiveClientFrequency(clientId);
+        return clientFrequency == null ? null : Integer.valueOf(clientFrequency.getFrequency());
+    }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptiveClientQueueDepth(java.lang.String)
+     */
+    public Integer getAdaptiveClientQueueDepth(String clientId)
+    {
+        AdaptiveClientFrequency clientFrequency = throttleManager.getAdaptiveClientFrequency(clientId);
+        return clientFrequency == null ? null : Integer.valueOf(clientFrequency.getQueueDepth());
+    }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptiveClientQueueLatency(java.lang.String)
+     */
+    public Long getAdaptiveClientQueueLatency(String clientId)
+    {
+        AdaptiveClientFrequency clientFrequency = throttleManager.getAdaptiveClientFrequency(clientId);
+        return clientFrequency == null ? null : Long.valueOf(clientFrequency.getQueueLatencyMillis());
+    }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptiveFrequencyDecreaseCount()
+     */
+    public Long getAdaptiveFrequencyDecreaseCount()
+    {
+        return Long.valueOf(throttleManager.getAdaptiveFrequencyDecreaseCount());
+    }
+
+    /*
+     *  (non-Javadoc)
+     * @see flex.management.runtime.ThrottleManagerControlMBean#getAdaptiveFrequencyIncreaseCount()
+     */
+    public Long getAdaptiveFrequencyIncreaseCount()
+    {
+        return Long.valueOf(throttleManager.getAdaptiveFrequencyIncreaseCount());
+    }
 }
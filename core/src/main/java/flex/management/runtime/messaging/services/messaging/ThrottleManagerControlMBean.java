@@ -174,4 +174,64 @@ public interface ThrottleManagerControlMBean extends BaseControlMBean
      * @throws IOException Throws IOException.
      */
     Double getDestinationOutgoingMessageThrottleFrequency() throws IOException;
+
+    /**
+     * Returns the ids of the clients whose outgoing message frequency is
+     * currently lowered by adaptive throttling.
+     *
+     * @return The ids of the adaptively throttled clients.
+     * @throws IOException Throws IOException.
+     */
+    String[] getAdaptivelyThrottledClientIds() throws IOException;
+
+    /**
+     * Returns the current adaptive outgoing message frequency of the client
+     * with the clientId.
+     *
+     * @param clientId The client id.
+     * @return The adaptive outgoing message frequency, or null if the client
+     * has no adaptive throttling state.
+     * @throws IOException Throws IOException.
+     */
+    Integer getAdaptiveClientFrequency(String clientId) throws IOException;
+
+    /**
+     * Returns the outbound queue depth of the client with the clientId as
+     * last seen by adaptive throttling.
+     *
+     * @param clientId The client id.
+     * @return The outbound queue depth, or null if the client has no adaptive
+     * throttling state.
+     * @throws IOException Throws IOException.
+     */
+    Integer getAdaptiveClientQueueDepth(String clientId) throws IOException;
+
+    /**
+     * Returns the time in milliseconds the oldest outbound message of the
+     * client with the clientId had waited, as last seen by adaptive throttling.
+     *
+     * @param clientId The client id.
+     * @return The outbound queue latency, or null if the client has no
+     * adaptive throttling state.
+     * @throws IOException Throws IOException.
+     */
+    Long getAdaptiveClientQueueLatency(String clientId) throws IOException;
+
+    /**
+     * Returns the number of times adaptive throttling lowered the outgoing
+     * message frequency of a client.
+     *
+     * @return The number of adaptive frequency decreases.
+     * @throws IOException Throws IOException.
+     */
+    Long getAdaptiveFrequencyDecreaseCount() throws IOException;
+
+    /**
+     * Returns the number of times adaptive throttling raised the outgoing
+     * message frequency of a client.
+     *
+     * @return The number of adaptive frequency increases.
+     * @throws IOException Throws IOException.
+     */
+    Long getAdaptiveFrequencyIncreaseCount() throws IOException;
 }
@@ -50,6 +50,9 @@ public class Destination extends ManageableComponent implements java.io.Serializ
     /** Hard coded id for the push destination */
     public static final String PUSH_DESTINATION_ID = "_DS_PUSH_";
 
+    /** Property that allows the messages of a batched request to be processed in parallel. */
+    public static final String PARALLEL_BATCH_ELEMENT = "parallel-batch";
+
     // Errors
     private static final int NO_SERVICE = 11117;
 
@@ -63,6 +66,7 @@ public class Destination extends ManageableComponent implements java.io.Serializ
     protected boolean initialized;
     protected boolean clustered;
     protected boolean clusteredCalculated;
+    protected boolean parallelBatch;
 
     //--------------------------------------------------------------------------
     //
@@ -115,6 +119,8 @@ public class Destination extends ManageableComponent implements java.io.Serializ
             return;
         }
 
+        parallelBatch = properties.getPropertyAsBoolean(PARALLEL_BATCH_ELEMENT, false);
+
         ConfigMap network = properties.getPropertyAsMap(NetworkSettings.NETWORK_ELEMENT, null);
 
         if (network != null)
@@ -592,6 +598,32 @@ public class Destination extends ManageableComponent implements java.io.Serializ
         this.networkSettings = networkSettings;
     }
 
+    /**
+     * Returns whether the messages of a batched request to the <code>Destination</code>
+     * may be processed in parallel, by endpoints that have <code>batch-process-threads</code>.
+     *
+     * @return <code>true</code> if batched messages may be processed in parallel.
+     */
+    public boolean isParallelBatch()
+    {
+        return parallelBatch;
+    }
+
+    /**
+     * Sets whether the messages of a batched request to the <code>Destination</code>
+     * may be processed in parallel, by endpoints that have <code>batch-process-threads</code>.
+     * The threads that process a batch share the <code>HttpServletRequest</code>,
+     * <code>HttpServletResponse</code> and <code>FlexSession</code> of the request,
+     * which are not thread-safe, so only enable this for destinations whose calls do
+     * not use them and do not depend on each other. This is <code>false</code> by default.
+     *
+     * @param parallelBatch <code>true</code> if batched messages may be processed in parallel.
+     */
+    public void setParallelBatch(boolean parallelBatch)
+    {
+        this.parallelBatch = parallelBatch;
+    }
+
     /**
      * Returns the <code>Service</code> managing this <code>Destination</code>.
      *
@@ -36,7 +36,9 @@ import flex.messaging.endpoints.Endpoint;
 import flex.messaging.endpoints.Endpoint2;
 import flex.messaging.factories.JavaFactory;
 import flex.messaging.io.BeanProxy;
+import flex.messaging.io.GeneratedBeanProxy;
 import flex.messaging.io.PropertyProxyRegistry;
+import flex.messaging.io.amf.AmfSerializationPool;
 import flex.messaging.log.Log;
 import flex.messaging.log.LogCategories;
 import flex.messaging.messages.AbstractMessage;
@@ -57,6 +59,7 @@ import flex.messaging.util.RedeployManager;
 import flex.messaging.util.StringUtils;
 import flex.messaging.util.UUIDGenerator;
 import flex.messaging.util.UUIDUtils;
+import flex.messaging.util.concurrent.FutureCompletion;
 import flex.messaging.validators.ClassDeserializationValidator;
 import flex.messaging.validators.DeserializationValidator;
 
@@ -409,8 +412,15 @@ public class MessageBroker extends ManageableComponent
 
         // clear static proxy caches
         BeanProxy.clear();
+        GeneratedBeanProxy.clearAccessors();
         PropertyProxyRegistry.release();
 
+        // discard pooled serializers
+        AmfSerializationPool.getPool().clear();
+
+        // stop polling futures for completion
+        FutureCompletion.shutdown();
+
         // clear system settings
         systemSettings.clear();
         systemSettings = null;
@@ -37,6 +37,7 @@ import flex.messaging.messages.Message;
 import flex.messaging.services.MessageService;
 import flex.messaging.services.messaging.Subtopic;
 import flex.messaging.services.messaging.selector.JMSSelector;
+import flex.messaging.services.messaging.selector.JMSSelectorCache;
 import flex.messaging.services.messaging.selector.JMSSelectorException;
 import flex.messaging.util.ExceptionUtil;
 import flex.messaging.util.TimeoutAbstractObject;
@@ -548,7 +549,8 @@ public class MessageClient extends TimeoutAbstractObject implements Serializable
             // either at the destination or by consumer.
             OutboundQueueThrottleManager throttleManager = getThrottleManager(true);
             if (throttleManager != null)
-                throttleManager.registerDestination(destinationId, ts.getOutgoingClientFrequency(), ts.getOutboundPolicy());
+                throttleManager.registerDestination(destinationId, ts.getOutgoingClientFrequency(), ts.getOutboundPolicy(),
+                        ts.getEngine());
         }
         else if (si.maxFrequency > 0) // Let the client know that maxFrequency will be ignored.
         {
@@ -719,7 +721,7 @@ public class MessageClient extends TimeoutAbstractObject implements Serializable
         {
             for (SubscriptionInfo si : subscriptions)
             {
-                if (si.matches(message, subtopic, subtopicSeparator))
+                if (si.matches(message, subtopic, subtopicSeparator, destination.getSubscriptionManager().getSelectorCache()))
                     return true;
             }
         }
@@ -1095,6 +1097,19 @@ public class MessageClient extends TimeoutAbstractObject implements Serializable
          * @return true if the message matches the subtopic
          */
         public boolean matches(Message message, String subtopicToMatch, String subtopicSeparator)
+        {
+            return matches(message, subtopicToMatch, subtopicSeparator, null);
+        }
+
+        /**
+         * Check whether the message matches with selected subtopic.
+         * @param message current message
+         * @param subtopicToMatch subtopc string
+         * @param subtopicSeparator suptopic separator
+         * @param selectorCache the cache to look the compiled selector up in, or null
+         * @return true if the message matches the subtopic
+         */
+        public boolean matches(Message message, String subtopicToMatch, String subtopicSeparator, JMSSelectorCache selectorCache)
         {
             if ((subtopicToMatch == null && subtopic != null) || (subtopicToMatch != null && subtopic == null))
                 return false; // If either defines a subtopic, they both must define one.
@@ -1111,7 +1126,7 @@ public class MessageClient extends TimeoutAbstractObject implements Serializable
             if (selector == null)
                 return true;
 
-            JMSSelector jmsSelector = new JMSSelector(selector);
+            JMSSelector jmsSelector = selectorCache != null ? selectorCache.getSelector(selector) : new JMSSelector(selector);
             try
             {
                 if (jmsSelector.match(message))
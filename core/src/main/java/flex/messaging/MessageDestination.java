@@ -34,6 +34,7 @@ import flex.messaging.services.messaging.SubscriptionManager;
 import flex.messaging.services.messaging.RemoteSubscriptionManager;
 import flex.messaging.services.messaging.ThrottleManager;
 import flex.messaging.services.messaging.MessagingConstants;
+import flex.messaging.services.messaging.selector.JMSSelectorCache;
 import flex.messaging.util.ClassUtil;
 
 /**
@@ -370,6 +371,10 @@ public class MessageDestination extends FactoryDestination
 
     protected void throttle(ThrottleSettings ts, ConfigMap network)
     {
+        String engine = network.getPropertyAsString(ThrottleSettings.ELEMENT_ENGINE, null);
+        if (engine != null)
+            ts.setEngine(engine);
+
         ConfigMap inbound = network.getPropertyAsMap(ThrottleSettings.ELEMENT_INBOUND, null);
         if (inbound != null)
         {
@@ -390,6 +395,12 @@ public class MessageDestination extends FactoryDestination
             ts.setOutgoingDestinationFrequency(destFreq);
             int clientFreq = outbound.getPropertyAsInt(ThrottleSettings.ELEMENT_CLIENT_FREQ, 0);
             ts.setOutgoingClientFrequency(clientFreq);
+            ts.setAdaptive(outbound.getPropertyAsBoolean(ThrottleSettings.ELEMENT_ADAPTIVE, false));
+            ts.setMinOutgoingClientFrequency(outbound.getPropertyAsInt(ThrottleSettings.ELEMENT_MIN_CLIENT_FREQ, 1));
+            ts.setMaxQueueDepth(outbound.getPropertyAsInt(ThrottleSettings.ELEMENT_MAX_QUEUE_DEPTH,
+                    ThrottleSettings.DEFAULT_MAX_QUEUE_DEPTH));
+            ts.setMaxQueueLatencyMillis(outbound.getPropertyAsLong(ThrottleSettings.ELEMENT_MAX_QUEUE_LATENCY,
+                    ThrottleSettings.DEFAULT_MAX_QUEUE_LATENCY_MILLIS));
         }
     }
 
@@ -439,6 +450,9 @@ public class MessageDestination extends FactoryDestination
 
         String routingMode = server.getPropertyAsString(MessagingConstants.CLUSTER_MESSAGE_ROUTING, "server-to-server");
         serverSettings.setBroadcastRoutingMode(routingMode);
+
+        int maxCachedSelectors = server.getPropertyAsInt(MessagingConstants.MAX_CACHED_SELECTORS_ELEMENT, JMSSelectorCache.DEFAULT_MAX_SIZE);
+        serverSettings.setMaxCachedSelectors(maxCachedSelectors);
     }
 
     /**
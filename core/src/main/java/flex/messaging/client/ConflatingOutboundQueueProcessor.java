@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import flex.messaging.MessageClient;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+
+/**
+ * An outbound queue processor for last-value-wins destinations, such as price ticks,
+ * where a client only needs the latest message for each key.
+ * <p>
+ * A message that has the same conflation key as a message that is still queued
+ * replaces the queued message in place, so queued messages are flushed in the order
+ * their keys first arrived and a slow client holds at most one message per key
+ * instead of an ever growing backlog. Only messages that carry a conflation key header,
+ * <code>DSConflationKey</code> by default, are conflated; the publisher opts in per
+ * message, as replacing a message that has no key would silently lose data. The key
+ * of a message combines the subscription it targets with the value of that header and,
+ * unless disabled, its subtopic. Messages without the header are queued without conflation.
+ * </p>
+ * <p>
+ * The processor is configured in the <code>flex-client-outbound-queue-processor</code>
+ * element, with the following optional properties:
+ * </p>
+ * <ul>
+ *   <li><code>destination</code> - A destination whose messages are conflated; may be
+ *       repeated. Messages for all destinations are conflated if none is listed.</li>
+ *   <li><code>conflation-header</code> - The header that holds the conflation key;
+ *       <code>DSConflationKey</code> by default.</li>
+ *   <li><code>conflate-on-subtopic</code> - Whether the subtopic is part of the key of
+ *       a message that has a conflation key header; <code>true</code> by default.</li>
+ * </ul>
+ * <p>
+ * The <code>linger-millis</code> and <code>max-batch-size</code> properties of the base
+ * processor are supported as well; lingering lets more messages conflate before a flush.
+ * </p>
+ */
+public class ConflatingOutboundQueueProcessor extends FlexClientOutboundQueueProcessor
+{
+    //--------------------------------------------------------------------------
+    //
+    // Public Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * The default header that holds the conflation key of a message.
+     */
+    public static final String CONFLATION_KEY_HEADER = "DSConflationKey";
+
+    //--------------------------------------------------------------------------
+    //
+    // Private Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Configuration constants.
+     */
+    private static final String DESTINATION = "destination";
+    private static final String CONFLATION_HEADER = "conflation-header";
+    private static final String CONFLATE_ON_SUBTOPIC = "conflate-on-subtopic";
+
+    //--------------------------------------------------------------------------
+    //
+    // Variables
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * The index in the outbound queue of the message queued for each key.
+     */
+    private final Map<ConflationKey, Integer> queuedKeys = new HashMap<ConflationKey, Integer>();
+
+    /**
+     * The destinations whose messages are conflated; null for all destinations.
+     */
+    private Set<String> destinations;
+
+    private String conflationHeader = CONFLATION_KEY_HEADER;
+
+    private boolean conflateOnSubtopic = true;
+
+    /**
+     * Written under the lock of the outbound queue, read by monitoring code.
+     */
+    private volatile long conflatedCount;
+
+    //--------------------------------------------------------------------------
+    //
+    // Public Methods
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Processes the <code>destination</code>, <code>conflation-header</code> and
+     * <code>conflate-on-subtopic</code> properties, along with the properties of
+     * the base processor.
+     *
+     * @param properties A ConfigMap containing any custom initialization properties.
+     */
+    @Override
+    public void initialize(ConfigMap properties)
+    {
+        super.initialize(properties);
+
+        if (properties == null)
+            return;
+
+        List<?> destinationIds = properties.getPropertyAsList(DESTINATION, null);
+        if (destinationIds != null)
+        {
+            for (Object destinationId : destinationIds)
+                addDestination(destinationId.toString());
+        }
+        setConflationHeader(properties.getPropertyAsString(CONFLATION_HEADER, CONFLATION_KEY_HEADER));
+        setConflateOnSubtopic(properties.getPropertyAsBoolean(CONFLATE_ON_SUBTOPIC, true));
+    }
+
+    /**
+     * Adds a destination whose messages are conflated. Messages for all destinations
+     * are conflated until a destination is added.
+     *
+     * @param destinationId The id of the destination.
+     */
+    public void addDestination(String destinationId)
+    {
+        if (destinations == null)
+            destinations = new HashSet<String>();
+        destinations.add(destinationId);
+    }
+
+    /**
+     * Returns the header that holds the conflation key of a message.
+     *
+     * @return The name of the conflation key header.
+     */
+    public String getConflationHeader()
+    {
+        return conflationHeader;
+    }
+
+    /**
+     * Sets the header that holds the conflation key of a message.
+     *
+     * @param value The name of the conflation key header.
+     */
+    public void setConflationHeader(String value)
+    {
+        conflationHeader = value;
+    }
+
+    /**
+     * Returns whether the subtopic of a message is part of its conflation key.
+     *
+     * @return <code>true</code> if messages are conflated per subtopic.
+     */
+    public boolean isConflateOnSubtopic()
+    {
+        return conflateOnSubtopic;
+    }
+
+    /**
+     * Sets whether the subtopic of a message is part of its conflation key.
+     *
+     * @param value <code>true</code> to conflate messages per subtopic.
+     */
+    public void setConflateOnSubtopic(boolean value)
+    {
+        conflateOnSubtopic = value;
+    }
+
+    /**
+     * Returns the number of queued messages that have been replaced by a newer
+     * message with the same key.
+     *
+     * @return The number of conflated messages.
+     */
+    public long getConflatedCount()
+    {
+        return conflatedCount;
+    }
+
+    /**
+     * Replaces the queued message that has the same conflation key as the new message,
+     * or adds the new message to the tail of the queue.
+     *
+     * @param outboundQueue The queue of outbound messages.
+     * @param message The new message to add to the queue.
+     */
+    @Override
+    public void add(List<Message> outboundQueue, Message message)
+    {
+        ConflationKey key = getConflationKey(message);
+        if (key != null)
+        {
+            int index = indexOf(key, outboundQueue);
+            if (index != -1)
+            {
+                outboundQueue.set(index, message);
+                conflatedCount++;
+                return;
+            }
+            queuedKeys.put(key, outboundQueue.size());
+        }
+        outboundQueue.add(message);
+    }
+
+    /**
+     * Removes the messages for the MessageClient from the queue as the base processor
+     * does, and updates the keys of the messages that remain queued.
+     *
+     * @param messageClient The specific MessageClient to return messages for.
+     * @param outboundQueue The queue of outbound messages.
+     * @return A FlushResult containing the messages that have been removed from the outbound queue
+     *         to be written to the network for this MessageClient.
+     */
+    @Override
+    public FlushResult flush(MessageClient messageClient, List<Message> outboundQueue)
+    {
+        FlushResult flushResult = super.flush(messageClient, outboundQueue);
+        reindex(outboundQueue);
+        return flushResult;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Protected Methods
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the conflation key of a message, or null if the message should be queued
+     * without conflation because it is not for a conflated destination or has no
+     * conflation key header. Subclasses may override to key messages on other properties;
+     * the returned key must implement <code>equals()</code> and <code>hashCode()</code>.
+     *
+     * @param message The message.
+     * @return The conflation key of the message, or null.
+     */
+    protected ConflationKey getConflationKey(Message message)
+    {
+        if (destinations != null && !destinations.contains(message.getDestination()))
+            return null;
+
+        return createConflationKey(message, conflationHeader, conflateOnSubtopic);
+    }
+
+    /**
+     * Returns the conflation key of a message for the given settings, or null if the
+     * message has no conflation key header.
+     *
+     * @param message The message.
+     * @param conflationHeader The header that holds the conflation key.
+     * @param conflateOnSubtopic Whether the subtopic of the message is part of its key.
+     * @return The conflation key of the message, or null.
+     */
+    static ConflationKey createConflationKey(Message message, String conflationHeader, boolean conflateOnSubtopic)
+    {
+        Object value = conflationHeader != null ? message.getHeader(conflationHeader) : null;
+        if (value == null)
+            return null;
+
+        Object subtopic = conflateOnSubtopic ? message.getHeader(AsyncMessage.SUBTOPIC_HEADER_NAME) : null;
+
+        return new ConflationKey(message.getClientId(), subtopic, value);
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Private Methods
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the queued message with the given key, or -1.
+     */
+    private int indexOf(ConflationKey key, List<Message> outboundQueue)
+    {
+        Integer index = queuedKeys.get(key);
+        if (index == null)
+            return -1;
+
+        int i = index.intValue();
+        if (i < outboundQueue.size() && key.equals(getConflationKey(outboundQueue.get(i))))
+            return i;
+
+        // Messages were removed from the queue other than by flush(), for example
+        // when a subscription was invalidated.
+        reindex(outboundQueue);
+        index = queuedKeys.get(key);
+        return index != null ? index.intValue() : -1;
+    }
+
+    private void reindex(List<Message> outboundQueue)
+    {
+        queuedKeys.clear();
+        for (int i = 0, size = outboundQueue.size(); i < size; i++)
+        {
+            ConflationKey key = getConflationKey(outboundQueue.get(i));
+            if (key != null)
+                queuedKeys.put(key, i);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Nested Classes
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * The conflation key of a message: the subscription it targets, its subtopic
+     * and the value of its conflation key header.
+     */
+    protected static class ConflationKey
+    {
+        private final Object clientId;
+        private final Object subtopic;
+        private final Object value;
+        private final int hashCode;
+
+        /**
+         * Constructs a <code>ConflationKey</code>.
+         *
+         * @param clientId The id of the MessageClient the message targets.
+         * @param subtopic The subtopic of the message, or null.
+         * @param value The value of the conflation key header of the message.
+         */
+        public ConflationKey(Object clientId, Object subtopic, Object value)
+        {
+            this.clientId = clientId;
+            this.subtopic = subtopic;
+            this.value = value;
+            hashCode = 31 * (31 * hash(clientId) + hash(subtopic)) + hash(value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (!(o instanceof ConflationKey))
+                return false;
+            ConflationKey other = (ConflationKey)o;
+            return hashCode == other.hashCode && equal(clientId, other.clientId)
+                    && equal(subtopic, other.subtopic) && equal(value, other.value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        private static int hash(Object o)
+        {
+            return o != null ? o.hashCode() : 0;
+        }
+
+        private static boolean equal(Object a, Object b)
+        {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
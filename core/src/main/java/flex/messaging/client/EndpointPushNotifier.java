@@ -20,18 +20,22 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import flex.messaging.FlexContext;
 import flex.messaging.FlexSession;
 import flex.messaging.FlexSessionListener;
 import flex.messaging.MessageClient;
 import flex.messaging.MessageClientListener;
+import flex.messaging.endpoints.AbstractEndpoint;
 import flex.messaging.endpoints.BaseStreamingHTTPEndpoint;
 import flex.messaging.endpoints.Endpoint;
 import flex.messaging.log.Log;
 import flex.messaging.log.LogCategories;
 import flex.messaging.messages.AsyncMessage;
 import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.Message;
 import flex.messaging.util.TimeoutAbstractObject;
 import flex.messaging.util.UUIDUtils;
 
@@ -53,8 +57,15 @@ import flex.messaging.util.UUIDUtils;
  * stream them to the client and then go back into a wait state on the
  * <code>pushNeeded</code> condition variable.
  * </p><p>
- * Note that this implementation is based upon <code>Object.wait()</code>; it is not a
- * non-blocking implementation.
+ * An endpoint that does not hold a thread per connection registers a push task
+ * with <code>setPushTask()</code> instead of waiting. The task is scheduled on
+ * the given executor whenever messages are queued with the notifier or the
+ * notifier closes, and drains the messages the same way.
+ * </p><p>
+ * Messages that are waiting to be streamed are bounded by the outbound queue
+ * limits of the endpoint, as the FlexClient hands them over as soon as they are
+ * queued. A client that falls behind has messages dropped according to the
+ * slow-consumer policy, or is disconnected.
  * </p>
  */
 public class EndpointPushNotifier extends TimeoutAbstractObject implements EndpointPushHandler, FlexSessionListener, MessageClientListener
@@ -161,6 +172,23 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
      */
     private List<AsyncMessage> messages;
 
+    /**
+     * The estimated size in bytes of the messages waiting to be streamed, if the
+     * outbound queue size of the endpoint is limited in bytes.
+     */
+    private long messagesBytes;
+
+    /**
+     * The time the oldest message waiting to be streamed was pushed.
+     */
+    private long messagesSince;
+
+    /**
+     * Whether the subscriptions using this notifier are being disconnected because the
+     * client did not keep up; the limits are not applied to the error messages sent then.
+     */
+    private boolean disconnecting;
+
     /**
      * List of MessageClient subscriptions using this endpoint push notifier.
      * When this notifier is closed, any associated subscriptions need to be invalidated.
@@ -172,6 +200,18 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
      */
     private final String notifierId;
 
+    /**
+     * The task that streams pushed messages for an endpoint that does not wait on
+     * <code>pushNeeded</code>, and the executor it runs on.
+     */
+    private Runnable pushTask;
+    private Executor pushExecutor;
+
+    /**
+     * Whether the push task has been scheduled and has not yet drained the messages.
+     */
+    private boolean pushScheduled;
+
     //--------------------------------------------------------------------------
     //
     // Public Methods
@@ -245,6 +285,10 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
         synchronized (pushNeeded)
         {
             pushNeeded.notifyAll();
+            // The push task may be held back by a slow client without draining;
+            // run it again so that it sees the close.
+            pushScheduled = false;
+            schedulePush();
         }
     }
 
@@ -263,10 +307,40 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
         {
             List<AsyncMessage> messagesToPush = messages;
             messages = null;
+            messagesBytes = 0;
+            disconnecting = false;
+            pushScheduled = false;
             return messagesToPush;
         }
     }
 
+    /**
+     * Returns the number of messages waiting to be streamed to the client.
+     *
+     * @return The number of pending messages.
+     */
+    public int getPendingMessageCount()
+    {
+        synchronized (pushNeeded)
+        {
+            return (messages != null) ? messages.size() : 0;
+        }
+    }
+
+    /**
+     * Returns how long the oldest message waiting to be streamed to the client has
+     * been waiting.
+     *
+     * @return The wait time in milliseconds, or zero if no messages are pending.
+     */
+    public long getPendingMillis()
+    {
+        synchronized (pushNeeded)
+        {
+            return (messages != null) ? System.currentTimeMillis() - messagesSince : 0;
+        }
+    }
+
     /**
      * Returns whether the notifier has closed; used to break the endpoint's wait cycle.
      *
@@ -328,6 +402,26 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
         this.logCategory = logCategory;
     }
 
+    /**
+     * Sets the task that streams pushed messages to the client, for endpoints that
+     * do not wait on <code>pushNeeded</code>. The task is run on the executor each
+     * time messages are pushed or the notifier closes; it should drain the messages
+     * with <code>drainMessages()</code>, which allows it to be scheduled again.
+     *
+     * @param pushTask The task that streams pushed messages.
+     * @param pushExecutor The executor to run the task on.
+     */
+    public void setPushTask(Runnable pushTask, Executor pushExecutor)
+    {
+        synchronized (pushNeeded)
+        {
+            this.pushTask = pushTask;
+            this.pushExecutor = pushExecutor;
+            if (messages != null || closed)
+                schedulePush();
+        }
+    }
+
     /**
      * Returns the unique id for this notifier.
      *
@@ -376,18 +470,62 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
     {
         if (!messagesToPush.isEmpty())
         {
+            OutboundQueueLimit limit = (endpoint instanceof AbstractEndpoint) ?
+                    ((AbstractEndpoint)endpoint).getOutboundQueueLimit() : null;
+            List<Message> dropped = null;
+            boolean disconnect = false;
             synchronized (pushNeeded)
             {
                 // Push these straight on through; notify immediately.
                 if (messages == null)
+                {
                     messages = messagesToPush;
+                    messagesSince = System.currentTimeMillis();
+                }
                 else
                     messages.addAll(messagesToPush);
 
+                if (limit != null && !disconnecting)
+                {
+                    dropped = enforceOutboundQueueLimit(limit, messagesToPush);
+                    if (dropped == null)
+                    {
+                        dropped = new ArrayList<Message>(messages);
+                        messages = null;
+                        messagesBytes = 0;
+                        disconnecting = true;
+                        disconnect = true;
+                    }
+                }
+
                 // If the notifier isn't closing, notify; otherwise just add and the close will
                 // notify once it completes.
-                if (!closing)
+                if (!closing && messages != null)
+                {
                     pushNeeded.notifyAll();
+                    schedulePush();
+                }
+            }
+
+            // Report to the FlexClient outside of the lock on pushNeeded; it takes the FlexClient lock.
+            if (disconnect)
+            {
+                List<Message> errors = flexClient.pushHandlerSlowConsumerDisconnected(endpoint.getId(), dropped.size());
+                if (errors != null)
+                {
+                    pushMessages(errors);
+                }
+                else
+                {
+                    synchronized (pushNeeded)
+                    {
+                        disconnecting = false;
+                    }
+                }
+            }
+            else if (dropped != null && !dropped.isEmpty())
+            {
+                flexClient.pushHandlerMessagesDropped(endpoint.getId(), dropped.size());
             }
         }
     }
@@ -445,6 +583,58 @@ public class EndpointPushNotifier extends TimeoutAbstractObject implements Endpo
         close(true /* disconnect client Channel */);
     }
 
+    /**
+     * Applies the outbound queue limits of the endpoint to the messages waiting to
+     * be streamed. Callers must hold the lock on <code>pushNeeded</code>.
+     *
+     * @param limit The limits of the endpoint.
+     * @param messagesToPush The messages that were just added.
+     * @return The dropped messages, or <code>null</code> if the client should be disconnected.
+     */
+    private List<Message> enforceOutboundQueueLimit(OutboundQueueLimit limit, List messagesToPush)
+    {
+        if (limit.getMaxBytes() > 0)
+        {
+            for (Object message : messagesToPush)
+                messagesBytes += OutboundQueueLimit.estimateSize((Message)message);
+        }
+
+        List queued = messages;
+        Message added = (Message)messagesToPush.get(messagesToPush.size() - 1);
+        List<Message> dropped = limit.trim((List<Message>)queued, added, messagesBytes,
+                flexClient.getOutboundQueueProcessor(endpoint.getId()));
+        if (dropped != null && limit.getMaxBytes() > 0)
+        {
+            for (Message message : dropped)
+                messagesBytes -= OutboundQueueLimit.estimateSize(message);
+        }
+        return dropped;
+    }
+
+    /**
+     * Schedules the push task unless it is already scheduled.
+     * Callers must hold the lock on <code>pushNeeded</code>.
+     */
+    private void schedulePush()
+    {
+        if (pushTask == null || pushScheduled)
+            return;
+
+        pushScheduled = true;
+        try
+        {
+            pushExecutor.execute(pushTask);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // The endpoint is shutting down.
+            pushScheduled = false;
+            if (Log.isDebug())
+                Log.getLogger(logCategory).debug("Endpoint with id '" + endpoint.getId() + "' did not accept a push for the FlexClient with id '"
+                        + flexClient.getId() + "'. " + e.getMessage());
+        }
+    }
+
     /**
      * Unregisters a MessageClient subscription that depended on this notifier.
      *
@@ -24,14 +24,17 @@ import flex.messaging.HttpFlexSession;
 import flex.messaging.MessageClient;
 import flex.messaging.MessageClientListener;
 import flex.messaging.MessageException;
+import flex.messaging.endpoints.AbstractEndpoint;
 import flex.messaging.endpoints.Endpoint;
 import flex.messaging.log.Log;
 import flex.messaging.log.LogCategories;
 import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.ErrorMessage;
 import flex.messaging.messages.Message;
 import flex.messaging.services.MessageService;
 import flex.messaging.util.StringUtils;
 import flex.messaging.util.TimeoutAbstractObject;
+import flex.messaging.util.UUIDUtils;
 
 import java.security.Principal;
 import java.util.ArrayList;
@@ -203,6 +206,12 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
      */
     final Object lock = new Object();
 
+    /**
+     * The number of outbound messages dropped by the slow-consumer policies of the
+     * endpoints. Guarded by the lock.
+     */
+    private long droppedMessageCount;
+
     /**
      * MessageClient subscriptions for this MessageClient.
      */
@@ -631,6 +640,60 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         return sessionCount;
     }
 
+    /**
+     * Returns the number of messages in the outbound queues of this FlexClient.
+     *
+     * @return The number of queued outbound messages.
+     */
+    public int getOutboundQueueSize()
+    {
+        int size = 0;
+        synchronized (lock)
+        {
+            for (EndpointQueue queue : outboundQueues.values())
+            {
+                synchronized (queue)
+                {
+                    size += queue.messages.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of outbound messages that were dropped because an outbound
+     * queue of this FlexClient exceeded the limits of its endpoint.
+     *
+     * @return The number of dropped outbound messages.
+     */
+    public long getDroppedMessageCount()
+    {
+        synchronized (lock)
+        {
+            return droppedMessageCount;
+        }
+    }
+
+    /**
+     * Returns whether an outbound queue of this FlexClient has exceeded the limits of
+     * its endpoint since the queue was last flushed empty.
+     *
+     * @return <code>true</code> if the FlexClient is not keeping up with its messages.
+     */
+    public boolean isLagging()
+    {
+        synchronized (lock)
+        {
+            for (EndpointQueue queue : outboundQueues.values())
+            {
+                if (queue.overflowing)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Return the subscription count.
      *
@@ -819,19 +882,20 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                             AsyncPollWithTimeout parkedPoll = session.asyncPollMap.get(endpointId);
                             if (parkedPoll != null)
                             {
-                                // If the poll is from the same client for this endpoint, treat it as a no-op.
+                                // If the poll is from the same client for this endpoint, treat it as a no-op
+                                // and leave the parked poll waiting.
                                 if (parkedPoll.getFlexClient().equals(this))
                                 {
                                     PollFlushResult result = new PollFlushResult();
                                     result.setClientProcessingSuppressed(true);
                                     handler.asyncPollComplete(result);
+                                    return null;
                                 }
-                                else // If the poll is for a different client on the same session, swap their waits.
-                                {
-                                    PollFlushResult result = new PollFlushResult();
-                                    result.setAvoidBusyPolling(true);
-                                    completeAsyncPoll(parkedPoll, result);
-                                }
+
+                                // If the poll is for a different client on the same session, swap their waits.
+                                PollFlushResult result = new PollFlushResult();
+                                result.setAvoidBusyPolling(true);
+                                completeAsyncPoll(parkedPoll, result);
                             }
                         }
                         AsyncPollWithTimeout asyncPoll = new AsyncPollWithTimeout(this, session, queue, handler, waitIntervalMillis, endpointId);
@@ -1089,7 +1153,10 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
             return;
 
         boolean empty;
-        
+        OutboundQueueLimit limit = (queue.endpoint instanceof AbstractEndpoint) ?
+                ((AbstractEndpoint)queue.endpoint).getOutboundQueueLimit() : null;
+        List<MessageClient> slowConsumers = null;
+
         // We need to obtain the lock here
         // Maintain the pattern of using the FlexClient.lock and ensure that order of locks should always start with the FlexClient.lock
         // This is critical to prevent deadlock cases, see Watson bug 2724938 
@@ -1100,7 +1167,11 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                 // Let the processor add the message to the queue.
                 try
                 {
+                    int queuedCount = queue.messages.size();
                     queue.processor.add(queue.messages, message);
+                    queue.processor.messageQueued(message, System.currentTimeMillis());
+                    if (limit != null && !queue.disconnecting)
+                        slowConsumers = enforceOutboundQueueLimit(queue, limit, message, queuedCount);
                     empty = queue.messages.isEmpty();
 
                     if (Log.isDebug())
@@ -1121,6 +1192,10 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                         Log.getLogger(FLEX_CLIENT_LOG_CATEGORY).error("Failed to add a message to an outbound queue for FlexClient '" + getId() + "'.", e);
                     throw e;
                 }
+                // Hold the message back if the processor batches messages and the batch isn't ready yet.
+                if (!empty && slowConsumers == null && lingerBatch(queue))
+                    return;
+
                 // And notify any threads that may be in a poll wait state.
                 if (!empty && queue.waitPoll)
                 {
@@ -1151,6 +1226,12 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                 }
             }
         }
+
+        // Disconnect the subscriptions of a slow consumer once its error messages are on their way.
+        // This is left to the timeout manager, as invalidation routes unsubscribe messages to the
+        // destinations, which must not happen on a thread that is pushing to subscribers.
+        if (slowConsumers != null)
+            new FlexClientScheduledDisconnect(queue, slowConsumers);
     }
 
     /**
@@ -1462,6 +1543,8 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                             if (message.getClientId().equals(messageClientId))
                                 iter.remove();
                         }
+                        if (queue.estimatedBytes != 0)
+                            queue.estimatedBytes = estimateSize(queue.messages);
                     }
 
                     // If no active subscriptions require the queue, clean it up if possible.
@@ -1482,7 +1565,10 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
                                     msg.setOperation(CommandMessage.SUBSCRIPTION_INVALIDATE_OPERATION);
                                     List<Message> messages = flushResult.getMessages();
                                     if (messages == null)
+                                    {
                                         messages = new ArrayList<Message>(1);
+                                        flushResult.setMessages(messages);
+                                    }
                                     messages.add(msg);
                                 }
                                 completeAsyncPoll(queue.asyncPoll, flushResult);
@@ -1550,12 +1636,13 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         {
             asyncPoll.cancelTimeout();
             EndpointQueue queue = asyncPoll.getEndpointQueue();
-            if (queue.asyncPoll.equals(asyncPoll))
+            if (asyncPoll.equals(queue.asyncPoll))
                 queue.asyncPoll = null;
             FlexSession session = asyncPoll.getFlexSession();
             synchronized (session)
             {
-                if (session.asyncPollMap != null)
+                // Leave a poll that has since replaced this one in place.
+                if (session.asyncPollMap != null && session.asyncPollMap.get(asyncPoll.getEndpointId()) == asyncPoll)
                     session.asyncPollMap.remove(asyncPoll.getEndpointId());
             }
             asyncPoll.getHandler().asyncPollComplete(result);
@@ -1648,6 +1735,216 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         return newQueue;
     }    
 
+    /**
+     * Applies the outbound queue limits of the endpoint to a queue that a message
+     * was just added to. Messages dropped by the slow-consumer policy are counted.
+     * For the <code>disconnect</code> policy, the queue is cleared and an
+     * <code>ErrorMessage</code> is queued for each subscription over the endpoint.
+     * Callers must hold the FlexClient lock and the queue lock.
+     *
+     * @param queue The outbound queue a message was added to.
+     * @param limit The limits of the endpoint.
+     * @param message The message that was added.
+     * @param queuedCount The number of queued messages before the message was added.
+     * @return The subscriptions to disconnect, or <code>null</code> if the client
+     * is kept connected.
+     */
+    private List<MessageClient> enforceOutboundQueueLimit(EndpointQueue queue, OutboundQueueLimit limit, Message message,
+                                                          int queuedCount)
+    {
+        if (limit.getMaxBytes() > 0)
+        {
+            // A processor that conflates or filters messages may have replaced a queued
+            // message or left the message out; only a plain append adds its size.
+            if (queue.messages.size() == queuedCount + 1 && queue.messages.get(queuedCount) == message)
+                queue.estimatedBytes += OutboundQueueLimit.estimateSize(message);
+            else
+                queue.estimatedBytes = estimateSize(queue.messages);
+        }
+
+        List<Message> dropped = limit.trim(queue.messages, message, queue.estimatedBytes, queue.processor);
+        if (dropped != null)
+        {
+            if (dropped.isEmpty())
+                return null;
+
+            if (!queue.overflowing && Log.isWarn())
+                Log.getLogger(FLEX_CLIENT_LOG_CATEGORY).warn("The outbound queue of FlexClient '" + getId()
+                        + "' for endpoint '" + queue.endpointId + "' exceeded its limits; dropping messages ("
+                        + limit.getPolicy() + ").");
+            queue.overflowing = true;
+            if (limit.getMaxBytes() > 0)
+            {
+                for (Message droppedMessage : dropped)
+                    queue.estimatedBytes -= OutboundQueueLimit.estimateSize(droppedMessage);
+            }
+            droppedMessageCount += dropped.size();
+            flexClientManager.messagesDropped(dropped.size());
+            return null;
+        }
+
+        if (Log.isWarn())
+            Log.getLogger(FLEX_CLIENT_LOG_CATEGORY).warn("The outbound queue of FlexClient '" + getId()
+                    + "' for endpoint '" + queue.endpointId + "' exceeded its limits; disconnecting the client.");
+        List<MessageClient> slowConsumers = getMessageClients(queue.endpointId);
+
+        int size = queue.messages.size();
+        queue.messages.clear();
+        queue.estimatedBytes = 0;
+        queue.overflowing = true;
+        queue.disconnecting = true;
+        droppedMessageCount += size;
+        flexClientManager.messagesDropped(size);
+        flexClientManager.slowConsumerDisconnected();
+
+        for (MessageClient messageClient : slowConsumers)
+            queue.messages.add(createSlowConsumerError(messageClient));
+        return slowConsumers;
+    }
+
+    /**
+     * Records messages that the push handler of an endpoint dropped from its backlog
+     * because the backlog exceeded the outbound queue limits of the endpoint.
+     *
+     * @param endpointId The endpoint of the push handler.
+     * @param count The number of dropped messages.
+     */
+    void pushHandlerMessagesDropped(String endpointId, int count)
+    {
+        synchronized (lock)
+        {
+            if (Log.isWarn())
+                Log.getLogger(FLEX_CLIENT_LOG_CATEGORY).warn("The pushed messages of FlexClient '" + getId()
+                        + "' for endpoint '" + endpointId + "' exceeded the outbound queue limits; dropped "
+                        + count + " messages.");
+            droppedMessageCount += count;
+        }
+        flexClientManager.messagesDropped(count);
+    }
+
+    /**
+     * Disconnects the subscriptions over an endpoint whose push handler backlog exceeded
+     * the outbound queue limits of the endpoint under the <code>disconnect</code> policy.
+     * The subscriptions are invalidated once the returned error messages have been
+     * handed to the push handler.
+     *
+     * @param endpointId The endpoint of the push handler.
+     * @param count The number of messages the push handler dropped from its backlog.
+     * @return An <code>ErrorMessage</code> for each subscription over the endpoint, or
+     * <code>null</code> if the subscriptions are already being disconnected.
+     */
+    List<Message> pushHandlerSlowConsumerDisconnected(String endpointId, int count)
+    {
+        EndpointQueue queue;
+        List<MessageClient> slowConsumers;
+        List<Message> errors = new ArrayList<Message>();
+        synchronized (lock)
+        {
+            queue = outboundQueues.get(endpointId);
+            if (queue == null)
+                return null;
+
+            synchronized (queue)
+            {
+                if (queue.disconnecting)
+                    return null;
+                queue.disconnecting = true;
+            }
+
+            if (Log.isWarn())
+                Log.getLogger(FLEX_CLIENT_LOG_CATEGORY).warn("The pushed messages of FlexClient '" + getId()
+                        + "' for endpoint '" + endpointId + "' exceeded the outbound queue limits; disconnecting the client.");
+            droppedMessageCount += count;
+            slowConsumers = getMessageClients(endpointId);
+            for (MessageClient messageClient : slowConsumers)
+                errors.add(createSlowConsumerError(messageClient));
+        }
+        flexClientManager.messagesDropped(count);
+        flexClientManager.slowConsumerDisconnected();
+        new FlexClientScheduledDisconnect(queue, slowConsumers);
+        return errors;
+    }
+
+    /**
+     * Returns the subscriptions of this FlexClient over an endpoint.
+     */
+    private List<MessageClient> getMessageClients(String endpointId)
+    {
+        List<MessageClient> endpointMessageClients = new ArrayList<MessageClient>();
+        if (messageClients != null)
+        {
+            for (MessageClient messageClient : messageClients)
+            {
+                if (endpointId.equals(messageClient.getEndpointId()))
+                    endpointMessageClients.add(messageClient);
+            }
+        }
+        return endpointMessageClients;
+    }
+
+    /**
+     * Creates the <code>ErrorMessage</code> sent to a subscription that is disconnected
+     * by the <code>disconnect</code> slow-consumer policy.
+     */
+    private static ErrorMessage createSlowConsumerError(MessageClient messageClient)
+    {
+        ErrorMessage error = new ErrorMessage();
+        error.setMessageId(UUIDUtils.createUUID());
+        error.setClientId(messageClient.getClientId());
+        error.setDestination(messageClient.getDestinationId());
+        error.setTimestamp(System.currentTimeMillis());
+        error.faultCode = OutboundQueueLimit.SLOW_CONSUMER_FAULT_CODE;
+        error.faultString = "The client was disconnected because it did not keep up with the messages pushed to it.";
+        return error;
+    }
+
+    /**
+     * Returns the estimated size of the given messages in bytes.
+     */
+    private static long estimateSize(List<Message> messages)
+    {
+        long size = 0;
+        for (Message message : messages)
+            size += OutboundQueueLimit.estimateSize(message);
+        return size;
+    }
+
+    /**
+     * Determines whether a message that was added to the outbound queue should wait
+     * for more messages before the queue is flushed, if its processor batches messages.
+     * Schedules a flush for when the linger time of the batch elapses, or cancels the
+     * scheduled flush once the processor considers the batch ready.
+     * Callers must hold the FlexClient lock and the queue lock.
+     *
+     * @param queue The outbound queue a message was added to.
+     * @return <code>true</code> if the queue should not be flushed yet.
+     */
+    private boolean lingerBatch(EndpointQueue queue)
+    {
+        int lingerMillis = queue.processor.getLingerMillis();
+        // Leave delayed flushes scheduled by the processor, such as for throttling, alone.
+        if (lingerMillis == 0 || (queue.flushTask != null && !(queue.flushTask instanceof FlexClientScheduledFlushForBatch)))
+            return false;
+
+        if (queue.batchStartTime == 0)
+            queue.batchStartTime = System.currentTimeMillis();
+
+        if (queue.processor.isBatchReady(queue.messages))
+        {
+            queue.batchFull = true;
+            if (queue.flushTask != null)
+            {
+                queue.flushTask.cancelTimeout();
+                queue.flushTask = null;
+            }
+            return false;
+        }
+
+        if (queue.flushTask == null)
+            queue.flushTask = new FlexClientScheduledFlushForBatch(queue, lingerMillis);
+        return true;
+    }
+
     /**
      * Utility method to flush the outbound queue and log any problems.
      * Any exceptions are logged and then rethrown.
@@ -1692,7 +1989,28 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         {
             synchronized (queue)
             {
+                int queuedCount = queue.messages.size();
                 flushResult = queue.processor.flush(client, queue.messages);
+                if (queue.batchStartTime != 0 && queue.messages.isEmpty())
+                {
+                    if (flushResult != null)
+                    {
+                        flushResult.setBatchLingerMillis(System.currentTimeMillis() - queue.batchStartTime);
+                        flushResult.setBatchQueuedCount(queuedCount);
+                        flushResult.setBatchFull(queue.batchFull);
+                    }
+                    queue.batchStartTime = 0;
+                    queue.batchFull = false;
+                }
+                if (queue.messages.isEmpty())
+                {
+                    queue.estimatedBytes = 0;
+                    queue.overflowing = false;
+                }
+                else if (queue.estimatedBytes != 0)
+                {
+                    queue.estimatedBytes = estimateSize(queue.messages);
+                }
                 shutdownQueue(queue);
             }
 
@@ -1743,6 +2061,9 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         {
             FlushResult flushResult = new FlushResult();
             flushResult.setMessages(allMessages);
+            flushResult.setBatchLingerMillis(internalFlushResult.getBatchLingerMillis());
+            flushResult.setBatchQueuedCount(internalFlushResult.getBatchQueuedCount());
+            flushResult.setBatchFull(internalFlushResult.isBatchFull());
             return flushResult;
         }
         return null;
@@ -2119,6 +2440,46 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         }
     }
 
+    /**
+     * Helper class to invalidate the subscriptions of a client that was disconnected
+     * by the <code>disconnect</code> slow-consumer policy. Scheduled disconnects are
+     * handled by the <tt>FlexClientManager</tt> using <tt>TimeoutManager</tt>.
+     */
+    class FlexClientScheduledDisconnect extends TimeoutAbstractObject
+    {
+        final EndpointQueue queue;
+        final List<MessageClient> slowConsumers;
+
+        public FlexClientScheduledDisconnect(EndpointQueue queue, List<MessageClient> slowConsumers)
+        {
+            this.queue = queue;
+            this.slowConsumers = slowConsumers;
+            setTimeoutPeriod(1);
+            flexClientManager.monitorScheduledFlush(this);
+        }
+
+        public void timeout()
+        {
+            FlexContext.setThreadLocalFlexClient(FlexClient.this);
+            try
+            {
+                for (MessageClient messageClient : slowConsumers)
+                    messageClient.invalidate(true /* notify client */);
+            }
+            finally
+            {
+                FlexContext.setThreadLocalFlexClient(null);
+                synchronized (lock)
+                {
+                    synchronized (queue)
+                    {
+                        queue.disconnecting = false;
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Helper class for push channels to directly flush a FlexClient's outbound
      * queue after a specified delay.
@@ -2198,6 +2559,58 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         }
     }
 
+    /**
+     * Helper class to release a micro-batch of messages held in a FlexClient's outbound
+     * queue once its linger time elapses, the same way a push releases a single message.
+     */
+    class FlexClientScheduledFlushForBatch extends FlexClientScheduledFlush
+    {
+        public FlexClientScheduledFlushForBatch(EndpointQueue queue, long waitIntervalMillis)
+        {
+            super(queue, waitIntervalMillis);
+        }
+
+        @Override
+        void performFlushTask()
+        {
+            synchronized (lock)
+            {
+                // No need to invoke flush if the FlexClient has been invalidated.
+                if (!valid)
+                    return;
+
+                synchronized (queue)
+                {
+                    // The batch may have been flushed since, for example by a poll.
+                    if (queue.flushTask != this)
+                        return;
+                    queue.flushTask = null;
+                    if (queue.messages.isEmpty())
+                        return;
+
+                    if (queue.waitPoll)
+                    {
+                        updateLastUse();
+                        queue.notifyAll();
+                        return;
+                    }
+                }
+
+                if (queue.asyncPoll != null)
+                {
+                    completeAsyncPoll(queue.asyncPoll, internalFlush(queue));
+                }
+                else if (queue.pushSession != null || (endpointPushHandlers != null && endpointPushHandlers.containsKey(queue.endpointId)))
+                {
+                    synchronized (queue)
+                    {
+                        directFlush(queue);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      *
      * Helper class that stores per-endpoint outbound queue state including:
@@ -2220,6 +2633,10 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
      *   <li>messageClientRefCount - A reference count of MessageClients subcribed over this endpoint.
      *       Once all MessageClients unsubscribe this queue can be shut down.</li>
      *   <li>avoidBusyPolling - Used to signal poll result generation for the queue to avoid busy polling.</li>
+     *   <li>batchStartTime - The time the first message of a pending micro-batch was queued;
+     *       0 if no batch is pending.</li>
+     *   <li>batchFull - Whether the pending micro-batch is flushed because it is ready rather
+     *       than because its linger time elapsed.</li>
      * </ul>
      */
     public static class EndpointQueue
@@ -2236,5 +2653,10 @@ public class FlexClient extends TimeoutAbstractObject implements FlexSessionList
         public TimeoutAbstractObject flushTask;
         public int messageClientRefCount;
         public boolean avoidBusyPolling;
+        public long batchStartTime;
+        public boolean batchFull;
+        public long estimatedBytes;
+        public boolean overflowing;
+        public boolean disconnecting;
     }
 }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import flex.management.ManageableComponent;
 import flex.management.runtime.messaging.client.FlexClientManagerControl;
@@ -109,6 +110,15 @@ public class FlexClientManager extends ManageableComponent
      */
     private final Map<String,FlexClient> flexClients = new ConcurrentHashMap<String,FlexClient>();
 
+    /**
+     * The number of outbound messages dropped by slow-consumer policies.
+     */
+    private final AtomicLong droppedMessageCount = new AtomicLong();
+
+    /**
+     * The number of FlexClients disconnected by the disconnect slow-consumer policy.
+     */
+    private final AtomicLong slowConsumerDisconnectCount = new AtomicLong();
 
     /**
      * Manages time outs for FlexClients.
@@ -143,6 +153,21 @@ public class FlexClientManager extends ManageableComponent
         return ids;
     }
 
+    //----------------------------------
+    //  droppedMessageCount
+    //----------------------------------
+
+    /**
+     * Returns the number of outbound messages that were dropped because the outbound
+     * queue of a FlexClient exceeded the limits of its endpoint.
+     *
+     * @return The number of dropped outbound messages.
+     */
+    public long getDroppedMessageCount()
+    {
+        return droppedMessageCount.get();
+    }
+
     //----------------------------------
     //  flexClientCount
     //----------------------------------
@@ -157,6 +182,42 @@ public class FlexClientManager extends ManageableComponent
         return flexClients.size();
     }
 
+    //----------------------------------
+    //  laggingClientIds
+    //----------------------------------
+
+    /**
+     * Returns the ids of the FlexClients with an outbound queue that has exceeded
+     * the limits of its endpoint since it was last flushed empty.
+     *
+     * @return The ids of the lagging FlexClients.
+     */
+    public String[] getLaggingClientIds()
+    {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (FlexClient flexClient : flexClients.values())
+        {
+            if (flexClient.isLagging())
+                ids.add(flexClient.getId());
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    //----------------------------------
+    //  slowConsumerDisconnectCount
+    //----------------------------------
+
+    /**
+     * Returns the number of FlexClients that were disconnected because an outbound
+     * queue exceeded the limits of its endpoint.
+     *
+     * @return The number of slow-consumer disconnects.
+     */
+    public long getSlowConsumerDisconnectCount()
+    {
+        return slowConsumerDisconnectCount.get();
+    }
+
     //----------------------------------
     //  flexClientTimeoutMillis
     //----------------------------------
@@ -304,6 +365,26 @@ public class FlexClientManager extends ManageableComponent
         return processor;
     }
 
+    /**
+     *
+     * Records outbound messages dropped by a slow-consumer policy.
+     *
+     * @param count The number of dropped messages.
+     */
+    void messagesDropped(int count)
+    {
+        droppedMessageCount.addAndGet(count);
+    }
+
+    /**
+     *
+     * Records a FlexClient disconnected by the disconnect slow-consumer policy.
+     */
+    void slowConsumerDisconnected()
+    {
+        slowConsumerDisconnectCount.incrementAndGet();
+    }
+
     /**
      *
      * Monitors an async poll for a FlexClient for timeout.
@@ -17,8 +17,10 @@
 package flex.messaging.client;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import flex.messaging.Destination;
 import flex.messaging.MessageClient;
@@ -34,9 +36,29 @@ import flex.messaging.services.messaging.ThrottleManager.ThrottleResult.Result;
  * specified. Its behavior is very simple. It adds all new messages in order to the tail
  * of the outbound queue and flushes all queued messages to the network as quickly as possible.
  * It also handles the outbound client-level throttling specified at the destination level.
+ * <p>
+ * The processor can be configured to micro-batch pushed messages with the
+ * <code>linger-millis</code> and <code>max-batch-size</code> properties. The first
+ * message added to an empty queue then waits up to <code>linger-millis</code> for
+ * more messages, or until <code>max-batch-size</code> messages are queued, before
+ * the queue is flushed, so that a burst of messages to a client is written with a
+ * single network write rather than one per message.
+ * </p>
  */
 public class FlexClientOutboundQueueProcessor
 {
+    //--------------------------------------------------------------------------
+    //
+    // Private Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Configuration constants.
+     */
+    private static final String LINGER_MILLIS = "linger-millis";
+    private static final String MAX_BATCH_SIZE = "max-batch-size";
+
     //--------------------------------------------------------------------------
     //
     // Variables
@@ -64,6 +86,22 @@ public class FlexClientOutboundQueueProcessor
      */
     protected OutboundQueueThrottleManager outboundQueueThrottleManager;
 
+    /**
+     * The server time at which each queued message was added to the outbound
+     * queue, keyed by message identity. Guarded by the lock of the queue.
+     */
+    private final Map<Message, Long> enqueueTimes = new IdentityHashMap<Message, Long>();
+
+    /**
+     * The time messages may wait for more messages before the queue is flushed.
+     */
+    private int lingerMillis;
+
+    /**
+     * The number of queued messages that are flushed without waiting; 0 for no limit.
+     */
+    private int maxBatchSize;
+
     //--------------------------------------------------------------------------
     //
     // Public Methods
@@ -136,13 +174,81 @@ public class FlexClientOutboundQueueProcessor
     }
 
     /**
-     * No-op; this default implementation doesn't require custom initialization.
+     * Returns the time in milliseconds that queued messages may wait for more
+     * messages before the queue is flushed.
+     *
+     * @return The linger time in milliseconds; 0 if messages are flushed immediately.
+     */
+    public int getLingerMillis()
+    {
+        return lingerMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds that queued messages may wait for more
+     * messages before the queue is flushed. Negative values are treated as 0,
+     * which flushes messages as soon as they are added.
+     *
+     * @param value The linger time in milliseconds.
+     */
+    public void setLingerMillis(int value)
+    {
+        lingerMillis = (value < 1) ? 0 : value;
+    }
+
+    /**
+     * Returns the number of queued messages that are flushed without waiting
+     * for the linger time to elapse.
+     *
+     * @return The maximum batch size; 0 if batches are only bounded by the linger time.
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the number of queued messages that are flushed without waiting for
+     * the linger time to elapse. Negative values are treated as 0, for no limit.
+     *
+     * @param value The maximum batch size.
+     */
+    public void setMaxBatchSize(int value)
+    {
+        maxBatchSize = (value < 1) ? 0 : value;
+    }
+
+    /**
+     * Determines whether the messages in the outbound queue should be flushed now
+     * or may wait for more messages; invoked after a message is added to the queue.
+     * The default implementation flushes once <code>max-batch-size</code> messages are
+     * queued, or when no linger time is configured.
+     * Subclasses may override to batch on other criteria; the queue is flushed
+     * regardless once the linger time has elapsed.
+     *
+     * @param outboundQueue The queue of outbound messages.
+     * @return <code>true</code> if the queue should be flushed now.
+     */
+    public boolean isBatchReady(List<Message> outboundQueue)
+    {
+        return lingerMillis == 0 || (maxBatchSize > 0 && outboundQueue.size() >= maxBatchSize);
+    }
+
+    /**
+     * Processes the <code>linger-millis</code> and <code>max-batch-size</code> properties.
      * Subclasses may override to process any custom initialization properties that have been
      * defined in the server configuration.
      *
      * @param properties A ConfigMap containing any custom initialization properties.
      */
-    public void initialize(ConfigMap properties) {}
+    public void initialize(ConfigMap properties)
+    {
+        if (properties == null)
+            return;
+
+        setLingerMillis(properties.getPropertyAsInt(LINGER_MILLIS, 0));
+        setMaxBatchSize(properties.getPropertyAsInt(MAX_BATCH_SIZE, 0));
+    }
 
     /**
      * Always adds a new message to the tail of the queue.
@@ -155,6 +261,22 @@ public class FlexClientOutboundQueueProcessor
         outboundQueue.add(message);
     }
 
+    /**
+     * Records the server time at which a message was added to the outbound queue.
+     * The time the oldest queued message has waited drives adaptive outbound
+     * client throttling; it is measured from this time rather than from the
+     * message timestamp, which is set on another host. The time is only kept
+     * while client level throttling is enabled.
+     *
+     * @param message The message that was added to the queue.
+     * @param enqueueTime The server time at which the message was added.
+     */
+    public void messageQueued(Message message, long enqueueTime)
+    {
+        if (outboundQueueThrottleManager != null)
+            enqueueTimes.put(message, Long.valueOf(enqueueTime));
+    }
+
     /**
      * Always empties the queue and returns all messages to be sent to the client.
      *
@@ -183,6 +305,21 @@ public class FlexClientOutboundQueueProcessor
         FlushResult flushResult = new FlushResult();
         List<Message> messagesToFlush = null;
 
+        // The outbound queue pressure drives adaptive outbound client throttling.
+        int queueDepth = outboundQueue.size();
+        long queueLatencyMillis = getQueueLatencyMillis(outboundQueue);
+        if (outboundQueueThrottleManager != null)
+        {
+            // The queue of a streaming client is handed to its connection as soon as it fills,
+            // so the messages the client has not read yet wait with the push notifier.
+            EndpointPushNotifier notifier = getEndpointPushNotifier();
+            if (notifier != null)
+            {
+                queueDepth += notifier.getPendingMessageCount();
+                queueLatencyMillis = Math.max(queueLatencyMillis, notifier.getPendingMillis());
+            }
+        }
+
         for (Iterator<Message> iter = outboundQueue.iterator(); iter.hasNext();)
         {
             Message message = iter.next();
@@ -207,7 +344,8 @@ public class FlexClientOutboundQueueProcessor
                 // No destination level throttling; check destination-client level throttling.
                 if (Result.OK == result)
                 {
-                    throttleResult = throttleOutgoingClientLevel(messageClientForCurrentMessage, message, false);
+                    throttleResult = throttleOutgoingClientLevel(messageClientForCurrentMessage, message, false,
+                            queueDepth, queueLatencyMillis);
                     result = throttleResult.getResult();
                     // If no throttling, simply add the message to the list.
                     if (Result.OK == result)
@@ -282,21 +420,87 @@ public class FlexClientOutboundQueueProcessor
      * @return The result of throttling attempt.
      */
     protected ThrottleResult throttleOutgoingClientLevel(MessageClient msgClient, Message message, boolean buffered)
+    {
+        return throttleOutgoingClientLevel(msgClient, message, buffered, -1, 0);
+    }
+
+    /**
+     * Attempts to throttle the outgoing message at the destination-client level.
+     * If adaptive outbound throttling is enabled at the destination, the limit
+     * is first adjusted to the outbound queue pressure.
+     *
+     * @param msgClient The client the message is intended for.
+     * @param message The message to consider to throttle.
+     * @param buffered Whether the message has already been buffered. In that case,
+     * parts of regular throttling code is skipped.
+     * @param queueDepth The number of messages in the outbound queue when the
+     * flush started, or a negative value if unknown.
+     * @param queueLatencyMillis The time the oldest message in the outbound
+     * queue has waited when the flush started.
+     * @return The result of throttling attempt.
+     */
+    protected ThrottleResult throttleOutgoingClientLevel(MessageClient msgClient, Message message, boolean buffered,
+            int queueDepth, long queueLatencyMillis)
     {
         if (outboundQueueThrottleManager != null) // Means client level throttling enabled.
         {
-            ThrottleResult throttleResult = outboundQueueThrottleManager.throttleOutgoingClientLevel(message);
-            if (!buffered)
-            {
-                ThrottleManager throttleManager = getThrottleManager(msgClient);
-                if (throttleManager != null)
-                    throttleManager.handleOutgoingThrottleResult(message, throttleResult, true /*isClientLevel*/);
-            }
+            ThrottleManager throttleManager = getThrottleManager(msgClient);
+            int maxFrequency = -1; // The max-client-frequency of the destination.
+            if (throttleManager != null && throttleManager.isAdaptiveOutboundClientThrottleEnabled())
+                maxFrequency = throttleManager.getAdaptiveOutgoingClientFrequency((String)message.getClientId(),
+                        queueDepth, queueLatencyMillis);
+
+            ThrottleResult throttleResult = outboundQueueThrottleManager.throttleOutgoingClientLevel(message, maxFrequency);
+            if (!buffered && throttleManager != null)
+                throttleManager.handleOutgoingThrottleResult(message, throttleResult, true /*isClientLevel*/);
             return throttleResult;
         }
         return new ThrottleResult(); // Otherwise, return OK result.
     }
 
+    /**
+     * Returns the time the oldest message in the outbound queue has waited
+     * since it was added to the queue, and forgets the enqueue times of
+     * messages that have left the queue.
+     *
+     * @param outboundQueue The queue of outbound messages.
+     * @return The wait time of the oldest message in milliseconds, or zero if
+     * no queued message has a recorded enqueue time.
+     */
+    protected long getQueueLatencyMillis(List<Message> outboundQueue)
+    {
+        if (enqueueTimes.isEmpty())
+            return 0;
+
+        if (outboundQueue.isEmpty())
+        {
+            enqueueTimes.clear();
+            return 0;
+        }
+
+        long oldest = 0;
+        Map<Message, Long> queued = enqueueTimes.size() > outboundQueue.size() ?
+                new IdentityHashMap<Message, Long>(outboundQueue.size()) : null;
+        for (Message message : outboundQueue)
+        {
+            Long enqueueTime = enqueueTimes.get(message);
+            if (enqueueTime == null)
+                continue;
+            if (oldest == 0 || enqueueTime.longValue() < oldest)
+                oldest = enqueueTime.longValue();
+            if (queued == null)
+                break; // No stale enqueue times to drop; the queue is in arrival order.
+            queued.put(message, enqueueTime);
+        }
+
+        if (queued != null)
+        {
+            enqueueTimes.clear();
+            enqueueTimes.putAll(queued);
+        }
+        return oldest > 0 ? Math.max(0, System.currentTimeMillis() - oldest) : 0;
+    }
+
     /**
      * Returns the message client that the message is intended to.
      *
@@ -317,6 +521,19 @@ public class FlexClientOutboundQueueProcessor
         } 
     }
 
+    /**
+     * Returns the push notifier of the streaming connection of the FlexClient over
+     * the endpoint of this processor, if there is one.
+     *
+     * @return The push notifier, or null.
+     */
+    protected EndpointPushNotifier getEndpointPushNotifier()
+    {
+        EndpointPushHandler handler = (client != null && endpointId != null) ?
+                client.getEndpointPushHandler(endpointId) : null;
+        return (handler instanceof EndpointPushNotifier) ? (EndpointPushNotifier)handler : null;
+    }
+
     /**
      * Returns the throttle manager associated with the destination the message
      * is intended to.
@@ -74,6 +74,92 @@ public class FlushResult
         messages = value;
     }
 
+    //----------------------------------
+    //  batchLingerMillis
+    //----------------------------------
+
+    private long batchLingerMillis;
+
+    /**
+     * Returns the time in milliseconds that the first message of a micro-batch
+     * waited in the outbound queue for more messages before this flush, if the
+     * queue processor batches messages.
+     *
+     * @return The time the batch waited in milliseconds; 0 if the messages were not batched.
+     */
+    public long getBatchLingerMillis()
+    {
+        return batchLingerMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds that the first message of a micro-batch
+     * waited in the outbound queue for more messages before this flush.
+     *
+     * @param value The time the batch waited in milliseconds.
+     */
+    public void setBatchLingerMillis(long value)
+    {
+        batchLingerMillis = value;
+    }
+
+    //----------------------------------
+    //  batchQueuedCount
+    //----------------------------------
+
+    private int batchQueuedCount;
+
+    /**
+     * Returns the number of messages that had been queued for the micro-batch
+     * when it was flushed, before the queue processor removed expired or throttled
+     * messages.
+     *
+     * @return The number of messages queued for the batch; 0 if the messages were not batched.
+     */
+    public int getBatchQueuedCount()
+    {
+        return batchQueuedCount;
+    }
+
+    /**
+     * Sets the number of messages that had been queued for the micro-batch when
+     * it was flushed.
+     *
+     * @param value The number of messages queued for the batch.
+     */
+    public void setBatchQueuedCount(int value)
+    {
+        batchQueuedCount = value;
+    }
+
+    //----------------------------------
+    //  batchFull
+    //----------------------------------
+
+    private boolean batchFull;
+
+    /**
+     * Returns whether the micro-batch was flushed because the queue processor
+     * considered it ready, typically at <code>max-batch-size</code> messages, rather
+     * than because its linger time elapsed.
+     *
+     * @return <code>true</code> if the batch was flushed before its linger time elapsed.
+     */
+    public boolean isBatchFull()
+    {
+        return batchFull;
+    }
+
+    /**
+     * Sets whether the micro-batch was flushed before its linger time elapsed.
+     *
+     * @param value <code>true</code> if the batch was flushed before its linger time elapsed.
+     */
+    public void setBatchFull(boolean value)
+    {
+        batchFull = value;
+    }
+
     //----------------------------------
     //  nextFlushWaitTimeMillis
     //----------------------------------
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import flex.messaging.config.ConfigurationException;
+import flex.messaging.messages.AbstractMessage;
+import flex.messaging.messages.Message;
+
+/**
+ * Bounds the depth of the outbound queues a FlexClient keeps for an endpoint,
+ * by message count and by estimated size in bytes, and determines what happens
+ * to a client that does not keep up with the messages pushed to it.
+ * <p>
+ * Once a queue exceeds either limit the slow-consumer policy applies:
+ * <ul>
+ * <li><code>drop-oldest</code> removes messages from the head of the queue.</li>
+ * <li><code>drop-newest</code> removes the message that was just added.</li>
+ * <li><code>conflate</code> removes queued messages that a newer message with the
+ * same conflation key supersedes, and then drops the oldest messages. Keys are those
+ * of the <code>ConflatingOutboundQueueProcessor</code> of the queue, or its defaults
+ * if the queue uses another processor, so only messages that carry a conflation key
+ * header are conflated.</li>
+ * <li><code>disconnect</code> discards the queue and disconnects the subscriptions
+ * of the client over the endpoint, notifying it with an <code>ErrorMessage</code>.</li>
+ * </ul>
+ * </p>
+ * Instances are immutable and are shared by all the queues of an endpoint.
+ */
+public class OutboundQueueLimit
+{
+    //--------------------------------------------------------------------------
+    //
+    // Public Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    public static final String DROP_OLDEST = "drop-oldest";
+    public static final String DROP_NEWEST = "drop-newest";
+    public static final String CONFLATE = "conflate";
+    public static final String DISCONNECT = "disconnect";
+
+    /**
+     * The fault code of the <code>ErrorMessage</code> sent to a client that is
+     * disconnected by the <code>disconnect</code> policy.
+     */
+    public static final String SLOW_CONSUMER_FAULT_CODE = "Server.OutboundQueue.Overflow";
+
+    //--------------------------------------------------------------------------
+    //
+    // Private Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    // Rough per-item costs used to estimate the serialized size of a message.
+    private static final int MESSAGE_OVERHEAD = 128;
+    private static final int HEADER_OVERHEAD = 32;
+    private static final int VALUE_OVERHEAD = 8;
+    private static final int OBJECT_OVERHEAD = 64;
+    // Nested values below this depth are counted rather than inspected.
+    private static final int MAX_ESTIMATE_DEPTH = 3;
+
+    //--------------------------------------------------------------------------
+    //
+    // Constructor
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Constructs an <code>OutboundQueueLimit</code>.
+     *
+     * @param maxSize The maximum number of queued messages; 0 for no limit.
+     * @param maxBytes The maximum estimated size of the queued messages in bytes; 0 for no limit.
+     * @param policy The slow-consumer policy; one of <code>drop-oldest</code>,
+     * <code>drop-newest</code>, <code>conflate</code> or <code>disconnect</code>.
+     * @throws ConfigurationException If the policy is not supported.
+     */
+    public OutboundQueueLimit(int maxSize, long maxBytes, String policy)
+    {
+        if (!DROP_OLDEST.equals(policy) && !DROP_NEWEST.equals(policy)
+                && !CONFLATE.equals(policy) && !DISCONNECT.equals(policy))
+        {
+            ConfigurationException ce = new ConfigurationException();
+            ce.setMessage("Unsupported slow-consumer policy '" + policy + "'; expected one of "
+                    + DROP_OLDEST + ", " + DROP_NEWEST + ", " + CONFLATE + " or " + DISCONNECT + ".");
+            throw ce;
+        }
+        this.maxSize = maxSize < 1 ? 0 : maxSize;
+        this.maxBytes = maxBytes < 1 ? 0 : maxBytes;
+        this.policy = policy;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Properties
+    //
+    //--------------------------------------------------------------------------
+
+    //----------------------------------
+    //  maxBytes
+    //----------------------------------
+
+    private final long maxBytes;
+
+    /**
+     * Returns the maximum estimated size of a queue in bytes.
+     *
+     * @return The maximum size in bytes; 0 if the size is not limited.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    //----------------------------------
+    //  maxSize
+    //----------------------------------
+
+    private final int maxSize;
+
+    /**
+     * Returns the maximum number of messages in a queue.
+     *
+     * @return The maximum number of messages; 0 if the number is not limited.
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    //----------------------------------
+    //  policy
+    //----------------------------------
+
+    private final String policy;
+
+    /**
+     * Returns the slow-consumer policy applied to queues that exceed a limit.
+     *
+     * @return The slow-consumer policy.
+     */
+    public String getPolicy()
+    {
+        return policy;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Public Methods
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns whether a queue of the given depth exceeds a limit.
+     *
+     * @param size The number of queued messages.
+     * @param bytes The estimated size of the queued messages in bytes.
+     * @return <code>true</code> if the queue exceeds a limit.
+     */
+    public boolean isExceeded(int size, long bytes)
+    {
+        return (maxSize > 0 && size > maxSize) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    /**
+     * Removes messages from a queue that exceeds a limit, according to the
+     * <code>drop-oldest</code>, <code>drop-newest</code> or <code>conflate</code>
+     * policy. At least one message is kept. The <code>disconnect</code> policy
+     * is left to the caller, and this method returns <code>null</code> for it.
+     *
+     * @param outboundQueue The queue of messages.
+     * @param added The message that was just added to the queue.
+     * @param bytes The estimated size of the queued messages in bytes, or 0
+     * if the size is not limited.
+     * @param processor The processor of the queue, whose conflation keys the
+     * <code>conflate</code> policy uses; may be null.
+     * @return The removed messages, or <code>null</code> if the client should
+     * be disconnected.
+     */
+    public List<Message> trim(List<Message> outboundQueue, Message added, long bytes, FlexClientOutboundQueueProcessor processor)
+    {
+        if (!isExceeded(outboundQueue.size(), bytes))
+            return Collections.emptyList();
+        if (DISCONNECT.equals(policy))
+            return null;
+
+        List<Message> removed = new ArrayList<Message>();
+        if (DROP_NEWEST.equals(policy))
+        {
+            // The processor may have merged or filtered the message; drop the oldest instead then.
+            for (int i = outboundQueue.size() - 1; i >= 0; i--)
+            {
+                if (outboundQueue.get(i) == added)
+                {
+                    removed.add(outboundQueue.remove(i));
+                    bytes -= estimateSize(added);
+                    break;
+                }
+            }
+        }
+        else if (CONFLATE.equals(policy))
+        {
+            bytes = removeSuperseded(outboundQueue, removed, bytes, processor);
+        }
+
+        int size = outboundQueue.size();
+        int count = 0;
+        while (size - count > 1 && isExceeded(size - count, bytes))
+        {
+            if (maxBytes > 0)
+                bytes -= estimateSize(outboundQueue.get(count));
+            count++;
+        }
+        if (count > 0)
+        {
+            List<Message> oldest = outboundQueue.subList(0, count);
+            removed.addAll(oldest);
+            oldest.clear();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a rough estimate of the serialized size of a message in bytes,
+     * based on its headers and on the strings, arrays and collections in its body.
+     * The estimate is only used to bound queues, not to size buffers. The size
+     * recorded for the message by <code>recordEstimatedSize()</code> is returned
+     * if there is one.
+     *
+     * @param message The message.
+     * @return The estimated size in bytes.
+     */
+    public static long estimateSize(Message message)
+    {
+        if (message instanceof AbstractMessage)
+        {
+            long recorded = ((AbstractMessage)message).estimatedSize();
+            if (recorded > 0)
+                return recorded;
+        }
+        return computeSize(message);
+    }
+
+    /**
+     * Estimates the size of a message and records it with the message, so that
+     * the copies of the message made for each subscriber when it is pushed do not
+     * walk its body again. The message must not be modified once it is recorded.
+     *
+     * @param message The message that is about to be pushed to its subscribers.
+     * @return The estimated size in bytes.
+     */
+    public static long recordEstimatedSize(Message message)
+    {
+        long size = computeSize(message);
+        if (message instanceof AbstractMessage)
+            ((AbstractMessage)message).estimatedSize(size);
+        return size;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Private Methods
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Removes the queued messages that a newer queued message with the same
+     * conflation key supersedes, oldest first, until the queue is within its limits.
+     */
+    private long removeSuperseded(List<Message> outboundQueue, List<Message> removed, long bytes,
+                                  FlexClientOutboundQueueProcessor processor)
+    {
+        int size = outboundQueue.size();
+        List<ConflatingOutboundQueueProcessor.ConflationKey> keys =
+                new ArrayList<ConflatingOutboundQueueProcessor.ConflationKey>(size);
+        Map<ConflatingOutboundQueueProcessor.ConflationKey, Integer> lastIndexes =
+                new HashMap<ConflatingOutboundQueueProcessor.ConflationKey, Integer>();
+        for (int i = 0; i < size; i++)
+        {
+            ConflatingOutboundQueueProcessor.ConflationKey key = getConflationKey(processor, outboundQueue.get(i));
+            keys.add(key);
+            if (key != null)
+                lastIndexes.put(key, Integer.valueOf(i));
+        }
+
+        List<Message> kept = new ArrayList<Message>(size);
+        int remaining = size;
+        for (int i = 0; i < size; i++)
+        {
+            Message message = outboundQueue.get(i);
+            ConflatingOutboundQueueProcessor.ConflationKey key = keys.get(i);
+            if (key != null && lastIndexes.get(key).intValue() > i && isExceeded(remaining, bytes))
+            {
+                removed.add(message);
+                remaining--;
+                if (maxBytes > 0)
+                    bytes -= estimateSize(message);
+            }
+            else
+            {
+                kept.add(message);
+            }
+        }
+
+        if (remaining < size)
+        {
+            outboundQueue.clear();
+            outboundQueue.addAll(kept);
+        }
+        return bytes;
+    }
+
+    private static ConflatingOutboundQueueProcessor.ConflationKey getConflationKey(FlexClientOutboundQueueProcessor processor,
+                                                                                   Message message)
+    {
+        if (processor instanceof ConflatingOutboundQueueProcessor)
+            return ((ConflatingOutboundQueueProcessor)processor).getConflationKey(message);
+        return ConflatingOutboundQueueProcessor.createConflationKey(message,
+                ConflatingOutboundQueueProcessor.CONFLATION_KEY_HEADER, true);
+    }
+
+    private static long computeSize(Message message)
+    {
+        long size = MESSAGE_OVERHEAD;
+        Map headers = message.getHeaders();
+        if (headers != null)
+            size += headers.size() * HEADER_OVERHEAD;
+        return size + estimateSize(message.getBody(), 0);
+    }
+
+    private static long estimateSize(Object value, int depth)
+    {
+        if (value == null)
+            return 1;
+        if (value instanceof String)
+            return ((String)value).length() + VALUE_OVERHEAD;
+        if (value instanceof byte[])
+            return ((byte[])value).length + VALUE_OVERHEAD;
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character)
+            return VALUE_OVERHEAD;
+
+        boolean inspect = depth < MAX_ESTIMATE_DEPTH;
+        long size = OBJECT_OVERHEAD;
+        if (value instanceof Collection)
+        {
+            Collection collection = (Collection)value;
+            if (!inspect)
+                return size + collection.size() * OBJECT_OVERHEAD;
+            for (Object item : collection)
+                size += estimateSize(item, depth + 1);
+        }
+        else if (value instanceof Map)
+        {
+            Map map = (Map)value;
+            if (!inspect)
+                return size + map.size() * OBJECT_OVERHEAD;
+            for (Object o : map.entrySet())
+            {
+                Map.Entry entry = (Map.Entry)o;
+                size += estimateSize(entry.getKey(), depth + 1) + estimateSize(entry.getValue(), depth + 1);
+            }
+        }
+        else if (value.getClass().isArray())
+        {
+            int length = Array.getLength(value);
+            if (!inspect || !(value instanceof Object[]))
+                return size + length * VALUE_OVERHEAD;
+            for (Object item : (Object[])value)
+                size += estimateSize(item, depth + 1);
+        }
+        return size;
+    }
+}
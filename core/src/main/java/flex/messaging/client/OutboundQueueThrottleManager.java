@@ -19,10 +19,11 @@ package flex.messaging.client;
 import java.util.concurrent.ConcurrentHashMap;
 
 import flex.messaging.MessageClient.SubscriptionInfo;
+import flex.messaging.config.ThrottleSettings;
 import flex.messaging.config.ThrottleSettings.Policy;
 import flex.messaging.log.Log;
 import flex.messaging.messages.Message;
-import flex.messaging.services.messaging.MessageFrequency;
+import flex.messaging.services.messaging.MessageRateLimiter;
 import flex.messaging.services.messaging.ThrottleManager;
 import flex.messaging.services.messaging.ThrottleManager.ThrottleResult;
 import flex.messaging.util.StringUtils;
@@ -85,11 +86,26 @@ public class OutboundQueueThrottleManager
      * @param outboundPolicy The outbound throttle policy specified at the destination.
      */
     public void registerDestination(String destinationId, int outboundMaxClientFrequency, Policy outboundPolicy)
+    {
+        registerDestination(destinationId, outboundMaxClientFrequency, outboundPolicy, ThrottleSettings.ENGINE_TOKEN_BUCKET);
+    }
+
+    /**
+     * Registers the destination with the outbound throttle manager.
+     *
+     * @param destinationId The id of the destination.
+     * @param outboundMaxClientFrequency The outbound max-client-frequency specified
+     * at the destination.
+     * @param outboundPolicy The outbound throttle policy specified at the destination.
+     * @param engine The throttle engine specified at the destination.
+     */
+    public void registerDestination(String destinationId, int outboundMaxClientFrequency, Policy outboundPolicy,
+            String engine)
     {
         DestinationFrequency frequency = destinationFrequencies.get(destinationId);
         if (frequency == null)
         {
-            frequency = new DestinationFrequency(outboundMaxClientFrequency, outboundPolicy);
+            frequency = new DestinationFrequency(outboundMaxClientFrequency, outboundPolicy, engine);
             destinationFrequencies.putIfAbsent(destinationId, frequency);
         }
     }
@@ -135,13 +151,28 @@ public class OutboundQueueThrottleManager
      * @return True if the message was throttled; otherwise false.
      */
     public ThrottleResult throttleOutgoingClientLevel(Message message)
+    {
+        return throttleOutgoingClientLevel(message, -1);
+    }
+
+    /**
+     * Attempts to throttle the outgoing message against the specified limit
+     * rather than the max-client-frequency of the destination.
+     *
+     * @param message The message to consider to throttle.
+     * @param maxFrequency The limit to check against, or a negative value to
+     * use the max-client-frequency of the destination.
+     * @return The result of the throttling attempt.
+     */
+    public ThrottleResult throttleOutgoingClientLevel(Message message, int maxFrequency)
     {
         String destinationId = message.getDestination();
         if (isDestinationRegistered(destinationId))
         {
             DestinationFrequency frequency = destinationFrequencies.get(message.getDestination());
-            int maxFrequency = frequency.getMaxFrequency(message); // Limit to check against.
-            MessageFrequency messageFrequency = frequency.getMessageFrequency(message); // Message rate of the client.
+            if (maxFrequency < 0)
+                maxFrequency = frequency.getMaxFrequency(message); // Limit to check against.
+            MessageRateLimiter messageFrequency = frequency.getMessageFrequency(message); // Message rate of the client.
             if (messageFrequency != null)
             {
                 ThrottleResult result = messageFrequency.checkLimit(maxFrequency, frequency.outboundPolicy);
@@ -162,7 +193,7 @@ public class OutboundQueueThrottleManager
         if (isDestinationRegistered(destinationId))
         {
             DestinationFrequency frequency = destinationFrequencies.get(message.getDestination());
-            MessageFrequency messageFrequency = frequency.getMessageFrequency(message);
+            MessageRateLimiter messageFrequency = frequency.getMessageFrequency(message);
             if (messageFrequency != null)
                 messageFrequency.updateMessageFrequency();
         }
@@ -210,7 +241,7 @@ public class OutboundQueueThrottleManager
     class DestinationFrequency
     {
         protected final int outboundMaxClientFrequency; // destination specified client limit.
-        protected final MessageFrequency outboundClientFrequency;
+        protected final MessageRateLimiter outboundClientFrequency;
         protected final Policy outboundPolicy; // destination specified policy.
 
         /**
@@ -218,12 +249,13 @@ public class OutboundQueueThrottleManager
          *
          * @param outboundMaxClientFrequency The outbound throttling max-client-frequency of the destination.
          * @param outboundPolicy The outbound throttling policy of the destination.
+         * @param engine The throttle engine of the destination.
          */
-        DestinationFrequency(int outboundMaxClientFrequency, Policy outboundPolicy)
+        DestinationFrequency(int outboundMaxClientFrequency, Policy outboundPolicy, String engine)
         {
             this.outboundMaxClientFrequency = outboundMaxClientFrequency;
             this.outboundPolicy = outboundPolicy;
-            outboundClientFrequency = new MessageFrequency(outboundMaxClientFrequency);
+            outboundClientFrequency = ThrottleManager.createRateLimiter(engine, outboundMaxClientFrequency);
         }
 
         /**
@@ -247,7 +279,7 @@ public class OutboundQueueThrottleManager
          * @param message The message.
          * @return The message frequency for the subscription, if it exists; otherwise null.
          */
-        MessageFrequency getMessageFrequency(Message message)
+        MessageRateLimiter getMessageFrequency(Message message)
         {
             return outboundClientFrequency;
         }
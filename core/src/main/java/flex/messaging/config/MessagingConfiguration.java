@@ -28,6 +28,7 @@ import flex.messaging.cluster.ClusterManager;
 import flex.messaging.endpoints.AbstractEndpoint;
 import flex.messaging.endpoints.Endpoint;
 import flex.messaging.endpoints.Endpoint2;
+import flex.messaging.io.PropertyProxyRegistry;
 import flex.messaging.log.Log;
 import flex.messaging.log.Target;
 import flex.messaging.security.LoginCommand;
@@ -117,6 +118,7 @@ public class MessagingConfiguration implements ServicesConfiguration
         createFlexClientManager(broker);
         createRedeployManager(broker);
         createFactories(broker);
+        createGeneratedPropertyProxies();
         
         if (async)
             createSharedServers(broker);
@@ -177,6 +179,18 @@ public class MessagingConfiguration implements ServicesConfiguration
         }
     }
 
+    private void createGeneratedPropertyProxies()
+    {
+        if (systemSettings == null)
+            return;
+
+        PropertyProxyRegistry registry = PropertyProxyRegistry.getRegistry();
+        for (String className : systemSettings.getGeneratedProxyClasses())
+            registry.addGeneratedProxyClass(className);
+        for (String packageName : systemSettings.getGeneratedProxyPackages())
+            registry.addGeneratedProxyPackage(packageName);
+    }
+
     private void createFlexClientManager(MessageBroker broker)
     {
         FlexClientManager flexClientManager = null;
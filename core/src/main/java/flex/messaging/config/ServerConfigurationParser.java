@@ -1322,10 +1322,35 @@ public abstract class ServerConfigurationParser extends AbstractConfigurationPar
         settings.setDotNetFrameworkVersion(getAttributeOrChildElement(system, DOTNET_FRAMEWORK_VERSION));
         redeploy(system, settings);
         uuidGenerator(system, settings);
+        generatedPropertyProxies(system, settings);
 
         ((MessagingConfiguration) config).setSystemSettings(settings);
     }
 
+    private void generatedPropertyProxies(Node system, SystemSettings settings) {
+        Node proxiesNode = selectSingleNode(system, GENERATED_PROPERTY_PROXIES_ELEMENT);
+        if (proxiesNode == null)
+            return;
+
+        allowedChildElements(proxiesNode, GENERATED_PROPERTY_PROXIES_CHILDREN);
+
+        NodeList classes = selectNodeList(proxiesNode, GENERATED_PROXY_CLASS_ELEMENT);
+        for (int i = 0; i < classes.getLength(); i++) {
+            String className = evaluateExpression(classes.item(i), ".").toString().trim();
+            if (className.length() > 0) {
+                settings.addGeneratedProxyClass(className);
+            }
+        }
+
+        NodeList packages = selectNodeList(proxiesNode, GENERATED_PROXY_PACKAGE_ELEMENT);
+        for (int i = 0; i < packages.getLength(); i++) {
+            String packageName = evaluateExpression(packages.item(i), ".").toString().trim();
+            if (packageName.length() > 0) {
+                settings.addGeneratedProxyPackage(packageName);
+            }
+        }
+    }
+
     private void redeploy(Node system, SystemSettings settings) {
         Node redeployNode = selectSingleNode(system, REDEPLOY_ELEMENT);
         if (redeployNode == null)
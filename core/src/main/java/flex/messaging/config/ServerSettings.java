@@ -17,6 +17,7 @@
 package flex.messaging.config;
 
 import flex.messaging.services.messaging.MessagingConstants;
+import flex.messaging.services.messaging.selector.JMSSelectorCache;
 
 /**
  * Server settings for a message destination.
@@ -33,6 +34,7 @@ public class ServerSettings
     private int priority = -1;
     private String subtopicSeparator;
     private RoutingMode routingMode = RoutingMode.SERVER_TO_SERVER;
+    private int maxCachedSelectors = JMSSelectorCache.DEFAULT_MAX_SIZE;
     
     public static enum RoutingMode {NONE,BROADCAST,SERVER_TO_SERVER};
 
@@ -123,6 +125,27 @@ public class ServerSettings
         // No-op.
     }
 
+    /**
+     * Returns the <code>max-cached-selectors</code> property.
+     *
+     * @return the maximum number of compiled selectors cached for the destination.
+     */
+    public int getMaxCachedSelectors()
+    {
+        return maxCachedSelectors;
+    }
+
+    /**
+     * Sets the <code>max-cached-selectors</code> property.
+     *
+     * @param maxCachedSelectors The maximum number of compiled selectors cached
+     * for the destination; 0 disables the cache.
+     */
+    public void setMaxCachedSelectors(int maxCachedSelectors)
+    {
+        this.maxCachedSelectors = maxCachedSelectors;
+    }
+
     /**
      * Returns the <code>message-time-to-live</code> property.
      *
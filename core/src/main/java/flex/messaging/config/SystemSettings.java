@@ -45,6 +45,8 @@ public class SystemSettings
     private List touches;
     private String uuidGeneratorClassName;
     private String dotNetFrameworkVersion;
+    private List<String> generatedProxyClasses;
+    private List<String> generatedProxyPackages;
 
     public SystemSettings()
     {
@@ -56,6 +58,8 @@ public class SystemSettings
         watches = new ArrayList();
         watchInterval = 20;
         dotNetFrameworkVersion = null;
+        generatedProxyClasses = new ArrayList<String>();
+        generatedProxyPackages = new ArrayList<String>();
     }
 
     public void setDefaultLocale(Locale locale)
@@ -146,6 +150,26 @@ public class SystemSettings
         return touches;
     }
 
+    public void addGeneratedProxyClass(String className)
+    {
+        generatedProxyClasses.add(className);
+    }
+
+    public List<String> getGeneratedProxyClasses()
+    {
+        return generatedProxyClasses;
+    }
+
+    public void addGeneratedProxyPackage(String packageName)
+    {
+        generatedProxyPackages.add(packageName);
+    }
+
+    public List<String> getGeneratedProxyPackages()
+    {
+        return generatedProxyPackages;
+    }
+
     public void setPaths(ServletContext context)
     {
         if (redeployEnabled)
@@ -295,6 +319,8 @@ public class SystemSettings
         watches = null;
         touches = null;
         dotNetFrameworkVersion = null;
+        generatedProxyClasses = null;
+        generatedProxyPackages = null;
     }
 
 }
@@ -47,6 +47,30 @@ public class ThrottleSettings
 
     public static final String ELEMENT_CLIENT_FREQ = "max-client-frequency";
 
+    public static final String ELEMENT_ENGINE = "throttle-engine";
+
+    public static final String ELEMENT_ADAPTIVE = "adaptive";
+
+    public static final String ELEMENT_MIN_CLIENT_FREQ = "min-client-frequency";
+
+    public static final String ELEMENT_MAX_QUEUE_DEPTH = "max-queue-depth";
+
+    public static final String ELEMENT_MAX_QUEUE_LATENCY = "max-queue-latency-millis";
+
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 100;
+
+    public static final long DEFAULT_MAX_QUEUE_LATENCY_MILLIS = 1000;
+
+    /**
+     * Throttle engine that keeps one lock-free token bucket per destination and client.
+     */
+    public static final String ENGINE_TOKEN_BUCKET = "token-bucket";
+
+    /**
+     * Throttle engine that remembers the times of the last max-frequency messages.
+     */
+    public static final String ENGINE_MESSAGE_HISTORY = "message-history";
+
     // Errors
     private static final int ERR_MSG_INVALID_INBOUND_POLICY = 11130;
     private static final int ERR_MSG_INVALID_INCOMING_CLENT_FREQ = 11131;
@@ -62,6 +86,11 @@ public class ThrottleSettings
     private int outDestinationMessagesPerSec;
     private Policy inPolicy;
     private Policy outPolicy;
+    private String engine;
+    private boolean adaptive;
+    private int minOutClientMessagesPerSec;
+    private int maxQueueDepth;
+    private long maxQueueLatencyMillis;
 
     /**
      * Creates a <code>ThrottleSettings</code> instance with default settings.
@@ -70,6 +99,10 @@ public class ThrottleSettings
     {
         inPolicy = Policy.NONE;
         outPolicy = Policy.NONE;
+        engine = ENGINE_TOKEN_BUCKET;
+        minOutClientMessagesPerSec = 1;
+        maxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+        maxQueueLatencyMillis = DEFAULT_MAX_QUEUE_LATENCY_MILLIS;
     }
 
     /**
@@ -207,6 +240,141 @@ public class ThrottleSettings
         this.outPolicy = outPolicy;
     }
 
+    /**
+     * Returns the throttle engine used to keep track of message rates.
+     *
+     * @return The throttle engine.
+     */
+    public String getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * Sets the throttle engine used to keep track of message rates. The engine
+     * can be token-bucket or message-history. Optional and the default value is
+     * token-bucket.
+     *
+     * @param engine The throttle engine.
+     */
+    public void setEngine(String engine)
+    {
+        if (!ENGINE_TOKEN_BUCKET.equals(engine) && !ENGINE_MESSAGE_HISTORY.equals(engine))
+        {
+            ConfigurationException ex = new ConfigurationException();
+            ex.setMessage("Invalid throttle engine '" + engine + "' for destination '" + destinationName
+                    + "'. Valid values are '" + ENGINE_TOKEN_BUCKET + "' and '" + ENGINE_MESSAGE_HISTORY + "'.");
+            throw ex;
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Returns true if adaptive outbound client throttling is enabled.
+     *
+     * @return True if outbound client throttling is enabled and adaptive.
+     */
+    public boolean isAdaptiveOutboundClientThrottleEnabled()
+    {
+        return adaptive && isOutboundClientThrottleEnabled();
+    }
+
+    /**
+     * Returns whether the outgoing client frequency adapts to the outbound
+     * queue pressure of each client.
+     *
+     * @return True if the outgoing client frequency is adaptive.
+     */
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    /**
+     * Sets whether the outgoing client frequency adapts to the outbound queue
+     * pressure of each client. When adaptive, the outgoing client frequency
+     * (max-client-frequency) is the highest frequency a client is allowed.
+     * Optional and the default value is false.
+     *
+     * @param adaptive Whether the outgoing client frequency is adaptive.
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Returns the minimum outgoing client frequency (min-client-frequency).
+     *
+     * @return The minimum outgoing client frequency.
+     */
+    public int getMinOutgoingClientFrequency()
+    {
+        return minOutClientMessagesPerSec;
+    }
+
+    /**
+     * Sets the frequency below which adaptive throttling does not lower the
+     * outgoing client frequency (min-client-frequency). Optional and the
+     * default value is 1.
+     *
+     * @param n The minimum outgoing client frequency.
+     */
+    public void setMinOutgoingClientFrequency(int n)
+    {
+        blockNegative(n, "The minimum outgoing client frequency");
+        this.minOutClientMessagesPerSec = n;
+    }
+
+    /**
+     * Returns the outbound queue depth above which adaptive throttling lowers
+     * the outgoing client frequency (max-queue-depth).
+     *
+     * @return The max outbound queue depth.
+     */
+    public int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Sets the outbound queue depth above which adaptive throttling lowers the
+     * outgoing client frequency (max-queue-depth). Zero ignores the queue depth.
+     * Optional and the default value is 100.
+     *
+     * @param n The max outbound queue depth.
+     */
+    public void setMaxQueueDepth(int n)
+    {
+        blockNegative(n, "The max queue depth");
+        this.maxQueueDepth = n;
+    }
+
+    /**
+     * Returns the time the oldest outbound message of a client may wait before
+     * adaptive throttling lowers the outgoing client frequency (max-queue-latency-millis).
+     *
+     * @return The max outbound queue latency in milliseconds.
+     */
+    public long getMaxQueueLatencyMillis()
+    {
+        return maxQueueLatencyMillis;
+    }
+
+    /**
+     * Sets the time the oldest outbound message of a client may wait before
+     * adaptive throttling lowers the outgoing client frequency (max-queue-latency-millis).
+     * Zero ignores the queue latency. Optional and the default value is 1000.
+     *
+     * @param millis The max outbound queue latency in milliseconds.
+     */
+    public void setMaxQueueLatencyMillis(long millis)
+    {
+        if (millis < 0)
+            blockNegative(-1, "The max queue latency");
+        this.maxQueueLatencyMillis = millis;
+    }
+
     /**
      * Returns the destination name for <code>ThrottleSettings</code>.
      *
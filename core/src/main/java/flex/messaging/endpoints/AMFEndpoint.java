@@ -75,7 +75,7 @@ public class AMFEndpoint extends BasePollingHTTPEndpoint
     @Override protected AMFFilter createFilterChain()
     {
         AMFFilter serializationFilter = new SerializationFilter(getLogCategory());
-        AMFFilter batchFilter = new BatchProcessFilter();
+        AMFFilter batchFilter = new BatchProcessFilter(batchExecutor);
         AMFFilter sessionFilter = sessionRewritingEnabled? new SessionFilter() : null;
         AMFFilter envelopeFilter = new LegacyFilter(this);
         AMFFilter messageBrokerFilter = new MessageBrokerFilter(this);
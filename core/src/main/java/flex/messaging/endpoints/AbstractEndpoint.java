@@ -34,6 +34,7 @@ import flex.messaging.MessageException;
 import flex.messaging.Server;
 import flex.messaging.client.FlexClient;
 import flex.messaging.client.FlexClientOutboundQueueProcessor;
+import flex.messaging.client.OutboundQueueLimit;
 import flex.messaging.client.FlushResult;
 import flex.messaging.client.PollFlushResult;
 import flex.messaging.client.UserAgentSettings;
@@ -122,6 +123,9 @@ public abstract class AbstractEndpoint extends ManageableComponent
     private static final String MAX_OBJECT_NEST_LEVEL = "max-object-nest-level";
     private static final String MAX_COLLECTION_NEST_LEVEL = "max-collection-nest-level";
     private static final String PREFER_VECTORS = "prefer-vectors";
+    private static final String MAX_OUTBOUND_QUEUE_SIZE = "max-outbound-queue-size";
+    private static final String MAX_OUTBOUND_QUEUE_BYTES = "max-outbound-queue-bytes";
+    private static final String SLOW_CONSUMER_POLICY = "slow-consumer-policy";
 
     // Endpoint properties
     protected Set<String> clientLoadBalancingUrls;
@@ -129,6 +133,7 @@ public abstract class AbstractEndpoint extends ManageableComponent
     protected int connectTimeoutSeconds;
     protected int requestTimeoutSeconds;
     protected FlexClientOutboundQueueProcessor flexClientOutboundQueueProcessor;
+    protected OutboundQueueLimit outboundQueueLimit;
     protected SerializationContext serializationContext;
     protected Class<?> deserializerClass;
     protected Class<?> serializerClass;
@@ -238,6 +243,15 @@ public abstract class AbstractEndpoint extends ManageableComponent
             }
         }
 
+        // Bounds for the outbound queues of FlexClients connected over this endpoint.
+        int maxOutboundQueueSize = properties.getPropertyAsInt(MAX_OUTBOUND_QUEUE_SIZE, 0);
+        long maxOutboundQueueBytes = properties.getPropertyAsLong(MAX_OUTBOUND_QUEUE_BYTES, 0);
+        if (maxOutboundQueueSize > 0 || maxOutboundQueueBytes > 0)
+        {
+            String policy = properties.getPropertyAsString(SLOW_CONSUMER_POLICY, OutboundQueueLimit.DROP_OLDEST);
+            setOutboundQueueLimit(new OutboundQueueLimit(maxOutboundQueueSize, maxOutboundQueueBytes, policy));
+        }
+
         ConfigMap serialization = properties.getPropertyAsMap(SERIALIZATION, null);
         if (serialization != null)
         {
@@ -477,6 +491,26 @@ public abstract class AbstractEndpoint extends ManageableComponent
         }
     }
 
+    /**
+     * Retrieves the limits for the outbound queues of FlexClients connected over the endpoint.
+     *
+     * @return The outbound queue limits, or <code>null</code> if the queues are unbounded.
+     */
+    public OutboundQueueLimit getOutboundQueueLimit()
+    {
+        return outboundQueueLimit;
+    }
+
+    /**
+     * Sets the limits for the outbound queues of FlexClients connected over the endpoint.
+     *
+     * @param outboundQueueLimit The outbound queue limits, or <code>null</code> for unbounded queues.
+     */
+    public void setOutboundQueueLimit(OutboundQueueLimit outboundQueueLimit)
+    {
+        this.outboundQueueLimit = outboundQueueLimit;
+    }
+
     /**
      * Retrieves the properties for the <code>FlexClientOutboundQueueProcessor</code> of the endpoint.
      *
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints;
+
+/**
+ * An AMF polling endpoint that holds long polls without a request thread.
+ * <p>
+ * A poll that may wait for messages is parked with <code>FlexClient.pollAsync()</code>
+ * and its request is put into Servlet 3 asynchronous mode, so idle long polls do not
+ * tie up container threads and are not limited by <code>max-waiting-poll-requests</code>.
+ * The response is written once messages arrive for the client or
+ * <code>wait-interval-millis</code> elapses.
+ * </p>
+ * <p>
+ * The <code>MessageBrokerServlet</code> and any filters in front of it must be declared
+ * with <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>; otherwise polls
+ * fall back to waiting on the request thread as they do on the
+ * <code>AMFEndpoint</code>.
+ * </p>
+ */
+public class AsyncAMFPollingEndpoint extends AMFEndpoint
+{
+    //--------------------------------------------------------------------------
+    //
+    // Constructors
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Constructs an unmanaged <code>AsyncAMFPollingEndpoint</code>.
+     */
+    public AsyncAMFPollingEndpoint()
+    {
+        this(false);
+    }
+
+    /**
+     * Constructs an <code>AsyncAMFPollingEndpoint</code> with the indicated management.
+     *
+     * @param enableManagement <code>true</code> if the <code>AsyncAMFPollingEndpoint</code>
+     * is manageable; <code>false</code> otherwise.
+     */
+    public AsyncAMFPollingEndpoint(boolean enableManagement)
+    {
+        super(enableManagement);
+        asyncPolling = true;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints;
+
+/**
+ * An AMF streaming endpoint that holds streaming connections without a request thread.
+ * <p>
+ * Once a streaming connection is open its request is put into Servlet 3 asynchronous
+ * mode and the request thread returns to the container. Messages pushed to the client
+ * are serialized and written with non-blocking IO by <code>writer-threads</code> threads
+ * shared by all connections of the endpoint, and a single timer writes the
+ * <code>server-to-client-heartbeat-millis</code> heartbeats. A connection that has more
+ * than <code>max-pending-bytes</code> waiting to be written to a slow client stops taking
+ * messages until the client catches up. As connections no longer consume container
+ * threads, <code>max-streaming-clients</code> can be raised accordingly.
+ * </p>
+ * <p>
+ * The <code>MessageBrokerServlet</code> and any filters in front of it must be declared
+ * with <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>; otherwise
+ * connections hold the request thread as they do on the
+ * <code>StreamingAMFEndpoint</code>.
+ * </p>
+ */
+public class AsyncStreamingAMFEndpoint extends StreamingAMFEndpoint
+{
+    //--------------------------------------------------------------------------
+    //
+    // Constructors
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Constructs an unmanaged <code>AsyncStreamingAMFEndpoint</code>.
+     */
+    public AsyncStreamingAMFEndpoint()
+    {
+        this(false);
+    }
+
+    /**
+     * Constructs an <code>AsyncStreamingAMFEndpoint</code> with the indicated management.
+     *
+     * @param enableManagement <code>true</code> if the <code>AsyncStreamingAMFEndpoint</code>
+     * is manageable; <code>false</code> otherwise.
+     */
+    public AsyncStreamingAMFEndpoint(boolean enableManagement)
+    {
+        super(enableManagement);
+        asyncStreaming = true;
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints;
+
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.client.EndpointPushNotifier;
+import flex.messaging.client.FlexClient;
+import flex.messaging.log.Log;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.util.HashedWheelTimer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A streaming connection that is held open in asynchronous mode instead of by
+ * a request handler thread.
+ * <p>
+ * Messages pushed to the <code>EndpointPushNotifier</code> of the connection are
+ * serialized into chunks on the shared writer executor of the endpoint, and the
+ * chunks are written with non-blocking IO as the container reports the connection
+ * writable. While more than <code>maxPendingBytes</code> are waiting to be written
+ * the connection stops draining the notifier, so that messages for a slow client
+ * stay queued with the notifier rather than in memory here.
+ * </p><p>
+ * Each connection schedules its own heartbeat on the heartbeat timer of the
+ * endpoint, for the time it will have been idle for the heartbeat interval.
+ * </p>
+ */
+final class AsyncStreamingConnection implements Runnable, WriteListener, AsyncListener
+{
+    private static final byte[] HEARTBEAT_BYTES = {(byte)0};
+
+    private final BaseStreamingHTTPEndpoint endpoint;
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final FlexClient flexClient;
+    private final FlexSession session;
+    private final EndpointPushNotifier notifier;
+    private final Executor writers;
+    private final int maxPendingBytes;
+    private final HashedWheelTimer heartbeatTimer;
+    private final long heartbeatMillis;
+
+    /**
+     * Guards the pending chunks and the writes to the output stream.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final LinkedList<byte[]> pending = new LinkedList<byte[]>();
+    private int pendingBytes;
+    private boolean backlogged;
+    private boolean terminated;
+    private volatile long lastWriteTime = System.currentTimeMillis();
+    private volatile boolean finished;
+    private volatile Future heartbeatTimeout;
+
+    /**
+     * The stream and response that chunks are serialized to.
+     */
+    private final ChunkOutputStream chunkStream = new ChunkOutputStream();
+    private final HttpServletResponse chunkResponse;
+
+    private final Runnable heartbeatTask = new Runnable()
+    {
+        public void run()
+        {
+            heartbeat();
+        }
+    };
+
+    AsyncStreamingConnection(BaseStreamingHTTPEndpoint endpoint, AsyncContext asyncContext, ServletOutputStream out,
+            FlexClient flexClient, FlexSession session, EndpointPushNotifier notifier, Executor writers, int maxPendingBytes,
+            HashedWheelTimer heartbeatTimer, long heartbeatMillis)
+    {
+        this.endpoint = endpoint;
+        this.asyncContext = asyncContext;
+        this.out = out;
+        this.flexClient = flexClient;
+        this.session = session;
+        this.notifier = notifier;
+        this.writers = writers;
+        this.maxPendingBytes = maxPendingBytes;
+        this.heartbeatTimer = heartbeatTimer;
+        this.heartbeatMillis = heartbeatMillis;
+        chunkResponse = new HttpServletResponseWrapper((HttpServletResponse)asyncContext.getResponse())
+        {
+            @Override
+            public void flushBuffer()
+            {
+                // Chunks are flushed once they have been written.
+            }
+        };
+    }
+
+    /**
+     * Switches the response to non-blocking IO and starts streaming the messages
+     * pushed to the notifier.
+     */
+    void start()
+    {
+        asyncContext.setTimeout(0); // The notifier times idle connections out.
+        asyncContext.addListener(this);
+        out.setWriteListener(this);
+        notifier.setPushTask(this, writers);
+        scheduleHeartbeat(heartbeatMillis);
+    }
+
+    /**
+     * Drains the notifier and writes its messages to the client. Runs on the
+     * writer executor each time messages are pushed or the notifier closes.
+     */
+    public void run()
+    {
+        writeLock.lock();
+        try
+        {
+            if (finished || terminated)
+                return;
+
+            // A closed notifier ends the connection even while the client is behind.
+            boolean closed = notifier.isClosed();
+            if (pendingBytes > maxPendingBytes)
+            {
+                // Leave the messages with the notifier until the client catches up.
+                if (!closed)
+                {
+                    backlogged = true;
+                    return;
+                }
+            }
+            else
+            {
+                List<AsyncMessage> messages = notifier.drainMessages();
+                if (messages != null)
+                {
+                    // Important for idle timeout detection.
+                    notifier.updateLastUse();
+                    serialize(messages);
+                }
+            }
+
+            if (closed || notifier.isClosed())
+            {
+                terminated = true;
+                endpoint.streamChunk(null, chunkStream, chunkResponse);
+                addChunk();
+            }
+
+            write();
+        }
+        catch (IOException e)
+        {
+            if (Log.isWarn())
+                endpoint.log.warn("Endpoint with id '" + endpoint.getId() + "' is closing the streaming connection to FlexClient with id '"
+                        + flexClient.getId() + "' due to an IO error.", e);
+            finish();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        // Prevent the FlexClient from timing out while the client is still subscribed,
+        // outside of the write lock.
+        flexClient.updateLastUse();
+    }
+
+    /**
+     * Writes a heartbeat to the client if nothing has been written to it for the
+     * heartbeat interval, and schedules the next heartbeat. Runs on the heartbeat
+     * timer of the endpoint, which should not wait for connections that are busy writing.
+     */
+    void heartbeat()
+    {
+        flexClient.updateLastUse();
+
+        long idleMillis = System.currentTimeMillis() - lastWriteTime;
+        if (idleMillis < heartbeatMillis)
+        {
+            // Something was written since the heartbeat was scheduled.
+            scheduleHeartbeat(heartbeatMillis - idleMillis);
+            return;
+        }
+        if (!writeLock.tryLock())
+        {
+            scheduleHeartbeat(heartbeatMillis);
+            return;
+        }
+
+        try
+        {
+            if (finished || terminated)
+                return;
+
+            if (pending.isEmpty())
+            {
+                pending.add(HEARTBEAT_BYTES);
+                pendingBytes += HEARTBEAT_BYTES.length;
+                write();
+            }
+            scheduleHeartbeat(heartbeatMillis);
+        }
+        catch (IOException e)
+        {
+            if (Log.isWarn())
+                endpoint.log.warn("Endpoint with id '" + endpoint.getId() + "' is closing the streaming connection to FlexClient with id '"
+                        + flexClient.getId() + "' because endpoint encountered a socket write error" +
+                        ", possibly due to an unresponsive FlexClient.", e);
+            finish();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection without writing anything further to it.
+     */
+    void close()
+    {
+        notifier.close();
+        finish();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see javax.servlet.WriteListener#onWritePossible()
+     */
+    public void onWritePossible() throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            if (!finished)
+                write();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see javax.servlet.WriteListener#onError(Throwable)
+     */
+    public void onError(Throwable t)
+    {
+        if (Log.isDebug())
+            endpoint.log.debug("Endpoint with id '" + endpoint.getId() + "' is closing the streaming connection to FlexClient with id '"
+                    + flexClient.getId() + "' due to a write error. " + t);
+        close();
+    }
+
+    public void onComplete(AsyncEvent event)
+    {
+        close();
+    }
+
+    public void onTimeout(AsyncEvent event)
+    {
+        close();
+    }
+
+    public void onError(AsyncEvent event)
+    {
+        close();
+    }
+
+    public void onStartAsync(AsyncEvent event)
+    {
+        // No-op.
+    }
+
+    /**
+     * Schedules the next heartbeat, unless the connection has finished or the
+     * endpoint does not write heartbeats.
+     */
+    private void scheduleHeartbeat(long delayMillis)
+    {
+        if (heartbeatTimer == null || heartbeatMillis <= 0 || finished)
+            return;
+
+        try
+        {
+            heartbeatTimeout = heartbeatTimer.schedule(heartbeatTask, delayMillis);
+        }
+        catch (IllegalStateException e)
+        {
+            // The endpoint is stopping.
+        }
+    }
+
+    /**
+     * Writes the pending chunks for as long as the connection is writable.
+     * Callers must hold the write lock.
+     */
+    private void write() throws IOException
+    {
+        while (!pending.isEmpty())
+        {
+            // The container calls onWritePossible() once the connection is writable again.
+            if (!out.isReady())
+                return;
+
+            byte[] chunk = pending.removeFirst();
+            pendingBytes -= chunk.length;
+            out.write(chunk);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        if (!out.isReady())
+            return;
+        out.flush();
+        if (!out.isReady())
+            return;
+
+        if (terminated)
+        {
+            finish();
+        }
+        else if (backlogged)
+        {
+            backlogged = false;
+            try
+            {
+                writers.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The endpoint is stopping.
+                finish();
+            }
+        }
+    }
+
+    private void serialize(List<AsyncMessage> messages) throws IOException
+    {
+        FlexContext.setThreadLocalObjects(flexClient, session, endpoint.getMessageBroker());
+        endpoint.setThreadLocals();
+        try
+        {
+            endpoint.streamMessages(messages, chunkStream, chunkResponse);
+        }
+        finally
+        {
+            endpoint.clearThreadLocals();
+            FlexContext.clearThreadLocalObjects();
+        }
+        addChunk();
+    }
+
+    private void addChunk()
+    {
+        if (chunkStream.size() > 0)
+        {
+            byte[] chunk = chunkStream.toByteArray();
+            chunkStream.reset();
+            pending.add(chunk);
+            pendingBytes += chunk.length;
+        }
+    }
+
+    /**
+     * Completes the response and releases the streaming connection, once.
+     */
+    private void finish()
+    {
+        synchronized (this)
+        {
+            if (finished)
+                return;
+            finished = true;
+        }
+
+        Future timeout = heartbeatTimeout;
+        if (timeout != null)
+            timeout.cancel(false);
+        endpoint.releaseAsyncStreamingConnection(this, session, notifier);
+        try
+        {
+            asyncContext.complete();
+        }
+        catch (IllegalStateException e)
+        {
+            // The request was already completed, for example because the connection was closed.
+        }
+    }
+
+    /**
+     * A stream that collects the chunks serialized by the endpoint.
+     */
+    private static class ChunkOutputStream extends ServletOutputStream
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b)
+        {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            // The stream is always ready, so it is writable right away.
+            try
+            {
+                writeListener.onWritePossible();
+            }
+            catch (IOException e)
+            {
+                writeListener.onError(e);
+            }
+        }
+
+        int size()
+        {
+            return bytes.size();
+        }
+
+        byte[] toByteArray()
+        {
+            return bytes.toByteArray();
+        }
+
+        void reset()
+        {
+            bytes.reset();
+        }
+    }
+}
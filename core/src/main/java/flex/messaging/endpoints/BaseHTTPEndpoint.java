@@ -27,6 +27,8 @@ import flex.messaging.config.ConfigurationConstants;
 import flex.messaging.endpoints.amf.AMFFilter;
 import flex.messaging.io.MessageIOConstants;
 import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.AmfSerializationPool;
+import flex.messaging.io.amf.ResponseOutputStream;
 import flex.messaging.log.HTTPRequestLog;
 import flex.messaging.messages.CommandMessage;
 import flex.messaging.messages.Message;
@@ -36,8 +38,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract base class for all the HTTP-based endpoints.
@@ -56,6 +63,25 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
     public static final String HTTP_PROTOCOL_SCHEME = "http";
     public static final String HTTPS_PROTOCOL_SCHEME = "https";
 
+    /**
+     * The default number of milliseconds a response waits for the asynchronous
+     * results of its messages.
+     */
+    public static final long DEFAULT_ASYNC_RESULT_TIMEOUT_MILLIS = 30000;
+
+    //--------------------------------------------------------------------------
+    //
+    // Protected Static Constants
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * The request attribute that holds the context of a request, so that a
+     * request whose response was deferred is serviced with the same context
+     * when it is dispatched again.
+     */
+    protected static final String REQUEST_ATTR_ACTION_CONTEXT = "flex.messaging.request.ActionContext";
+
     //--------------------------------------------------------------------------
     //
     // Private Static Constants
@@ -71,6 +97,10 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
     private static final String HEADER_NAME_ORIGIN = "Origin";
     private static final String ACCESS_CONTROL = "Access-Control-";
     private static final String SESSION_REWRITING_ENABLED = "session-rewriting-enabled";
+    private static final String RESPONSE_BUFFER_LIMIT = "response-buffer-limit";
+    private static final String ASYNC_RESULT_TIMEOUT_MILLIS = "async-result-timeout-millis";
+    private static final String BATCH_PROCESS_THREADS = "batch-process-threads";
+    private static final long BATCH_THREAD_KEEP_ALIVE_SECONDS = 60;
 
     private static final int ERR_MSG_DUPLICATE_SESSIONS_DETECTED = 10035;
     private static final String REQUEST_ATTR_DUPLICATE_SESSION_FLAG = "flex.messaging.request.DuplicateSessionDetected";
@@ -126,6 +156,9 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
         invalidateSessionOnDisconnect = properties.getPropertyAsBoolean(INVALIDATE_SESSION_ON_DISCONNECT, false);
         loginAfterDisconnect = properties.getPropertyAsBoolean(ConfigurationConstants.LOGIN_AFTER_DISCONNECT_ELEMENT, false);
         sessionRewritingEnabled = properties.getPropertyAsBoolean(SESSION_REWRITING_ENABLED, true);
+        responseBufferLimit = properties.getPropertyAsInt(RESPONSE_BUFFER_LIMIT, -1);
+        asyncResultTimeoutMillis = properties.getPropertyAsLong(ASYNC_RESULT_TIMEOUT_MILLIS, DEFAULT_ASYNC_RESULT_TIMEOUT_MILLIS);
+        setBatchProcessThreads(properties.getPropertyAsInt(BATCH_PROCESS_THREADS, batchProcessThreads));
         initializeHttpResponseHeaders(properties);
         validateEndpointProtocol();
     }
@@ -141,9 +174,48 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
 
         super.start();
 
+        if (batchProcessThreads > 0)
+        {
+            // Bodies are only handed to idle threads; when all threads are busy
+            // the request thread processes the body itself.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(batchProcessThreads, batchProcessThreads,
+                    BATCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory()
+                    {
+                        int counter = 1;
+                        public synchronized Thread newThread(Runnable runnable)
+                        {
+                            Thread t = new Thread(runnable);
+                            t.setName(getId() + "-BatchProcessThread-" + counter++);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            batchExecutor = executor;
+        }
+
         filterChain = createFilterChain();
     }
 
+    /**
+     * Stops the <code>Endpoint</code> and the threads that process the bodies
+     * of batched requests.
+     */
+    @Override public void stop()
+    {
+        if (!isStarted())
+            return;
+
+        super.stop();
+
+        ThreadPoolExecutor executor = batchExecutor;
+        if (executor != null)
+        {
+            batchExecutor = null;
+            executor.shutdown();
+        }
+    }
+
     //--------------------------------------------------------------------------
     //
     // Variables
@@ -155,6 +227,12 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
      */
     protected EndpointControl controller;
 
+    /**
+     * Processes the bodies of batched requests in parallel if
+     * <code>batch-process-threads</code> is set; otherwise <code>null</code>.
+     */
+    protected volatile ThreadPoolExecutor batchExecutor;
+
     /**
      * AMF processing filter chain used by this endpoint.
      */
@@ -198,6 +276,103 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
         this.addNoCacheHeaders = addNoCacheHeaders;
     }
 
+    //----------------------------------
+    //  responseBufferLimit
+    //----------------------------------
+
+    protected int responseBufferLimit = -1;
+
+    /**
+     * Retrieves the <code>response-buffer-limit</code> property.
+     *
+     * @return The number of bytes of a response that are buffered before it
+     * is streamed to the client, or -1 if responses are always buffered.
+     */
+    public int getResponseBufferLimit()
+    {
+        return responseBufferLimit;
+    }
+
+    /**
+     * Sets the <code>response-buffer-limit</code> property. Responses that
+     * grow past the limit while they are serialized are written to the client
+     * without a content length, which makes the servlet container send them
+     * with chunked transfer encoding. A negative value, the default, buffers
+     * every response completely.
+     *
+     * @param responseBufferLimit The <code>response-buffer-limit</code> property.
+     */
+    public void setResponseBufferLimit(int responseBufferLimit)
+    {
+        this.responseBufferLimit = responseBufferLimit;
+    }
+
+    //----------------------------------
+    //  asyncResultTimeoutMillis
+    //----------------------------------
+
+    protected long asyncResultTimeoutMillis = DEFAULT_ASYNC_RESULT_TIMEOUT_MILLIS;
+
+    /**
+     * Retrieves the <code>async-result-timeout-millis</code> property.
+     *
+     * @return The number of milliseconds a response waits for the asynchronous
+     * results of its messages, or 0 if it waits indefinitely.
+     */
+    public long getAsyncResultTimeoutMillis()
+    {
+        return asyncResultTimeoutMillis;
+    }
+
+    /**
+     * Sets the <code>async-result-timeout-millis</code> property. When a service
+     * returns a <code>Future</code> or <code>CompletionStage</code>, the request is
+     * suspended until the result is available, and the message is answered with
+     * an error if this timeout elapses first. A value of 0 or less disables the
+     * timeout. The default is 30 seconds.
+     *
+     * @param asyncResultTimeoutMillis The <code>async-result-timeout-millis</code> property.
+     */
+    public void setAsyncResultTimeoutMillis(long asyncResultTimeoutMillis)
+    {
+        this.asyncResultTimeoutMillis = asyncResultTimeoutMillis;
+    }
+
+    //----------------------------------
+    //  batchProcessThreads
+    //----------------------------------
+
+    protected int batchProcessThreads;
+
+    /**
+     * Retrieves the <code>batch-process-threads</code> property.
+     *
+     * @return The number of threads that process the bodies of batched
+     * requests in parallel, or 0 if the bodies are processed in sequence.
+     */
+    public int getBatchProcessThreads()
+    {
+        return batchProcessThreads;
+    }
+
+    /**
+     * Sets the <code>batch-process-threads</code> property. When it is positive,
+     * the <code>RemotingMessage</code>s of a batched request are processed in
+     * parallel by the request thread and up to this many threads, and their
+     * responses keep the order of the request. Only batches whose destinations
+     * all enable the <code>parallel-batch</code> property are processed in
+     * parallel; other batches are still processed in sequence. Negative values
+     * are treated as 0, the default. Takes effect when the endpoint is started.
+     *
+     * @see flex.messaging.Destination#setParallelBatch(boolean)
+     *
+     * @param batchProcessThreads The <code>batch-process-threads</code> property.
+     */
+    public void setBatchProcessThreads(int batchProcessThreads)
+    {
+        this.batchProcessThreads = batchProcessThreads < 1 ? 0 : batchProcessThreads;
+    }
+
     //----------------------------------
     //  loginAfterDisconnect
     //----------------------------------
@@ -307,26 +482,39 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
      * @param res The active servlet response.
      */
     @Override
-    public void service(HttpServletRequest req, HttpServletResponse res)
+    public void service(final HttpServletRequest req, final HttpServletResponse res)
     {
         super.service(req, res);
 
+        ResponseOutputStream responseStream = null;
         try
         {
             // Setup serialization and type marshalling contexts
             setThreadLocals();
 
             // Create a context for this request
-            ActionContext context = new ActionContext();
+            ActionContext context = createActionContext(req);
 
-            // Pass endpoint's mpi settings to the context so that it knows what level of
-            // performance metrics should be gathered during serialization/deserialization
-            context.setRecordMessageSizes(isRecordMessageSizes());
-            context.setRecordMessageTimes(isRecordMessageTimes());
+            // Buffer responses in recycled segments, and let large responses be
+            // streamed to the client while they are serialized
+            responseStream = new ResponseOutputStream(responseBufferLimit >= 0 ? responseBufferLimit : Integer.MAX_VALUE)
+            {
+                @Override
+                protected OutputStream openTarget() throws IOException
+                {
+                    setResponseHeaders(req, res);
+                    return res.getOutputStream();
+                }
+            };
+            context.setResponseStream(responseStream);
 
             // Send invocation through filter chain, which ends at the MessageBroker
             filterChain.invoke(context);
 
+            // The response is written when the request is dispatched again
+            if (context.isResponseDeferred())
+                return;
+
             // After serialization completes, increment endpoint byte counters,
             // if the endpoint is managed
             if (isManaged())
@@ -337,18 +525,32 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
 
             if (context.getStatus() != MessageIOConstants.STATUS_NOTAMF)
             {
-                if (addNoCacheHeaders)
-                    addNoCacheHeaders(req, res);
-
-                addHeadersToResponse(req, res);
-
-                ByteArrayOutputStream outBuffer = context.getResponseOutput();
-
-                res.setContentType(getResponseContentType());
+                if (responseStream.isCommitted())
+                {
+                    // The response has already been streamed to the client.
+                    res.flushBuffer();
+                }
+                else
+                {
+                    setResponseHeaders(req, res);
 
-                res.setContentLength(outBuffer.size());
-                outBuffer.writeTo(res.getOutputStream());
-                res.flushBuffer();
+                    // Error responses and responses with message sizes are
+                    // serialized into a separate buffer.
+                    ByteArrayOutputStream outBuffer = context.getResponseOutput();
+                    if (outBuffer != null)
+                    {
+                        res.setContentLength(outBuffer.size());
+                        outBuffer.writeTo(res.getOutputStream());
+                        context.setResponseOutput(null);
+                        AmfSerializationPool.getPool().releaseBuffer(outBuffer);
+                    }
+                    else
+                    {
+                        res.setContentLength(responseStream.size());
+                        responseStream.writeTo(res.getOutputStream());
+                    }
+                    res.flushBuffer();
+                }
             }
             else
             {
@@ -383,11 +585,55 @@ public abstract class BaseHTTPEndpoint extends AbstractEndpoint
         }
         finally
         {
+            if (responseStream != null)
+                responseStream.release();
             clearThreadLocals();
         }
     }
 
 
+    /**
+     * Creates the context that a request is serviced with, or returns the
+     * context of a request whose response was deferred and that is dispatched
+     * again, so that it is serviced from the message it was deserialized into.
+     *
+     * @param req The servlet request.
+     * @return The context for the request.
+     */
+    protected ActionContext createActionContext(HttpServletRequest req)
+    {
+        ActionContext context = (ActionContext)req.getAttribute(REQUEST_ATTR_ACTION_CONTEXT);
+        if (context != null && context.isResponseDeferred())
+        {
+            context.setResponseDeferred(false);
+            return context;
+        }
+
+        context = new ActionContext();
+
+        // Pass endpoint's mpi settings to the context so that it knows what level of
+        // performance metrics should be gathered during serialization/deserialization
+        context.setRecordMessageSizes(isRecordMessageSizes());
+        context.setRecordMessageTimes(isRecordMessageTimes());
+        context.setAsyncResultTimeoutMillis(asyncResultTimeoutMillis);
+        context.setAsyncSupported(req.isAsyncSupported());
+        req.setAttribute(REQUEST_ATTR_ACTION_CONTEXT, context);
+        return context;
+    }
+
+    /**
+     * Sets the headers of an AMF or AMFX response.
+     */
+    private void setResponseHeaders(HttpServletRequest req, HttpServletResponse res)
+    {
+        if (addNoCacheHeaders)
+            addNoCacheHeaders(req, res);
+
+        addHeadersToResponse(req, res);
+
+        res.setContentType(getResponseContentType());
+    }
+
     /**
      *
      * Returns a <code>ConfigMap</code> of endpoint properties that the client
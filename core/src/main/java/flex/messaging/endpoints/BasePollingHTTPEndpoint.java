@@ -18,6 +18,7 @@ package flex.messaging.endpoints;
 
 import flex.messaging.FlexContext;
 import flex.messaging.FlexSession;
+import flex.messaging.client.AsyncPollHandler;
 import flex.messaging.client.FlexClient;
 import flex.messaging.client.FlushResult;
 import flex.messaging.client.PollFlushResult;
@@ -25,18 +26,34 @@ import flex.messaging.client.PollWaitListener;
 import flex.messaging.client.UserAgentSettings;
 import flex.messaging.config.ConfigMap;
 import flex.messaging.config.ConfigurationConstants;
+import flex.messaging.io.amf.ActionContext;
 import flex.messaging.log.Log;
 import flex.messaging.messages.CommandMessage;
+import flex.messaging.util.TimeoutAbstractObject;
 import flex.messaging.util.UserAgentManager;
 
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
 /**
  * Base class for HTTP-based endpoints that support regular polling and long polling,
  * which means placing request threads that are polling for messages into a wait
  * state until messages are available for delivery or the configurable wait interval
  * is reached.
+ * <p>
+ * Subclasses that set <code>asyncPolling</code> hold long polls without a request
+ * thread instead: the poll is parked with <code>FlexClient.pollAsync()</code>, the
+ * request is put into Servlet 3 asynchronous mode and the request thread returns.
+ * When messages arrive or the wait interval is reached the request is dispatched
+ * back to the endpoint, which writes the poll response from the message that was
+ * deserialized when the request first arrived.
+ * </p>
  */
 public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implements PollWaitListener
 {
@@ -55,6 +72,8 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
     // Force clients that exceed the long-poll limit to wait at least this long between poll requests.
     // This matches the default polling interval defined in the client PollingChannel.
     private static final int DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS = 3000;
+    // Request attribute that holds the parked asynchronous poll of a request.
+    private static final String REQUEST_ATTR_ASYNC_POLL = "flex.messaging.request.AsyncPoll";
 
     // User Agent based settings manager
     private UserAgentManager userAgentManager = new UserAgentManager();
@@ -170,6 +189,18 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
      */
     private ConcurrentHashMap currentWaitedRequests;
 
+    /**
+     * Set by subclasses to hold long polls with <code>FlexClient.pollAsync()</code> and
+     * the Servlet 3 asynchronous request API rather than a waiting request thread.
+     * Asynchronous polls are not limited by <code>max-waiting-poll-requests</code>.
+     */
+    protected boolean asyncPolling;
+
+    /**
+     * The asynchronous polls that are parked until messages arrive for their client.
+     */
+    private final Map<AsyncPoll, Boolean> currentAsyncPolls = new ConcurrentHashMap<AsyncPoll, Boolean>();
+
     //--------------------------------------------------------------------------
     //
     // Properties
@@ -326,6 +357,21 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
         return waitingPollRequestsCount;
     }
 
+    //----------------------------------
+    //  asyncPollRequestsCount
+    //----------------------------------
+
+    /**
+     * Retrieves the count of the number of asynchronous poll requests that are currently
+     * parked until messages arrive for their client.
+     *
+     * @return The count of the number of parked asynchronous poll requests.
+     */
+    public int getAsyncPollRequestsCount()
+    {
+        return currentAsyncPolls.size();
+    }
+
     //--------------------------------------------------------------------------
     //
     // Public Methods
@@ -422,6 +468,10 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
         }
         currentWaitedRequests = null;
 
+        // Complete any parked asynchronous polls.
+        for (AsyncPoll asyncPoll : currentAsyncPolls.keySet())
+            asyncPoll.cancel();
+
         super.stop();
     }
 
@@ -465,6 +515,31 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
     protected FlushResult handleFlexClientPoll(FlexClient flexClient, CommandMessage pollCommand)
     {
         FlushResult flushResult = null;
+        if (isAsyncPollEnabled())
+        {
+            HttpServletRequest req = FlexContext.getHttpRequest();
+            AsyncPoll asyncPoll = (AsyncPoll)req.getAttribute(REQUEST_ATTR_ASYNC_POLL);
+            if (asyncPoll != null)
+            {
+                // The request has been dispatched again because its poll completed.
+                req.removeAttribute(REQUEST_ATTR_ASYNC_POLL);
+                return completeAsyncPoll(flexClient, asyncPoll);
+            }
+
+            ActionContext context = (ActionContext)req.getAttribute(REQUEST_ATTR_ACTION_CONTEXT);
+            if (context != null && req.isAsyncSupported() && !pollCommand.headerExists(CommandMessage.SUPPRESS_POLL_WAIT_HEADER))
+            {
+                asyncPoll = new AsyncPoll(req, context);
+                if (asyncPoll.park(flexClient.pollAsync(getId(), asyncPoll, waitInterval)))
+                {
+                    if (Log.isDebug())
+                        log.debug("Number of parked asynchronous polls for endpoint with id '" + getId() + "' is " + currentAsyncPolls.size() + ".");
+                    return null; // The response is written once the request is dispatched again.
+                }
+                return completeAsyncPoll(flexClient, asyncPoll);
+            }
+        }
+
         if (canWait && !pollCommand.headerExists(CommandMessage.SUPPRESS_POLL_WAIT_HEADER))
         {
             FlexSession session = FlexContext.getFlexSession();
@@ -544,19 +619,7 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
                 {
                     flushResult  = flexClient.pollWithWait(getId(), FlexContext.getFlexSession(), this, waitInterval);
                     if (flushResult != null)
-                    {
-                        // Prevent busy-polling due to multiple clients sharing a session and swapping each other out too quickly.
-                        if ((flushResult instanceof PollFlushResult) && ((PollFlushResult)flushResult).isAvoidBusyPolling() && (flushResult.getNextFlushWaitTimeMillis() < DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS))
-                        {
-                            // Force the client polling interval to match the default defined in the client PollingChannel.
-                            flushResult.setNextFlushWaitTimeMillis(DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS);
-                        }
-                        else if ((clientWaitInterval > 0) && (flushResult.getNextFlushWaitTimeMillis() == 0))
-                        {
-                            // If the FlushResult doesn't specify it's own flush wait time, use the configured clientWaitInterval if defined.
-                            flushResult.setNextFlushWaitTimeMillis(clientWaitInterval);
-                        }
-                    }
+                        setNextFlushWaitTime(flushResult);
                 }
                 finally
                 {
@@ -603,4 +666,177 @@ public abstract class BasePollingHTTPEndpoint extends BaseHTTPEndpoint implement
 
         return flushResult;
     }
+    /**
+     * Returns the result of an asynchronous poll, or of a regular poll if the asynchronous
+     * poll timed out without a result.
+     */
+    private FlushResult completeAsyncPoll(FlexClient flexClient, AsyncPoll asyncPoll)
+    {
+        FlushResult flushResult = asyncPoll.getFlushResult();
+        if (flushResult == null)
+            flushResult = flexClient.poll(getId());
+        if (flushResult != null)
+            setNextFlushWaitTime(flushResult);
+        return flushResult;
+    }
+
+    /**
+     * Sets the time the client waits before its next poll after a poll that waited for messages.
+     */
+    private void setNextFlushWaitTime(FlushResult flushResult)
+    {
+        // Prevent busy-polling due to multiple clients sharing a session and swapping each other out too quickly.
+        if ((flushResult instanceof PollFlushResult) && ((PollFlushResult)flushResult).isAvoidBusyPolling() && (flushResult.getNextFlushWaitTimeMillis() < DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS))
+        {
+            // Force the client polling interval to match the default defined in the client PollingChannel.
+            flushResult.setNextFlushWaitTimeMillis(DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS);
+        }
+        else if ((clientWaitInterval > 0) && (flushResult.getNextFlushWaitTimeMillis() == 0))
+        {
+            // If the FlushResult doesn't specify it's own flush wait time, use the configured clientWaitInterval if defined.
+            flushResult.setNextFlushWaitTimeMillis(clientWaitInterval);
+        }
+    }
+
+    private boolean isAsyncPollEnabled()
+    {
+        return asyncPolling && (waitInterval == -1 || waitInterval > 0);
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Inner Classes
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * A poll request that is parked with <code>FlexClient.pollAsync()</code>. Once the
+     * poll completes, the request is dispatched back to the endpoint to write its response.
+     */
+    private class AsyncPoll implements AsyncPollHandler, AsyncListener
+    {
+        private final HttpServletRequest request;
+        private final ActionContext context;
+        private TimeoutAbstractObject timeout;
+        private AsyncContext asyncContext;
+        private FlushResult flushResult;
+        private boolean completed;
+
+        AsyncPoll(HttpServletRequest request, ActionContext context)
+        {
+            this.request = request;
+            this.context = context;
+        }
+
+        /**
+         * Puts the request into asynchronous mode unless the poll has already completed.
+         *
+         * @param timeout The parked poll returned by <code>FlexClient.pollAsync()</code>.
+         * @return <code>true</code> if the request is now waiting for the poll to complete.
+         */
+        boolean park(TimeoutAbstractObject timeout)
+        {
+            synchronized (this)
+            {
+                if (completed || timeout == null)
+                    return false;
+
+                this.timeout = timeout;
+                try
+                {
+                    asyncContext = request.startAsync();
+                    // The FlexClient times the poll out after the wait interval.
+                    asyncContext.setTimeout(0);
+                    asyncContext.addListener(this);
+                    context.setResponseDeferred(true);
+                    request.setAttribute(REQUEST_ATTR_ASYNC_POLL, this);
+                    currentAsyncPolls.put(this, Boolean.TRUE);
+                    return true;
+                }
+                catch (IllegalStateException e)
+                {
+                    asyncContext = null;
+                    if (Log.isDebug())
+                        log.debug("Unable to start an asynchronous poll, this poll won't wait. " + e.getMessage());
+                }
+            }
+
+            // Release the parked poll outside of the lock, the FlexClient calls back into it.
+            timeout.timeout();
+            return false;
+        }
+
+        synchronized FlushResult getFlushResult()
+        {
+            return flushResult;
+        }
+
+        /**
+         * Completes the poll without a result.
+         */
+        void cancel()
+        {
+            TimeoutAbstractObject timeout;
+            synchronized (this)
+            {
+                if (completed)
+                    return;
+                timeout = this.timeout;
+            }
+            if (timeout != null)
+                timeout.timeout();
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see flex.messaging.client.AsyncPollHandler#asyncPollComplete(FlushResult)
+         */
+        public void asyncPollComplete(FlushResult flushResult)
+        {
+            AsyncContext asyncContext;
+            synchronized (this)
+            {
+                if (completed)
+                    return;
+                completed = true;
+                this.flushResult = flushResult;
+                asyncContext = this.asyncContext;
+            }
+
+            if (asyncContext != null)
+            {
+                currentAsyncPolls.remove(this);
+                try
+                {
+                    asyncContext.dispatch();
+                }
+                catch (IllegalStateException e)
+                {
+                    // The request was already completed, for example because the connection was closed.
+                    if (Log.isDebug())
+                        log.debug("Unable to dispatch the response of an asynchronous poll. " + e.getMessage());
+                }
+            }
+        }
+
+        public void onComplete(AsyncEvent event)
+        {
+            currentAsyncPolls.remove(this);
+        }
+
+        public void onTimeout(AsyncEvent event)
+        {
+            cancel();
+        }
+
+        public void onError(AsyncEvent event)
+        {
+            cancel();
+        }
+
+        public void onStartAsync(AsyncEvent event)
+        {
+            // No-op.
+        }
+    }
 }
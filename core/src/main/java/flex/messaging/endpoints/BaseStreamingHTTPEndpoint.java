@@ -32,9 +32,11 @@ import flex.messaging.messages.CommandMessage;
 import flex.messaging.messages.Message;
 import flex.messaging.messages.MessagePerformanceInfo;
 import flex.messaging.messages.MessagePerformanceUtils;
+import flex.messaging.util.HashedWheelTimer;
 import flex.messaging.util.TimeoutManager;
 import flex.messaging.util.UserAgentManager;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -44,8 +46,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for HTTP-based endpoints that support streaming HTTP connections to
@@ -57,6 +63,13 @@ import java.util.concurrent.ThreadFactory;
  * This endpoint does not support polling clients and will fault any poll requests
  * that are received. To support polling clients use subclasses of
  * BaseHTTPEndpoint instead.
+ * <p>
+ * Subclasses that enable <code>asyncStreaming</code> release the request handler
+ * thread instead: the connection is held open in asynchronous mode, pushed messages
+ * are written with non-blocking IO by a small pool of writer threads shared by the
+ * connections of the endpoint, and heartbeats are scheduled per connection on a
+ * timer wheel.
+ * </p>
  */
 public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
 {
@@ -122,6 +135,8 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
     private static final String MAX_STREAMING_CLIENTS = "max-streaming-clients";
     private static final String SERVER_TO_CLIENT_HEARTBEAT_MILLIS = "server-to-client-heartbeat-millis";
     private static final String PROPERTY_INVALIDATE_MESSAGECLIENT_ON_STREAMING_CLOSE = "invalidate-messageclient-on-streaming-close";
+    private static final String WRITER_THREADS = "writer-threads";
+    private static final String MAX_PENDING_BYTES = "max-pending-bytes";
 
     /**
      * Defaults.
@@ -129,6 +144,13 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
     private static final boolean DEFAULT_INVALIDATE_MESSAGECLIENT_ON_STREAMING_CLOSE = false;
     private static final int DEFAULT_SERVER_TO_CLIENT_HEARTBEAT_MILLIS = 5000;
     private static final int DEFAULT_MAX_STREAMING_CLIENTS = 10;
+    private static final int DEFAULT_WRITER_THREADS = 2;
+    private static final int DEFAULT_MAX_PENDING_BYTES = 262144;
+
+    /**
+     * How long stop() lets the writers stream the final messages of asynchronous connections.
+     */
+    private static final long WRITERS_SHUTDOWN_WAIT_MILLIS = 1000;
 
     /**
      * Errors.
@@ -215,6 +237,12 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
 
         // Set initial state for the canWait flag based on whether we allow waits or not.
         canStream = (maxStreamingClients > 0);
+
+        // Threads shared by asynchronous streaming connections to write pushed messages.
+        setWriterThreads(properties.getPropertyAsInt(WRITER_THREADS, DEFAULT_WRITER_THREADS));
+
+        // Bytes an asynchronous streaming connection may have waiting to be written before it stops taking messages.
+        setMaxPendingBytes(properties.getPropertyAsInt(MAX_PENDING_BYTES, DEFAULT_MAX_PENDING_BYTES));
     }
 
 
@@ -237,10 +265,42 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
                                                                     t.setName(getId() + "-StreamingConnectionTimeoutThread-" + counter++);
                                                                     return t;
                                                                 }
-                                                            });
+                                                            }, TimeoutManager.DEFAULT_WHEEL_TICK_MILLIS, TimeoutManager.DEFAULT_TICKS_PER_WHEEL);
         }
 
         currentStreamingRequests = new ConcurrentHashMap<String, EndpointPushNotifier>();
+
+        if (asyncStreaming)
+        {
+            asyncStreamingConnections = new ConcurrentHashMap<AsyncStreamingConnection, Boolean>();
+            streamingWriters = Executors.newFixedThreadPool(writerThreads, new ThreadFactory()
+                                                            {
+                                                                int counter = 1;
+                                                                public synchronized Thread newThread(Runnable runnable)
+                                                                {
+                                                                    Thread t = new Thread(runnable);
+                                                                    t.setName(getId() + "-StreamingWriterThread-" + counter++);
+                                                                    t.setDaemon(true);
+                                                                    return t;
+                                                                }
+                                                            });
+
+            if (serverToClientHeartbeatMillis > 0)
+            {
+                // A tick of a tenth of the interval keeps heartbeats from running late by more than that.
+                long tickMillis = Math.max(1, Math.min(TimeoutManager.DEFAULT_WHEEL_TICK_MILLIS, serverToClientHeartbeatMillis / 10));
+                heartbeatTimer = new HashedWheelTimer(new ThreadFactory()
+                                                            {
+                                                                public Thread newThread(Runnable runnable)
+                                                                {
+                                                                    Thread t = new Thread(runnable);
+                                                                    t.setName(getId() + "-StreamingHeartbeatThread");
+                                                                    t.setDaemon(true);
+                                                                    return t;
+                                                                }
+                                                            }, tickMillis, TimeoutManager.DEFAULT_TICKS_PER_WHEEL);
+            }
+        }
     }
 
     /**
@@ -266,6 +326,35 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
 
         currentStreamingRequests = null;
 
+        // Let the writers stream the final messages of asynchronous connections.
+        if (heartbeatTimer != null)
+        {
+            heartbeatTimer.shutdown();
+            heartbeatTimer = null;
+        }
+        if (streamingWriters != null)
+        {
+            streamingWriters.shutdown();
+            try
+            {
+                streamingWriters.awaitTermination(WRITERS_SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            streamingWriters = null;
+        }
+
+        // Complete the asynchronous connections that could not stream their final
+        // messages, for example because their clients stopped reading.
+        if (asyncStreamingConnections != null)
+        {
+            for (AsyncStreamingConnection connection : asyncStreamingConnections.keySet())
+                connection.close();
+            asyncStreamingConnections = null;
+        }
+
         super.stop();
     }
 
@@ -304,6 +393,27 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
      */
     private ConcurrentHashMap<String, EndpointPushNotifier> currentStreamingRequests;
 
+    /**
+     * Whether streaming connections are held open in asynchronous mode rather than
+     * by the request handler thread, if the request supports it. Set by subclasses.
+     */
+    protected boolean asyncStreaming;
+
+    /**
+     * The currently open asynchronous streaming connections.
+     */
+    private volatile Map<AsyncStreamingConnection, Boolean> asyncStreamingConnections;
+
+    /**
+     * Writes pushed messages to asynchronous streaming connections.
+     */
+    private volatile ExecutorService streamingWriters;
+
+    /**
+     * Runs the heartbeats of the asynchronous streaming connections.
+     */
+    private volatile HashedWheelTimer heartbeatTimer;
+
     //--------------------------------------------------------------------------
     //
     // Properties
@@ -464,6 +574,70 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
         canStream = (streamingClientsCount < maxStreamingClients);
     }
 
+    //----------------------------------
+    //  writerThreads
+    //----------------------------------
+
+    private int writerThreads = DEFAULT_WRITER_THREADS;
+
+    /**
+     * Retrieves the number of threads that write pushed messages to the
+     * asynchronous streaming connections of the endpoint.
+     *
+     * @return The number of writer threads.
+     */
+    public int getWriterThreads()
+    {
+        return writerThreads;
+    }
+
+    /**
+     * Sets the number of threads that write pushed messages to the asynchronous
+     * streaming connections of the endpoint. Writes do not block, so a few threads
+     * serve any number of connections. The value must be set before the endpoint
+     * starts and is at least 1.
+     *
+     * @param writerThreads The number of writer threads.
+     */
+    public void setWriterThreads(int writerThreads)
+    {
+        if (writerThreads < 1)
+            writerThreads = 1;
+        this.writerThreads = writerThreads;
+    }
+
+    //----------------------------------
+    //  maxPendingBytes
+    //----------------------------------
+
+    private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+    /**
+     * Retrieves the number of bytes an asynchronous streaming connection may have
+     * waiting to be written before it stops taking messages from its notifier.
+     *
+     * @return The maximum number of pending bytes per connection.
+     */
+    public int getMaxPendingBytes()
+    {
+        return maxPendingBytes;
+    }
+
+    /**
+     * Sets the number of bytes an asynchronous streaming connection may have
+     * waiting to be written before it stops taking messages from its notifier.
+     * Messages for a client that does not keep up stay queued for the client
+     * until the connection has written its pending bytes.
+     *
+     * @param maxPendingBytes The maximum number of pending bytes per connection.
+     */
+    public void setMaxPendingBytes(int maxPendingBytes)
+    {
+        if (maxPendingBytes < 0)
+            maxPendingBytes = 0;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
     //----------------------------------
     //  streamingClientsCount
     //----------------------------------
@@ -769,6 +943,7 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
             String threadName = currentThread.getName();
             EndpointPushNotifier notifier = null;
             boolean suppressIOExceptionLogging = false; // Used to suppress logging for IO exception.
+            boolean asyncStarted = false; // The connection is released once the asynchronous response completes.
             try
             {
                 currentThread.setName(threadName + STREAMING_THREAD_NAME_EXTENSION);
@@ -855,6 +1030,14 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
                 if (Log.isDebug())
                     log.debug("Number of streaming clients for endpoint with id '"+ getId() +"' is " + streamingClientsCount + ".");
 
+                // Hand the connection over to the writer threads if the request can be
+                // held open in asynchronous mode.
+                if (startAsyncStreaming(req, os, flexClient, session, notifier))
+                {
+                    asyncStarted = true;
+                    return;
+                }
+
                 // And cycle in a wait-notify loop with the aid of the helper until it
                 // is closed, we're interrupted or the act of streaming data to the client fails.
                 while (!notifier.isClosed())
@@ -933,33 +1116,8 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
             {
                 currentThread.setName(threadName);
 
-                // We're done so decrement the counts for streaming threads,
-                // and update the canStream flag if necessary.
-                synchronized (lock)
-                {
-                    --streamingClientsCount;
-                    canStream = (streamingClientsCount < maxStreamingClients);
-                    synchronized (session)
-                    {
-                        --session.streamingConnectionsCount;
-                        session.canStream = (session.maxConnectionsPerSession == FlexSession.MAX_CONNECTIONS_PER_SESSION_UNLIMITED
-                                || session.streamingConnectionsCount < session.maxConnectionsPerSession);
-                    }
-                }
-
-                if (notifier != null && currentStreamingRequests != null)
-                {
-                    currentStreamingRequests.remove(notifier.getNotifierId());
-                    notifier.close();
-                }
-
-                // Output session level streaming count.
-                if (Log.isDebug())
-                    Log.getLogger(FlexSession.FLEX_SESSION_LOG_CATEGORY).info("Number of streaming clients for FlexSession with id '"+ session.getId() +"' is " + session.streamingConnectionsCount + ".");
-
-                // Output endpoint level streaming count.
-                if (Log.isDebug())
-                    log.debug("Number of streaming clients for endpoint with id '"+ getId() +"' is " + streamingClientsCount + ".");
+                if (!asyncStarted)
+                    releaseStreamingConnection(session, notifier);
             }
         }
         // Otherwise, client's streaming connection open request could not be granted.
@@ -1165,6 +1323,24 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
      * @throws IOException if writing the chunk to the output stream fails.
      */
     protected void streamChunk(byte[] bytes, ServletOutputStream os, HttpServletResponse response) throws IOException
+    {
+        streamChunk(bytes, os, response, true);
+    }
+
+    /**
+     * Helper method to write a chunk of bytes to the output stream in an HTTP
+     * "Transfer-Encoding: chunked" format, optionally without flushing it, so that the
+     * chunks of a batch of messages are written to the client at once.
+     * If the bytes array is null or empty, a terminal chunk will be written and flushed.
+     *
+     * @param bytes The array of bytes to write as a chunk in the response; or if null, the signal to write the final chunk to complete the response.
+     * @param os The output stream the chunk will be written to.
+     * @param response The HttpServletResponse, used to flush the chunk to the client.
+     * @param flush Whether to flush the chunk to the client.
+     *
+     * @throws IOException if writing the chunk to the output stream fails.
+     */
+    protected void streamChunk(byte[] bytes, ServletOutputStream os, HttpServletResponse response, boolean flush) throws IOException
     {
         if ((bytes != null) && (bytes.length > 0))
         {
@@ -1173,7 +1349,8 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
             os.write(CRLF_BYTES);
             os.write(bytes);
             os.write(CRLF_BYTES);
-            response.flushBuffer();
+            if (flush)
+                response.flushBuffer();
         }
         else // Send final 'EOF' chunk for the response.
         {
@@ -1185,7 +1362,8 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
 
     /**
      * Helper method invoked by the endpoint request handler thread cycling in wait-notify.
-     * Serializes messages and streams each to the client as a response chunk using streamChunk().
+     * Serializes messages and streams each to the client as a response chunk using streamChunk(),
+     * flushing the response once all messages have been written.
      *
      * @param messages The messages to serialize and push to the client.
      * @param os The output stream the chunk will be written to.
@@ -1213,6 +1391,105 @@ public abstract class BaseStreamingHTTPEndpoint extends BaseHTTPEndpoint
     //
     //--------------------------------------------------------------------------
 
+    /**
+     * Decrements the counts for streaming connections, updates the canStream
+     * flags if necessary and closes the notifier of the connection.
+     *
+     * @param session The FlexSession of the connection.
+     * @param notifier The EndpointPushNotifier of the connection, if one was created.
+     */
+    private void releaseStreamingConnection(FlexSession session, EndpointPushNotifier notifier)
+    {
+        synchronized (lock)
+        {
+            --streamingClientsCount;
+            canStream = (streamingClientsCount < maxStreamingClients);
+            synchronized (session)
+            {
+                --session.streamingConnectionsCount;
+                session.canStream = (session.maxConnectionsPerSession == FlexSession.MAX_CONNECTIONS_PER_SESSION_UNLIMITED
+                        || session.streamingConnectionsCount < session.maxConnectionsPerSession);
+            }
+        }
+
+        Map<String, EndpointPushNotifier> streamingRequests = currentStreamingRequests;
+        if (notifier != null && streamingRequests != null)
+        {
+            streamingRequests.remove(notifier.getNotifierId());
+            notifier.close();
+        }
+
+        // Output session level streaming count.
+        if (Log.isDebug())
+            Log.getLogger(FlexSession.FLEX_SESSION_LOG_CATEGORY).info("Number of streaming clients for FlexSession with id '"+ session.getId() +"' is " + session.streamingConnectionsCount + ".");
+
+        // Output endpoint level streaming count.
+        if (Log.isDebug())
+            log.debug("Number of streaming clients for endpoint with id '"+ getId() +"' is " + streamingClientsCount + ".");
+    }
+
+    /**
+     * Releases an asynchronous streaming connection once its response has completed.
+     *
+     * @param connection The connection.
+     * @param session The FlexSession of the connection.
+     * @param notifier The EndpointPushNotifier of the connection.
+     */
+    void releaseAsyncStreamingConnection(AsyncStreamingConnection connection, FlexSession session, EndpointPushNotifier notifier)
+    {
+        Map<AsyncStreamingConnection, Boolean> connections = asyncStreamingConnections;
+        if (connections != null)
+            connections.remove(connection);
+
+        if (Log.isDebug())
+            log.debug("Endpoint with id '" + getId() + "' is releasing the asynchronous streaming connection with id '"
+                    + notifier.getNotifierId() + "'.");
+
+        releaseStreamingConnection(session, notifier);
+    }
+
+    /**
+     * Puts the streaming connection into asynchronous mode if the endpoint and the
+     * request support it, so that the request handler thread can return.
+     *
+     * @param req The streaming connection open request.
+     * @param os The output stream of the response.
+     * @param flexClient The FlexClient that requested the streaming connection.
+     * @param session The FlexSession of the connection.
+     * @param notifier The EndpointPushNotifier of the connection.
+     * @return <code>true</code> if the connection is now streamed asynchronously.
+     */
+    boolean startAsyncStreaming(HttpServletRequest req, ServletOutputStream os, FlexClient flexClient,
+            FlexSession session, EndpointPushNotifier notifier)
+    {
+        ExecutorService writers = streamingWriters;
+        Map<AsyncStreamingConnection, Boolean> connections = asyncStreamingConnections;
+        if (!asyncStreaming || writers == null || connections == null || !req.isAsyncSupported())
+            return false;
+
+        AsyncContext asyncContext;
+        try
+        {
+            asyncContext = req.startAsync();
+        }
+        catch (IllegalStateException e)
+        {
+            if (Log.isDebug())
+                log.debug("Unable to start an asynchronous streaming connection, the connection will hold the request thread. " + e.getMessage());
+            return false;
+        }
+
+        AsyncStreamingConnection connection = new AsyncStreamingConnection(this, asyncContext, os, flexClient, session,
+                notifier, writers, maxPendingBytes, heartbeatTimer, serverToClientHeartbeatMillis);
+        connections.put(connection, Boolean.TRUE);
+        connection.start();
+
+        if (Log.isDebug())
+            log.debug("Endpoint with id '" + getId() + "' is streaming to FlexClient with id '" + flexClient.getId()
+                    + "' asynchronously; the request thread is returning to the request handler pool.");
+        return true;
+    }
+
     /**
      * Utility method used at EndpointPushNotifier construction to monitor it for timeout.
      *
@@ -113,7 +113,7 @@ public class HTTPEndpoint extends BasePollingHTTPEndpoint
     @Override protected AMFFilter createFilterChain()
     {
         AMFFilter serializationFilter = new SerializationFilter(getLogCategory());
-        AMFFilter batchFilter = new BatchProcessFilter();
+        AMFFilter batchFilter = new BatchProcessFilter(batchExecutor);
         AMFFilter sessionFilter = sessionRewritingEnabled? new SessionFilter() : null;
         AMFFilter messageBrokerFilter = new MessageBrokerFilter(this);
 
@@ -107,7 +107,7 @@ public class StreamingAMFEndpoint extends BaseStreamingHTTPEndpoint
     @Override protected AMFFilter createFilterChain()
     {
         AMFFilter serializationFilter = new SerializationFilter(getLogCategory());
-        AMFFilter batchFilter = new BatchProcessFilter();
+        AMFFilter batchFilter = new BatchProcessFilter(batchExecutor);
         AMFFilter sessionFilter = sessionRewritingEnabled? new SessionFilter() : null;
         AMFFilter envelopeFilter = new LegacyFilter(this);
         AMFFilter messageBrokerFilter = new MessageBrokerFilter(this);
@@ -208,7 +208,8 @@ public class StreamingAMFEndpoint extends BaseStreamingHTTPEndpoint
 
     /**
      * Helper method invoked by the endpoint request handler thread cycling in wait-notify.
-     * Serializes messages and streams each to the client as a response chunk using streamChunk().
+     * Serializes messages and streams each to the client as a response chunk using streamChunk(),
+     * flushing the response once all messages have been written.
      *
      * @param messages The messages to serialize and push to the client.
      * @param os The output stream the chunk will be written to.
@@ -219,8 +220,15 @@ public class StreamingAMFEndpoint extends BaseStreamingHTTPEndpoint
         if (messages == null || messages.isEmpty())
             return;
 
-        // Serialize each message as a separate chunk of bytes.
+        // Serialize each message as a separate chunk of bytes. The buffer and
+        // output are reused across the batch; each message starts a fresh
+        // reference context so a message shared by many clients can be written
+        // from its pre-encoded form.
         TypeMarshallingContext.setTypeMarshaller(getTypeMarshaller());
+        Amf3Output amfOut = new Amf3Output(serializationContext);
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutStream = new DataOutputStream(outStream);
+        amfOut.setOutputStream(dataOutStream);
         for (Iterator iter = messages.iterator(); iter.hasNext();)
         {
             Message message = (Message)iter.next();
@@ -229,15 +237,13 @@ public class StreamingAMFEndpoint extends BaseStreamingHTTPEndpoint
             if (Log.isDebug())
                 log.debug("Endpoint with id '" + getId() + "' is streaming message: " + message);
 
-            Amf3Output amfOut = new Amf3Output(serializationContext);
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-            DataOutputStream dataOutStream = new DataOutputStream(outStream);
-            amfOut.setOutputStream(dataOutStream);
-
+            outStream.reset();
+            amfOut.reset();
             amfOut.writeObject(message);
             dataOutStream.flush();
             byte[] messageBytes = outStream.toByteArray();
-            streamChunk(messageBytes, os, response);
+            // Write the chunks of a batch to the client at once.
+            streamChunk(messageBytes, os, response, !iter.hasNext());
 
             if (isManaged())
                 ((StreamingAMFEndpointControl)controller).incrementPushCount();
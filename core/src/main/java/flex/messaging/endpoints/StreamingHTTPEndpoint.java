@@ -99,7 +99,7 @@ public class StreamingHTTPEndpoint extends BaseStreamingHTTPEndpoint
     @Override protected AMFFilter createFilterChain()
     {
         AMFFilter serializationFilter = new SerializationFilter(getLogCategory());
-        AMFFilter batchFilter = new BatchProcessFilter();
+        AMFFilter batchFilter = new BatchProcessFilter(batchExecutor);
         AMFFilter sessionFilter = sessionRewritingEnabled? new SessionFilter() : null;
         AMFFilter messageBrokerFilter = new MessageBrokerFilter(this);
 
@@ -198,7 +198,8 @@ public class StreamingHTTPEndpoint extends BaseStreamingHTTPEndpoint
 
     /**
      * Helper method invoked by the endpoint request handler thread cycling in wait-notify.
-     * Serializes messages and streams each to the client as a response chunk using streamChunk().
+     * Serializes messages and streams each to the client as a response chunk using streamChunk(),
+     * flushing the response once all messages have been written.
      *
      * @param messages The messages to serialize and push to the client.
      * @param os The output stream the chunk will be written to.
@@ -229,7 +230,8 @@ public class StreamingHTTPEndpoint extends BaseStreamingHTTPEndpoint
             amfxOut.writeObject(message);
             dataOutStream.flush();
             byte[] messageBytes = outStream.toByteArray();
-            streamChunk(messageBytes, os, response);
+            // Write the chunks of a batch to the client at once.
+            streamChunk(messageBytes, os, response, !iter.hasNext());
 
             if (isManaged())
                 ((StreamingHTTPEndpointControl)controller).incrementPushCount();
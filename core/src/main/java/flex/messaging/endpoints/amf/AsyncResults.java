@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints.amf;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
+import flex.messaging.FlexContext;
+import flex.messaging.MessageException;
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.AsyncResult;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.log.Log;
+import flex.messaging.log.LogCategories;
+import flex.messaging.messages.ErrorMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.util.ExceptionUtil;
+import flex.messaging.util.StringUtils;
+import flex.messaging.util.concurrent.FutureCompletion;
+
+/**
+ * Completes the responses of requests whose messages were answered with a
+ * <code>Future</code>. The request is suspended with Servlet 3 asynchronous
+ * processing until every future of the request has completed or the timeout
+ * of the context has elapsed, and is then dispatched back to the endpoint,
+ * which serializes the response with the results filled in.
+ */
+final class AsyncResults
+{
+    static final String LOG_CATEGORY = LogCategories.ENDPOINT_GENERAL;
+
+    static final String TIMEOUT_CODE = "Server.Processing.Timeout";
+
+    private AsyncResults()
+    {
+    }
+
+    /**
+     * Suspends the request until all asynchronous results of its context
+     * have completed, and defers its response.
+     *
+     * @param context the context of the request.
+     * @return <code>true</code> if the request was suspended, <code>false</code>
+     * if it does not support asynchronous processing.
+     */
+    static boolean suspend(ActionContext context)
+    {
+        List<AsyncResult> results = context.getAsyncResults();
+        HttpServletRequest request = FlexContext.getHttpRequest();
+        if (results == null || request == null)
+            return false;
+
+        AsyncContext asyncContext;
+        try
+        {
+            asyncContext = request.startAsync();
+        }
+        catch (IllegalStateException e)
+        {
+            if (Log.isDebug())
+                Log.getLogger(LOG_CATEGORY).debug("Unable to suspend the request, waiting for its asynchronous results instead. " + e.getMessage());
+            return false;
+        }
+
+        long timeout = context.getAsyncResultTimeoutMillis();
+        asyncContext.setTimeout(timeout > 0 ? timeout : 0);
+        context.setResponseDeferred(true);
+
+        Resumer resumer = new Resumer(asyncContext, results);
+        asyncContext.addListener(resumer);
+        for (AsyncResult result : results)
+            FutureCompletion.whenDone(result.getFuture(), resumer);
+        return true;
+    }
+
+    /**
+     * Fills the asynchronous results of the context into its response and
+     * clears them from the context.
+     *
+     * @param context the context of the request.
+     * @param wait <code>true</code> to wait for results that have not completed
+     * yet, <code>false</code> to answer them with a timeout error.
+     */
+    static void complete(ActionContext context, boolean wait)
+    {
+        List<AsyncResult> results = context.getAsyncResults();
+        if (results == null)
+            return;
+
+        context.clearAsyncResults();
+        for (AsyncResult result : results)
+            complete(context, result, wait);
+    }
+
+    /**
+     * Fills an asynchronous result into the response: the value of the future
+     * becomes the body of the acknowledgement, or the acknowledgement is
+     * replaced with an error message if the future failed or timed out.
+     *
+     * @param context the context of the request.
+     * @param result the result.
+     * @param wait <code>true</code> to wait for the result if it has not completed
+     * yet, <code>false</code> to answer it with a timeout error.
+     */
+    static void complete(ActionContext context, AsyncResult result, boolean wait)
+    {
+        Future<?> future = result.getFuture();
+        Message request = result.getRequest();
+        MessageException error;
+        try
+        {
+            Object value;
+            long timeout = context.getAsyncResultTimeoutMillis();
+            if (future.isDone())
+                value = future.get();
+            else if (!wait)
+                throw new TimeoutException();
+            else if (timeout > 0)
+                value = future.get(timeout, TimeUnit.MILLISECONDS);
+            else
+                value = future.get();
+
+            result.getAcknowledgement().setBody(value);
+            return;
+        }
+        catch (ExecutionException e)
+        {
+            error = createMessageException(request, e.getCause() != null ? e.getCause() : e);
+        }
+        catch (CancellationException e)
+        {
+            error = new MessageException("The result of the message was cancelled.");
+            error.setCode("Server.Processing");
+        }
+        catch (TimeoutException e)
+        {
+            future.cancel(true);
+            error = new MessageException("The result of the message was not available within "
+                    + context.getAsyncResultTimeoutMillis() + " milliseconds.");
+            error.setCode(TIMEOUT_CODE);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            error = new MessageException("Interrupted while waiting for the result of the message.");
+            error.setCode("Server.Processing");
+        }
+
+        ErrorMessage errorMessage = error.createErrorMessage();
+        errorMessage.setCorrelationId(request.getMessageId());
+        errorMessage.setDestination(request.getDestination());
+        errorMessage.setClientId(request.getClientId());
+        error.logAtHingePoint(request, errorMessage, null /* Use default message intros */);
+
+        context.setStatus(MessageIOConstants.STATUS_ERR);
+        MessageBody response = result.getResponseBody();
+        response.setReplyMethod(MessageIOConstants.STATUS_METHOD);
+        response.setData(errorMessage);
+    }
+
+    /**
+     * Maps the failure of a future the way a failed remoting invocation is
+     * mapped: message exceptions are passed on, other failures are wrapped.
+     */
+    private static MessageException createMessageException(Message request, Throwable cause)
+    {
+        if (cause instanceof MessageException)
+            return (MessageException)cause;
+
+        if (Log.isError())
+        {
+            Log.getLogger(LOG_CATEGORY).error("Error processing asynchronous result: " +
+                    cause.toString() + StringUtils.NEWLINE +
+                    "  incomingMessage: " + request + StringUtils.NEWLINE +
+                    ExceptionUtil.toString(cause));
+        }
+        MessageException me = new MessageException(cause.getClass().getName() + " : " + cause.getMessage());
+        me.setCode("Server.Processing");
+        me.setRootCause(cause);
+        return me;
+    }
+
+    /**
+     * Dispatches a suspended request once all of its futures have completed
+     * or its timeout has elapsed.
+     */
+    private static class Resumer implements Runnable, AsyncListener
+    {
+        private final AsyncContext asyncContext;
+        private final List<AsyncResult> results;
+        private final AtomicInteger pending;
+        private final AtomicBoolean dispatched = new AtomicBoolean();
+
+        Resumer(AsyncContext asyncContext, List<AsyncResult> results)
+        {
+            this.asyncContext = asyncContext;
+            this.results = results;
+            pending = new AtomicInteger(results.size());
+        }
+
+        /**
+         * Called as each future completes.
+         */
+        public void run()
+        {
+            if (pending.decrementAndGet() == 0)
+                dispatch();
+        }
+
+        private void dispatch()
+        {
+            if (!dispatched.compareAndSet(false, true))
+                return;
+
+            try
+            {
+                asyncContext.dispatch();
+            }
+            catch (IllegalStateException e)
+            {
+                // The request was already completed, for example because the connection was closed.
+                if (Log.isDebug())
+                    Log.getLogger(LOG_CATEGORY).debug("Unable to dispatch a request with asynchronous results. " + e.getMessage());
+            }
+        }
+
+        public void onComplete(AsyncEvent event)
+        {
+            // No-op.
+        }
+
+        public void onTimeout(AsyncEvent event)
+        {
+            // Results that are still pending are answered with timeout errors.
+            dispatch();
+        }
+
+        public void onError(AsyncEvent event)
+        {
+            // The response can no longer be written.
+            dispatched.set(true);
+            for (AsyncResult result : results)
+                result.getFuture().cancel(true);
+        }
+
+        public void onStartAsync(AsyncEvent event)
+        {
+            // No-op.
+        }
+    }
+}
@@ -16,18 +16,68 @@
  */
 package flex.messaging.endpoints.amf;
 
+import flex.messaging.Destination;
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.client.FlexClient;
+import flex.messaging.endpoints.Endpoint;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.TypeMarshallingContext;
+import flex.messaging.io.TypeMarshaller;
 import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AsyncResult;
 import flex.messaging.io.amf.MessageBody;
 import flex.messaging.io.MessageIOConstants;
 import flex.messaging.io.RecoverableSerializationException;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.MessagePerformanceInfo;
+import flex.messaging.messages.MessagePerformanceUtils;
+import flex.messaging.messages.RemotingMessage;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Filter that breaks down the batched message buffer into individual invocations.
+ * <p>
+ * If the filter has an executor, the bodies of a batch that consists of
+ * <code>RemotingMessage</code>s to destinations that enable <code>parallel-batch</code>
+ * only are processed in parallel, each with its own copy of the <code>ActionContext</code>
+ * and of the <code>FlexContext</code> of the request thread. The threads share the
+ * <code>HttpServletRequest</code>, <code>HttpServletResponse</code> and
+ * <code>FlexSession</code> of the request, which are not thread-safe, which is why
+ * destinations have to opt in. The response bodies are created up front, so the
+ * response keeps the order of the request.
+ * </p>
  */
 public class BatchProcessFilter extends AMFFilter
 {
+    private final Executor executor;
+
     public BatchProcessFilter()
     {
+        this(null);
+    }
+
+    /**
+     * Constructs a <code>BatchProcessFilter</code> that processes the bodies
+     * of batched remoting requests in parallel.
+     *
+     * @param executor The executor that processes the bodies besides the request
+     * thread, or <code>null</code> to process them in sequence.
+     */
+    public BatchProcessFilter(Executor executor)
+    {
+        this.executor = executor;
     }
 
     public void invoke(final ActionContext context)
@@ -38,6 +88,12 @@ public class BatchProcessFilter extends AMFFilter
         // Report batch size in Debug mode
         //gateway.getLogger().logDebug("Processing batch of " + bodyCount + " request(s)");
 
+        if (executor != null && bodyCount > 1 && isParallelBatch(context.getRequestMessage()))
+        {
+            invokeParallel(context, bodyCount);
+            return;
+        }
+
         for (context.setMessageNumber(0); context.getMessageNumber() < bodyCount; context.incrementMessageNumber())
         {
             try
@@ -68,4 +124,229 @@ public class BatchProcessFilter extends AMFFilter
             }
         }
     }
+
+    /**
+     * Processes the bodies of a batch in parallel. The request thread processes
+     * the first body and any body the executor rejects, and returns once all
+     * bodies have been processed.
+     */
+    private void invokeParallel(ActionContext context, int bodyCount)
+    {
+        ActionMessage responseMessage = context.getResponseMessage();
+        for (int i = 0; i < bodyCount; i++)
+        {
+            MessageBody responseBody = new MessageBody();
+            responseBody.setTargetURI(context.getRequestMessage().getBody(i).getResponseURI());
+            responseMessage.addBody(responseBody);
+        }
+
+        ActionContext[] bodyContexts = new ActionContext[bodyCount];
+        for (int i = 0; i < bodyCount; i++)
+            bodyContexts[i] = createBodyContext(context, i);
+
+        final CountDownLatch done = new CountDownLatch(bodyCount - 1);
+        final ThreadState state = new ThreadState();
+        for (int i = 1; i < bodyCount; i++)
+        {
+            final ActionContext bodyContext = bodyContexts[i];
+            Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    state.apply();
+                    try
+                    {
+                        invokeBody(bodyContext);
+                    }
+                    finally
+                    {
+                        state.clear();
+                        done.countDown();
+                    }
+                }
+            };
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // All threads are busy or the endpoint is stopping; process the body on this thread.
+                invokeBody(bodyContext);
+                done.countDown();
+            }
+        }
+
+        invokeBody(bodyContexts[0]);
+
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                done.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        // Merge the outcome of the bodies in the order of the request.
+        for (int i = 0; i < bodyCount; i++)
+            mergeBodyContext(context, bodyContexts[i], responseMessage.getBody(i));
+        context.setMessageNumber(bodyCount);
+    }
+
+    private void invokeBody(ActionContext bodyContext)
+    {
+        try
+        {
+            next.invoke(bodyContext);
+        }
+        catch (Exception e)
+        {
+            // continue invoking on next message body despite error
+        }
+    }
+
+    /**
+     * Returns whether the bodies of a batch are remoting calls to destinations
+     * that allow batched calls to be processed in parallel. The first request of
+     * a client that has no FlexClient id yet is processed in sequence, so that
+     * its messages are not each assigned a new FlexClient.
+     */
+    private static boolean isParallelBatch(ActionMessage requestMessage)
+    {
+        MessageBroker broker = FlexContext.getMessageBroker();
+        if (broker == null)
+            return false;
+
+        for (int i = 0; i < requestMessage.getBodyCount(); i++)
+        {
+            Object data = requestMessage.getBody(i).getData();
+            if (data instanceof List)
+                data = ((List)data).isEmpty() ? null : ((List)data).get(0);
+            else if (data != null && data.getClass().isArray())
+                data = Array.getLength(data) == 0 ? null : Array.get(data, 0);
+
+            if (!(data instanceof RemotingMessage))
+                return false;
+
+            Message message = (Message)data;
+            Destination destination = broker.getRegisteredDestination(message.getDestination());
+            if (destination == null || !destination.isParallelBatch())
+                return false;
+
+            if (message.headerExists(Message.FLEX_CLIENT_ID_HEADER))
+            {
+                Object id = message.getHeader(Message.FLEX_CLIENT_ID_HEADER);
+                if (id == null || FlexClient.NULL_FLEXCLIENT_ID.equals(id))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the context that one body of a batch is processed with. It shares
+     * the request and the response bodies of the batch, but has its own response
+     * headers, status and asynchronous results.
+     */
+    private static ActionContext createBodyContext(ActionContext context, int messageNumber)
+    {
+        ActionContext bodyContext = new ActionContext();
+        bodyContext.setMessageNumber(messageNumber);
+        bodyContext.setRequestMessage(context.getRequestMessage());
+
+        ActionMessage responseMessage = new ActionMessage(context.getResponseMessage().getVersion());
+        responseMessage.getBodies().addAll(context.getResponseMessage().getBodies());
+        bodyContext.setResponseMessage(responseMessage);
+
+        bodyContext.setStatus(context.getStatus());
+        bodyContext.setVersion(context.getVersion());
+        bodyContext.setLegacy(context.isLegacy());
+        bodyContext.isPush = context.isPush;
+        bodyContext.isDebug = context.isDebug;
+        bodyContext.setRecordMessageSizes(context.isRecordMessageSizes());
+        bodyContext.setRecordMessageTimes(context.isRecordMessageTimes());
+        bodyContext.setMPII(context.getMPII());
+        bodyContext.setAsyncResultTimeoutMillis(context.getAsyncResultTimeoutMillis());
+        bodyContext.setAsyncSupported(context.isAsyncSupported());
+        return bodyContext;
+    }
+
+    private static void mergeBodyContext(ActionContext context, ActionContext bodyContext, MessageBody responseBody)
+    {
+        if (bodyContext.getStatus() == MessageIOConstants.STATUS_ERR)
+            context.setStatus(MessageIOConstants.STATUS_ERR);
+
+        // Processed in sequence, the bodies of a batch share the outgoing MPI of the
+        // first body, which the serialization filter completes for the whole response.
+        MessagePerformanceInfo bodyMPIO = bodyContext.getMPIO();
+        if (bodyMPIO != null)
+        {
+            MessagePerformanceInfo mpio = context.getMPIO();
+            if (mpio == null)
+            {
+                context.setMPIO(bodyMPIO);
+            }
+            else if (mpio != bodyMPIO)
+            {
+                mpio.pushedFlag |= bodyMPIO.pushedFlag;
+                Object data = responseBody.getData();
+                if (data instanceof Message && MessagePerformanceUtils.getMPIO((Message)data) == bodyMPIO)
+                    MessagePerformanceUtils.setMPIO((Message)data, mpio);
+            }
+        }
+
+        ActionMessage responseMessage = bodyContext.getResponseMessage();
+        for (int i = 0; i < responseMessage.getHeaderCount(); i++)
+            context.getResponseMessage().addHeader(responseMessage.getHeader(i));
+
+        List<AsyncResult> asyncResults = bodyContext.getAsyncResults();
+        if (asyncResults != null)
+        {
+            for (AsyncResult asyncResult : asyncResults)
+                context.addAsyncResult(asyncResult);
+        }
+    }
+
+    /**
+     * The thread local state of the request thread, applied to the threads that
+     * process the bodies of its batch.
+     */
+    private static class ThreadState
+    {
+        final FlexClient flexClient = FlexContext.getFlexClient();
+        final FlexSession session = FlexContext.getFlexSession();
+        final MessageBroker broker = FlexContext.getMessageBroker();
+        final Endpoint endpoint = FlexContext.getEndpoint();
+        final HttpServletRequest request = FlexContext.getHttpRequest();
+        final HttpServletResponse response = FlexContext.getHttpResponse();
+        final HttpServletRequest tunnelRequest = FlexContext.getTunnelHttpRequest();
+        final ServletConfig servletConfig = FlexContext.getServletConfig();
+        final SerializationContext serializationContext = SerializationContext.getSerializationContext();
+        final TypeMarshaller typeMarshaller = TypeMarshallingContext.getTypeMarshaller();
+
+        void apply()
+        {
+            FlexContext.setThreadLocalObjects(flexClient, session, broker, request, response, servletConfig);
+            FlexContext.setThreadLocalEndpoint(endpoint);
+            FlexContext.setThreadLocalTunnelHttpRequest(tunnelRequest);
+            if (serializationContext != null)
+                SerializationContext.setSerializationContext((SerializationContext)serializationContext.clone());
+            TypeMarshallingContext.setTypeMarshaller(typeMarshaller);
+        }
+
+        void clear()
+        {
+            FlexContext.clearThreadLocalObjects();
+            SerializationContext.clearThreadLocalObjects();
+            TypeMarshallingContext.clearThreadLocalObjects();
+        }
+    }
 }
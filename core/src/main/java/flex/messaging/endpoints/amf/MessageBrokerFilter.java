@@ -22,7 +22,9 @@ import flex.messaging.MessageException;
 import flex.messaging.endpoints.AbstractEndpoint;
 import flex.messaging.io.MessageIOConstants;
 import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.AsyncResult;
 import flex.messaging.io.amf.MessageBody;
+import flex.messaging.messages.AcknowledgeMessage;
 import flex.messaging.messages.CommandMessage;
 import flex.messaging.messages.ErrorMessage;
 import flex.messaging.messages.Message;
@@ -33,8 +35,10 @@ import flex.messaging.log.LogCategories;
 import flex.messaging.log.Log;
 import flex.messaging.util.ExceptionUtil;
 import flex.messaging.util.UUIDUtils;
+import flex.messaging.util.concurrent.FutureCompletion;
 
 import java.util.List;
+import java.util.concurrent.Future;
 import java.lang.reflect.Array;
 
 /**
@@ -161,6 +165,17 @@ public class MessageBrokerFilter extends AMFFilter
                 MessagePerformanceUtils.updateOutgoingMPI(context, inMessage, outMessage);
             }
 
+            // A service that returned a Future is answered once the future completes.
+            // The acknowledgement is captured before it is wrapped in a small message.
+            AsyncResult asyncResult = null;
+            if (outMessage instanceof AcknowledgeMessage && !(outMessage instanceof ErrorMessage))
+            {
+                AcknowledgeMessage ack = (AcknowledgeMessage)outMessage;
+                Future<?> future = FutureCompletion.asFuture(ack.getBody());
+                if (future != null)
+                    asyncResult = new AsyncResult(inMessage, ack, response, future);
+            }
+
             // If our channel-endpoint combination supports small messages, and
             // if we know the current protocol version supports small messages,
             // try to replace the message...
@@ -175,6 +190,17 @@ public class MessageBrokerFilter extends AMFFilter
 
             response.setReplyMethod(replyMethodName);
             response.setData(outMessage);
+
+            // Legacy responses are unwrapped by the filters before this one, so
+            // their results, like those of requests that cannot be suspended,
+            // are waited for here.
+            if (asyncResult != null)
+            {
+                if (context.isAsyncSupported() && !context.isLegacy())
+                    context.addAsyncResult(asyncResult);
+                else
+                    AsyncResults.complete(context, asyncResult, true);
+            }
         }
     }
 }
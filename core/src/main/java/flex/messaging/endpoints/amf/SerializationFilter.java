@@ -17,12 +17,12 @@
 package flex.messaging.endpoints.amf;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 import javax.servlet.http.HttpServletRequest;
@@ -37,8 +37,11 @@ import flex.messaging.io.SerializationException;
 import flex.messaging.io.amf.ASObject;
 import flex.messaging.io.amf.ActionContext;
 import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AmfSerializationPool;
 import flex.messaging.io.amf.AmfTrace;
+import flex.messaging.io.amf.ByteArrayAmfInputStream;
 import flex.messaging.io.amf.MessageBody;
+import flex.messaging.io.amf.ResponseOutputStream;
 import flex.messaging.log.Log;
 import flex.messaging.log.LogCategories;
 import flex.messaging.log.Logger;
@@ -67,6 +70,13 @@ public class SerializationFilter extends AMFFilter
     private static final int REQUEST_ERROR = 10307;
     private static final int RESPONSE_ERROR = 10308;
 
+    // Exactly representable, unlikely values that stand in for the message
+    // size, overhead and send time of the outgoing MPI while the response is
+    // serialized. They all have the same length when written as text.
+    static final long MESSAGE_SIZE_PLACEHOLDER = 7385462918003217L;
+    static final long OVERHEAD_TIME_PLACEHOLDER = 7385462918003219L;
+    static final long SEND_TIME_PLACEHOLDER = 7385462918003221L;
+
     //--------------------------------------------------------------------------
     //
     // Constructor
@@ -105,20 +115,200 @@ public class SerializationFilter extends AMFFilter
     @Override
     public void invoke(final ActionContext context) throws IOException
     {
-        boolean success = false;
+        boolean success;
 
         // Additional AMF packet tracing is enabled only at the debug logging level
         // and only if there's a target listening for it.
         AmfTrace debugTrace = Log.isDebug() && logger.hasTarget()? new AmfTrace() : null;
 
+        // A request that was suspended for the asynchronous results of its
+        // messages already holds its response, which only lacks the results.
+        boolean resumed = context.getAsyncResults() != null;
+
         // Create an empty ActionMessage object to hold our response
-        context.setResponseMessage(new ActionMessage());
+        if (!resumed)
+            context.setResponseMessage(new ActionMessage());
         SerializationContext sc = SerializationContext.getSerializationContext();
+        AmfSerializationPool pool = AmfSerializationPool.getPool();
+
+        // A request whose response was deferred is serviced again from the
+        // message that was deserialized when it first arrived.
+        if (resumed)
+        {
+            success = true;
+        }
+        else if (context.getRequestMessage() != null)
+        {
+            context.getResponseMessage().setVersion(context.getVersion());
+            success = true;
+        }
+        else
+        {
+            success = readRequest(context, sc, pool, debugTrace);
+        }
 
         try
         {
-            // Deserialize the input stream into an "ActionMessage" object.
-            MessageDeserializer deserializer = sc.newMessageDeserializer();
+            if (resumed)
+            {
+                AsyncResults.complete(context, false);
+            }
+            else if (success)
+            {
+                next.invoke(context);
+
+                // Suspend the request until the asynchronous results of its
+                // messages are available, or wait for them if it can't be.
+                if (context.getAsyncResults() != null && !AsyncResults.suspend(context))
+                    AsyncResults.complete(context, true);
+            }
+        }
+        catch (Throwable t)
+        {
+            context.clearAsyncResults();
+            unhandledError(context, t);
+        }
+        finally
+        {
+            // serialize output, unless the response was deferred
+            if (context.getStatus() != MessageIOConstants.STATUS_NOTAMF && !context.isResponseDeferred())
+            {
+                // Message sizes are patched into the buffered response after
+                // serialization, so such responses are never streamed.
+                ResponseOutputStream responseStream = context.isRecordMessageSizes() ? null : context.getResponseStream();
+                ActionMessage respMesg = context.getResponseMessage();
+
+                // Additional AMF packet tracing is enabled only at the debug logging level
+                // and only if there's a target listening for it.
+                debugTrace = Log.isDebug() && logger.hasTarget()? new AmfTrace() : null;
+
+                MessageSerializer serializer = pool.getSerializer(sc);
+                AmfSerializationPool.PooledBuffer outBuffer = null;
+                try
+                {
+                    // overhead calculation is only necessary when MPI is enabled
+                    long serializationOverhead = 0;
+                    MessagePerformanceInfo mpio = context.getMPIO();
+                    if (context.isRecordMessageTimes() && mpio != null)
+                    {
+                        // set server send time
+                        mpio.sendTime = System.currentTimeMillis();
+                        if (context.isRecordMessageSizes())
+                            serializationOverhead = System.currentTimeMillis();
+                    }
+
+                    if (responseStream != null)
+                    {
+                        serializer.initialize(sc, responseStream, debugTrace);
+                        serializer.writeMessage(respMesg);
+                        responseStream.flush();
+
+                        // keep track of serializes bytes for performance metrics
+                        context.setSerializedBytes(responseStream.size());
+                    }
+                    else
+                    {
+                        // The message size, and the overhead and send time that
+                        // depend on how long serialization takes, are written as
+                        // placeholders that are replaced once they are known.
+                        boolean patchMessageSize = context.isRecordMessageSizes() && mpio != null;
+                        boolean patchTimes = patchMessageSize && context.isRecordMessageTimes();
+                        long overheadTime = 0;
+                        if (patchMessageSize)
+                            mpio.messageSize = MESSAGE_SIZE_PLACEHOLDER;
+                        if (patchTimes)
+                        {
+                            overheadTime = mpio.overheadTime;
+                            mpio.overheadTime = OVERHEAD_TIME_PLACEHOLDER;
+                            mpio.sendTime = SEND_TIME_PLACEHOLDER;
+                        }
+
+                        // The endpoint returns the buffer to the pool once it
+                        // has been written.
+                        outBuffer = pool.getBuffer();
+                        serializer.initialize(sc, outBuffer, debugTrace);
+                        serializer.writeMessage(respMesg);
+
+                        if (patchMessageSize)
+                        {
+                            mpio.messageSize = outBuffer.size();
+                            boolean patched = patchMessageSize(outBuffer.getBytes(), outBuffer.size(), mpio.messageSize);
+
+                            // reset server send time
+                            if (patchTimes)
+                            {
+                                mpio.overheadTime = overheadTime;
+                                serializationOverhead = System.currentTimeMillis() - serializationOverhead;
+                                mpio.addToOverhead(serializationOverhead);
+                                mpio.sendTime = System.currentTimeMillis();
+
+                                patched &= patchPlaceholder(outBuffer.getBytes(), outBuffer.size(),
+                                        OVERHEAD_TIME_PLACEHOLDER, mpio.overheadTime);
+                                patched &= patchPlaceholder(outBuffer.getBytes(), outBuffer.size(),
+                                        SEND_TIME_PLACEHOLDER, mpio.sendTime);
+                            }
+
+                            if (!patched)
+                            {
+                                // A placeholder could not be located, serialize
+                                // the message again with the values filled in.
+                                outBuffer.reset();
+                                serializer.initialize(sc, outBuffer, debugTrace);
+                                serializer.writeMessage(respMesg);
+                            }
+                        }
+
+                        // keep track of serializes bytes for performance metrics
+                        context.setSerializedBytes(outBuffer.size());
+                        context.setResponseOutput(outBuffer);
+                    }
+                }
+                catch (Exception e)
+                {
+                    // The buffer was not handed to the endpoint, and the error
+                    // response is serialized into a buffer of its own.
+                    if (outBuffer != null && context.getResponseOutput() != outBuffer)
+                        pool.releaseBuffer(outBuffer);
+
+                    // Part of the response has already been sent, so it can
+                    // no longer be replaced with an error message.
+                    if (responseStream != null && responseStream.isCommitted())
+                    {
+                        MessageException ex = new MessageException();
+                        ex.setMessage(RESPONSE_ERROR);
+                        ex.setRootCause(e);
+                        throw ex;
+                    }
+
+                    if (responseStream != null)
+                        responseStream.reset();
+                    handleSerializationException(sc, context, e, logger);
+                }
+                finally
+                {
+                    pool.releaseSerializer(serializer);
+
+                    if (debugTrace != null)
+                        logger.debug(debugTrace.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Deserializes the request into the <code>ActionMessage</code> of the context.
+     *
+     * @return <code>true</code> if the request was deserialized.
+     */
+    private boolean readRequest(ActionContext context, SerializationContext sc, AmfSerializationPool pool, AmfTrace debugTrace) throws IOException
+    {
+        boolean success = false;
+
+        // Deserialize the input stream into an "ActionMessage" object.
+        MessageDeserializer deserializer = pool.getDeserializer(sc);
+        AmfSerializationPool.PooledBuffer requestBuffer = null;
+        try
+        {
 
             // Set up the deserialization context
             HttpServletRequest req = FlexContext.getHttpRequest();
@@ -141,7 +331,19 @@ public class SerializationFilter extends AMFFilter
                 }
 
                 if (outputStream.size() > 0)
-                    in = new ByteArrayInputStream(outputStream.toByteArray());
+                    in = new ByteArrayAmfInputStream(outputStream.toByteArray());
+            }
+            else
+            {
+                // Read a request body of a known and bounded length into memory
+                // so that it is deserialized from the array instead of the stream.
+                int contentLength = req.getContentLength();
+                if (contentLength > 0 && contentLength <= pool.getMaxBufferSize())
+                {
+                    requestBuffer = pool.getBuffer();
+                    requestBuffer.readFrom(in, contentLength);
+                    in = new ByteArrayAmfInputStream(requestBuffer.getBytes(), 0, requestBuffer.size());
+                }
             }
 
             deserializer.initialize(sc, in, debugTrace);
@@ -175,6 +377,9 @@ public class SerializationFilter extends AMFFilter
         }
         finally
         {
+            pool.releaseDeserializer(deserializer);
+            pool.releaseBuffer(requestBuffer);
+
             // Use the same ActionMessage version for the response
             ActionMessage respMsg = context.getResponseMessage();
             respMsg.setVersion(context.getVersion());
@@ -182,88 +387,91 @@ public class SerializationFilter extends AMFFilter
             if (debugTrace != null)
                 logger.debug(debugTrace.toString());
         }
+        return success;
+    }
 
-        try
+    /**
+     * Replaces every encoding of the message size placeholder in a
+     * serialized response with the actual size. The placeholder is written
+     * as an 8 byte double by AMF 0 and AMF 3 and as decimal text by AMFX;
+     * the replacement always has the same length.
+     *
+     * @param bytes the serialized response.
+     * @param length the number of valid bytes.
+     * @param messageSize the size to write.
+     * @return <code>true</code> if at least one placeholder was replaced.
+     */
+    static boolean patchMessageSize(byte[] bytes, int length, long messageSize)
+    {
+        return patchPlaceholder(bytes, length, MESSAGE_SIZE_PLACEHOLDER, messageSize);
+    }
+
+    /**
+     * Replaces every encoding of an MPI placeholder in a serialized response
+     * with its actual value.
+     *
+     * @param bytes the serialized response.
+     * @param length the number of valid bytes.
+     * @param placeholder the placeholder that was serialized.
+     * @param value the value to write.
+     * @return <code>true</code> if at least one placeholder was replaced.
+     */
+    static boolean patchPlaceholder(byte[] bytes, int length, long placeholder, long value)
+    {
+        byte[] binaryPlaceholder = doubleBytes(placeholder);
+        int binaryCount = replaceAll(bytes, length, binaryPlaceholder, doubleBytes(value));
+        if (binaryCount > 0)
+            return true;
+
+        byte[] textPlaceholder = asciiBytes(String.valueOf((double)placeholder));
+        String text = String.valueOf(value);
+        StringBuilder padded = new StringBuilder(textPlaceholder.length);
+        for (int i = text.length(); i < textPlaceholder.length; i++)
+            padded.append('0');
+        padded.append(text);
+        return replaceAll(bytes, length, textPlaceholder, asciiBytes(padded.toString())) > 0;
+    }
+
+    private static int replaceAll(byte[] bytes, int length, byte[] pattern, byte[] replacement)
+    {
+        if (replacement.length != pattern.length)
+            return 0;
+
+        int count = 0;
+        int last = length - pattern.length;
+        outer:
+        for (int i = 0; i <= last; i++)
         {
-            if (success)
+            for (int j = 0; j < pattern.length; j++)
             {
-                next.invoke(context);
+                if (bytes[i + j] != pattern[j])
+                    continue outer;
             }
+            System.arraycopy(replacement, 0, bytes, i, replacement.length);
+            i += pattern.length - 1;
+            count++;
         }
-        catch (Throwable t)
+        return count;
+    }
+
+    private static byte[] doubleBytes(double value)
+    {
+        long bits = Double.doubleToLongBits(value);
+        byte[] result = new byte[8];
+        for (int i = 7; i >= 0; i--)
         {
-            unhandledError(context, t);
+            result[i] = (byte)bits;
+            bits >>>= 8;
         }
-        finally
-        {
-            // serialize output
-            if (context.getStatus() != MessageIOConstants.STATUS_NOTAMF)
-            {
-                ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-                ActionMessage respMesg = context.getResponseMessage();
-
-                // Additional AMF packet tracing is enabled only at the debug logging level
-                // and only if there's a target listening for it.
-                debugTrace = Log.isDebug() && logger.hasTarget()? new AmfTrace() : null;
-
-                try
-                {
-                    // overhead calculation is only necessary when MPI is enabled
-                    long serializationOverhead=0;
-                    if(context.isRecordMessageTimes())
-                    {
-                        // set server send time
-                        context.getMPIO().sendTime = System.currentTimeMillis();
-                        if(context.isRecordMessageSizes())
-                            serializationOverhead = System.currentTimeMillis();
-                    }
-                    MessageSerializer serializer = sc.newMessageSerializer();
-                    serializer.initialize(sc, outBuffer, debugTrace);
-                    serializer.writeMessage(respMesg);
-
-                    // keep track of serializes bytes for performance metrics
-                    context.setSerializedBytes(outBuffer.size());
-
-                    // serialized message again after adding info if mpio with sizing is enabled
-                    if(context.isRecordMessageSizes())
-                    {
-                        try
-                        {
-                            context.getMPIO().messageSize = outBuffer.size();
-
-                            // reset server send time
-                            if(context.isRecordMessageTimes())
-                            {
-                                serializationOverhead = System.currentTimeMillis() - serializationOverhead;
-                                context.getMPIO().addToOverhead(serializationOverhead);
-                                context.getMPIO().sendTime = System.currentTimeMillis();
-                            }
+        return result;
+    }
 
-                            // reserialize the message now that info has been added
-                            outBuffer = new ByteArrayOutputStream();
-                            respMesg = context.getResponseMessage();
-                            serializer.initialize(sc, outBuffer, debugTrace);
-                            serializer.writeMessage(respMesg);
-                        }
-                        catch(Exception e)
-                        {
-                            if (Log.isDebug())
-                                logger.debug("MPI set up error: " + e.toString());
-                        }
-                    }
-                    context.setResponseOutput(outBuffer);
-                }
-                catch (Exception e)
-                {
-                    handleSerializationException(sc, context, e, logger);
-                }
-                finally
-                {
-                    if (debugTrace != null)
-                        logger.debug(debugTrace.toString());
-                }
-            }
-        }
+    private static byte[] asciiBytes(String value)
+    {
+        byte[] result = new byte[value.length()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (byte)value.charAt(i);
+        return result;
     }
 
     /**
@@ -415,8 +623,21 @@ public class SerializationFilter extends AMFFilter
         if (Log.isError() && logger != null)
             logger.error("Exception occurred during serialization: " + ExceptionUtil.toString(t));
 
-        // Serialize the error messages
-        ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+        // Serialize the error messages into the response stream of the
+        // endpoint, unless part of the failed response was already sent.
+        ResponseOutputStream responseStream = actionContext.getResponseStream();
+        if (responseStream != null && responseStream.isCommitted())
+            responseStream = null;
+        OutputStream outBuffer;
+        if (responseStream != null)
+        {
+            responseStream.reset();
+            outBuffer = responseStream;
+        }
+        else
+        {
+            outBuffer = AmfSerializationPool.getPool().getBuffer();
+        }
         AmfTrace debugTrace = Log.isDebug() && logger.hasTarget()? new AmfTrace() : null;
         MessageSerializer serializer = serializationContext.newMessageSerializer();
         serializer.initialize(serializationContext, outBuffer, debugTrace);
@@ -424,7 +645,15 @@ public class SerializationFilter extends AMFFilter
         try
         {
             serializer.writeMessage(actionContext.getResponseMessage());
-            actionContext.setResponseOutput(outBuffer);
+            if (responseStream != null)
+            {
+                responseStream.flush();
+                actionContext.setResponseOutput(null);
+            }
+            else
+            {
+                actionContext.setResponseOutput((ByteArrayOutputStream)outBuffer);
+            }
         }
         catch (IOException e)
         {
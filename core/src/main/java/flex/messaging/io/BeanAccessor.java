@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+/**
+ * Reads and writes the properties of a bean by index, without reflection.
+ * <p>
+ * Implementations are generated at runtime by <code>GeneratedBeanProxy</code>
+ * for each bean class it proxies; the index of a property is its position in
+ * the property table built for that class.
+ * </p>
+ *
+ * @see flex.messaging.io.GeneratedBeanProxy
+ */
+public abstract class BeanAccessor
+{
+    /**
+     * Constructs an accessor.
+     */
+    protected BeanAccessor()
+    {
+        // No-op.
+    }
+
+    /**
+     * Returns the value of a property.
+     *
+     * @param bean the bean to read from.
+     * @param index the index of the property.
+     * @return the value of the property, with primitive values boxed, or
+     * <code>null</code> if the accessor cannot read the property.
+     */
+    public abstract Object get(Object bean, int index);
+
+    /**
+     * Sets the value of a property.
+     *
+     * @param bean the bean to write to.
+     * @param index the index of the property.
+     * @param value the new value, with primitive values boxed.
+     */
+    public abstract void set(Object bean, int index, Object value);
+}
@@ -0,0 +1,597 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates <code>BeanAccessor</code> classes.
+ * <p>
+ * The accessor for a bean class is written out as a class file with one
+ * <code>tableswitch</code> per method that calls the getter or setter of the
+ * selected property directly, or reads or writes its public field. The class
+ * is defined in a class loader of its own whose parent is the loader of the
+ * bean class, so it can be collected together with the bean class. Class
+ * files use version 49 (Java 5) so no stack map frames have to be computed.
+ * </p>
+ */
+final class BeanAccessorGenerator
+{
+    private static final String ACCESSOR_PACKAGE = "flex/messaging/io/generated/";
+    private static final String ACCESSOR_SUPER_CLASS = BeanAccessor.class.getName().replace('.', '/');
+    private static final String GET_DESCRIPTOR = "(Ljava/lang/Object;I)Ljava/lang/Object;";
+    private static final String SET_DESCRIPTOR = "(Ljava/lang/Object;ILjava/lang/Object;)V";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ILOAD_2 = 0x1c;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int ASTORE = 0x3a;
+    private static final int ASTORE_3 = 0x4e;
+    private static final int POP = 0x57;
+    private static final int POP2 = 0x58;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int CHECKCAST = 0xc0;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final Map<Class, Class> WRAPPERS = new HashMap<Class, Class>();
+    static
+    {
+        WRAPPERS.put(Boolean.TYPE, Boolean.class);
+        WRAPPERS.put(Byte.TYPE, Byte.class);
+        WRAPPERS.put(Character.TYPE, Character.class);
+        WRAPPERS.put(Short.TYPE, Short.class);
+        WRAPPERS.put(Integer.TYPE, Integer.class);
+        WRAPPERS.put(Long.TYPE, Long.class);
+        WRAPPERS.put(Float.TYPE, Float.class);
+        WRAPPERS.put(Double.TYPE, Double.class);
+    }
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private BeanAccessorGenerator()
+    {
+        // No-op.
+    }
+
+    /**
+     * Returns the wrapper class of a primitive type.
+     *
+     * @param type a primitive type.
+     * @return the wrapper class, or <code>null</code> if the type is not primitive.
+     */
+    static Class getWrapper(Class type)
+    {
+        return WRAPPERS.get(type);
+    }
+
+    /**
+     * Returns whether generated code can refer to a class by name.
+     *
+     * @param c the class.
+     * @return <code>true</code> if the class is public or primitive.
+     */
+    static boolean isAccessible(Class c)
+    {
+        while (c.isArray())
+            c = c.getComponentType();
+        return c.isPrimitive() || Modifier.isPublic(c.getModifiers());
+    }
+
+    /**
+     * Returns whether generated code can read a property through the given
+     * getter or field.
+     *
+     * @param member the getter or field, may be <code>null</code>.
+     * @return <code>true</code> if the member is a public instance member.
+     */
+    static boolean canRead(Member member)
+    {
+        return member != null && Modifier.isPublic(member.getModifiers()) && !Modifier.isStatic(member.getModifiers());
+    }
+
+    /**
+     * Returns whether generated code can write a property through the given
+     * setter or field.
+     *
+     * @param member the setter or field, may be <code>null</code>.
+     * @return <code>true</code> if the member is a public instance member
+     * whose value type is accessible.
+     */
+    static boolean canWrite(Member member)
+    {
+        if (!canRead(member))
+            return false;
+
+        if (member instanceof Field)
+        {
+            Field field = (Field)member;
+            return !Modifier.isFinal(field.getModifiers()) && isAccessible(field.getType());
+        }
+
+        Class[] parameterTypes = ((Method)member).getParameterTypes();
+        return parameterTypes.length == 1 && isAccessible(parameterTypes[0]);
+    }
+
+    /**
+     * Generates and instantiates an accessor for a bean class.
+     *
+     * @param c the public bean class.
+     * @param readers the getter or field to read each property through;
+     * <code>null</code> entries are not readable through the accessor.
+     * @param writers the setter or field to write each property through;
+     * <code>null</code> entries are not writable through the accessor.
+     * @return the accessor.
+     * @throws Exception if the accessor could not be defined or instantiated.
+     */
+    static BeanAccessor generate(Class c, Member[] readers, Member[] writers) throws Exception
+    {
+        String beanClassName = internalName(c);
+        String accessorClassName = ACCESSOR_PACKAGE + c.getSimpleName() + "Accessor" + sequence.incrementAndGet();
+
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(accessorClassName);
+        int superClass = pool.classRef(ACCESSOR_SUPER_CLASS);
+        int beanClass = pool.classRef(beanClassName);
+
+        byte[] initCode = constructor(pool);
+        byte[] getCode = getter(pool, beanClass, beanClassName, readers);
+        byte[] setCode = setter(pool, beanClass, beanClassName, writers);
+
+        int codeName = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initDescriptor = pool.utf8("()V");
+        int getName = pool.utf8("get");
+        int getDescriptor = pool.utf8(GET_DESCRIPTOR);
+        int setName = pool.utf8("set");
+        int setDescriptor = pool.utf8(SET_DESCRIPTOR);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(3); // methods
+        writeMethod(out, initName, initDescriptor, codeName, 1, 1, initCode);
+        writeMethod(out, getName, getDescriptor, codeName, 2, 4, getCode);
+        writeMethod(out, setName, setDescriptor, codeName, 3, 5, setCode);
+        out.writeShort(0); // attributes
+        out.flush();
+
+        AccessorClassLoader loader = new AccessorClassLoader(c.getClassLoader());
+        Class accessorClass = loader.define(accessorClassName.replace('/', '.'), bytes.toByteArray());
+        return (BeanAccessor)accessorClass.newInstance();
+    }
+
+    private static byte[] constructor(ConstantPool pool) throws IOException
+    {
+        Code code = new Code();
+        code.u1(ALOAD_0);
+        code.u1(INVOKESPECIAL);
+        code.u2(pool.memberRef(CONSTANT_METHODREF, ACCESSOR_SUPER_CLASS, "<init>", "()V"));
+        code.u1(RETURN);
+        return code.toByteArray();
+    }
+
+    /**
+     * Object get(Object bean, int index): casts the bean into local 3 and
+     * switches on the index; unreadable indices return null.
+     */
+    private static byte[] getter(ConstantPool pool, int beanClass, String beanClassName, Member[] readers) throws IOException
+    {
+        Code code = new Code();
+        code.u1(ALOAD_1);
+        code.u1(CHECKCAST);
+        code.u2(beanClass);
+        code.u1(ASTORE_3);
+
+        int count = readers.length;
+        int tableSwitch = count > 0 ? tableSwitch(code, count) : -1;
+        for (int i = 0; i < count; i++)
+        {
+            Member reader = readers[i];
+            if (reader == null)
+                continue;
+
+            setCase(code, tableSwitch, i, code.length());
+            code.u1(ALOAD_3);
+            Class type;
+            if (reader instanceof Method)
+            {
+                Method method = (Method)reader;
+                type = method.getReturnType();
+                code.u1(INVOKEVIRTUAL);
+                code.u2(pool.memberRef(CONSTANT_METHODREF, beanClassName, method.getName(), methodDescriptor(method)));
+            }
+            else
+            {
+                Field field = (Field)reader;
+                type = field.getType();
+                code.u1(GETFIELD);
+                code.u2(pool.memberRef(CONSTANT_FIELDREF, beanClassName, field.getName(), descriptor(type)));
+            }
+            box(pool, code, type);
+            code.u1(ARETURN);
+        }
+
+        int defaultCase = code.length();
+        code.u1(ACONST_NULL);
+        code.u1(ARETURN);
+        setDefaultCases(code, tableSwitch, readers, defaultCase);
+        return code.toByteArray();
+    }
+
+    /**
+     * void set(Object bean, int index, Object value): casts the bean into
+     * local 4 and switches on the index; unwritable indices are ignored.
+     */
+    private static byte[] setter(ConstantPool pool, int beanClass, String beanClassName, Member[] writers) throws IOException
+    {
+        Code code = new Code();
+        code.u1(ALOAD_1);
+        code.u1(CHECKCAST);
+        code.u2(beanClass);
+        code.u1(ASTORE);
+        code.u1(4);
+
+        int count = writers.length;
+        int tableSwitch = count > 0 ? tableSwitch(code, count) : -1;
+        for (int i = 0; i < count; i++)
+        {
+            Member writer = writers[i];
+            if (writer == null)
+                continue;
+
+            setCase(code, tableSwitch, i, code.length());
+            code.u1(ALOAD);
+            code.u1(4);
+            code.u1(ALOAD_3);
+            if (writer instanceof Method)
+            {
+                Method method = (Method)writer;
+                unbox(pool, code, method.getParameterTypes()[0]);
+                code.u1(INVOKEVIRTUAL);
+                code.u2(pool.memberRef(CONSTANT_METHODREF, beanClassName, method.getName(), methodDescriptor(method)));
+                Class returnType = method.getReturnType();
+                if (returnType == Long.TYPE || returnType == Double.TYPE)
+                    code.u1(POP2);
+                else if (returnType != Void.TYPE)
+                    code.u1(POP);
+            }
+            else
+            {
+                Field field = (Field)writer;
+                unbox(pool, code, field.getType());
+                code.u1(PUTFIELD);
+                code.u2(pool.memberRef(CONSTANT_FIELDREF, beanClassName, field.getName(), descriptor(field.getType())));
+            }
+            code.u1(RETURN);
+        }
+
+        int defaultCase = code.length();
+        code.u1(RETURN);
+        setDefaultCases(code, tableSwitch, writers, defaultCase);
+        return code.toByteArray();
+    }
+
+    /**
+     * Writes iload_2 and a tableswitch over [0, count) with blank offsets.
+     *
+     * @return the position of the tableswitch opcode.
+     */
+    private static int tableSwitch(Code code, int count)
+    {
+        code.u1(ILOAD_2);
+        int position = code.length();
+        code.u1(TABLESWITCH);
+        while (code.length() % 4 != 0)
+            code.u1(0);
+        code.u4(0); // default
+        code.u4(0); // low
+        code.u4(count - 1); // high
+        for (int i = 0; i < count; i++)
+            code.u4(0);
+        return position;
+    }
+
+    /**
+     * Points a case of a tableswitch at the given code position; an index of
+     * -1 sets the default case.
+     */
+    private static void setCase(Code code, int tableSwitch, int index, int target)
+    {
+        int table = (tableSwitch + 4) & ~3;
+        code.patch(index < 0 ? table : table + 12 + 4 * index, target - tableSwitch);
+    }
+
+    private static void setDefaultCases(Code code, int tableSwitch, Member[] members, int defaultCase)
+    {
+        if (tableSwitch < 0)
+            return;
+
+        setCase(code, tableSwitch, -1, defaultCase);
+        for (int i = 0; i < members.length; i++)
+        {
+            if (members[i] == null)
+                setCase(code, tableSwitch, i, defaultCase);
+        }
+    }
+
+    private static void box(ConstantPool pool, Code code, Class type) throws IOException
+    {
+        Class wrapper = WRAPPERS.get(type);
+        if (wrapper == null)
+            return;
+
+        code.u1(INVOKESTATIC);
+        code.u2(pool.memberRef(CONSTANT_METHODREF, internalName(wrapper), "valueOf",
+                "(" + descriptor(type) + ")" + descriptor(wrapper)));
+    }
+
+    private static void unbox(ConstantPool pool, Code code, Class type) throws IOException
+    {
+        if (type == Object.class)
+            return;
+
+        Class wrapper = WRAPPERS.get(type);
+        code.u1(CHECKCAST);
+        code.u2(pool.classRef(internalName(wrapper != null ? wrapper : type)));
+        if (wrapper != null)
+        {
+            code.u1(INVOKEVIRTUAL);
+            code.u2(pool.memberRef(CONSTANT_METHODREF, internalName(wrapper), type.getName() + "Value",
+                    "()" + descriptor(type)));
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+            int maxStack, int maxLocals, byte[] code) throws IOException
+    {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Internal names of array classes are their descriptors, which is also
+     * what Class.getName() returns for them once the dots are replaced.
+     */
+    private static String internalName(Class c)
+    {
+        return c.getName().replace('.', '/');
+    }
+
+    private static String descriptor(Class type)
+    {
+        if (type == Void.TYPE) return "V";
+        if (type == Boolean.TYPE) return "Z";
+        if (type == Byte.TYPE) return "B";
+        if (type == Character.TYPE) return "C";
+        if (type == Short.TYPE) return "S";
+        if (type == Integer.TYPE) return "I";
+        if (type == Long.TYPE) return "J";
+        if (type == Float.TYPE) return "F";
+        if (type == Double.TYPE) return "D";
+        if (type.isArray()) return internalName(type);
+        return "L" + internalName(type) + ";";
+    }
+
+    private static String methodDescriptor(Method method)
+    {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class parameterType : method.getParameterTypes())
+            sb.append(descriptor(parameterType));
+        return sb.append(')').append(descriptor(method.getReturnType())).toString();
+    }
+
+    /**
+     * The constant pool of the class being written. Entries are written as
+     * they are first requested, so every entry an entry refers to is added
+     * before it.
+     */
+    private static final class ConstantPool
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private int count = 1;
+
+        int utf8(String value) throws IOException
+        {
+            String key = CONSTANT_UTF8 + ":" + value;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index.intValue();
+
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+            return add(key);
+        }
+
+        int classRef(String internalName) throws IOException
+        {
+            String key = CONSTANT_CLASS + ":" + internalName;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index.intValue();
+
+            int name = utf8(internalName);
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(name);
+            return add(key);
+        }
+
+        int memberRef(int tag, String owner, String name, String descriptor) throws IOException
+        {
+            String key = tag + ":" + owner + "." + name + ":" + descriptor;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index.intValue();
+
+            int ownerClass = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            out.writeByte(tag);
+            out.writeShort(ownerClass);
+            out.writeShort(nameAndType);
+            return add(key);
+        }
+
+        private int nameAndType(String name, String descriptor) throws IOException
+        {
+            String key = CONSTANT_NAME_AND_TYPE + ":" + name + ":" + descriptor;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index.intValue();
+
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            return add(key);
+        }
+
+        private int add(String key)
+        {
+            int index = count++;
+            entries.put(key, Integer.valueOf(index));
+            return index;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException
+        {
+            out.flush();
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+
+    /**
+     * The bytecode of a method, with support for patching jump offsets.
+     */
+    private static final class Code
+    {
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        int length()
+        {
+            return length;
+        }
+
+        void u1(int value)
+        {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte)value;
+        }
+
+        void u2(int value)
+        {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value)
+        {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void patch(int position, int value)
+        {
+            bytes[position] = (byte)(value >>> 24);
+            bytes[position + 1] = (byte)(value >>> 16);
+            bytes[position + 2] = (byte)(value >>> 8);
+            bytes[position + 3] = (byte)value;
+        }
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+     * Defines one accessor class. Everything but BeanAccessor itself, which
+     * may not be visible from the bean's class loader, is loaded through the
+     * loader of the bean class.
+     */
+    private static final class AccessorClassLoader extends ClassLoader
+    {
+        AccessorClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+        {
+            if (name.equals(BeanAccessor.class.getName()))
+                return BeanAccessor.class;
+            return super.loadClass(name, resolve);
+        }
+
+        Class define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -37,11 +37,11 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Uses Bean introspection to collect the properties for a given instance.
@@ -56,19 +56,19 @@ public class BeanProxy extends AbstractProxy
     private static final int NON_WRITABLE_PROPERTY_ERROR = 10024;
     private static final int UNKNOWN_PROPERTY_ERROR = 10025;
 
-    protected static final Map<Class, List<String>> rwPropertyNamesCache = new IdentityHashMap<Class, List<String>>();
-    protected static final Map<Class, Map<String, BeanProperty>> rwBeanPropertyCache = new IdentityHashMap<Class, Map<String, BeanProperty>>();
-    protected static final Map<Class, PropertyDescriptorCacheEntry> rwPropertyDescriptorCache = new IdentityHashMap<Class, PropertyDescriptorCacheEntry>();
+    protected static final Map<Class, List<String>> rwPropertyNamesCache = new ConcurrentHashMap<Class, List<String>>();
+    protected static final Map<Class, Map<String, BeanProperty>> rwBeanPropertyCache = new ConcurrentHashMap<Class, Map<String, BeanProperty>>();
+    protected static final Map<Class, PropertyDescriptorCacheEntry> rwPropertyDescriptorCache = new ConcurrentHashMap<Class, PropertyDescriptorCacheEntry>();
 
-    protected static final Map<Class, List<String>> roPropertyNamesCache = new IdentityHashMap<Class, List<String>>();
-    protected static final Map<Class, Map<String, BeanProperty>> roBeanPropertyCache = new IdentityHashMap<Class, Map<String, BeanProperty>>();
-    protected static final Map<Class, PropertyDescriptorCacheEntry> roPropertyDescriptorCache = new IdentityHashMap<Class, PropertyDescriptorCacheEntry>();
+    protected static final Map<Class, List<String>> roPropertyNamesCache = new ConcurrentHashMap<Class, List<String>>();
+    protected static final Map<Class, Map<String, BeanProperty>> roBeanPropertyCache = new ConcurrentHashMap<Class, Map<String, BeanProperty>>();
+    protected static final Map<Class, PropertyDescriptorCacheEntry> roPropertyDescriptorCache = new ConcurrentHashMap<Class, PropertyDescriptorCacheEntry>();
 
     protected boolean cacheProperties = true;
     protected boolean cachePropertiesDescriptors = true;
     protected Class stopClass = Object.class;
 
-    protected static final Map ignoreProperties = new HashMap();
+    protected static final Map ignoreProperties = new ConcurrentHashMap();
     static
     {
         initializeIgnoreProperties();
@@ -125,22 +125,7 @@ public class BeanProxy extends AbstractProxy
 
         // Look up property names in cache if we don't have a custom serialization descriptor
         if (descriptor == null)
-        {
-            if (getIncludeReadOnly())
-            {
-                synchronized (roPropertyNamesCache)
-                {
-                    propertyNames = roPropertyNamesCache.get(c);
-                }
-            }
-            else
-            {
-                synchronized (rwPropertyNamesCache)
-                {
-                    propertyNames = rwPropertyNamesCache.get(c);
-                }
-            }
-        }
+            propertyNames = getPropertyNamesCache().get(c);
 
         if (propertyNames != null)
             return propertyNames;
@@ -151,22 +136,7 @@ public class BeanProxy extends AbstractProxy
         // Store property names in cache if we are caching properties
         // and we don't have a custom serialization descriptor
         if (cacheProperties && descriptor == null)
-        {
-            if (getIncludeReadOnly())
-            {
-                synchronized (roPropertyNamesCache)
-                {
-                    roPropertyNamesCache.put(c, propertyNames);
-                }
-            }
-            else
-            {
-                synchronized (rwPropertyNamesCache)
-                {
-                    rwPropertyNamesCache.put(c, propertyNames);
-                }
-            }
-        }
+            getPropertyNamesCache().put(c, propertyNames);
         return propertyNames;
     }
 
@@ -412,20 +382,7 @@ public class BeanProxy extends AbstractProxy
         // look up instance class in cache if we don't have a custom descriptor.
         if (descriptor == null)
         {
-            if (getIncludeReadOnly())
-            {
-                synchronized (roBeanPropertyCache)
-                {
-                    props = roBeanPropertyCache.get(c);
-                }
-            }
-            else
-            {
-                synchronized (rwBeanPropertyCache)
-                {
-                    props = rwBeanPropertyCache.get(c);
-                }
-            }
+            props = getBeanPropertyCache().get(c);
             if (props != null)
                 return props;
         }
@@ -490,22 +447,7 @@ public class BeanProxy extends AbstractProxy
 
         // Update the cache if we don't have a custom serialization descriptor and we are caching.
         if (descriptor == null && cacheProperties)
-        {
-            if (getIncludeReadOnly())
-            {
-                synchronized (roBeanPropertyCache)
-                {
-                    roBeanPropertyCache.put(c, props);
-                }
-            }
-            else
-            {
-                synchronized (rwBeanPropertyCache)
-                {
-                    rwBeanPropertyCache.put(c, props);
-                }
-            }
-        }
+            getBeanPropertyCache().put(c, props);
 
         return props;
     }
@@ -607,6 +549,26 @@ public class BeanProxy extends AbstractProxy
         return pce == null? null : pce.propertyDescriptors;
     }
 
+    /**
+     * The static caches are concurrent maps keyed by class, so that after
+     * warm-up a lookup does not take a lock; one cache of each kind is kept
+     * for each setting of includeReadOnly.
+     */
+    private Map<Class, List<String>> getPropertyNamesCache()
+    {
+        return getIncludeReadOnly() ? roPropertyNamesCache : rwPropertyNamesCache;
+    }
+
+    private Map<Class, Map<String, BeanProperty>> getBeanPropertyCache()
+    {
+        return getIncludeReadOnly() ? roBeanPropertyCache : rwBeanPropertyCache;
+    }
+
+    private Map<Class, PropertyDescriptorCacheEntry> getPropertyDescriptorCache()
+    {
+        return getIncludeReadOnly() ? roPropertyDescriptorCache : rwPropertyDescriptorCache;
+    }
+
     /**
      * Return an entry from the property descriptor cache for a class.
      * @param c the class
@@ -614,22 +576,8 @@ public class BeanProxy extends AbstractProxy
      */
     private PropertyDescriptorCacheEntry getPropertyDescriptorCacheEntry(Class c)
     {
-        PropertyDescriptorCacheEntry pce;
-        if (getIncludeReadOnly())
-        {
-            synchronized (roPropertyDescriptorCache)
-            {
-                pce = roPropertyDescriptorCache.get(c);
-            }
-        }
-        else
-        {
-            synchronized (rwPropertyDescriptorCache)
-            {
-                pce = rwPropertyDescriptorCache.get(c);
-            }
-        }
-        
+        PropertyDescriptorCacheEntry pce = getPropertyDescriptorCache().get(c);
+
         try
         {
             if (pce == null)
@@ -639,22 +587,7 @@ public class BeanProxy extends AbstractProxy
                 pce.propertyDescriptors = beanInfo.getPropertyDescriptors();
                 pce.propertiesByName = createPropertiesByNameMap(pce.propertyDescriptors, c.getFields());
                 if (cachePropertiesDescriptors)
-                {
-                    if (getIncludeReadOnly())
-                    {
-                        synchronized (roPropertyDescriptorCache)
-                        {
-                            roPropertyDescriptorCache.put(c, pce);
-                        }
-                    }
-                    else
-                    {
-                        synchronized (rwPropertyDescriptorCache)
-                        {
-                            rwPropertyDescriptorCache.put(c, pce);
-                        }
-                    }
-                }
+                    getPropertyDescriptorCache().put(c, pce);
             }
         }
         catch (IntrospectionException ex)
@@ -724,15 +657,14 @@ public class BeanProxy extends AbstractProxy
      */
     public static void addIgnoreProperty(Class c, String propertyName)
     {
+        // The owner sets are replaced rather than modified so that
+        // isPropertyIgnored() can read them without locking.
         synchronized(ignoreProperties)
         {
             Set propertyOwners = (Set)ignoreProperties.get(propertyName);
-            if (propertyOwners == null)
-            {
-                propertyOwners = new HashSet();
-                ignoreProperties.put(propertyName, propertyOwners);
-            }
+            propertyOwners = propertyOwners == null ? new HashSet() : new HashSet(propertyOwners);
             propertyOwners.add(c);
+            ignoreProperties.put(propertyName, propertyOwners);
         }
     }
 
@@ -838,6 +770,21 @@ public class BeanProxy extends AbstractProxy
             return null;
         }
 
+        Method getReadMethod()
+        {
+            return readMethod;
+        }
+
+        Method getWriteMethod()
+        {
+            return writeMethod;
+        }
+
+        Field getField()
+        {
+            return field;
+        }
+
         /**
          *
          * Returns a string indicating the setter or field name of the property.
@@ -899,30 +846,12 @@ public class BeanProxy extends AbstractProxy
             ignoreProperties.clear();
             initializeIgnoreProperties();  // reset to original state
         }
-        synchronized(rwPropertyNamesCache)
-        {
-            rwPropertyNamesCache.clear();
-        }
-        synchronized(rwBeanPropertyCache)
-        {
-            rwBeanPropertyCache.clear();
-        }
-        synchronized(rwPropertyDescriptorCache)
-        {
-            rwPropertyDescriptorCache.clear();
-        }
-        synchronized(roPropertyNamesCache)
-        {
-            roPropertyNamesCache.clear();
-        }
-        synchronized(roBeanPropertyCache)
-        {
-            roBeanPropertyCache.clear();
-        }
-        synchronized(roPropertyDescriptorCache)
-        {
-            roPropertyDescriptorCache.clear();
-        }
+        rwPropertyNamesCache.clear();
+        rwBeanPropertyCache.clear();
+        rwPropertyDescriptorCache.clear();
+        roPropertyNamesCache.clear();
+        roBeanPropertyCache.clear();
+        roPropertyDescriptorCache.clear();
     }
 
     /**
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import flex.messaging.log.Log;
+
+/**
+ * A <code>BeanProxy</code> that reads and writes bean properties through an
+ * accessor class generated for the bean class the first time it is seen,
+ * rather than through reflection.
+ * <p>
+ * Generated access is used for the public getters, setters and fields of
+ * public bean classes whenever the property table of the class is cached,
+ * that is when no <code>SerializationDescriptor</code> is set on the proxy.
+ * All other properties, and all classes an accessor cannot be generated for,
+ * are handled reflectively exactly as <code>BeanProxy</code> does.
+ * </p>
+ * <p>
+ * This proxy is opt-in. It can be registered for individual classes with
+ * <code>PropertyProxyRegistry.register()</code>, or selected for classes and
+ * packages through the <code>generated-property-proxies</code> setting of
+ * the <code>system</code> section of services-config.xml.
+ * </p>
+ *
+ * @see flex.messaging.io.PropertyProxyRegistry#addGeneratedProxyClass(String)
+ * @see flex.messaging.io.PropertyProxyRegistry#addGeneratedProxyPackage(String)
+ */
+public class GeneratedBeanProxy extends BeanProxy
+{
+    static final long serialVersionUID = 2978624016475361263L;
+
+    protected static final Map<Class, Map<String, BeanProperty>> rwGeneratedPropertyCache = new ConcurrentHashMap<Class, Map<String, BeanProperty>>();
+    protected static final Map<Class, Map<String, BeanProperty>> roGeneratedPropertyCache = new ConcurrentHashMap<Class, Map<String, BeanProperty>>();
+
+    /**
+     * Constructor.
+     */
+    public GeneratedBeanProxy()
+    {
+        this(null);
+    }
+
+    /**
+     * Construct a new GeneratedBeanProxy with the provided default instance.
+     *
+     * @param defaultInstance defines the alias if provided
+     */
+    public GeneratedBeanProxy(Object defaultInstance)
+    {
+        super(defaultInstance);
+    }
+
+    /**
+     * Returns the cached property table of the instance class with its
+     * properties bound to a generated accessor.
+     *
+     * @param instance object to examine.
+     * @return a map of Strings to BeanProperty objects.
+     */
+    @Override
+    protected Map<String, BeanProperty> getBeanProperties(Object instance)
+    {
+        if (descriptor != null || !cacheProperties)
+            return super.getBeanProperties(instance);
+
+        Map<Class, Map<String, BeanProperty>> cache = getIncludeReadOnly() ? roGeneratedPropertyCache : rwGeneratedPropertyCache;
+        Class c = instance.getClass();
+        Map<String, BeanProperty> props = cache.get(c);
+        if (props != null)
+            return props;
+
+        props = super.getBeanProperties(instance);
+        if (props == null)
+            return null;
+
+        props = bindAccessor(c, props);
+        cache.put(c, props);
+        return props;
+    }
+
+    /**
+     * Clears the generated property tables. Accessor classes are released
+     * once the bean classes they were generated for are no longer in use.
+     */
+    public static void clearAccessors()
+    {
+        rwGeneratedPropertyCache.clear();
+        roGeneratedPropertyCache.clear();
+    }
+
+    /**
+     * Copies a reflective property table, replacing every property that can
+     * be accessed through generated code with one that uses the accessor.
+     * The original table is returned if no accessor can be generated.
+     */
+    private static Map<String, BeanProperty> bindAccessor(Class c, Map<String, BeanProperty> props)
+    {
+        if (!Modifier.isPublic(c.getModifiers()) || props.isEmpty())
+            return props;
+
+        BeanProperty[] properties = props.values().toArray(new BeanProperty[props.size()]);
+        Member[] readers = new Member[properties.length];
+        Member[] writers = new Member[properties.length];
+        boolean generated = false;
+        for (int i = 0; i < properties.length; i++)
+        {
+            BeanProperty bp = properties[i];
+            Member reader = bp.getReadMethod() != null ? bp.getReadMethod() : bp.getField();
+            Member writer = bp.getWriteMethod() != null ? bp.getWriteMethod() : bp.getField();
+            if (BeanAccessorGenerator.canRead(reader))
+                readers[i] = reader;
+            if (BeanAccessorGenerator.canWrite(writer))
+                writers[i] = writer;
+            generated |= readers[i] != null || writers[i] != null;
+        }
+
+        if (!generated)
+            return props;
+
+        BeanAccessor accessor;
+        try
+        {
+            accessor = BeanAccessorGenerator.generate(c, readers, writers);
+        }
+        catch (Throwable t)
+        {
+            if (Log.isDebug())
+                Log.getLogger(LOG_CATEGORY).debug("Unable to generate a property accessor for class " + c.getName()
+                        + ", its properties are accessed reflectively. " + t);
+            return props;
+        }
+
+        Map<String, BeanProperty> result = new HashMap<String, BeanProperty>(props.size() * 2);
+        for (int i = 0; i < properties.length; i++)
+        {
+            BeanProperty bp = properties[i];
+            if (readers[i] != null || writers[i] != null)
+                bp = new GeneratedBeanProperty(bp, accessor, i, readers[i] != null, writers[i] != null);
+            result.put(bp.getName(), bp);
+        }
+        return result;
+    }
+
+    /**
+     * A bean property that is read or written through a generated accessor.
+     * Values a setter cannot accept, such as <code>null</code> for a primitive
+     * property, are handed to the reflective implementation so that they fail
+     * the same way.
+     */
+    private static final class GeneratedBeanProperty extends BeanProperty
+    {
+        private final BeanAccessor accessor;
+        private final int index;
+        private final boolean generatedRead;
+        private final boolean generatedWrite;
+        private final Class valueType;
+        private final boolean primitive;
+
+        GeneratedBeanProperty(BeanProperty bp, BeanAccessor accessor, int index, boolean generatedRead, boolean generatedWrite)
+        {
+            super(bp.getName(), bp.getType(), bp.getReadMethod(), bp.getWriteMethod(), bp.getField());
+            this.accessor = accessor;
+            this.index = index;
+            this.generatedRead = generatedRead;
+            this.generatedWrite = generatedWrite;
+
+            Class type = bp.getWriteMethod() != null ? bp.getWriteMethod().getParameterTypes()[0]
+                    : bp.getField() != null ? bp.getField().getType() : null;
+            Class wrapper = type != null ? BeanAccessorGenerator.getWrapper(type) : null;
+            valueType = wrapper != null ? wrapper : type;
+            primitive = wrapper != null;
+        }
+
+        @Override
+        public void set(Object bean, Object value) throws IllegalAccessException, InvocationTargetException
+        {
+            if (!generatedWrite || (value == null ? primitive : !valueType.isInstance(value)))
+            {
+                super.set(bean, value);
+                return;
+            }
+
+            try
+            {
+                accessor.set(bean, index, value);
+            }
+            catch (Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public Object get(Object bean) throws IllegalAccessException, InvocationTargetException
+        {
+            if (!generatedRead)
+                return super.get(bean);
+
+            try
+            {
+                return accessor.get(bean, index);
+            }
+            catch (Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
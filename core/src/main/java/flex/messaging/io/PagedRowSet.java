@@ -241,7 +241,7 @@ public class PagedRowSet implements PageableRowSet
 
                 if (colCount > 0)
                 {
-                    row = new ArrayList(rowCount + 1);
+                    row = new ArrayList(colCount);
                     //Loop over columns to create an array for the row
                     for (int j = 1; j <= colCount; j++)
                     {
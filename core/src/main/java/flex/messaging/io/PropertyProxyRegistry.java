@@ -24,8 +24,12 @@ import javax.sql.RowSet;
 import java.util.AbstractMap;
 import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Allows custom PropertyProxy's to be registered on a Class basis.
@@ -38,10 +42,19 @@ import java.util.Map;
  * immediate superclass or directly implemented interfaces) then the
  * implementing class is registered with the selected PropertyProxy to optimize
  * subsequent searches.
+ *
+ * Classes that have no custom PropertyProxy are proxied by a
+ * GeneratedBeanProxy instead of a BeanProxy if they were named, or are in a
+ * package that was named, through addGeneratedProxyClass() or
+ * addGeneratedProxyPackage().
  */
 public class PropertyProxyRegistry
 {
-    private final Map<Class, PropertyProxy> classRegistry = new IdentityHashMap<Class, PropertyProxy>();
+    private final Map<Class, PropertyProxy> classRegistry = new ConcurrentHashMap<Class, PropertyProxy>();
+    private final Map<Class, Boolean> unregisteredClasses = new ConcurrentHashMap<Class, Boolean>();
+    private final AtomicInteger modCount = new AtomicInteger();
+    private final Map<String, Boolean> generatedProxyClasses = new ConcurrentHashMap<String, Boolean>();
+    private final List<String> generatedProxyPackages = new CopyOnWriteArrayList<String>();
 
     /**
      * A global registry that maps a Class type to a PropertyProxy.
@@ -185,6 +198,10 @@ public class PropertyProxyRegistry
         {
             proxy = new DictionaryProxy();
         }
+        else if (getRegistry().isGeneratedProxyEnabled(instance.getClass()))
+        {
+            proxy = new GeneratedBeanProxy();
+        }
         else
         {
             proxy = new BeanProxy();
@@ -245,41 +262,39 @@ public class PropertyProxyRegistry
             c = c.getComponentType();
 
         // Locate PropertyProxy by Class reference
-        PropertyProxy proxy = null;
-        synchronized(classRegistry)
-        {
-            proxy = classRegistry.get(c); 
-        }
+        PropertyProxy proxy = classRegistry.get(c);
+        if (proxy != null || !searchHierarchy)
+            return proxy;
+
+        // Classes without a PropertyProxy anywhere in their hierarchy are
+        // remembered so that the hierarchy is only searched once for them.
+        if (unregisteredClasses.containsKey(c))
+            return null;
+        int expectedModCount = modCount.get();
 
-        if (proxy == null && searchHierarchy)
+        // Next, try matching PropertyProxy by interface
+        Class[] interfaces = c.getInterfaces();
+        for (int i = 0; i < interfaces.length; i++)
         {
-            // Next, try matching PropertyProxy by interface
-            Class[] interfaces = c.getInterfaces();
-            for (int i = 0; i < interfaces.length; i++)
+            Class interfaceClass = interfaces[i];
+            proxy = classRegistry.get(interfaceClass);
+            if (proxy != null && autoRegister)
             {
-                Class interfaceClass = interfaces[i];
-                synchronized(classRegistry)
-                {
-                    proxy = classRegistry.get(interfaceClass);
-                }                
-                if (proxy != null && autoRegister)
+                register(c, proxy);
+                break;
+            }
+            else
+            {
+                // Recursively check super interfaces too
+                proxy = getProxy(interfaceClass, searchHierarchy, autoRegister);
+                if (proxy != null)
                 {
-                    register(c, proxy);
                     break;
                 }
-                else
-                {
-                    // Recursively check super interfaces too
-                    proxy = getProxy(interfaceClass, searchHierarchy, autoRegister);
-                    if (proxy != null)
-                    {
-                        break;
-                    }
-                }
             }
         }
 
-        if (proxy == null && searchHierarchy)
+        if (proxy == null)
         {
             // Finally, recursively search superclass hierarchy
             Class superclass = c.getSuperclass();
@@ -293,18 +308,95 @@ public class PropertyProxyRegistry
             }
         }
 
+        if (proxy == null)
+        {
+            unregisteredClasses.put(c, Boolean.TRUE);
+            // Drop the entry again if a proxy was registered during the search.
+            if (modCount.get() != expectedModCount)
+                unregisteredClasses.remove(c);
+        }
+
         return proxy;
     }
 
     /**
-     * Removes all items from the class registry.
+     * Removes all items from the class registry, along with the classes and
+     * packages selected for generated proxies.
      */
     public void clear()
     {
-        synchronized(classRegistry)
+        classRegistry.clear();
+        registryChanged();
+        generatedProxyClasses.clear();
+        generatedProxyPackages.clear();
+    }
+
+    /**
+     * Selects a GeneratedBeanProxy for a bean class that has no custom
+     * PropertyProxy registered.
+     *
+     * @param className the fully qualified name of the class.
+     */
+    public void addGeneratedProxyClass(String className)
+    {
+        generatedProxyClasses.put(className, Boolean.TRUE);
+    }
+
+    /**
+     * Selects a GeneratedBeanProxy for the bean classes of a package, and of
+     * its sub-packages, that have no custom PropertyProxy registered.
+     *
+     * @param packageName the name of the package.
+     */
+    public void addGeneratedProxyPackage(String packageName)
+    {
+        if (!generatedProxyPackages.contains(packageName))
+            generatedProxyPackages.add(packageName);
+    }
+
+    /**
+     * Returns the names of the classes selected for generated proxies.
+     *
+     * @return the class names.
+     */
+    public Set<String> getGeneratedProxyClasses()
+    {
+        return generatedProxyClasses.keySet();
+    }
+
+    /**
+     * Returns the names of the packages selected for generated proxies.
+     *
+     * @return the package names.
+     */
+    public List<String> getGeneratedProxyPackages()
+    {
+        return generatedProxyPackages;
+    }
+
+    /**
+     * Determines whether bean instances of a class should be proxied by a
+     * GeneratedBeanProxy.
+     *
+     * @param c the class of the instances.
+     * @return true if the class, or one of its enclosing packages, was selected.
+     */
+    public boolean isGeneratedProxyEnabled(Class c)
+    {
+        if (generatedProxyClasses.isEmpty() && generatedProxyPackages.isEmpty())
+            return false;
+
+        String className = c.getName();
+        if (generatedProxyClasses.containsKey(className))
+            return true;
+
+        for (String packageName : generatedProxyPackages)
         {
-            classRegistry.clear();
+            if (className.length() > packageName.length() && className.startsWith(packageName)
+                    && className.charAt(packageName.length()) == '.')
+                return true;
         }
+        return false;
     }
 
     /**
@@ -315,10 +407,14 @@ public class PropertyProxyRegistry
      */
     public void register(Class c, PropertyProxy proxy)
     {
-        synchronized(classRegistry)
+        if (proxy == null)
         {
-            classRegistry.put(c, proxy);
+            unregister(c);
+            return;
         }
+
+        classRegistry.put(c, proxy);
+        registryChanged();
     }
 
     /**
@@ -328,9 +424,17 @@ public class PropertyProxyRegistry
      */
     public void unregister(Class c)
     {
-        synchronized(classRegistry)
-        {
-            classRegistry.remove(c);
-        }
+        classRegistry.remove(c);
+        registryChanged();
+    }
+
+    /**
+     * A registration can change the result of a hierarchy search for any
+     * class, so the remembered misses are dropped on every change.
+     */
+    private void registryChanged()
+    {
+        modCount.incrementAndGet();
+        unregisteredClasses.clear();
     }
 }
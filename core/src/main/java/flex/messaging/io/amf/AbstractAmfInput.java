@@ -75,6 +75,14 @@ public abstract class AbstractAmfInput extends AmfIO implements ActionMessageInp
         this.in = new DataInputStream(in);
     }
 
+    @Override
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        boolean reusable = super.recycle(maxTableSize, maxTempArrayLength);
+        in = null;
+        return reusable;
+    }
+
     protected Object stringToDocument(String xml)
     {
         // FIXME: Temporary workaround for bug 194815
@@ -38,6 +38,12 @@ public abstract class AbstractAmfOutput extends AmfIO implements ActionMessageOu
      */
     protected DataOutputStream out;
 
+    /**
+     * The stream being written to, if it is a <code>SegmentedOutputStream</code>
+     * that values can be encoded into directly.
+     */
+    SegmentedOutputStream segments;
+
     /**
      * Construct a serializer without connecting it to an output stream.
      * @param context serialization parameters
@@ -54,6 +60,7 @@ public abstract class AbstractAmfOutput extends AmfIO implements ActionMessageOu
      */
     public void setOutputStream(OutputStream out)
     {
+        segments = out instanceof SegmentedOutputStream ? (SegmentedOutputStream)out : null;
         if (out instanceof DataOutputStream)
         {
             this.out = (DataOutputStream) out;
@@ -65,6 +72,15 @@ public abstract class AbstractAmfOutput extends AmfIO implements ActionMessageOu
         reset();
     }
 
+    @Override
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        boolean reusable = super.recycle(maxTableSize, maxTempArrayLength);
+        out = null;
+        segments = null;
+        return reusable;
+    }
+
     protected String documentToString(Object value) throws IOException
     {
         return XMLUtil.documentToString((Document)value);
@@ -21,6 +21,8 @@ import flex.messaging.messages.MessagePerformanceInfo;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A context for reading and writing messages.
@@ -33,6 +35,11 @@ public class ActionContext implements Serializable
     private ActionMessage requestMessage;
     private ActionMessage responseMessage;
     private ByteArrayOutputStream outBuffer;
+    private transient ResponseOutputStream responseStream;
+    private transient boolean responseDeferred;
+    private transient List<AsyncResult> asyncResults;
+    private transient long asyncResultTimeoutMillis;
+    private transient boolean asyncSupported;
 
     private int status;
     private int version;
@@ -144,6 +151,105 @@ public class ActionContext implements Serializable
         return outBuffer;
     }
 
+    /**
+     * Sets the stream the response may be serialized to instead of a
+     * buffer. Responses that outgrow the buffer of the stream are written to
+     * their destination while they are serialized; responses that do not are
+     * left in the stream for the endpoint to write. Responses that are
+     * serialized into a separate buffer instead, such as error responses, are
+     * handed back through <code>getResponseOutput()</code>.
+     *
+     * @param responseStream the stream, or <code>null</code> to always
+     * serialize the response into a separate buffer.
+     */
+    public void setResponseStream(ResponseOutputStream responseStream)
+    {
+        this.responseStream = responseStream;
+    }
+
+    public ResponseOutputStream getResponseStream()
+    {
+        return responseStream;
+    }
+
+    /**
+     * Marks the response as deferred: the request thread returns without
+     * writing a response, and the request is serviced again from its
+     * deserialized message once the container dispatches it back to the
+     * endpoint.
+     *
+     * @param responseDeferred <code>true</code> to defer the response.
+     */
+    public void setResponseDeferred(boolean responseDeferred)
+    {
+        this.responseDeferred = responseDeferred;
+    }
+
+    public boolean isResponseDeferred()
+    {
+        return responseDeferred;
+    }
+
+    /**
+     * Adds the result of a message that completes asynchronously. The
+     * response is serialized once all such results have completed.
+     *
+     * @param asyncResult the pending result.
+     */
+    public void addAsyncResult(AsyncResult asyncResult)
+    {
+        if (asyncResults == null)
+            asyncResults = new ArrayList<AsyncResult>();
+        asyncResults.add(asyncResult);
+    }
+
+    /**
+     * Returns the results of the messages of this request that complete
+     * asynchronously.
+     *
+     * @return the pending results, or <code>null</code> if there are none.
+     */
+    public List<AsyncResult> getAsyncResults()
+    {
+        return asyncResults;
+    }
+
+    public void clearAsyncResults()
+    {
+        asyncResults = null;
+    }
+
+    /**
+     * Returns how long the response waits for asynchronous results.
+     *
+     * @return the timeout in milliseconds, or 0 or less to wait indefinitely.
+     */
+    public long getAsyncResultTimeoutMillis()
+    {
+        return asyncResultTimeoutMillis;
+    }
+
+    public void setAsyncResultTimeoutMillis(long asyncResultTimeoutMillis)
+    {
+        this.asyncResultTimeoutMillis = asyncResultTimeoutMillis;
+    }
+
+    /**
+     * Returns whether the request can be suspended while it waits for
+     * asynchronous results rather than blocking the request thread.
+     *
+     * @return <code>true</code> if the request supports asynchronous processing.
+     */
+    public boolean isAsyncSupported()
+    {
+        return asyncSupported;
+    }
+
+    public void setAsyncSupported(boolean asyncSupported)
+    {
+        this.asyncSupported = asyncSupported;
+    }
+
     public int getStatus()
     {
         return status;
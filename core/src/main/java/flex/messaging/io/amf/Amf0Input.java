@@ -17,6 +17,7 @@
 package flex.messaging.io.amf;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UTFDataFormatException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
@@ -54,6 +55,17 @@ public class Amf0Input extends AbstractAmfInput implements AmfTypes
      */
     protected List objectsTable;
 
+    /**
+     * The AMF 3 input of a recycled instance, kept for reuse until the
+     * stream switches to AMF 3 again.
+     */
+    private Amf3Input recycledAmf3Input;
+
+    /**
+     * The stream being read, if the packet is held in memory.
+     */
+    private ByteArrayAmfInputStream byteArraySource;
+
     public Amf0Input(SerializationContext context)
     {
         super(context);
@@ -73,6 +85,7 @@ public class Amf0Input extends AbstractAmfInput implements AmfTypes
     {
         super.reset();
 
+        recordTableSize(objectsTable.size());
         objectsTable.clear();
 
         if (avmPlusInput != null)
@@ -80,6 +93,55 @@ public class Amf0Input extends AbstractAmfInput implements AmfTypes
     }
 
 
+    /**
+     * Internal use
+     *
+     */
+    @Override
+    public void setInputStream(InputStream in)
+    {
+        super.setInputStream(in);
+        byteArraySource = in instanceof ByteArrayAmfInputStream ? (ByteArrayAmfInputStream)in : null;
+        if (avmPlusInput != null)
+            avmPlusInput.setInputStream(byteArraySource != null ? byteArraySource : this.in);
+    }
+
+    @Override
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        boolean reusable = super.recycle(maxTableSize, maxTempArrayLength);
+        if (avmPlusInput instanceof Amf3Input)
+        {
+            reusable &= ((Amf3Input)avmPlusInput).recycle(maxTableSize, maxTempArrayLength);
+            recycledAmf3Input = (Amf3Input)avmPlusInput;
+        }
+        avmPlusInput = null;
+        byteArraySource = null;
+        return reusable;
+    }
+
+    /**
+     * Creates the Amf3Input used once the stream switches to AMF 3, reusing
+     * the one of a recycled instance if there is one. Packets held in memory
+     * are read by a ByteArrayAmf3Input.
+     */
+    private void createAMF3Input()
+    {
+        boolean byteArray = byteArraySource != null;
+        if (recycledAmf3Input != null && (recycledAmf3Input instanceof ByteArrayAmf3Input) == byteArray)
+        {
+            recycledAmf3Input.setSerializationContext(context);
+            avmPlusInput = recycledAmf3Input;
+        }
+        else
+        {
+            avmPlusInput = byteArray ? new ByteArrayAmf3Input(context) : new Amf3Input(context);
+        }
+        recycledAmf3Input = null;
+        avmPlusInput.setDebugTrace(trace);
+        avmPlusInput.setInputStream(byteArray ? byteArraySource : in);
+    }
+
     //
     // java.io.ObjectInput SERIALIZATION IMPLEMENTATIONS
     //
@@ -116,11 +178,7 @@ public class Amf0Input extends AbstractAmfInput implements AmfTypes
             case kAvmPlusObjectType:
 
                 if (avmPlusInput == null)
-                {
-                    avmPlusInput = new Amf3Input(context);
-                    avmPlusInput.setDebugTrace(trace);
-                    avmPlusInput.setInputStream(in);
-                }
+                    createAMF3Input();
                 value = avmPlusInput.readObject();
                 break;
 
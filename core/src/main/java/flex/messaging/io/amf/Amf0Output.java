@@ -28,6 +28,7 @@ import flex.messaging.io.StatusInfoProxy;
 import flex.messaging.io.BeanProxy;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -79,6 +80,12 @@ public class Amf0Output extends AbstractAmfOutput implements AmfTypes
      */
     protected Amf3Output avmPlusOutput;
 
+    /**
+     * The AMF 3 output of a recycled instance, kept for reuse until the
+     * stream switches to AMF 3 again.
+     */
+    private Amf3Output recycledAmf3Output;
+
     /**
      * Construct a serializer without connecting it to an output stream.
      * @param context the context to use
@@ -102,6 +109,19 @@ public class Amf0Output extends AbstractAmfOutput implements AmfTypes
         avmPlus = a;
     }
 
+    /**
+     * Sets the output stream that the serializer should use.
+     *
+     * @param out OutputStream to use
+     */
+    @Override
+    public void setOutputStream(OutputStream out)
+    {
+        super.setOutputStream(out);
+        if (avmPlusOutput != null)
+            avmPlusOutput.setOutputStream(segments != null ? segments : this.out);
+    }
+
     /**
      * Reset all object reference information allowing the class to be used to
      * write a "new" data structure.
@@ -110,6 +130,7 @@ public class Amf0Output extends AbstractAmfOutput implements AmfTypes
     {
         super.reset();
 
+        recordTableSize(serializedObjects.size());
         serializedObjects.clear();
         serializedObjectCount = 0;
 
@@ -124,11 +145,44 @@ public class Amf0Output extends AbstractAmfOutput implements AmfTypes
      */
     protected void createAMF3Output()
     {
-        avmPlusOutput = new Amf3Output(context);
-        avmPlusOutput.setOutputStream(out);
+        if (recycledAmf3Output != null)
+        {
+            avmPlusOutput = recycledAmf3Output;
+            recycledAmf3Output = null;
+            avmPlusOutput.setSerializationContext(context);
+        }
+        else
+        {
+            avmPlusOutput = new Amf3Output(context);
+        }
+        avmPlusOutput.setOutputStream(segments != null ? segments : out);
         avmPlusOutput.setDebugTrace(trace);
     }
 
+    @Override
+    void setSerializationContext(SerializationContext context)
+    {
+        super.setSerializationContext(context);
+        context.supportDatesByReference = false;
+    }
+
+    @Override
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        boolean reusable = super.recycle(maxTableSize, maxTempArrayLength);
+        avmPlus = false;
+
+        // The AMF 3 output is bound to the next context only when the
+        // stream switches to AMF 3, as it would be if it were created then.
+        if (avmPlusOutput != null)
+        {
+            reusable &= avmPlusOutput.recycle(maxTableSize, maxTempArrayLength);
+            recycledAmf3Output = avmPlusOutput;
+            avmPlusOutput = null;
+        }
+        return reusable;
+    }
+
     //
     // java.io.ObjectOutput implementations
     //
@@ -138,6 +192,10 @@ public class Amf0Output extends AbstractAmfOutput implements AmfTypes
      */
     public void writeObject(Object o) throws IOException
     {
+        // Only AMF 3 streams splice in kept encodings.
+        if (o instanceof Amf3EncodedValue)
+            o = ((Amf3EncodedValue)o).getValue();
+
         if (o == null)
         {
             writeAMFNull();
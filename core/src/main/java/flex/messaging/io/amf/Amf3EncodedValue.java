@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import flex.messaging.io.SerializationContext;
+
+/**
+ * A value whose AMF 3 encoding is kept so that it can be written any number
+ * of times without walking the value again, such as a cached remoting result.
+ * <p>
+ * The value is encoded into an <code>Amf3Template</code> once per set of
+ * serialization settings, which <code>Amf3Output</code> splices into the
+ * stream. Outputs of other formats write the value itself. The value must
+ * not be modified once it has been encoded.
+ * </p>
+ */
+public class Amf3EncodedValue
+{
+    private final Object value;
+    private final ConcurrentMap<Integer, Amf3Template> templates = new ConcurrentHashMap<Integer, Amf3Template>(4);
+
+    /**
+     * Constructs an <code>Amf3EncodedValue</code>.
+     *
+     * @param value the value.
+     */
+    public Amf3EncodedValue(Object value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Returns the value.
+     *
+     * @return the value.
+     */
+    public Object getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Returns the encoding of the value for the given serialization settings,
+     * encoding the value if it has not been encoded with them before.
+     *
+     * @param context the serialization settings.
+     * @return the template.
+     * @throws IOException if the value could not be encoded.
+     */
+    public Amf3Template getTemplate(SerializationContext context) throws IOException
+    {
+        Integer flags = Integer.valueOf(Amf3Template.getFormatFlags(context));
+        Amf3Template template = templates.get(flags);
+        if (template == null)
+        {
+            template = Amf3Template.encode(context, value);
+            Amf3Template existing = templates.putIfAbsent(flags, template);
+            if (existing != null)
+                template = existing;
+            else
+                templateEncoded(template);
+        }
+        return template;
+    }
+
+    /**
+     * Called once the value has been encoded with a new set of serialization
+     * settings, so that subclasses can account for the memory of its encodings.
+     *
+     * @param template the new template.
+     */
+    protected void templateEncoded(Amf3Template template)
+    {
+    }
+
+    /**
+     * Writes the encoding of the value to an AMF 3 stream.
+     *
+     * @param output the output to write to.
+     * @param context the serialization settings of the output.
+     * @throws IOException if the write failed.
+     */
+    public void write(Amf3Output output, SerializationContext context) throws IOException
+    {
+        getTemplate(context).write(output, null);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.valueOf(value);
+    }
+}
@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Dictionary;
@@ -49,6 +50,8 @@ import flex.messaging.util.Trace;
  */
 public class Amf3Input extends AbstractAmfInput implements Amf3Types
 {
+    static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
     /**
      *
      */
@@ -81,6 +84,9 @@ public class Amf3Input extends AbstractAmfInput implements Amf3Types
     public void reset()
     {
         super.reset();
+        recordTableSize(stringTable.size());
+        recordTableSize(objectTable.size());
+        recordTableSize(traitsTable.size());
         stringTable.clear();
         objectTable.clear();
         traitsTable.clear();
@@ -130,7 +136,7 @@ public class Amf3Input extends AbstractAmfInput implements Amf3Types
      */
     public Object readObject() throws ClassNotFoundException, IOException
     {
-        int type = in.readByte();
+        int type = readByte();
         Object value = readObjectValue(type);
         return value;
     }
@@ -470,10 +476,10 @@ public class Amf3Input extends AbstractAmfInput implements Amf3Types
 
             ClassUtil.validateCreation(Long.class);
 
-            long value = (long) (in.readByte() & 0xFF) << 24L;
-            value += (long) (in.readByte() & 0xFF) << 16L;
-            value += (long) (in.readByte() & 0xFF) << 8L;
-            value += (in.readByte() & 0xFF);
+            long value = (long) (readByte() & 0xFF) << 24L;
+            value += (long) (readByte() & 0xFF) << 16L;
+            value += (long) (readByte() & 0xFF) << 8L;
+            value += (readByte() & 0xFF);
 
             if (isDebug)
                 trace.write(value);
@@ -896,11 +902,11 @@ public class Amf3Input extends AbstractAmfInput implements Amf3Types
     {
         checkUTFLength(utflen);
         // We should just read the bytes into a buffer
-        byte[] bytearr = new byte[utflen];
+        byte[] bytearr = getTempByteArray(utflen);
 
         in.readFully(bytearr, 0, utflen);
-        // It is UTF-8 encoding, directly use new String(bytes, "utf-8");
-        String s = new String(bytearr, "utf-8");
+        // It is UTF-8 encoding, directly use new String(bytes, UTF-8);
+        String s = new String(bytearr, 0, utflen, UTF8_CHARSET);
         return s;
     }
 
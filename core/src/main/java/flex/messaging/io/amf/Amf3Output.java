@@ -26,6 +26,8 @@ import flex.messaging.io.SerializationContext;
 import flex.messaging.io.SerializationDescriptor;
 import flex.messaging.io.StatusInfoProxy;
 import flex.messaging.io.amf.AmfTrace.VectorType;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.SharedMessageEncoding;
 import flex.messaging.util.Trace;
 import org.w3c.dom.Document;
 
@@ -74,21 +76,49 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
      */
     protected HashMap<String, Integer> stringTable;
 
+    /**
+     * The next reference index for each table. These are tracked separately
+     * from the table sizes so that a spliced Amf3Template can reserve the
+     * reference slots its own values occupy on the client.
+     */
+    protected int objectCount;
+    protected int traitsCount;
+    protected int stringCount;
+
     public Amf3Output(SerializationContext context)
     {
         super(context);
         context.supportDatesByReference = true;
     }
 
+    @Override
+    void setSerializationContext(SerializationContext context)
+    {
+        super.setSerializationContext(context);
+        context.supportDatesByReference = true;
+    }
+
     public void reset()
     {
         super.reset();
         if (objectTable != null)
+        {
+            recordTableSize(objectTable.size());
             objectTable.clear();
+        }
         if (traitsTable != null)
+        {
+            recordTableSize(traitsTable.size());
             traitsTable.clear();
+        }
         if (stringTable != null)
+        {
+            recordTableSize(stringTable.size());
             stringTable.clear();
+        }
+        objectCount = 0;
+        traitsCount = 0;
+        stringCount = 0;
     }
 
     //
@@ -107,7 +137,22 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
             writeAMFNull();
             return;
         }
-        
+
+        // Values with a kept encoding, such as cached results, are spliced in.
+        if (o instanceof Amf3EncodedValue)
+        {
+            if (isDebug)
+                writeObject(((Amf3EncodedValue)o).getValue());
+            else
+                ((Amf3EncodedValue)o).write(this, context);
+            return;
+        }
+
+        // Messages fanned out to many clients may carry an encoding shared
+        // by all of their copies; splice it in instead of re-encoding.
+        if (!isDebug && o instanceof AsyncMessage && SharedMessageEncoding.writeMessage(this, context, o))
+            return;
+
         if (!context.legacyExternalizable && o instanceof Externalizable)
         {
             writeCustomObject(o);
@@ -366,7 +411,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         writeUInt29((dictionary.size() << 1) | 1);
         writeAMFBoolean(false /*usingWeakKeys*/);
 
-        if (isDebug) trace.startAMFDictionary(objectTable.size() - 1);
+        if (isDebug) trace.startAMFDictionary(objectCount - 1);
 
         Enumeration keys = dictionary.keys();
         while (keys.hasMoreElements())
@@ -418,7 +463,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         {
             case kTypedVectorInt:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.INT);
+                    trace.startAMFVector(objectCount - 1, VectorType.INT);
 
                 for (int i = 0; i < length; i++)
                 {
@@ -436,7 +481,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
                 break;
             case kTypedVectorDouble:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.DOUBLE);
+                    trace.startAMFVector(objectCount - 1, VectorType.DOUBLE);
 
                 for (int i = 0; i < length; i++)
                 {
@@ -454,7 +499,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
                 break;
             case kTypedVectorObject:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.OBJECT);
+                    trace.startAMFVector(objectCount - 1, VectorType.OBJECT);
 
                 // TODO - I don't think this className is used properly on the client currently.
                 String className = componentType.getName();
@@ -528,7 +573,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         {
             case kTypedVectorInt:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.INT);
+                    trace.startAMFVector(objectCount - 1, VectorType.INT);
 
                 for (int i = 0; i < length; i++)
                 {
@@ -546,7 +591,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
                 break;
             case kTypedVectorDouble:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.DOUBLE);
+                    trace.startAMFVector(objectCount - 1, VectorType.DOUBLE);
 
                 for (int i = 0; i < length; i++)
                 {
@@ -564,7 +609,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
                 break;
             case kTypedVectorObject:
                 if (isDebug)
-                    trace.startAMFVector(objectTable.size() - 1, VectorType.OBJECT);
+                    trace.startAMFVector(objectCount - 1, VectorType.OBJECT);
 
                 // TODO - I don't think this className is used properly on the client currently.
                 String className = initialElementClass != null? initialElementClass.getName() : "";
@@ -1245,6 +1290,12 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
 
         writeUInt29((utflen << 1) | 1);
 
+        if (segments != null)
+        {
+            writeUTFToSegments(charr, strlen);
+            return;
+        }
+
         byte[] bytearr = getTempByteArray(utflen);
 
         for (int i = 0; i < strlen; i++)
@@ -1269,6 +1320,62 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         out.write(bytearr, 0, utflen);
     }
 
+    /**
+     * Encodes the characters of a string straight into the segments of the
+     * stream, without a temporary byte array.
+     */
+    private void writeUTFToSegments(char[] charr, int strlen) throws IOException
+    {
+        SegmentedOutputStream sink = segments;
+        byte[] segment = sink.segment;
+        int position = sink.position;
+        int end = sink.end;
+
+        for (int i = 0; i < strlen; i++)
+        {
+            int c = charr[i];
+            if (end - position < 3)
+            {
+                // Near the end of the segment, let the stream move on to the next one
+                sink.position = position;
+                if (c <= 0x007F)
+                {
+                    sink.write(c);
+                }
+                else if (c > 0x07FF)
+                {
+                    sink.write(0xE0 | ((c >> 12) & 0x0F));
+                    sink.write(0x80 | ((c >> 6) & 0x3F));
+                    sink.write(0x80 | ((c >> 0) & 0x3F));
+                }
+                else
+                {
+                    sink.write(0xC0 | ((c >> 6) & 0x1F));
+                    sink.write(0x80 | ((c >> 0) & 0x3F));
+                }
+                segment = sink.segment;
+                position = sink.position;
+                end = sink.end;
+            }
+            else if (c <= 0x007F)
+            {
+                segment[position++] = (byte)c;
+            }
+            else if (c > 0x07FF)
+            {
+                segment[position++] = (byte)(0xE0 | ((c >> 12) & 0x0F));
+                segment[position++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                segment[position++] = (byte)(0x80 | ((c >> 0) & 0x3F));
+            }
+            else
+            {
+                segment[position++] = (byte)(0xC0 | ((c >> 6) & 0x1F));
+                segment[position++] = (byte)(0x80 | ((c >> 0) & 0x3F));
+            }
+        }
+        sink.position = position;
+    }
+
     /**
      * Attempts to serialize the object as a reference.
      * If the object cannot be serialized as a reference, it is stored
@@ -1301,7 +1408,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
 
         if (objectTable == null)
             objectTable = new IdentityHashMap<Object, Integer>(64);
-        objectTable.put(o, Integer.valueOf(objectTable.size()));
+        objectTable.put(o, Integer.valueOf(objectCount++));
         return false;
     }
 
@@ -1337,7 +1444,7 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         }
         if (stringTable == null)
             stringTable = new HashMap<String, Integer>(64);
-        stringTable.put(s, Integer.valueOf(stringTable.size()));
+        stringTable.put(s, Integer.valueOf(stringCount++));
         return false;
     }
 
@@ -1365,12 +1472,29 @@ public class Amf3Output extends AbstractAmfOutput implements Amf3Types
         }
         if (traitsTable == null)
             traitsTable = new HashMap<TraitsInfo, Integer>(10);
-        traitsTable.put(ti, Integer.valueOf(traitsTable.size()));
+        traitsTable.put(ti, Integer.valueOf(traitsCount++));
         return false;
     }
 
     protected int getObjectTableSize()
     {
-        return objectTable != null? objectTable.size() - 1 : 0;
+        return objectCount > 0? objectCount - 1 : 0;
+    }
+
+    /**
+     * Reserves reference slots for values that were written to the stream
+     * without going through this instance, such as a spliced Amf3Template.
+     * The client registers those values in its reference tables, so the
+     * indices handed out for subsequent values must skip past them.
+     *
+     * @param objects the number of object references to reserve
+     * @param traits the number of traits references to reserve
+     * @param strings the number of string references to reserve
+     */
+    void reserveReferences(int objects, int traits, int strings)
+    {
+        objectCount += objects;
+        traitsCount += traits;
+        stringCount += strings;
     }
 }
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import flex.messaging.io.SerializationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An AMF 3 value that has been encoded once and can be spliced into any
+ * number of AMF 3 streams.
+ * <p>
+ * Unlike <code>SerializedObject</code>, a template can be written at any
+ * position of a stream, not just at the start of a fresh reference context.
+ * The value is encoded against empty reference tables and the position of
+ * every object, traits and string reference inside it is recorded. When the
+ * template is written to an <code>Amf3Output</code> that has already handed
+ * out references, those positions are rewritten relative to the current
+ * table sizes, and the output then reserves the reference slots the
+ * template's own values occupy on the client.
+ * </p>
+ * <p>
+ * A template may also declare patch slots: fixed length byte ranges, such as
+ * the bytes of a message id, that can be replaced on each write without
+ * re-encoding the rest of the value.
+ * </p>
+ */
+public class Amf3Template
+{
+    private static final byte OBJECT_REFERENCE = 0;
+    private static final byte TRAITS_REFERENCE = 1;
+    private static final byte STRING_REFERENCE = 2;
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final byte[] bytes;
+
+    private final int[] referencePositions;
+    private final int[] referenceLengths;
+    private final int[] referenceIndices;
+    private final byte[] referenceKinds;
+
+    private final int objectCount;
+    private final int traitsCount;
+    private final int stringCount;
+
+    private int[] slotOffsets = NO_SLOTS;
+    private int[] slotLengths = NO_SLOTS;
+
+    private Amf3Template(byte[] bytes, List<int[]> references, int objectCount, int traitsCount, int stringCount)
+    {
+        this.bytes = bytes;
+        this.objectCount = objectCount;
+        this.traitsCount = traitsCount;
+        this.stringCount = stringCount;
+
+        int count = references.size();
+        referencePositions = new int[count];
+        referenceLengths = new int[count];
+        referenceIndices = new int[count];
+        referenceKinds = new byte[count];
+        for (int i = 0; i < count; i++)
+        {
+            int[] reference = references.get(i);
+            referencePositions[i] = reference[0];
+            referenceLengths[i] = reference[1];
+            referenceIndices[i] = reference[2];
+            referenceKinds[i] = (byte)reference[3];
+        }
+    }
+
+    /**
+     * Encodes a value into a new template.
+     *
+     * @param context the serialization settings of the streams the template
+     * will be written to.
+     * @param value the value to encode.
+     * @return the template.
+     * @throws IOException if the value could not be encoded.
+     */
+    public static Amf3Template encode(SerializationContext context, Object value) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RecordingAmf3Output recorder = new RecordingAmf3Output(context, buffer);
+        recorder.writeObject(value);
+        recorder.flush();
+        return new Amf3Template(buffer.toByteArray(), recorder.references,
+                recorder.objectCount, recorder.traitsCount, recorder.stringCount);
+    }
+
+    /**
+     * Returns the settings of a serialization context that affect how values
+     * are encoded, as a bit set. Templates may only be written to outputs whose
+     * context has the same flags as the context they were encoded with.
+     *
+     * @param context the serialization context.
+     * @return the encoding flags of the context.
+     */
+    public static int getFormatFlags(SerializationContext context)
+    {
+        int f = 0;
+        if (context.legacyCollection) f |= 1;
+        if (context.legacyMap) f |= 1 << 1;
+        if (context.legacyDictionary) f |= 1 << 2;
+        if (context.legacyXMLDocument) f |= 1 << 3;
+        if (context.legacyThrowable) f |= 1 << 4;
+        if (context.legacyBigNumbers) f |= 1 << 5;
+        if (context.legacyExternalizable) f |= 1 << 6;
+        if (context.preferVectors) f |= 1 << 7;
+        if (context.includeReadOnly) f |= 1 << 8;
+        return f;
+    }
+
+    /**
+     * Returns the encoded bytes of the value as written to a fresh stream.
+     *
+     * @return the encoded bytes.
+     */
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of patch slots declared on this template.
+     *
+     * @return the number of patch slots.
+     */
+    public int getSlotCount()
+    {
+        return slotOffsets.length;
+    }
+
+    /**
+     * Declares a patch slot at the single occurrence of the given bytes in
+     * the encoded value. The slot is not declared if the bytes do not occur,
+     * occur more than once or overlap a reference or another slot. Slots
+     * must be declared before the template is shared between threads.
+     *
+     * @param pattern the bytes to locate.
+     * @return the index of the new slot, or -1 if no slot was declared.
+     */
+    public int addSlot(byte[] pattern)
+    {
+        int offset = indexOf(pattern, 0);
+        if (offset < 0 || indexOf(pattern, offset + 1) >= 0)
+            return -1;
+
+        int end = offset + pattern.length;
+        for (int i = 0; i < referencePositions.length; i++)
+        {
+            if (referencePositions[i] < end && offset < referencePositions[i] + referenceLengths[i])
+                return -1;
+        }
+        for (int i = 0; i < slotOffsets.length; i++)
+        {
+            if (slotOffsets[i] < end && offset < slotOffsets[i] + slotLengths[i])
+                return -1;
+        }
+
+        int count = slotOffsets.length;
+        slotOffsets = Arrays.copyOf(slotOffsets, count + 1);
+        slotLengths = Arrays.copyOf(slotLengths, count + 1);
+        slotOffsets[count] = offset;
+        slotLengths[count] = pattern.length;
+        return count;
+    }
+
+    /**
+     * Returns the length of a patch slot.
+     *
+     * @param slot the index of the slot.
+     * @return the number of bytes the slot covers.
+     */
+    public int getSlotLength(int slot)
+    {
+        return slotLengths[slot];
+    }
+
+    /**
+     * Writes the value to an AMF 3 stream, relocating its references
+     * against the current state of the output.
+     *
+     * @param output the output to write to.
+     * @param slotValues the replacement bytes for each patch slot in the order
+     * they were declared; a <code>null</code> array or entry keeps the bytes
+     * that were originally encoded.
+     * @throws IOException if the write failed.
+     */
+    public void write(Amf3Output output, byte[][] slotValues) throws IOException
+    {
+        int objectBase = output.objectCount;
+        int traitsBase = output.traitsCount;
+        int stringBase = output.stringCount;
+        boolean relocate = objectBase != 0 || traitsBase != 0 || stringBase != 0;
+
+        DataOutputStream out = output.out;
+        int[] offsets = slotOffsets;
+        int[] lengths = slotLengths;
+
+        int position = 0;
+        int reference = 0;
+        int slot = nextSlot(offsets, -1);
+        while (true)
+        {
+            int nextReference = relocate && reference < referencePositions.length ?
+                    referencePositions[reference] : Integer.MAX_VALUE;
+            int nextSlot = slot >= 0 ? offsets[slot] : Integer.MAX_VALUE;
+            int next = Math.min(nextReference, nextSlot);
+
+            if (next == Integer.MAX_VALUE)
+            {
+                out.write(bytes, position, bytes.length - position);
+                break;
+            }
+
+            out.write(bytes, position, next - position);
+            if (next == nextReference)
+            {
+                int index = referenceIndices[reference];
+                switch (referenceKinds[reference])
+                {
+                    case TRAITS_REFERENCE:
+                        output.writeUInt29(((index + traitsBase) << 2) | 1);
+                        break;
+                    case STRING_REFERENCE:
+                        output.writeUInt29((index + stringBase) << 1);
+                        break;
+                    default:
+                        output.writeUInt29((index + objectBase) << 1);
+                        break;
+                }
+                position = next + referenceLengths[reference];
+                reference++;
+            }
+            else
+            {
+                byte[] value = slotValues != null && slot < slotValues.length ? slotValues[slot] : null;
+                if (value != null && value.length == lengths[slot])
+                    out.write(value, 0, value.length);
+                else
+                    out.write(bytes, next, lengths[slot]);
+                position = next + lengths[slot];
+                slot = nextSlot(offsets, offsets[slot]);
+            }
+        }
+
+        output.reserveReferences(objectCount, traitsCount, stringCount);
+    }
+
+    /**
+     * Slots are few, so a linear scan for the next one by offset is cheaper
+     * than keeping a sorted copy around.
+     */
+    private static int nextSlot(int[] offsets, int after)
+    {
+        int result = -1;
+        for (int i = 0; i < offsets.length; i++)
+        {
+            if (offsets[i] > after && (result < 0 || offsets[i] < offsets[result]))
+                result = i;
+        }
+        return result;
+    }
+
+    private int indexOf(byte[] pattern, int from)
+    {
+        int last = bytes.length - pattern.length;
+        outer:
+        for (int i = from; i <= last; i++)
+        {
+            for (int j = 0; j < pattern.length; j++)
+            {
+                if (bytes[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Amf3Output that records where it writes references instead of inline
+     * values.
+     */
+    private static class RecordingAmf3Output extends Amf3Output
+    {
+        final List<int[]> references = new ArrayList<int[]>();
+
+        RecordingAmf3Output(SerializationContext context, ByteArrayOutputStream buffer)
+        {
+            super(context);
+            // Assigned directly; setOutputStream() would reset the thread's
+            // type marshalling context in the middle of the outer write.
+            out = new DataOutputStream(buffer);
+        }
+
+        @Override
+        protected boolean byReference(Object o) throws IOException
+        {
+            int start = out.size();
+            if (!super.byReference(o))
+                return false;
+            record(start, objectTable.get(o).intValue(), OBJECT_REFERENCE);
+            return true;
+        }
+
+        @Override
+        protected boolean byReference(String s) throws IOException
+        {
+            int start = out.size();
+            if (!super.byReference(s))
+                return false;
+            record(start, stringTable.get(s).intValue(), STRING_REFERENCE);
+            return true;
+        }
+
+        @Override
+        protected boolean byReference(TraitsInfo ti) throws IOException
+        {
+            int start = out.size();
+            if (!super.byReference(ti))
+                return false;
+            record(start, traitsTable.get(ti).intValue(), TRAITS_REFERENCE);
+            return true;
+        }
+
+        private void record(int start, int index, byte kind)
+        {
+            references.add(new int[] {start, out.size() - start, index, kind});
+        }
+    }
+}
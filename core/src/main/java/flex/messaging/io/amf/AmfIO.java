@@ -28,7 +28,7 @@ import flex.messaging.io.TypeMarshallingContext;
  */
 abstract class AmfIO
 {
-    protected final SerializationContext context;
+    protected SerializationContext context;
     /*
      *  DEBUG LOGGING.
      */
@@ -47,6 +47,12 @@ abstract class AmfIO
     private char[] tempCharArray = null;
     private byte[] tempByteArray = null;
 
+    /*
+     *  POOLING.
+     */
+    // The largest reference table seen since this instance was last recycled
+    private int largestTableSize;
+
     AmfIO(SerializationContext context)
     {
         this.context = context;
@@ -79,6 +85,54 @@ abstract class AmfIO
         marshallingContext.reset();
     }
 
+    /**
+     * Binds a recycled instance to the SerializationContext of the request
+     * it is reused for.
+     * @param context the context to use
+     */
+    void setSerializationContext(SerializationContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Records the size of a reference table before it is cleared, so that
+     * <code>recycle()</code> can tell whether the table has grown too large
+     * to be kept.
+     * @param size the number of entries in the table
+     */
+    final void recordTableSize(int size)
+    {
+        if (size > largestTableSize)
+            largestTableSize = size;
+    }
+
+    /**
+     * Clears the state of the last data structure so that this instance can
+     * be pooled and reused. Temporary arrays that have grown past the given
+     * length are released.
+     *
+     * @param maxTableSize the largest reference table an instance may have
+     * grown to and still be reused
+     * @param maxTempArrayLength the largest temporary array to keep
+     * @return <code>false</code> if a reference table grew past
+     * <code>maxTableSize</code> and this instance should be discarded
+     */
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        reset();
+        setDebugTrace(null);
+
+        if (tempCharArray != null && tempCharArray.length > maxTempArrayLength)
+            tempCharArray = null;
+        if (tempByteArray != null && tempByteArray.length > maxTempArrayLength)
+            tempByteArray = null;
+
+        boolean reusable = largestTableSize <= maxTableSize;
+        largestTableSize = 0;
+        return reusable;
+    }
+
     /**
      * Returns an existing array with a length of at least the specified
      * capacity.  This method is for optimization only.  Do not use the array
@@ -41,7 +41,11 @@ public class AmfMessageDeserializer implements MessageDeserializer
 
     public void initialize(SerializationContext context, InputStream in, AmfTrace trace)
     {
-        amfIn = new Amf0Input(context);
+        // A recycled deserializer keeps its input, and its reference tables.
+        if (amfIn instanceof Amf0Input)
+            ((Amf0Input)amfIn).setSerializationContext(context);
+        else
+            amfIn = new Amf0Input(context);
         amfIn.setInputStream(in);
 
         debugTrace = trace;
@@ -49,6 +53,25 @@ public class AmfMessageDeserializer implements MessageDeserializer
         amfIn.setDebugTrace(debugTrace);
     }
 
+    /**
+     * Releases the state of the last message read so that this deserializer
+     * can be reused by <code>AmfSerializationPool</code>.
+     *
+     * @param maxTableSize the largest reference table the input may have
+     * grown to and still be reused
+     * @param maxTempArrayLength the largest temporary array to keep
+     * @return <code>false</code> if this deserializer should be discarded
+     */
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        debugTrace = null;
+        isDebug = false;
+        if (amfIn instanceof Amf0Input)
+            return ((Amf0Input)amfIn).recycle(maxTableSize, maxTempArrayLength);
+        amfIn = null;
+        return true;
+    }
+
     public void readMessage(ActionMessage m, ActionContext context) throws ClassNotFoundException, IOException
     {
         if (isDebug)
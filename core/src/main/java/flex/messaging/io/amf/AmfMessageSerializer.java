@@ -44,7 +44,11 @@ public class AmfMessageSerializer implements MessageSerializer
 
     public void initialize(SerializationContext context, OutputStream out, AmfTrace trace)
     {
-        amfOut = new Amf0Output(context);
+        // A recycled serializer keeps its output, and its reference tables.
+        if (amfOut == null)
+            amfOut = new Amf0Output(context);
+        else
+            amfOut.setSerializationContext(context);
         amfOut.setOutputStream(out);
         amfOut.setAvmPlus(version >= MessageIOConstants.AMF3);
 
@@ -53,6 +57,23 @@ public class AmfMessageSerializer implements MessageSerializer
         amfOut.setDebugTrace(debugTrace);
     }
 
+    /**
+     * Releases the state of the last message written so that this serializer
+     * can be reused by <code>AmfSerializationPool</code>.
+     *
+     * @param maxTableSize the largest reference table the output may have
+     * grown to and still be reused
+     * @param maxTempArrayLength the largest temporary array to keep
+     * @return <code>false</code> if this serializer should be discarded
+     */
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        version = 0;
+        debugTrace = null;
+        isDebug = false;
+        return amfOut == null || amfOut.recycle(maxTableSize, maxTempArrayLength);
+    }
+
     /**
      * Serializes a message to the output stream.
      *
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import flex.messaging.io.MessageDeserializer;
+import flex.messaging.io.MessageSerializer;
+import flex.messaging.io.SerializationContext;
+
+/**
+ * A bounded pool of the AMF message serializers, deserializers and response
+ * buffers used to handle AMF/HTTP requests, and of the segments of
+ * <code>SegmentedOutputStream</code>s.
+ * <p>
+ * A pooled serializer keeps its <code>Amf0Output</code> and <code>Amf3Output</code>,
+ * and a pooled deserializer its <code>Amf0Input</code> and <code>Amf3Input</code>,
+ * along with their reference tables and temporary arrays, so that a request
+ * does not have to allocate them again. Instances are cleared when they are
+ * released, and are discarded instead of pooled if serializing one very large
+ * object graph grew their reference tables past <code>maxTableSize</code>;
+ * buffers that grew past <code>maxBufferSize</code> are discarded as well.
+ * </p>
+ * <p>
+ * The pool is shared by all threads rather than held in thread locals, so
+ * the number of idle instances is bounded by its capacity no matter how many
+ * threads serve requests. Only the default <code>AmfMessageSerializer</code>
+ * and <code>AmfMessageDeserializer</code> are pooled; other serializer classes
+ * configured on the <code>SerializationContext</code> are created per request.
+ * </p>
+ */
+public class AmfSerializationPool
+{
+    /**
+     * The default number of idle instances of each kind that are kept.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * The default number of entries a reference table may have grown to for
+     * its serializer or deserializer to be reused.
+     */
+    public static final int DEFAULT_MAX_TABLE_SIZE = 4096;
+
+    /**
+     * The default number of bytes a response buffer, or a temporary array of
+     * a serializer or deserializer, may have grown to and still be reused.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 262144;
+
+    /**
+     * The size of the segments of a <code>SegmentedOutputStream</code>.
+     */
+    public static final int SEGMENT_SIZE = 8192;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    // Each response may need several segments
+    private static final int SEGMENTS_PER_INSTANCE = 4;
+
+    private static final AmfSerializationPool pool = new AmfSerializationPool(DEFAULT_CAPACITY,
+            DEFAULT_MAX_TABLE_SIZE, DEFAULT_MAX_BUFFER_SIZE);
+
+    private final int maxTableSize;
+    private final int maxBufferSize;
+    private final BlockingQueue<AmfMessageSerializer> serializers;
+    private final BlockingQueue<AmfMessageDeserializer> deserializers;
+    private final BlockingQueue<PooledBuffer> buffers;
+    private final BlockingQueue<byte[]> segments;
+
+    /**
+     * Constructs an <code>AmfSerializationPool</code>.
+     *
+     * @param capacity the number of idle instances of each kind to keep.
+     * @param maxTableSize the number of entries a reference table may have
+     * grown to for its serializer or deserializer to be reused.
+     * @param maxBufferSize the number of bytes a response buffer or temporary
+     * array may have grown to and still be reused.
+     */
+    public AmfSerializationPool(int capacity, int maxTableSize, int maxBufferSize)
+    {
+        this.maxTableSize = maxTableSize;
+        this.maxBufferSize = maxBufferSize;
+        serializers = new ArrayBlockingQueue<AmfMessageSerializer>(capacity);
+        deserializers = new ArrayBlockingQueue<AmfMessageDeserializer>(capacity);
+        buffers = new ArrayBlockingQueue<PooledBuffer>(capacity);
+        segments = new ArrayBlockingQueue<byte[]>(capacity * SEGMENTS_PER_INSTANCE);
+    }
+
+    /**
+     * Returns the number of bytes a buffer may grow to and still be reused.
+     *
+     * @return the maximum size of a pooled buffer.
+     */
+    public int getMaxBufferSize()
+    {
+        return maxBufferSize;
+    }
+
+    /**
+     * Returns the pool shared by the AMF endpoints.
+     *
+     * @return the shared pool.
+     */
+    public static AmfSerializationPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Returns a message serializer for the given context, taken from the pool
+     * if the context uses the default serializer class. The serializer still
+     * has to be initialized.
+     *
+     * @param context the serialization context of the request.
+     * @return a message serializer.
+     */
+    public MessageSerializer getSerializer(SerializationContext context)
+    {
+        Class serializerClass = context.getSerializerClass();
+        if (serializerClass != null && serializerClass != AmfMessageSerializer.class)
+            return context.newMessageSerializer();
+
+        AmfMessageSerializer serializer = serializers.poll();
+        return serializer != null ? serializer : new AmfMessageSerializer();
+    }
+
+    /**
+     * Returns a serializer to the pool. The serializer must not be used by
+     * the caller afterwards.
+     *
+     * @param serializer a serializer returned by <code>getSerializer()</code>.
+     */
+    public void releaseSerializer(MessageSerializer serializer)
+    {
+        if (serializer != null && serializer.getClass() == AmfMessageSerializer.class)
+        {
+            AmfMessageSerializer amfSerializer = (AmfMessageSerializer)serializer;
+            if (amfSerializer.recycle(maxTableSize, maxBufferSize))
+                serializers.offer(amfSerializer);
+        }
+    }
+
+    /**
+     * Returns a message deserializer for the given context, taken from the
+     * pool if the context uses the default deserializer class. The
+     * deserializer still has to be initialized.
+     *
+     * @param context the serialization context of the request.
+     * @return a message deserializer.
+     */
+    public MessageDeserializer getDeserializer(SerializationContext context)
+    {
+        Class deserializerClass = context.getDeserializerClass();
+        if (deserializerClass != null && deserializerClass != AmfMessageDeserializer.class)
+            return context.newMessageDeserializer();
+
+        AmfMessageDeserializer deserializer = deserializers.poll();
+        return deserializer != null ? deserializer : new AmfMessageDeserializer();
+    }
+
+    /**
+     * Returns a deserializer to the pool. The deserializer must not be used
+     * by the caller afterwards.
+     *
+     * @param deserializer a deserializer returned by <code>getDeserializer()</code>.
+     */
+    public void releaseDeserializer(MessageDeserializer deserializer)
+    {
+        if (deserializer != null && deserializer.getClass() == AmfMessageDeserializer.class)
+        {
+            AmfMessageDeserializer amfDeserializer = (AmfMessageDeserializer)deserializer;
+            if (amfDeserializer.recycle(maxTableSize, maxBufferSize))
+                deserializers.offer(amfDeserializer);
+        }
+    }
+
+    /**
+     * Returns an empty buffer for a request or a serialized response.
+     *
+     * @return an empty buffer.
+     */
+    public PooledBuffer getBuffer()
+    {
+        PooledBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : new PooledBuffer(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a buffer to the pool once its contents have been written.
+     * Buffers that were not returned by <code>getBuffer()</code> are ignored.
+     * The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void releaseBuffer(ByteArrayOutputStream buffer)
+    {
+        if (buffer instanceof PooledBuffer)
+        {
+            PooledBuffer pooledBuffer = (PooledBuffer)buffer;
+            if (pooledBuffer.capacity() <= maxBufferSize)
+            {
+                pooledBuffer.reset();
+                buffers.offer(pooledBuffer);
+            }
+        }
+    }
+
+    /**
+     * Returns a segment of <code>SEGMENT_SIZE</code> bytes for a
+     * <code>SegmentedOutputStream</code>. The contents of the segment are
+     * undefined.
+     *
+     * @return a segment.
+     */
+    public byte[] getSegment()
+    {
+        byte[] segment = segments.poll();
+        return segment != null ? segment : new byte[SEGMENT_SIZE];
+    }
+
+    /**
+     * Returns a segment to the pool. The segment must not be used by the
+     * caller afterwards.
+     *
+     * @param segment a segment returned by <code>getSegment()</code>.
+     */
+    public void releaseSegment(byte[] segment)
+    {
+        if (segment != null && segment.length == SEGMENT_SIZE)
+            segments.offer(segment);
+    }
+
+    /**
+     * Discards all idle instances.
+     */
+    public void clear()
+    {
+        serializers.clear();
+        deserializers.clear();
+        buffers.clear();
+        segments.clear();
+    }
+
+    /**
+     * A response buffer that can be pooled, and whose contents can be
+     * modified in place.
+     */
+    public static class PooledBuffer extends ByteArrayOutputStream
+    {
+        PooledBuffer(int size)
+        {
+            super(size);
+        }
+
+        /**
+         * Returns the internal array of this buffer, which holds
+         * <code>size()</code> valid bytes. The array is replaced when the
+         * buffer grows.
+         *
+         * @return the internal array.
+         */
+        public byte[] getBytes()
+        {
+            return buf;
+        }
+
+        /**
+         * Reads up to the given number of bytes from a stream into this
+         * buffer, growing it at most once.
+         *
+         * @param in the stream to read.
+         * @param length the number of bytes to read.
+         * @throws IOException if the stream could not be read.
+         */
+        public void readFrom(InputStream in, int length) throws IOException
+        {
+            if (buf.length - count < length)
+                buf = Arrays.copyOf(buf, count + length);
+
+            while (length > 0)
+            {
+                int read = in.read(buf, count, length);
+                if (read < 0)
+                    break;
+                count += read;
+                length -= read;
+            }
+        }
+
+        /**
+         * Returns the number of bytes this buffer can hold before it grows.
+         *
+         * @return the length of the internal array.
+         */
+        public int capacity()
+        {
+            return buf.length;
+        }
+    }
+}
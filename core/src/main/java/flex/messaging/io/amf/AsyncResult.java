@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.util.concurrent.Future;
+
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.Message;
+
+/**
+ * The pending result of a message whose service returned a <code>Future</code>.
+ * Once the future completes, its value replaces the future as the body of the
+ * acknowledgement, or an error replaces the acknowledgement in the response.
+ */
+public class AsyncResult
+{
+    private final Message request;
+    private final AcknowledgeMessage acknowledgement;
+    private final MessageBody responseBody;
+    private final Future<?> future;
+
+    /**
+     * Constructs an <code>AsyncResult</code>.
+     *
+     * @param request the message that was serviced.
+     * @param acknowledgement the acknowledgement whose body is the future.
+     * @param responseBody the body of the response that holds the acknowledgement.
+     * @param future the future.
+     */
+    public AsyncResult(Message request, AcknowledgeMessage acknowledgement, MessageBody responseBody, Future<?> future)
+    {
+        this.request = request;
+        this.acknowledgement = acknowledgement;
+        this.responseBody = responseBody;
+        this.future = future;
+    }
+
+    public Message getRequest()
+    {
+        return request;
+    }
+
+    public AcknowledgeMessage getAcknowledgement()
+    {
+        return acknowledgement;
+    }
+
+    public MessageBody getResponseBody()
+    {
+        return responseBody;
+    }
+
+    public Future<?> getFuture()
+    {
+        return future;
+    }
+}
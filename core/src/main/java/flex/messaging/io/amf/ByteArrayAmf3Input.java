@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import flex.messaging.io.SerializationContext;
+import flex.messaging.util.ClassUtil;
+
+/**
+ * An AMF 3 deserializer for packets that are held in memory.
+ * <p>
+ * When it reads from a <code>ByteArrayAmfInputStream</code>, integers, doubles,
+ * strings and byte arrays are decoded directly from the array of the stream
+ * with bounds checked indexed reads. Strings that only contain ASCII
+ * characters are created without going through a charset decoder, and no
+ * temporary array is needed per string. From any other stream it reads like
+ * an <code>Amf3Input</code>.
+ * </p>
+ */
+public class ByteArrayAmf3Input extends Amf3Input
+{
+    private ByteArrayAmfInputStream source;
+
+    public ByteArrayAmf3Input(SerializationContext context)
+    {
+        super(context);
+    }
+
+    /**
+     * Internal use
+     *
+     */
+    @Override
+    public void setInputStream(InputStream in)
+    {
+        super.setInputStream(in);
+        source = in instanceof ByteArrayAmfInputStream ? (ByteArrayAmfInputStream)in : null;
+    }
+
+    @Override
+    boolean recycle(int maxTableSize, int maxTempArrayLength)
+    {
+        boolean reusable = super.recycle(maxTableSize, maxTempArrayLength);
+        source = null;
+        return reusable;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int readUInt29() throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readUInt29();
+
+        byte[] buf = s.buf;
+        int pos = s.pos;
+        int limit = s.limit;
+        int value = 0;
+
+        // Up to three bytes of seven bits, each flagged by its high bit
+        for (int i = 0; i < 3; i++)
+        {
+            if (pos >= limit)
+                throw new EOFException();
+
+            int b = buf[pos++] & 0xFF;
+            if (b < 128)
+            {
+                s.pos = pos;
+                return value | b;
+            }
+            value = (value | (b & 0x7F)) << (i < 2 ? 7 : 8);
+        }
+
+        // followed by a full fourth byte
+        if (pos >= limit)
+            throw new EOFException();
+        s.pos = pos + 1;
+        return value | (buf[pos] & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    protected String readUTF(int utflen) throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readUTF(utflen);
+
+        checkUTFLength(utflen);
+        s.require(utflen);
+
+        byte[] buf = s.buf;
+        int start = s.pos;
+        int end = start + utflen;
+        s.pos = end;
+
+        for (int i = start; i < end; i++)
+        {
+            if (buf[i] < 0)
+                return new String(buf, start, utflen, UTF8_CHARSET);
+        }
+
+        // ASCII only, each byte is a character.
+        return new String(buf, 0, start, utflen);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected byte[] readByteArray() throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readByteArray();
+
+        ClassUtil.validateCreation(byte[].class);
+
+        int ref = readUInt29();
+        if ((ref & 1) == 0)
+            return (byte[])getObjectReference(ref >> 1);
+
+        int len = (ref >> 1);
+        s.require(len);
+        byte[] ba = new byte[len];
+        System.arraycopy(s.buf, s.pos, ba, 0, len);
+        s.pos += len;
+        objectTable.add(ba);
+
+        if (isDebug)
+            trace.startByteArray(objectTable.size() - 1, len);
+
+        return ba;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double readDouble() throws IOException
+    {
+        if (source == null)
+            return super.readDouble();
+
+        ClassUtil.validateCreation(Double.class);
+
+        double d = Double.longBitsToDouble(readLong());
+        if (isDebug)
+            trace.write(d);
+        return d;
+    }
+
+    //
+    // java.io.DataInput IMPLEMENTATIONS
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean readBoolean() throws IOException
+    {
+        return readByte() != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte readByte() throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readByte();
+
+        s.require(1);
+        return s.buf[s.pos++];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int readUnsignedByte() throws IOException
+    {
+        return readByte() & 0xFF;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public short readShort() throws IOException
+    {
+        return (short)readUnsignedShort();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int readUnsignedShort() throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readUnsignedShort();
+
+        s.require(2);
+        byte[] buf = s.buf;
+        int pos = s.pos;
+        s.pos = pos + 2;
+        return ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char readChar() throws IOException
+    {
+        return (char)readUnsignedShort();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int readInt() throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+            return super.readInt();
+
+        s.require(4);
+        byte[] buf = s.buf;
+        int pos = s.pos;
+        s.pos = pos + 4;
+        return ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long readLong() throws IOException
+    {
+        if (source == null)
+            return super.readLong();
+
+        return ((long)readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public float readFloat() throws IOException
+    {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readFully(byte[] bytes) throws IOException
+    {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readFully(byte[] bytes, int offset, int length) throws IOException
+    {
+        ByteArrayAmfInputStream s = source;
+        if (s == null)
+        {
+            super.readFully(bytes, offset, length);
+            return;
+        }
+
+        s.require(length);
+        System.arraycopy(s.buf, s.pos, bytes, offset, length);
+        s.pos += length;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream over an AMF packet that is held in memory.
+ * <p>
+ * When an <code>Amf0Input</code> or <code>ByteArrayAmf3Input</code> reads from
+ * this stream, the AMF 3 values in the packet are decoded straight from the
+ * array with indexed reads instead of one stream call per byte. All readers of
+ * the packet share the position of this stream, so the AMF 0 and AMF 3 parts
+ * of a message can be read by different inputs.
+ * </p>
+ * <p>
+ * Unlike <code>ByteArrayInputStream</code> this stream is not synchronized,
+ * and it does not copy the array it is given; the array must not be modified
+ * while it is being read.
+ * </p>
+ */
+public class ByteArrayAmfInputStream extends InputStream
+{
+    final byte[] buf;
+    int pos;
+    final int limit;
+
+    /**
+     * Constructs a stream over a whole array.
+     *
+     * @param buf the packet.
+     */
+    public ByteArrayAmfInputStream(byte[] buf)
+    {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Constructs a stream over part of an array.
+     *
+     * @param buf the array that holds the packet.
+     * @param offset the index of the first byte of the packet.
+     * @param length the length of the packet.
+     */
+    public ByteArrayAmfInputStream(byte[] buf, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > buf.length || offset + length < 0)
+            throw new IndexOutOfBoundsException();
+
+        this.buf = buf;
+        pos = offset;
+        limit = offset + length;
+    }
+
+    /**
+     * Constructs a stream over the remaining bytes of a buffer. The backing
+     * array of a heap buffer is read in place; the contents of a direct buffer
+     * are copied once. The position of the buffer is not changed.
+     *
+     * @param buffer the packet.
+     */
+    public ByteArrayAmfInputStream(ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+        {
+            buf = buffer.array();
+            pos = buffer.arrayOffset() + buffer.position();
+            limit = buffer.arrayOffset() + buffer.limit();
+        }
+        else
+        {
+            buf = new byte[buffer.remaining()];
+            buffer.duplicate().get(buf);
+            pos = 0;
+            limit = buf.length;
+        }
+    }
+
+    /**
+     * Makes sure that at least the given number of bytes are left to read.
+     *
+     * @param length the number of bytes about to be read.
+     * @throws EOFException if the packet ends before that.
+     */
+    final void require(int length) throws EOFException
+    {
+        if (length < 0 || limit - pos < length)
+            throw new EOFException();
+    }
+
+    @Override
+    public int read()
+    {
+        return pos < limit ? buf[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        if (pos >= limit)
+            return len == 0 ? 0 : -1;
+
+        int count = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        long count = Math.max(0, Math.min(n, limit - pos));
+        pos += (int)count;
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return limit - pos;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An output stream for a serialized response that is buffered in memory up
+ * to a limit and is streamed to its final destination once it grows past it.
+ * <p>
+ * A response that fits into the buffer can still be sent with a known
+ * content length, and can still be discarded and replaced, for example by an
+ * error message, if serialization fails. Once the limit is exceeded the
+ * destination is opened, the buffered bytes are written to it and all
+ * further bytes go through a single segment, so the memory held per response
+ * stays bounded no matter how large it is.
+ * </p>
+ */
+public abstract class ResponseOutputStream extends SegmentedOutputStream
+{
+    private final int bufferLimit;
+    private OutputStream target;
+    private int streamedSize;
+
+    /**
+     * Constructs a <code>ResponseOutputStream</code>.
+     *
+     * @param bufferLimit the number of bytes to buffer before the response is
+     * streamed to its destination.
+     */
+    protected ResponseOutputStream(int bufferLimit)
+    {
+        this.bufferLimit = bufferLimit;
+        limitSegment();
+    }
+
+    /**
+     * Opens the destination of the response. This is called at most once,
+     * when the response first exceeds the buffer limit.
+     *
+     * @return the stream to write the response to.
+     * @throws IOException if the destination could not be opened.
+     */
+    protected abstract OutputStream openTarget() throws IOException;
+
+    /**
+     * Returns whether the response has exceeded the buffer limit and is being
+     * streamed to its destination.
+     *
+     * @return <code>true</code> once the destination has been opened.
+     */
+    public boolean isCommitted()
+    {
+        return target != null;
+    }
+
+    /**
+     * Returns the total number of bytes written to this stream.
+     *
+     * @return the size of the response so far.
+     */
+    @Override
+    public int size()
+    {
+        return target != null ? streamedSize + position : super.size();
+    }
+
+    /**
+     * Discards the buffered response so that a different one can be written.
+     *
+     * @throws IllegalStateException if the response has already been committed.
+     */
+    @Override
+    public void reset()
+    {
+        checkNotCommitted();
+        super.reset();
+        limitSegment();
+    }
+
+    /**
+     * Writes the buffered response to an output stream.
+     *
+     * @throws IllegalStateException if the response has already been committed.
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException
+    {
+        checkNotCommitted();
+        super.writeTo(out);
+    }
+
+    /**
+     * Writes the buffered response to a channel.
+     *
+     * @throws IllegalStateException if the response has already been committed.
+     */
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException
+    {
+        checkNotCommitted();
+        super.writeTo(channel);
+    }
+
+    /**
+     * Returns a copy of the buffered response.
+     *
+     * @throws IllegalStateException if the response has already been committed.
+     */
+    @Override
+    public byte[] toByteArray()
+    {
+        checkNotCommitted();
+        return super.toByteArray();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (target != null)
+        {
+            writeSegment();
+            target.flush();
+        }
+    }
+
+    @Override
+    protected void nextSegment() throws IOException
+    {
+        if (target == null && size() >= bufferLimit)
+            commit();
+
+        if (target != null)
+        {
+            writeSegment();
+        }
+        else
+        {
+            super.nextSegment();
+            limitSegment();
+        }
+    }
+
+    /**
+     * Stops writes to the current segment at the buffer limit, so that the
+     * response is committed as soon as it exceeds it.
+     */
+    private void limitSegment()
+    {
+        if (target == null)
+        {
+            long room = Math.max(0L, (long)bufferLimit - size());
+            end = (int)Math.min(segment.length, position + room);
+        }
+    }
+
+    private void writeSegment() throws IOException
+    {
+        if (position > 0)
+        {
+            target.write(segment, 0, position);
+            streamedSize += position;
+            position = 0;
+        }
+        end = segment.length;
+    }
+
+    private void commit() throws IOException
+    {
+        OutputStream out = openTarget();
+        int bufferedSize = super.size();
+        super.writeTo(out);
+        super.reset();
+        streamedSize = bufferedSize;
+        target = out;
+    }
+
+    private void checkNotCommitted()
+    {
+        if (target != null)
+            throw new IllegalStateException("The response has already been committed.");
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory output stream that holds its contents in a chain of fixed-size
+ * segments taken from an <code>AmfSerializationPool</code>.
+ * <p>
+ * Unlike a <code>ByteArrayOutputStream</code>, the stream never copies its
+ * contents to grow, and they are written to their destination segment by
+ * segment, without being coalesced into one array first. Once the contents
+ * have been written, <code>release()</code> returns the segments to the pool
+ * for the next response.
+ * </p>
+ * <p>
+ * <code>Amf3Output</code> encodes strings straight into the current segment
+ * when it writes to this stream.
+ * </p>
+ */
+public class SegmentedOutputStream extends OutputStream
+{
+    private final AmfSerializationPool pool;
+    private final List<byte[]> filledSegments = new ArrayList<byte[]>();
+    private int filledSize;
+
+    /**
+     * The segment being written to, and the index of its next byte. Writes
+     * to the segment stop at <code>end</code>, which is the length of the
+     * segment unless a subclass needs to see the bytes sooner; at that point
+     * <code>nextSegment()</code> must be called.
+     */
+    byte[] segment;
+    int position;
+    int end;
+
+    /**
+     * Constructs a stream that uses the shared pool.
+     */
+    public SegmentedOutputStream()
+    {
+        this(AmfSerializationPool.getPool());
+    }
+
+    /**
+     * Constructs a stream that uses the given pool.
+     *
+     * @param pool the pool to take segments from.
+     */
+    public SegmentedOutputStream(AmfSerializationPool pool)
+    {
+        this.pool = pool;
+        segment = pool.getSegment();
+        end = segment.length;
+    }
+
+    /**
+     * Returns the number of bytes written to this stream.
+     *
+     * @return the size of the contents.
+     */
+    public int size()
+    {
+        return filledSize + position;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (position == end)
+            nextSegment();
+        segment[position++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        while (len > 0)
+        {
+            if (position == end)
+                nextSegment();
+
+            int count = Math.min(len, end - position);
+            System.arraycopy(b, off, segment, position, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Called when a write reaches <code>end</code>. Chains the current
+     * segment once it is full and continues in a new one.
+     *
+     * @throws IOException if a subclass fails to pass the bytes on.
+     */
+    protected void nextSegment() throws IOException
+    {
+        if (position == segment.length)
+        {
+            filledSegments.add(segment);
+            filledSize += position;
+            segment = pool.getSegment();
+            position = 0;
+        }
+        end = segment.length;
+    }
+
+    /**
+     * Writes the contents of this stream to an output stream, one segment at
+     * a time.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the write failed.
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        for (int i = 0; i < filledSegments.size(); i++)
+        {
+            byte[] filled = filledSegments.get(i);
+            out.write(filled, 0, filled.length);
+        }
+        if (position > 0)
+            out.write(segment, 0, position);
+    }
+
+    /**
+     * Writes the contents of this stream to a channel, with a single gathering
+     * write if the channel supports it.
+     *
+     * @param channel the channel to write to.
+     * @throws IOException if the write failed.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException
+    {
+        int count = filledSegments.size();
+        ByteBuffer[] buffers = new ByteBuffer[count + 1];
+        for (int i = 0; i < count; i++)
+            buffers[i] = ByteBuffer.wrap(filledSegments.get(i));
+        buffers[count] = ByteBuffer.wrap(segment, 0, position);
+
+        if (channel instanceof GatheringByteChannel)
+        {
+            GatheringByteChannel gathering = (GatheringByteChannel)channel;
+            long remaining = size();
+            while (remaining > 0)
+                remaining -= gathering.write(buffers);
+        }
+        else
+        {
+            for (ByteBuffer buffer : buffers)
+            {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the contents of this stream.
+     *
+     * @return the contents.
+     */
+    public byte[] toByteArray()
+    {
+        byte[] result = new byte[size()];
+        int offset = 0;
+        for (int i = 0; i < filledSegments.size(); i++)
+        {
+            byte[] filled = filledSegments.get(i);
+            System.arraycopy(filled, 0, result, offset, filled.length);
+            offset += filled.length;
+        }
+        System.arraycopy(segment, 0, result, offset, position);
+        return result;
+    }
+
+    /**
+     * Discards the contents of this stream, keeping one segment.
+     */
+    public void reset()
+    {
+        releaseFilledSegments();
+        position = 0;
+        end = segment.length;
+    }
+
+    /**
+     * Returns all segments to the pool. The stream must not be used
+     * afterwards.
+     */
+    public void release()
+    {
+        releaseFilledSegments();
+        if (segment != null)
+        {
+            pool.releaseSegment(segment);
+            segment = null;
+            position = 0;
+            end = 0;
+        }
+    }
+
+    private void releaseFilledSegments()
+    {
+        for (int i = 0; i < filledSegments.size(); i++)
+            pool.releaseSegment(filledSegments.get(i));
+        filledSegments.clear();
+        filledSize = 0;
+    }
+}
@@ -20,6 +20,7 @@ import flex.messaging.MessageException;
 
 import flex.messaging.io.amf.ASObject;
 import flex.messaging.io.amf.AbstractAmfOutput;
+import flex.messaging.io.amf.Amf3EncodedValue;
 import flex.messaging.io.amf.Amf3Types;
 import flex.messaging.io.PagedRowSet;
 import flex.messaging.io.PropertyProxy;
@@ -107,6 +108,10 @@ public class AmfxOutput extends AbstractAmfOutput implements AmfxTypes
 
     public void writeObject(Object o) throws IOException
     {
+        // Only AMF 3 streams splice in kept encodings.
+        if (o instanceof Amf3EncodedValue)
+            o = ((Amf3EncodedValue)o).getValue();
+
         if (o == null)
         {
             writeAMFNull();
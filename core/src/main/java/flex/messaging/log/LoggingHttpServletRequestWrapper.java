@@ -17,6 +17,7 @@
 
 package flex.messaging.log;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
@@ -179,6 +180,28 @@ public class LoggingHttpServletRequestWrapper extends HttpServletRequestWrapper
         {
             return this._inputStream.available();
         }
+
+        public boolean isFinished()
+        {
+            try
+            {
+                return this._inputStream.available() == 0;
+            }
+            catch (IOException e)
+            {
+                return true;
+            }
+        }
+
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        public void setReadListener(ReadListener readListener)
+        {
+            throw new UnsupportedOperationException("This method is not extended");
+        }
         // --------------------------------
         // This is the end of the modification.
         // --------------------------------
@@ -68,6 +68,18 @@ public abstract class AbstractMessage implements Message, Cloneable
     protected byte[] clientIdBytes;
     protected byte[] messageIdBytes;
 
+    /**
+     * The encoding shared with the other copies of a pushed message, if any.
+     * Not exposed as a property so that it is never serialized.
+     */
+    transient SharedMessageEncoding sharedEncoding;
+
+    /**
+     * The estimated size of the message, shared with the copies made of it
+     * when it is pushed; 0 if it has not been estimated.
+     */
+    transient long estimatedSize;
+
     /**
      * Returns the client id.
      * 
@@ -289,6 +301,27 @@ public abstract class AbstractMessage implements Message, Cloneable
        return LogCategories.MESSAGE_GENERAL;
     }
 
+    /**
+     * Returns the estimated size recorded for the message by the outbound queue
+     * limits. Not exposed as a property so that it is never serialized.
+     *
+     * @return The estimated size in bytes, or 0 if none was recorded.
+     */
+    public long estimatedSize()
+    {
+        return estimatedSize;
+    }
+
+    /**
+     * Records the estimated size of the message for the outbound queue limits.
+     *
+     * @param size The estimated size in bytes.
+     */
+    public void estimatedSize(long size)
+    {
+        estimatedSize = size;
+    }
+
     public String toString()
     {
         return toString(1);
@@ -54,5 +54,13 @@ public class AsyncMessageExt extends AsyncMessage implements Externalizable, Cla
             super.writeExternal(output);
     }
 
+    /**
+     * Returns the message this small message form wraps, if any.
+     */
+    AsyncMessage getWrappedMessage()
+    {
+        return _message;
+    }
+
     private AsyncMessage _message;
 }
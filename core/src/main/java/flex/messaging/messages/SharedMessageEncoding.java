@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.messages;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.Amf3Output;
+import flex.messaging.io.amf.Amf3Template;
+import flex.messaging.log.Log;
+import flex.messaging.log.LogCategories;
+import flex.messaging.util.UUIDUtils;
+
+/**
+ * The AMF 3 encoding shared by the per-client copies of a message that is
+ * pushed to many subscribers.
+ * <p>
+ * The copies created during a fan-out differ only in their client id, so
+ * the first copy that is serialized for a given serialization format is
+ * encoded into an <code>Amf3Template</code> with the client id and message id
+ * as patch slots. Every other copy is then written by splicing in the template
+ * and patching those two slots, instead of walking the body and headers again.
+ * </p>
+ * <p>
+ * A copy is only written from the template while its body, headers and other
+ * properties still match the copy the template was encoded from; copies that
+ * were modified after the fan-out, for example by an outbound queue processor,
+ * are serialized normally. Message bodies are shared by all copies and must
+ * not be modified once the message has been pushed.
+ * </p>
+ */
+public class SharedMessageEncoding
+{
+    private static final Entry UNSUPPORTED = new Entry(null, null, -1, false, -1, false);
+
+    private final Map<FormatKey, Entry> entries = new ConcurrentHashMap<FormatKey, Entry>(4);
+
+    private SharedMessageEncoding()
+    {
+        // Use create().
+    }
+
+    /**
+     * Creates a shared encoding for the copies of a message, if the message
+     * supports one.
+     *
+     * @param message the message being pushed to the subscribers.
+     * @return the shared encoding, or <code>null</code> if the copies of the
+     * message must be serialized individually.
+     */
+    public static SharedMessageEncoding create(Message message)
+    {
+        if (message == null || message.getClass() != AsyncMessage.class || hasPerformanceInfo(message.getHeaders()))
+            return null;
+        return new SharedMessageEncoding();
+    }
+
+    /**
+     * Attaches this encoding to a copy of the pushed message.
+     *
+     * @param copy a copy of the message that is targeted to one client.
+     */
+    public void share(Message copy)
+    {
+        if (copy instanceof AbstractMessage)
+            ((AbstractMessage)copy).sharedEncoding = this;
+    }
+
+    /**
+     * Writes a message from its shared encoding, if it has one.
+     *
+     * @param output the output to write the message to.
+     * @param context the serialization settings of the output.
+     * @param value the message, or its small message form.
+     * @return <code>true</code> if the message was written; <code>false</code>
+     * if it has to be serialized normally.
+     * @throws IOException if the write failed.
+     */
+    public static boolean writeMessage(Amf3Output output, SerializationContext context, Object value) throws IOException
+    {
+        AsyncMessage source;
+        if (value.getClass() == AsyncMessage.class)
+            source = (AsyncMessage)value;
+        else if (value.getClass() == AsyncMessageExt.class)
+            source = ((AsyncMessageExt)value).getWrappedMessage();
+        else
+            return false;
+
+        if (source == null || source.getClass() != AsyncMessage.class)
+            return false;
+
+        SharedMessageEncoding encoding = source.sharedEncoding;
+        return encoding != null && encoding.write(output, context, value, source);
+    }
+
+    private boolean write(Amf3Output output, SerializationContext context, Object value, AsyncMessage source) throws IOException
+    {
+        if (!(source.clientId instanceof String) || !UUIDUtils.isUID((String)source.clientId)
+                || !UUIDUtils.isUID(source.messageId) || hasPerformanceInfo(source.headers))
+            return false;
+
+        FormatKey key = new FormatKey(value.getClass(), context);
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            entry = encode(context, value, source);
+            entries.put(key, entry);
+        }
+
+        if (entry == UNSUPPORTED || !entry.matches(source))
+            return false;
+
+        byte[][] slotValues = new byte[entry.template.getSlotCount()][];
+        slotValues[entry.clientIdSlot] = entry.clientIdBinary ?
+                UUIDUtils.toByteArray((String)source.clientId) : asciiBytes((String)source.clientId);
+        slotValues[entry.messageIdSlot] = entry.messageIdBinary ?
+                UUIDUtils.toByteArray(source.messageId) : asciiBytes(source.messageId);
+        entry.template.write(output, slotValues);
+        return true;
+    }
+
+    /**
+     * Encodes a placeholder copy of the message whose client and message ids
+     * are unique, so that the bytes of those ids can be located in the result.
+     */
+    private static Entry encode(SerializationContext context, Object value, AsyncMessage source)
+    {
+        AsyncMessage prototype = (AsyncMessage)source.clone();
+        prototype.sharedEncoding = null;
+        String clientIdPlaceholder = UUIDUtils.createUUID();
+        String messageIdPlaceholder = UUIDUtils.createUUID();
+        prototype.setClientId(clientIdPlaceholder);
+        prototype.setMessageId(messageIdPlaceholder);
+
+        Amf3Template template;
+        try
+        {
+            template = Amf3Template.encode(context, value instanceof AsyncMessageExt ? new AsyncMessageExt(prototype) : prototype);
+        }
+        catch (IOException e)
+        {
+            if (Log.isDebug())
+                Log.getLogger(LogCategories.MESSAGE_GENERAL).debug("Unable to create a shared encoding for message: " + source.getMessageId() + ", " + e);
+            return UNSUPPORTED;
+        }
+
+        boolean clientIdBinary = true;
+        int clientIdSlot = template.addSlot(UUIDUtils.toByteArray(clientIdPlaceholder));
+        if (clientIdSlot < 0)
+        {
+            clientIdBinary = false;
+            clientIdSlot = template.addSlot(asciiBytes(clientIdPlaceholder));
+        }
+
+        boolean messageIdBinary = true;
+        int messageIdSlot = template.addSlot(UUIDUtils.toByteArray(messageIdPlaceholder));
+        if (messageIdSlot < 0)
+        {
+            messageIdBinary = false;
+            messageIdSlot = template.addSlot(asciiBytes(messageIdPlaceholder));
+        }
+
+        if (clientIdSlot < 0 || messageIdSlot < 0)
+            return UNSUPPORTED;
+
+        return new Entry(template, source, clientIdSlot, clientIdBinary, messageIdSlot, messageIdBinary);
+    }
+
+    private static boolean hasPerformanceInfo(Map headers)
+    {
+        return headers != null && (headers.containsKey(MessagePerformanceUtils.MPI_HEADER_IN)
+                || headers.containsKey(MessagePerformanceUtils.MPI_HEADER_OUT)
+                || headers.containsKey(MessagePerformanceUtils.MPI_HEADER_PUSH));
+    }
+
+    /**
+     * UIDs only contain ASCII characters, so their UTF-8 form is one byte
+     * per character.
+     */
+    private static byte[] asciiBytes(String uid)
+    {
+        int length = uid.length();
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte)uid.charAt(i);
+        return result;
+    }
+
+    /**
+     * A template along with the properties of the copy it was encoded from.
+     */
+    private static final class Entry
+    {
+        final Amf3Template template;
+        final int clientIdSlot;
+        final boolean clientIdBinary;
+        final int messageIdSlot;
+        final boolean messageIdBinary;
+
+        final Object body;
+        final String destination;
+        final long timestamp;
+        final long timeToLive;
+        final String correlationId;
+        final Map headers;
+
+        Entry(Amf3Template template, AsyncMessage source, int clientIdSlot, boolean clientIdBinary,
+                int messageIdSlot, boolean messageIdBinary)
+        {
+            this.template = template;
+            this.clientIdSlot = clientIdSlot;
+            this.clientIdBinary = clientIdBinary;
+            this.messageIdSlot = messageIdSlot;
+            this.messageIdBinary = messageIdBinary;
+
+            body = source != null ? source.body : null;
+            destination = source != null ? source.destination : null;
+            timestamp = source != null ? source.timestamp : 0;
+            timeToLive = source != null ? source.timeToLive : 0;
+            correlationId = source != null ? source.correlationId : null;
+            headers = source != null && source.headers != null ? new HashMap(source.headers) : null;
+        }
+
+        boolean matches(AsyncMessage message)
+        {
+            return message.body == body
+                    && message.timestamp == timestamp
+                    && message.timeToLive == timeToLive
+                    && equal(message.destination, destination)
+                    && equal(message.correlationId, correlationId)
+                    && equal(message.headers, headers);
+        }
+
+        private static boolean equal(Object a, Object b)
+        {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Identifies a serialization format: the form the message is written in
+     * and the endpoint settings that affect how its body is encoded.
+     */
+    private static final class FormatKey
+    {
+        private final Class type;
+        private final int flags;
+
+        FormatKey(Class type, SerializationContext context)
+        {
+            this.type = type;
+            flags = Amf3Template.getFormatFlags(context);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof FormatKey))
+                return false;
+            FormatKey other = (FormatKey)o;
+            return type == other.type && flags == other.flags;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return type.hashCode() * 31 + flags;
+        }
+    }
+}
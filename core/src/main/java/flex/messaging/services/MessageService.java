@@ -24,8 +24,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import flex.management.runtime.messaging.MessageDestinationControl;
 import flex.management.runtime.messaging.services.MessageServiceControl;
@@ -37,12 +43,16 @@ import flex.messaging.MessageDestination;
 import flex.messaging.MessageException;
 import flex.messaging.MessageRoutedNotifier;
 import flex.messaging.client.FlushResult;
+import flex.messaging.client.OutboundQueueLimit;
 import flex.messaging.cluster.Cluster;
 import flex.messaging.cluster.ClusterManager;
+import flex.messaging.config.ConfigMap;
 import flex.messaging.config.ConfigurationConstants;
 import flex.messaging.config.ConfigurationException;
 import flex.messaging.config.ServerSettings;
 import flex.messaging.config.ServerSettings.RoutingMode;
+import flex.messaging.endpoints.AbstractEndpoint;
+import flex.messaging.endpoints.Endpoint;
 import flex.messaging.log.Log;
 import flex.messaging.log.LogCategories;
 import flex.messaging.messages.AcknowledgeMessage;
@@ -50,6 +60,7 @@ import flex.messaging.messages.AsyncMessage;
 import flex.messaging.messages.CommandMessage;
 import flex.messaging.messages.Message;
 import flex.messaging.messages.MessagePerformanceUtils;
+import flex.messaging.messages.SharedMessageEncoding;
 import flex.messaging.services.messaging.MessagingConstants;
 import flex.messaging.services.messaging.RemoteSubscriptionManager;
 import flex.messaging.services.messaging.SubscriptionManager;
@@ -58,6 +69,7 @@ import flex.messaging.services.messaging.ThrottleManager;
 import flex.messaging.services.messaging.adapters.MessagingAdapter;
 import flex.messaging.services.messaging.adapters.MessagingSecurityConstraintManager;
 import flex.messaging.services.messaging.selector.JMSSelector;
+import flex.messaging.services.messaging.selector.JMSSelectorCache;
 import flex.messaging.util.StringUtils;
 
 /**
@@ -79,10 +91,27 @@ public class MessageService extends AbstractService implements MessagingConstant
     private static final int NOT_SUBSCRIBED = 10551;
     private static final int UNKNOWN_COMMAND = 10552;
 
+    // Configuration property names
+    private static final String FAN_OUT_THREADS = "fan-out-threads";
+    private static final String FAN_OUT_THRESHOLD = "fan-out-threshold";
+
+    /**
+     * The default minimum number of subscribers a message must be pushed to
+     * for the push to be spread across the fan-out threads.
+     */
+    public static final int DEFAULT_FAN_OUT_THRESHOLD = 1000;
+
+    /**
+     * How long idle fan-out threads are kept.
+     */
+    private static final long FAN_OUT_THREAD_KEEP_ALIVE_SECONDS = 60;
+
     private boolean debug;
     private MessageServiceControl controller;
 
-    private ReadWriteLock subscribeLock = new ReentrantReadWriteLock();
+    private int fanOutThreads;
+    private int fanOutThreshold = DEFAULT_FAN_OUT_THRESHOLD;
+    private volatile ExecutorService fanOutExecutor;
 
     //--------------------------------------------------------------------------
     //
@@ -115,6 +144,25 @@ public class MessageService extends AbstractService implements MessagingConstant
     //
     //--------------------------------------------------------------------------
 
+    /**
+     * Initializes the <code>MessageService</code> with the properties.
+     * If subclasses override, they must call <code>super.initialize()</code>.
+     *
+     * @param id The id of the <code>MessageService</code>.
+     * @param properties Properties for the <code>MessageService</code>.
+     */
+    @Override
+    public void initialize(String id, ConfigMap properties)
+    {
+        super.initialize(id, properties);
+
+        if (properties == null || properties.size() == 0)
+            return;
+
+        setFanOutThreads(properties.getPropertyAsInt(FAN_OUT_THREADS, fanOutThreads));
+        setFanOutThreshold(properties.getPropertyAsInt(FAN_OUT_THRESHOLD, fanOutThreshold));
+    }
+
     @Override
     public void start()
     {
@@ -123,6 +171,27 @@ public class MessageService extends AbstractService implements MessagingConstant
 
         super.start();
 
+        if (fanOutThreads > 0)
+        {
+            // Shards are only handed to idle threads; when all threads are busy,
+            // for example with a publish nested in a push, the publishing thread
+            // pushes the shard itself.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(fanOutThreads, fanOutThreads,
+                    FAN_OUT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory()
+                                                            {
+                                                                int counter = 1;
+                                                                public synchronized Thread newThread(Runnable runnable)
+                                                                {
+                                                                    Thread t = new Thread(runnable);
+                                                                    t.setName(getId() + "-FanOutThread-" + counter++);
+                                                                    t.setDaemon(true);
+                                                                    return t;
+                                                                }
+                                                            });
+            executor.allowCoreThreadTimeOut(true);
+            fanOutExecutor = executor;
+        }
+
         /*
          * For any destinations which are not using broadcast mode,
          * we need to init the remote subscriptions.  First we send out
@@ -164,6 +233,54 @@ public class MessageService extends AbstractService implements MessagingConstant
     //
     //--------------------------------------------------------------------------
 
+    /**
+     * Returns the number of threads that push messages to the subscribers of
+     * large topics in parallel with the publishing thread.
+     *
+     * @return The number of fan-out threads; 0 if messages are pushed by the
+     * publishing thread only.
+     */
+    public int getFanOutThreads()
+    {
+        return fanOutThreads;
+    }
+
+    /**
+     * Sets the number of threads that push messages to the subscribers of
+     * large topics in parallel with the publishing thread. Negative values are
+     * treated as 0, which pushes messages on the publishing thread only.
+     * Takes effect when the service is started.
+     *
+     * @param value The number of fan-out threads.
+     */
+    public void setFanOutThreads(int value)
+    {
+        fanOutThreads = value < 1 ? 0 : value;
+    }
+
+    /**
+     * Returns the minimum number of subscribers a message must be pushed to
+     * for the push to be spread across the fan-out threads.
+     *
+     * @return The fan-out threshold.
+     */
+    public int getFanOutThreshold()
+    {
+        return fanOutThreshold;
+    }
+
+    /**
+     * Sets the minimum number of subscribers a message must be pushed to
+     * for the push to be spread across the fan-out threads. Values below 2
+     * are treated as 2.
+     *
+     * @param value The fan-out threshold.
+     */
+    public void setFanOutThreshold(int value)
+    {
+        fanOutThreshold = value < 2 ? 2 : value;
+    }
+
     /**
      * Creates a <code>MessageDestination</code> instance, sets its id, sets it manageable
      * if the <code>AbstractService</code> that created it is manageable,
@@ -580,45 +697,202 @@ public class MessageService extends AbstractService implements MessagingConstant
     {
         if (subscriberIds != null)
         {
+            SubscriptionManager subscriptionManager = destination.getSubscriptionManager();
             try
             {
                 // Place notifier in thread-local scope.
                 MessageRoutedNotifier routingNotifier = new MessageRoutedNotifier(message);
                 FlexContext.setMessageRoutedNotifier(routingNotifier);
 
-                SubscriptionManager subscriptionManager = destination.getSubscriptionManager();
+                // The copies pushed to each client share one encoding of the body and headers.
+                SharedMessageEncoding sharedEncoding = subscriberIds.size() > 1 ? SharedMessageEncoding.create(message) : null;
+                FanOut fanOut = null;
                 // There is a deadlock potential here, as route message could involve a FlexClient.push(), outbound message queue process could end up with managing subscription
                 // See bug watson 2769398
-                subscribeLock.readLock().lock();
-                for (Object clientId : subscriberIds)
+                subscriptionManager.getSubscribeLock().readLock().lock();
+                try
                 {
-                    MessageClient client = subscriptionManager.getSubscriber(clientId);
-
-                    // Skip if the client is null or invalidated.
-                    if (client == null || !client.isValid())
+                    prepareMessageForClients(destination, message);
+                    ExecutorService executor = fanOutExecutor;
+                    if (executor != null && subscriberIds.size() >= fanOutThreshold)
                     {
-                        if (debug)
-                            Log.getLogger(MessageService.LOG_CATEGORY).debug("Warning: could not find MessageClient for clientId in pushMessageToClients: " + clientId + " for destination: " + destination.getId());
-                        continue;
+                        fanOut = fanOutMessageToClients(executor, destination, subscriberIds, message, evalSelector, sharedEncoding);
+                    }
+                    else
+                    {
+                        for (Object clientId : subscriberIds)
+                            pushMessageToSubscriber(subscriptionManager, clientId, destination, message, evalSelector, sharedEncoding);
                     }
-
-                    pushMessageToClient(client, destination, message, evalSelector);
                 }
+                finally
+                {
+                    subscriptionManager.getSubscribeLock().readLock().unlock();
+                }
+
+                // The fan-out threads hold the subscribe lock themselves; waiting for them
+                // while holding it could deadlock with a subscriber waiting for the write lock.
+                if (fanOut != null)
+                    fanOut.await();
 
                 // Done with the push, notify any listeners.
                 routingNotifier.notifyMessageRouted();
             }
             finally
             {
-                subscribeLock.readLock().unlock();
                 // Unset the notifier for this message.
                 FlexContext.setMessageRoutedNotifier(null);
             }
         }
     }
 
+    /**
+     * Pushes a message to the subscribers of a destination from the publishing
+     * thread and the fan-out threads. The subscribers are split into one
+     * contiguous shard per thread. Each fan-out thread holds the subscribe lock
+     * while it pushes its shard, and a shard that no idle thread takes is pushed
+     * by the publishing thread. The caller must hold the subscribe lock, and must
+     * wait for the returned fan-out once it has released the lock, so that each
+     * client still receives the messages published by a thread in order.
+     */
+    private FanOut fanOutMessageToClients(ExecutorService executor, final MessageDestination destination, Set subscriberIds,
+                                          final Message message, final boolean evalSelector, final SharedMessageEncoding sharedEncoding)
+    {
+        final Object[] clientIds = subscriberIds.toArray();
+        final SubscriptionManager subscriptionManager = destination.getSubscriptionManager();
+        final MessageBroker broker = getMessageBroker();
+        final MessageRoutedNotifier routingNotifier = FlexContext.getMessageRoutedNotifier();
+        int shards = Math.min(fanOutThreads + 1, clientIds.length);
+        final FanOut fanOut = new FanOut(shards - 1);
+
+        // The publishing thread pushes to the first shard itself.
+        int shardSize = (clientIds.length + shards - 1) / shards;
+        for (int shard = 1; shard < shards; shard++)
+        {
+            final int start = shard * shardSize;
+            final int end = Math.min(start + shardSize, clientIds.length);
+            Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    FlexContext.setThreadLocalMessageBroker(broker);
+                    FlexContext.setMessageRoutedNotifier(routingNotifier);
+                    subscriptionManager.getSubscribeLock().readLock().lock();
+                    try
+                    {
+                        pushShard(fanOut, clientIds, start, end, destination, message, evalSelector, sharedEncoding);
+                    }
+                    finally
+                    {
+                        subscriptionManager.getSubscribeLock().readLock().unlock();
+                        FlexContext.setMessageRoutedNotifier(null);
+                        FlexContext.setThreadLocalMessageBroker(null);
+                        fanOut.done.countDown();
+                    }
+                }
+            };
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // All fan-out threads are busy or the service is stopping; push to the shard on this thread.
+                pushShard(fanOut, clientIds, start, end, destination, message, evalSelector, sharedEncoding);
+                fanOut.done.countDown();
+            }
+        }
+
+        pushShard(fanOut, clientIds, 0, Math.min(shardSize, clientIds.length), destination, message, evalSelector, sharedEncoding);
+        return fanOut;
+    }
+
+    /**
+     * Pushes a message to a shard of the subscribers of a destination. A failure
+     * is recorded with the fan-out rather than thrown, so that the publishing
+     * thread still waits for the other shards and a later publish does not
+     * overtake them.
+     */
+    private void pushShard(FanOut fanOut, Object[] clientIds, int start, int end, MessageDestination destination,
+                           Message message, boolean evalSelector, SharedMessageEncoding sharedEncoding)
+    {
+        SubscriptionManager subscriptionManager = destination.getSubscriptionManager();
+        try
+        {
+            for (int i = start; i < end; i++)
+                pushMessageToSubscriber(subscriptionManager, clientIds[i], destination, message, evalSelector, sharedEncoding);
+        }
+        catch (RuntimeException e)
+        {
+            fanOut.fail(e);
+        }
+    }
+
+    private void pushMessageToSubscriber(SubscriptionManager subscriptionManager, Object clientId, MessageDestination destination,
+                                         Message message, boolean evalSelector, SharedMessageEncoding sharedEncoding)
+    {
+        MessageClient client = subscriptionManager.getSubscriber(clientId);
+
+        // Skip if the client is null or invalidated.
+        if (client == null || !client.isValid())
+        {
+            if (debug)
+                Log.getLogger(MessageService.LOG_CATEGORY).debug("Warning: could not find MessageClient for clientId in pushMessageToClients: " + clientId + " for destination: " + destination.getId());
+            return;
+        }
+
+        pushMessageToClient(client, destination, message, evalSelector, sharedEncoding);
+    }
+
+    /**
+     * Removes the data in the base message that should not be included in the copies
+     * pushed to each client, and adds the default priority. This is done once per push
+     * so that the copies can be made on several threads.
+     */
+    private void prepareMessageForClients(MessageDestination destination, Message message)
+    {
+        Map messageHeaders = message.getHeaders();
+        messageHeaders.remove(Message.FLEX_CLIENT_ID_HEADER);
+        messageHeaders.remove(Message.ENDPOINT_HEADER);
+
+        // Add the default message priority headers, if it's not already set.
+        int priority = destination.getServerSettings().getPriority();
+        if (priority != -1)
+        {
+            Object header = message.getHeader(Message.PRIORITY_HEADER);
+            if (header == null)
+                message.setHeader(Message.PRIORITY_HEADER, priority);
+        }
+
+        // the MPIUTil call will be a no-op if MPI is not enabled.  Otherwise it will add
+        // a server pre-push processing timestamp to the MPI object
+        MessagePerformanceUtils.markServerPrePushTime(message);
+        MessagePerformanceUtils.markServerPostAdapterTime(message);
+        MessagePerformanceUtils.markServerPostAdapterExternalTime(message);
+
+        // Estimate the size once for the copies rather than under the lock of each client.
+        if (isOutboundQueueSizeLimited())
+            OutboundQueueLimit.recordEstimatedSize(message);
+    }
+
+    /**
+     * Returns whether an endpoint limits the size in bytes of its outbound queues.
+     */
+    private boolean isOutboundQueueSizeLimited()
+    {
+        for (Endpoint endpoint : getMessageBroker().getEndpoints().values())
+        {
+            if (endpoint instanceof AbstractEndpoint)
+            {
+                OutboundQueueLimit limit = ((AbstractEndpoint)endpoint).getOutboundQueueLimit();
+                if (limit != null && limit.getMaxBytes() > 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     void pushMessageToClient(MessageClient client, MessageDestination destination, Message message,
-                             boolean evalSelector)
+                             boolean evalSelector, SharedMessageEncoding sharedEncoding)
     {
         // Normally we'll process the message selector criteria as part of fetching the
         // clients which should receive this message. However, because the API exposed the evalSelecor flag
@@ -639,19 +913,7 @@ public class MessageService extends AbstractService implements MessagingConstant
             if (!(message instanceof CommandMessage))
                 client.updateLastUse();
 
-            // Remove any data in the base message that should not be included in the multicast copies.
-            Map messageHeaders = message.getHeaders();
-            messageHeaders.remove(Message.FLEX_CLIENT_ID_HEADER);
-            messageHeaders.remove(Message.ENDPOINT_HEADER);
-
-            // Add the default message priority headers, if it's not already set.
-            int priority = destination.getServerSettings().getPriority();
-            if (priority != -1)
-            {
-                Object header = message.getHeader(Message.PRIORITY_HEADER);
-                if (header == null)
-                    message.setHeader(Message.PRIORITY_HEADER, priority);
-            }
+            // The base message was prepared for the copies by prepareMessageForClients().
 
             // FIXME: [Pete] Investigate whether this is a performance issue.
             // We also need to ensure message ids do not expose FlexClient ids
@@ -662,12 +924,8 @@ public class MessageService extends AbstractService implements MessagingConstant
             // as well as needing to target the copy of the message to a specific MessageAgent
             // instance on the client.
             Message messageForClient = (Message)message.clone();
-
-            // the MPIUTil call will be a no-op if MPI is not enabled.  Otherwise it will add
-            // a server pre-push processing timestamp to the MPI object
-            MessagePerformanceUtils.markServerPrePushTime(message);
-            MessagePerformanceUtils.markServerPostAdapterTime(message);
-            MessagePerformanceUtils.markServerPostAdapterExternalTime(message);
+            if (sharedEncoding != null)
+                sharedEncoding.share(messageForClient);
 
             // Target the message to a specific MessageAgent on the client.
             messageForClient.setClientId(client.getClientId());
@@ -766,6 +1024,7 @@ public class MessageService extends AbstractService implements MessagingConstant
          * table we need to block out the code which adds/removes subscriptions and sends
          * them to remote servers between here...
          */
+        ReadWriteLock subscribeLock = destination.getSubscriptionManager().getSubscribeLock();
         try
         {
             subscribeLock.writeLock().lock();
@@ -917,7 +1176,7 @@ public class MessageService extends AbstractService implements MessagingConstant
                  * concurrent hash table) but prevents us from doing any table mods
                  * when the getSubscriptionState method is active
                  */
-                subscribeLock.readLock().lock();
+                subscriptionManager.getSubscribeLock().readLock().lock();
 
                 if (adapter.handlesSubscriptions())
                 {
@@ -925,7 +1184,7 @@ public class MessageService extends AbstractService implements MessagingConstant
                 }
                 else
                 {
-                    testSelector(selectorExpr, command);
+                    testSelector(selectorExpr, command, subscriptionManager.getSelectorCache());
                 }
                 /*
                  * Even if the adapter is managing the subscription, we still need to
@@ -942,7 +1201,7 @@ public class MessageService extends AbstractService implements MessagingConstant
             }
             finally
             {
-                subscribeLock.readLock().unlock();
+                subscriptionManager.getSubscribeLock().readLock().unlock();
             }
 
             if (replyMessage == null)
@@ -963,7 +1222,7 @@ public class MessageService extends AbstractService implements MessagingConstant
 
             try
             {
-                subscribeLock.readLock().lock();
+                subscriptionManager.getSubscribeLock().readLock().lock();
 
                 if (adapter.handlesSubscriptions())
                 {
@@ -973,7 +1232,7 @@ public class MessageService extends AbstractService implements MessagingConstant
             }
             finally
             {
-                subscribeLock.readLock().unlock();
+                subscriptionManager.getSubscribeLock().readLock().unlock();
             }
 
             if (replyMessage == null)
@@ -998,7 +1257,7 @@ public class MessageService extends AbstractService implements MessagingConstant
                  * concurrent hash table) but prevents us from doing any table mods
                  * when the getSubscriptionState method is active
                  */
-                subscribeLock.readLock().lock();
+                subscriptionManager.getSubscribeLock().readLock().lock();
 
                 if (adapter.handlesSubscriptions())
                 {
@@ -1076,7 +1335,7 @@ public class MessageService extends AbstractService implements MessagingConstant
             }
             finally
             {
-                subscribeLock.readLock().unlock();
+                subscriptionManager.getSubscribeLock().readLock().unlock();
             }
 
             if (replyMessage == null)
@@ -1172,12 +1431,13 @@ public class MessageService extends AbstractService implements MessagingConstant
      *
      * @param selectorExpression The expression to test.
      * @param msg A test message.
+     * @param selectorCache The destination's selector cache, which the parsed selector is added to.
      */
-    private void testSelector(String selectorExpression, Message msg)
+    private void testSelector(String selectorExpression, Message msg, JMSSelectorCache selectorCache)
     {
         try
         {
-            JMSSelector selector = new JMSSelector(selectorExpression);
+            JMSSelector selector = selectorCache.getSelector(selectorExpression);
             selector.match(msg);
         }
         catch (Exception e)
@@ -1224,23 +1484,75 @@ public class MessageService extends AbstractService implements MessagingConstant
     }
     
     /**
-     *
-     * 
-     * This is override the method stop().
-     * It is needed to provide locking of MessageService.subcribeLock first
+     * Stops the service and its destinations, and then the fan-out threads.
+     * The subscription managers of the destinations no longer hold a lock while
+     * they remove their subscribers, so the subscribe locks need not be held here.
      */
     @Override
     public void stop()
     {
-        try
+        super.stop();
+
+        ExecutorService executor = fanOutExecutor;
+        if (executor != null)
         {
-            subscribeLock.readLock().lock();
-            super.stop();
+            fanOutExecutor = null;
+            executor.shutdown();
         }
-        finally
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Nested Classes
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * The shards of a message that are pushed by the fan-out threads, and the
+     * first failure of any shard.
+     */
+    private static class FanOut
+    {
+        final CountDownLatch done;
+        private RuntimeException failure;
+
+        FanOut(int shards)
         {
-            subscribeLock.readLock().unlock();
+            done = new CountDownLatch(shards);
         }
-    }
 
+        synchronized void fail(RuntimeException e)
+        {
+            if (failure == null)
+                failure = e;
+        }
+
+        /**
+         * Waits for every shard to be pushed, and rethrows the first failure.
+         */
+        void await()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    done.await();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            synchronized (this)
+            {
+                if (failure != null)
+                    throw failure;
+            }
+        }
+    }
 }
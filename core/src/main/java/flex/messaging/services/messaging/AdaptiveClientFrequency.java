@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+/**
+ * Keeps track of the effective outbound frequency of a client when adaptive
+ * outbound throttling is enabled at a destination. The frequency is adjusted
+ * in an additive-increase, multiplicative-decrease (AIMD) fashion: it is halved
+ * when the outbound queue of the client grows deeper or its messages wait
+ * longer than allowed, and is raised by a tenth of the max frequency per
+ * adjustment interval while the client keeps up.
+ */
+public class AdaptiveClientFrequency
+{
+    /**
+     * The minimum time between two adjustments of the frequency.
+     */
+    public static final long ADJUSTMENT_INTERVAL_MILLIS = 1000;
+
+    private final int minFrequency;
+    private final int maxFrequency;
+    private final int increaseStep;
+    private final int maxQueueDepth;
+    private final long maxQueueLatencyMillis;
+
+    private int frequency;
+    private int queueDepth;
+    private long queueLatencyMillis;
+    private long lastAdjustmentTime;
+
+    /**
+     * Creates an <code>AdaptiveClientFrequency</code> that starts at the max frequency.
+     *
+     * @param maxFrequency The max-client-frequency of the destination.
+     * @param minFrequency The frequency below which the client is not throttled down.
+     * @param maxQueueDepth The outbound queue depth above which the frequency is lowered;
+     * zero to ignore the queue depth.
+     * @param maxQueueLatencyMillis The time the oldest queued message may have waited
+     * before the frequency is lowered; zero to ignore the queue latency.
+     */
+    public AdaptiveClientFrequency(int maxFrequency, int minFrequency, int maxQueueDepth, long maxQueueLatencyMillis)
+    {
+        this.maxFrequency = maxFrequency;
+        this.minFrequency = Math.max(1, Math.min(minFrequency, maxFrequency));
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxQueueLatencyMillis = maxQueueLatencyMillis;
+        increaseStep = Math.max(1, maxFrequency / 10);
+        frequency = maxFrequency;
+    }
+
+    /**
+     * Adjusts the frequency to the current outbound queue pressure of the client.
+     * The frequency is changed at most once per adjustment interval.
+     *
+     * @param queueDepth The number of messages in the outbound queue of the client,
+     * or a negative value if unknown.
+     * @param queueLatencyMillis The time the oldest message in the outbound queue
+     * has waited.
+     * @param now The current time in milliseconds.
+     * @return The adjusted frequency.
+     */
+    public synchronized int adjust(int queueDepth, long queueLatencyMillis, long now)
+    {
+        if (queueDepth < 0)
+            return frequency;
+
+        this.queueDepth = queueDepth;
+        this.queueLatencyMillis = queueLatencyMillis;
+        if (now - lastAdjustmentTime < ADJUSTMENT_INTERVAL_MILLIS)
+            return frequency;
+
+        boolean congested = (maxQueueDepth > 0 && queueDepth > maxQueueDepth)
+                || (maxQueueLatencyMillis > 0 && queueLatencyMillis > maxQueueLatencyMillis);
+        if (congested && frequency > minFrequency)
+        {
+            frequency = Math.max(minFrequency, frequency / 2);
+            lastAdjustmentTime = now;
+        }
+        else if (!congested && frequency < maxFrequency)
+        {
+            frequency = Math.min(maxFrequency, frequency + increaseStep);
+            lastAdjustmentTime = now;
+        }
+        return frequency;
+    }
+
+    /**
+     * Returns the current effective frequency.
+     *
+     * @return The current effective frequency.
+     */
+    public synchronized int getFrequency()
+    {
+        return frequency;
+    }
+
+    /**
+     * Returns the outbound queue depth seen by the last adjustment.
+     *
+     * @return The outbound queue depth.
+     */
+    public synchronized int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the outbound queue latency seen by the last adjustment.
+     *
+     * @return The outbound queue latency in milliseconds.
+     */
+    public synchronized long getQueueLatencyMillis()
+    {
+        return queueLatencyMillis;
+    }
+
+    /**
+     * Returns the max frequency of the client.
+     *
+     * @return The max frequency.
+     */
+    public int getMaxFrequency()
+    {
+        return maxFrequency;
+    }
+}
@@ -23,9 +23,11 @@ import flex.messaging.services.messaging.ThrottleManager.ThrottleResult.Result;
 /**
  * This class is used by ThrottleManager and FlexClientOutboundQueueProcessor
  * to keep track of inbound and outbound message rates per destination and
- * per client-subscription.
+ * per client-subscription by remembering the times of the last
+ * <code>messageHistorySize</code> messages. This is the engine used when
+ * the throttle engine of a destination is <code>message-history</code>.
  */
-public class MessageFrequency
+public class MessageFrequency implements MessageRateLimiter
 {
     public final int messageHistorySize;
     private int messageCount;
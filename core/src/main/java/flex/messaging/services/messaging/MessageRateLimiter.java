@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import flex.messaging.config.ThrottleSettings.Policy;
+import flex.messaging.services.messaging.ThrottleManager.ThrottleResult;
+
+/**
+ * The engine used by ThrottleManager and OutboundQueueThrottleManager to keep
+ * track of the message rate of a destination or of a client, and to decide
+ * whether a message exceeds the configured max frequency.
+ *
+ * @see ThrottleManager#createRateLimiter(String, int)
+ */
+public interface MessageRateLimiter
+{
+    /**
+     * Checks that the next message does not exceed the max frequency limit.
+     * If the message exceeds the limit, returns a throttle result that is
+     * appropriate for the passed in policy.
+     *
+     * Callers of checkLimit method should call updateMessageFrequency method
+     * once the message is successfully sent.
+     *
+     * @param maxFrequency The maximum frequency to enforce. If maxFrequency is
+     * zero, the message frequencies are being kept track but no check happens.
+     * @param policy The throttling policy.
+     * @return The ThrottleResult.
+     */
+    ThrottleResult checkLimit(int maxFrequency, Policy policy);
+
+    /**
+     * Records that a message was successfully sent.
+     */
+    void updateMessageFrequency();
+}
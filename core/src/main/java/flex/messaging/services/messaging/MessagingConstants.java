@@ -56,4 +56,8 @@ public interface MessagingConstants
      * Constant for the cluster message routing element.
      */
     String CLUSTER_MESSAGE_ROUTING = "cluster-message-routing";
+    /**
+     * Constant for the <max-cached-selectors/> configuration element.
+     */
+    String MAX_CACHED_SELECTORS_ELEMENT = "max-cached-selectors";
 }
@@ -31,6 +31,7 @@ import flex.messaging.services.MessageService;
 import flex.messaging.services.ServiceAdapter;
 import flex.messaging.services.ServiceException;
 import flex.messaging.services.messaging.selector.JMSSelector;
+import flex.messaging.services.messaging.selector.JMSSelectorCache;
 import flex.messaging.services.messaging.selector.JMSSelectorException;
 import flex.messaging.util.StringUtils;
 import flex.messaging.util.TimeoutManager;
@@ -43,6 +44,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  *
@@ -56,14 +59,24 @@ public class SubscriptionManager extends ManageableComponent
     private static final int WILDCARD_SUBTOPICS_NOT_ALLOWED = 10560;
     private static final Object classMutex = new Object();
     private static int instanceCount = 0;
+    // The number of locks the subscriptions are striped over; a power of two.
+    private static final int LOCK_STRIPES = 64;
 
     /**
      * clientId to MessageClient Map for any subscriber. Note that clientId is tracked as
      * Object instead of String because in clustering, clientId is not guaranteed to be String.
      */
     protected final Map<Object, MessageClient> allSubscriptions = new ConcurrentHashMap<Object, MessageClient>();
-    // This lock protects allSubscriptions as synchronizing on a Concurrent class does not work.
-    private final Object allSubscriptionsLock = new Object();
+    // These locks protect allSubscriptions as synchronizing on a Concurrent class does not work.
+    // The entry for a clientId is guarded by the lock of its stripe.
+    private final Object[] allSubscriptionsLocks = newLocks();
+
+    // These locks protect the TopicSubscription of a subtopic, and order the subscribe and
+    // unsubscribe messages sent to peers for it. Publishers read the subscriptions without locking.
+    private final Object[] topicSubscriptionLocks = newLocks();
+
+    // Blocks subscribes and unsubscribes while the subscription state is sent to a peer.
+    private final ReadWriteLock subscribeLock = new ReentrantReadWriteLock();
 
     /** Subscriptions with no subtopic. */
     private final TopicSubscription globalSubscribers = new TopicSubscription();
@@ -74,6 +87,9 @@ public class SubscriptionManager extends ManageableComponent
     /** Subscriptions with a wildcard subtopic. */
     private final Map<Subtopic, TopicSubscription> subscribersPerSubtopicWildcard = new ConcurrentHashMap<Subtopic, TopicSubscription>();
 
+    // The keys of subscribersPerSubtopicWildcard, indexed by their tokens for matching.
+    private final WildcardSubtopicIndex<TopicSubscription> wildcardSubtopicIndex = new WildcardSubtopicIndex<TopicSubscription>();
+
     protected final MessageDestination destination;
     // We can either timeout subscriptions by session expiration (idleSubscriptionTimeout=0) or by an explicit
     // timeout.  If we time them out by timeout, this refers to the TimeoutManager
@@ -81,6 +97,10 @@ public class SubscriptionManager extends ManageableComponent
     private TimeoutManager subscriberSessionManager;
     private long subscriptionTimeoutMillis;
 
+    // Compiled selectors of this destination's subscriptions, created on first use
+    // so that it is sized from the destination's server settings.
+    private volatile JMSSelectorCache selectorCache;
+
     /**
      * Construct a subscription manager for a destination.
      *
@@ -141,13 +161,10 @@ public class SubscriptionManager extends ManageableComponent
             }
         }
 
-        synchronized (allSubscriptionsLock)
+        if (!allSubscriptions.isEmpty())
         {
-            if (!allSubscriptions.isEmpty())
-            {
-                for (Map.Entry<Object, MessageClient> objectMessageClientEntry : allSubscriptions.entrySet())
-                    removeSubscriber(objectMessageClientEntry.getValue());
-            }
+            for (Map.Entry<Object, MessageClient> objectMessageClientEntry : allSubscriptions.entrySet())
+                removeSubscriber(objectMessageClientEntry.getValue());
         }
     }
 
@@ -170,7 +187,7 @@ public class SubscriptionManager extends ManageableComponent
                                                                     t.setName(destination.getId() + "-SubscriptionTimeoutThread-" + counter++);
                                                                     return t;
                                                                 }
-                                                            });
+                                                            }, TimeoutManager.DEFAULT_WHEEL_TICK_MILLIS, TimeoutManager.DEFAULT_TICKS_PER_WHEEL);
         }
     }
 
@@ -184,6 +201,18 @@ public class SubscriptionManager extends ManageableComponent
         return subscriptionTimeoutMillis;
     }
 
+    /**
+     * Returns the lock that subscribes and unsubscribes to the destination hold
+     * for reading, and that is held for writing while the subscription state is
+     * sent to a peer. Publishing to the destination holds it for reading as well.
+     *
+     * @return the subscribe lock of the destination
+     */
+    public ReadWriteLock getSubscribeLock()
+    {
+        return subscribeLock;
+    }
+
     /**
      * Implement a serializer instance which wraps the subscription
      * manager in a transient variable.  It will need to block out
@@ -397,21 +426,21 @@ public class SubscriptionManager extends ManageableComponent
             addTopicSubscribers(ts, message, ids, evalSelector);
         }
 
-        /*
-         * TODO: performance - organize these into a tree so we can find consumers via
-         * a hashtable lookup rather than a linear search
-         */
-        Set<Subtopic> subtopics = subscribersPerSubtopicWildcard.keySet();
-        if (!subtopics.isEmpty())
+        if (!subscribersPerSubtopicWildcard.isEmpty())
         {
-            for (Subtopic st : subtopics)
+            List<TopicSubscription> matches = new ArrayList<TopicSubscription>();
+            if (!wildcardSubtopicIndex.addMatches(subtopic, matches))
             {
-                if (st.matches(subtopic))
+                // The index can't resolve wildcard or foreign subtopics; match them one by one.
+                for (Map.Entry<Subtopic, TopicSubscription> entry : subscribersPerSubtopicWildcard.entrySet())
                 {
-                    ts = subscribersPerSubtopicWildcard.get(st);
-                    addTopicSubscribers(ts, message, ids, evalSelector);
+                    if (entry.getKey().matches(subtopic))
+                        matches.add(entry.getValue());
                 }
             }
+
+            for (TopicSubscription match : matches)
+                addTopicSubscribers(match, message, ids, evalSelector);
         }
     }
 
@@ -438,7 +467,7 @@ public class SubscriptionManager extends ManageableComponent
             }
             else
             {
-                JMSSelector jmsSel = new JMSSelector(selector);
+                JMSSelector jmsSel = getSelectorCache().getSelector(selector);
                 try
                 {
                     if (jmsSel.match(message))
@@ -460,6 +489,30 @@ public class SubscriptionManager extends ManageableComponent
         }
     }
 
+    /**
+     * Returns the cache of compiled selectors for this destination. Its size
+     * is bounded by the <code>max-cached-selectors</code> server setting.
+     *
+     * @return the selector cache.
+     */
+    public JMSSelectorCache getSelectorCache()
+    {
+        JMSSelectorCache cache = selectorCache;
+        if (cache == null)
+        {
+            synchronized (this)
+            {
+                cache = selectorCache;
+                if (cache == null)
+                {
+                    cache = new JMSSelectorCache(destination.getServerSettings().getMaxCachedSelectors());
+                    selectorCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
     /**
      * Returns the requested subscriber.
      * If the subscriber exists it is also registered for subscription timeout if necessary.
@@ -518,9 +571,9 @@ public class SubscriptionManager extends ManageableComponent
     {
         Subtopic subtopic = getSubtopic(subtopicString);
         MessageClient client = null;
-        TopicSubscription topicSub;
+        TopicSubscription topicSub = null;
         Map<Object, MessageClient> subs;
-        Map<Subtopic, TopicSubscription> map;
+        Map<Subtopic, TopicSubscription> map = null;
 
         try
         {
@@ -591,62 +644,43 @@ public class SubscriptionManager extends ManageableComponent
                     map = subscribersPerSubtopicWildcard;
                 else
                     map = subscribersPerSubtopic;
+            }
 
-                synchronized (this)
+            boolean subscribed = false;
+            // Subscribes and unsubscribes to other subtopics of the destination use other locks.
+            synchronized (getTopicSubscriptionLock(subtopic))
+            {
+                if (subtopic != null)
                 {
                     topicSub = map.get(subtopic);
                     if (topicSub == null)
                     {
                         topicSub = new TopicSubscription();
                         map.put(subtopic, topicSub);
+                        if (map == subscribersPerSubtopicWildcard)
+                            wildcardSubtopicIndex.put(subtopic, topicSub);
                     }
                 }
-            }
 
-            /* Subscribing with no selector */
-            if (selector == null)
-            {
-                subs = topicSub.defaultSubscriptions;
-                if (subs == null)
+                /* Subscribing with no selector */
+                if (selector == null)
                 {
-                    synchronized (this)
-                    {
-                        if ((subs = topicSub.defaultSubscriptions) == null)
-                            topicSub.defaultSubscriptions = subs = new ConcurrentHashMap<Object, MessageClient>();
-                    }
+                    if ((subs = topicSub.defaultSubscriptions) == null)
+                        topicSub.defaultSubscriptions = subs = new ConcurrentHashMap<Object, MessageClient>();
                 }
-            }
-            /* Subscribing with a selector - store all subscriptions under the selector key */
-            else
-            {
-                synchronized (this)
+                /* Subscribing with a selector - store all subscriptions under the selector key */
+                else
                 {
                     if (topicSub.selectorSubscriptions == null)
                         topicSub.selectorSubscriptions = new ConcurrentHashMap<String,  Map<Object, MessageClient>>();
-                }
 
-                subs = topicSub.selectorSubscriptions.get(selector);
-                if (subs == null)
-                {
-                    synchronized (this)
-                    {
-                        if ((subs = topicSub.selectorSubscriptions.get(selector)) == null)
-                            topicSub.selectorSubscriptions.put(selector, subs = new ConcurrentHashMap<Object, MessageClient>());
-                    }
+                    if ((subs = topicSub.selectorSubscriptions.get(selector)) == null)
+                        topicSub.selectorSubscriptions.put(selector, subs = new ConcurrentHashMap<Object, MessageClient>());
                 }
-            }
 
-            if (subs.containsKey(clientId))
-            {
-                /* I'd rather this be an error but in 2.0 we allowed this without error */
-                if (Log.isWarn())
-                    Log.getLogger(JMSSelector.LOG_CATEGORY).warn("Client: " + clientId + " already subscribed to: " + destination.getId() + " selector: " + selector + " subtopic: " + subtopicString);
-            }
-            else
-            {
-                client.addSubscription(selector, subtopicString, maxFrequency);
-                synchronized (this)
+                if (!subs.containsKey(clientId))
                 {
+                    client.addSubscription(selector, subtopicString, maxFrequency);
                     /*
                      * Make sure other members of the cluster know that we are subscribed to
                      * this info if we are in server-to-server mode
@@ -659,7 +693,18 @@ public class SubscriptionManager extends ManageableComponent
                         destination.getServerSettings().getRoutingMode() == RoutingMode.SERVER_TO_SERVER)
                         sendSubscriptionToPeer(true, selector, subtopicString);
                     subs.put(clientId, client);
+                    subscribed = true;
                 }
+            }
+
+            if (!subscribed)
+            {
+                /* I'd rather this be an error but in 2.0 we allowed this without error */
+                if (Log.isWarn())
+                    Log.getLogger(JMSSelector.LOG_CATEGORY).warn("Client: " + clientId + " already subscribed to: " + destination.getId() + " selector: " + selector + " subtopic: " + subtopicString);
+            }
+            else
+            {
                 monitorTimeout(client); // local operation, timeouts on remote host are not started until failover
 
                 // Finally, if a new MessageClient was created, notify its created
@@ -688,7 +733,7 @@ public class SubscriptionManager extends ManageableComponent
         MessageClient client = null;
         try
         {
-            synchronized (allSubscriptionsLock)
+            synchronized (getAllSubscriptionsLock(clientId))
             {
                 // Do a simple lookup first to avoid the creation of a new MessageClient instance
                 // in the following call to getMessageClient() if the subscription is already removed.
@@ -705,33 +750,36 @@ public class SubscriptionManager extends ManageableComponent
             Map<Object, MessageClient> subs;
             Map<Subtopic, TopicSubscription> map = null;
 
-            if (subtopic == null)
-            {
-                topicSub = globalSubscribers;
-            }
-            else
+            if (subtopic != null)
             {
                 if (subtopic.containsSubtopicWildcard())
                     map = subscribersPerSubtopicWildcard;
                 else
                     map = subscribersPerSubtopic;
+            }
 
-                topicSub = map.get(subtopic);
+            synchronized (getTopicSubscriptionLock(subtopic))
+            {
+                if (subtopic == null)
+                {
+                    topicSub = globalSubscribers;
+                }
+                else
+                {
+                    topicSub = map.get(subtopic);
 
-                if (topicSub == null)
-                    throw new MessageException("Client: " + clientId + " not subscribed to subtopic: " + subtopic);
-            }
+                    if (topicSub == null)
+                        throw new MessageException("Client: " + clientId + " not subscribed to subtopic: " + subtopic);
+                }
 
-            if (selector == null)
-                subs = topicSub.defaultSubscriptions;
-            else
-                subs = topicSub.selectorSubscriptions.get(selector);
+                if (selector == null)
+                    subs = topicSub.defaultSubscriptions;
+                else
+                    subs = topicSub.selectorSubscriptions != null ? topicSub.selectorSubscriptions.get(selector) : null;
 
-            if (subs == null || subs.get(clientId) == null)
-                throw new MessageException("Client: " + clientId + " not subscribed to destination with selector: " + selector);
+                if (subs == null || subs.get(clientId) == null)
+                    throw new MessageException("Client: " + clientId + " not subscribed to destination with selector: " + selector);
 
-            synchronized (this)
-            {
                 subs.remove(clientId);
                 if (subs.isEmpty() &&
                     destination.isClustered() && destination.getServerSettings().getRoutingMode() == RoutingMode.SERVER_TO_SERVER)
@@ -751,7 +799,11 @@ public class SubscriptionManager extends ManageableComponent
                     {
                            if ((topicSub.selectorSubscriptions == null || topicSub.selectorSubscriptions.isEmpty()) &&
                                (topicSub.defaultSubscriptions == null || topicSub.defaultSubscriptions.isEmpty()))
+                           {
                                map.remove(subtopic);
+                               if (map == subscribersPerSubtopicWildcard)
+                                   wildcardSubtopicIndex.remove(subtopic);
+                           }
                     }
                 }
             }
@@ -819,7 +871,7 @@ public class SubscriptionManager extends ManageableComponent
      */
     public MessageClient getMessageClient(Object clientId, String endpointId)
     {
-        synchronized (allSubscriptionsLock)
+        synchronized (getAllSubscriptionsLock(clientId))
         {
             MessageClient client = allSubscriptions.get(clientId);
             if (client == null)
@@ -843,7 +895,7 @@ public class SubscriptionManager extends ManageableComponent
         if (client == null)
             return;
 
-        synchronized (allSubscriptionsLock)
+        synchronized (getAllSubscriptionsLock(client.getClientId()))
         {
             if (client.decrementReferences())
             {
@@ -873,6 +925,31 @@ public class SubscriptionManager extends ManageableComponent
         }
     }
 
+    private Object getAllSubscriptionsLock(Object clientId)
+    {
+        return allSubscriptionsLocks[stripe(clientId)];
+    }
+
+    private Object getTopicSubscriptionLock(Subtopic subtopic)
+    {
+        return topicSubscriptionLocks[stripe(subtopic)];
+    }
+
+    private static int stripe(Object key)
+    {
+        int h = key != null ? key.hashCode() : 0;
+        h ^= (h >>> 16);
+        return h & (LOCK_STRIPES - 1);
+    }
+
+    private static Object[] newLocks()
+    {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+        return locks;
+    }
+
     private Subtopic getSubtopic(String subtopic)
     {
         return subtopic != null?
@@ -16,8 +16,11 @@
  */
 package flex.messaging.services.messaging;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import flex.management.ManageableComponent;
 import flex.management.runtime.messaging.services.messaging.ThrottleManagerControl;
@@ -107,9 +110,12 @@ public class ThrottleManager extends ManageableComponent
     //--------------------------------------------------------------------------
 
     protected ThrottleSettings settings;
-    private Map<String, MessageFrequency> inboundClientMarks;
-    private MessageFrequency inboundDestinationMark;
-    private MessageFrequency outboundDestinationMark;
+    private ConcurrentHashMap<String, MessageRateLimiter> inboundClientMarks;
+    private MessageRateLimiter inboundDestinationMark;
+    private MessageRateLimiter outboundDestinationMark;
+    private ConcurrentHashMap<String, AdaptiveClientFrequency> adaptiveClientFrequencies;
+    private final AtomicLong adaptiveFrequencyDecreaseCount = new AtomicLong();
+    private final AtomicLong adaptiveFrequencyIncreaseCount = new AtomicLong();
 
     //--------------------------------------------------------------------------
     //
@@ -129,12 +135,15 @@ public class ThrottleManager extends ManageableComponent
 
         if (settings.isDestinationThrottleEnabled())
         {
-            inboundDestinationMark = new MessageFrequency(settings.getIncomingDestinationFrequency());
-            outboundDestinationMark = new MessageFrequency(settings.getOutgoingDestinationFrequency());
+            inboundDestinationMark = createRateLimiter(settings.getEngine(), settings.getIncomingDestinationFrequency());
+            outboundDestinationMark = createRateLimiter(settings.getEngine(), settings.getOutgoingDestinationFrequency());
         }
 
         if (settings.isInboundClientThrottleEnabled())
-            inboundClientMarks = new HashMap<String, MessageFrequency>();
+            inboundClientMarks = new ConcurrentHashMap<String, MessageRateLimiter>();
+
+        if (settings.isAdaptiveOutboundClientThrottleEnabled())
+            adaptiveClientFrequencies = new ConcurrentHashMap<String, AdaptiveClientFrequency>();
     }
 
 
@@ -180,6 +189,33 @@ public class ThrottleManager extends ManageableComponent
         return Result.OK;
     }
 
+    /**
+     * Given a policy, returns a new throttle result for that policy.
+     *
+     * @param policy The policy.
+     * @return The result for the policy.
+     */
+    public static ThrottleResult getThrottleResult(Policy policy)
+    {
+        return new ThrottleResult(getResult(policy));
+    }
+
+    /**
+     * Creates the engine that keeps track of the message rate of a destination
+     * or of a client.
+     *
+     * @param engine The throttle engine, either <code>ThrottleSettings.ENGINE_TOKEN_BUCKET</code>
+     * or <code>ThrottleSettings.ENGINE_MESSAGE_HISTORY</code>.
+     * @param maxFrequency The max frequency the engine enforces.
+     * @return The rate limiter.
+     */
+    public static MessageRateLimiter createRateLimiter(String engine, int maxFrequency)
+    {
+        if (ThrottleSettings.ENGINE_MESSAGE_HISTORY.equals(engine))
+            return new MessageFrequency(maxFrequency);
+        return new TokenBucket(maxFrequency);
+    }
+
     /**
      * Returns the outbound policy being used by the throttle manager.
      *
@@ -212,10 +248,123 @@ public class ThrottleManager extends ManageableComponent
     {
         if (inboundClientMarks != null)
             inboundClientMarks.remove(clientId);
+        if (adaptiveClientFrequencies != null)
+            adaptiveClientFrequencies.remove(clientId);
         // Note that the outBoundClientMarks that is maintained by the FlexClientOutboundQueueProcessor
         // is cleaned up by FlexClient when MessageClient is unregistered with it.
     }
 
+    /**
+     * Returns whether the outgoing client frequency adapts to the outbound
+     * queue pressure of each client.
+     *
+     * @return True if adaptive outbound client throttling is enabled.
+     */
+    public boolean isAdaptiveOutboundClientThrottleEnabled()
+    {
+        return adaptiveClientFrequencies != null;
+    }
+
+    /**
+     * Returns the effective outgoing client frequency of the MessageClient,
+     * after adjusting it to the outbound queue pressure of its FlexClient.
+     * If adaptive outbound client throttling is not enabled, this is simply
+     * the outgoing client frequency of the destination.
+     *
+     * @param clientId The id of the MessageClient.
+     * @param queueDepth The number of messages in the outbound queue of the
+     * client, or a negative value if unknown.
+     * @param queueLatencyMillis The time the oldest message in the outbound
+     * queue of the client has waited.
+     * @return The effective outgoing client frequency.
+     */
+    public int getAdaptiveOutgoingClientFrequency(String clientId, int queueDepth, long queueLatencyMillis)
+    {
+        if (adaptiveClientFrequencies == null || clientId == null)
+            return settings.getOutgoingClientFrequency();
+
+        AdaptiveClientFrequency clientFrequency = adaptiveClientFrequencies.get(clientId);
+        if (clientFrequency == null)
+        {
+            clientFrequency = new AdaptiveClientFrequency(settings.getOutgoingClientFrequency(),
+                    settings.getMinOutgoingClientFrequency(), settings.getMaxQueueDepth(),
+                    settings.getMaxQueueLatencyMillis());
+            AdaptiveClientFrequency existing = adaptiveClientFrequencies.putIfAbsent(clientId, clientFrequency);
+            if (existing != null)
+                clientFrequency = existing;
+        }
+
+        int previous = clientFrequency.getFrequency();
+        int frequency = clientFrequency.adjust(queueDepth, queueLatencyMillis, System.currentTimeMillis());
+        if (frequency < previous)
+        {
+            adaptiveFrequencyDecreaseCount.incrementAndGet();
+            if (Log.isDebug())
+                Log.getLogger(LOG_CATEGORY).debug("Lowered the outgoing frequency of client '" + clientId
+                        + "' to '" + frequency + "' (queue-depth=" + queueDepth + ", queue-latency="
+                        + queueLatencyMillis + "ms)");
+        }
+        else if (frequency > previous)
+        {
+            adaptiveFrequencyIncreaseCount.incrementAndGet();
+        }
+        return frequency;
+    }
+
+    /**
+     * Returns the adaptive frequency state of the MessageClient.
+     *
+     * @param clientId The id of the MessageClient.
+     * @return The adaptive frequency state, or null if the client has none.
+     */
+    public AdaptiveClientFrequency getAdaptiveClientFrequency(String clientId)
+    {
+        return adaptiveClientFrequencies == null ? null : adaptiveClientFrequencies.get(clientId);
+    }
+
+    /**
+     * Returns the ids of the MessageClients whose outgoing frequency is
+     * currently lowered by adaptive throttling.
+     *
+     * @return The ids of the throttled down clients.
+     */
+    public String[] getAdaptivelyThrottledClientIds()
+    {
+        if (adaptiveClientFrequencies == null)
+            return new String[0];
+
+        List<String> clientIds = new ArrayList<String>();
+        for (Map.Entry<String, AdaptiveClientFrequency> entry : adaptiveClientFrequencies.entrySet())
+        {
+            AdaptiveClientFrequency clientFrequency = entry.getValue();
+            if (clientFrequency.getFrequency() < clientFrequency.getMaxFrequency())
+                clientIds.add(entry.getKey());
+        }
+        return clientIds.toArray(new String[clientIds.size()]);
+    }
+
+    /**
+     * Returns the number of times adaptive throttling lowered the outgoing
+     * frequency of a client.
+     *
+     * @return The number of adaptive frequency decreases.
+     */
+    public long getAdaptiveFrequencyDecreaseCount()
+    {
+        return adaptiveFrequencyDecreaseCount.get();
+    }
+
+    /**
+     * Returns the number of times adaptive throttling raised the outgoing
+     * frequency of a client.
+     *
+     * @return The number of adaptive frequency increases.
+     */
+    public long getAdaptiveFrequencyIncreaseCount()
+    {
+        return adaptiveFrequencyIncreaseCount.get();
+    }
+
     /**
      * Sets the throttling settings of the throttle manager.
      *
@@ -310,18 +459,18 @@ public class ThrottleManager extends ManageableComponent
         }
 
         // Result can only be IGNORE (or NONE which means no throttling)
-        if (result == Result.IGNORE)
+        if (result == Result.IGNORE && Log.isInfo())
         {
             // Improve the detail message for IGNORE.
+            String detail;
             if (isClientLevel)
-                throttleResult.setDetail("Message '" + message.getMessageId() + "' ignored: Too many messages sent to client '"
-                        + message.getClientId() + "' in too small of a time interval " + throttleResult.getDetail());
+                detail = "Message '" + message.getMessageId() + "' ignored: Too many messages sent to client '"
+                        + message.getClientId() + "' in too small of a time interval" + getDetailSuffix(throttleResult);
             else
-                throttleResult.setDetail("Message '" + message.getMessageId() + "' throttled: Too many messages routed by destination '"
-                        + message.getDestination() + "' in too small of a time interval " + throttleResult.getDetail());
+                detail = "Message '" + message.getMessageId() + "' throttled: Too many messages routed by destination '"
+                        + message.getDestination() + "' in too small of a time interval" + getDetailSuffix(throttleResult);
 
-            if (Log.isInfo())
-                Log.getLogger(LOG_CATEGORY).info(throttleResult.getDetail());
+            Log.getLogger(LOG_CATEGORY).info(detail);
         }
     }
 
@@ -369,7 +518,7 @@ public class ThrottleManager extends ManageableComponent
         String clientId = (String)message.getClientId();
         if (settings.isInboundClientThrottleEnabled())
         {
-            MessageFrequency clientLevelMark = inboundClientMarks.get(clientId);
+            MessageRateLimiter clientLevelMark = inboundClientMarks.get(clientId);
             if (clientLevelMark != null)
                 clientLevelMark.updateMessageFrequency();
         }
@@ -414,14 +563,14 @@ public class ThrottleManager extends ManageableComponent
         // Result can be IGNORE or ERROR (or NONE which means no throttling).
         if (result == Result.IGNORE || result == Result.ERROR)
         {
+            String detail;
             if (isClientLevel)
-                throttleResult.setDetail("Message '" + message.getMessageId() + "' throttled: Too many messages sent by the client '"
-                        + message.getClientId() + "' in too small of a time interval " + throttleResult.getDetail());
+                detail = "Message '" + message.getMessageId() + "' throttled: Too many messages sent by the client '"
+                        + message.getClientId() + "' in too small of a time interval" + getDetailSuffix(throttleResult);
             else
-                throttleResult.setDetail("Message '" + message.getMessageId() + "' throttled: Too many messages sent to destination '"
-                    + message.getDestination() + "' in too small of a time interval " + throttleResult.getDetail());
+                detail = "Message '" + message.getMessageId() + "' throttled: Too many messages sent to destination '"
+                    + message.getDestination() + "' in too small of a time interval" + getDetailSuffix(throttleResult);
 
-            String detail = throttleResult.getDetail();
             if (result == Result.ERROR)
             {
                 if (Log.isError())
@@ -448,19 +597,33 @@ public class ThrottleManager extends ManageableComponent
         String clientId = (String)message.getClientId();
         if (settings.isInboundClientThrottleEnabled())
         {
-            MessageFrequency clientLevelMark;
-            clientLevelMark = inboundClientMarks.get(clientId);
+            MessageRateLimiter clientLevelMark = inboundClientMarks.get(clientId);
             if (clientLevelMark == null)
-                clientLevelMark = new MessageFrequency(settings.getIncomingClientFrequency());
+            {
+                clientLevelMark = createRateLimiter(settings.getEngine(), settings.getIncomingClientFrequency());
+                MessageRateLimiter existing = inboundClientMarks.putIfAbsent(clientId, clientLevelMark);
+                if (existing != null)
+                    clientLevelMark = existing;
+            }
 
-            ThrottleResult result = clientLevelMark.checkLimit(settings.getIncomingClientFrequency(), settings.getInboundPolicy());
-            inboundClientMarks.put(clientId, clientLevelMark);
-            return result;
+            return clientLevelMark.checkLimit(settings.getIncomingClientFrequency(), settings.getInboundPolicy());
         }
         // Return the default OK result.
         return new ThrottleResult();
     }
 
+    /**
+     * Returns the detail of the throttle result, if any, to append to a log message.
+     *
+     * @param throttleResult The throttling result.
+     * @return The detail preceded by a space, or an empty string.
+     */
+    private static String getDetailSuffix(ThrottleResult throttleResult)
+    {
+        String detail = throttleResult.getDetail();
+        return detail == null ? "" : " " + detail;
+    }
+
     //--------------------------------------------------------------------------
     //
     // Nested Classes
@@ -553,4 +716,4 @@ public class ThrottleManager extends ManageableComponent
             this.result = result;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import flex.messaging.config.ThrottleSettings.Policy;
+import flex.messaging.services.messaging.ThrottleManager.ThrottleResult;
+
+/**
+ * A lock-free token bucket that allows bursts of up to one second's worth
+ * of messages and refills at the max frequency it was last checked against,
+ * which is initially <code>capacity</code> messages per second.
+ * <p>
+ * Instead of counting tokens, the bucket keeps the time at which it will be
+ * full again in a single <code>AtomicLong</code>: each message pushes that
+ * time forward by one refill interval, and a message is allowed while the
+ * time is less than one second away. This keeps the memory used per client
+ * constant, and checks do not take locks.
+ * </p>
+ */
+public class TokenBucket implements MessageRateLimiter
+{
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final int capacity;
+    private volatile long refillIntervalNanos;
+    private final AtomicLong fullTime;
+
+    /**
+     * Creates a full token bucket.
+     *
+     * @param capacity The number of messages allowed per second. If capacity
+     * is zero or less, the bucket does not keep track of messages until it
+     * is checked against a max frequency.
+     */
+    public TokenBucket(int capacity)
+    {
+        this.capacity = capacity;
+        refillIntervalNanos = capacity > 0 ? NANOS_PER_SECOND / capacity : 0;
+        fullTime = new AtomicLong(currentTimeNanos());
+    }
+
+    /**
+     * Returns the number of messages per second the bucket was created with.
+     *
+     * @return The capacity the bucket was created with.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of messages that can currently be sent without
+     * exceeding the rate of the bucket.
+     *
+     * @return The number of available tokens.
+     */
+    public int getAvailableTokens()
+    {
+        long interval = refillIntervalNanos;
+        if (interval <= 0)
+            return 0;
+        long tokens = (currentTimeNanos() - fullTime.get() + NANOS_PER_SECOND) / interval;
+        return tokens < 0 ? 0 : (int)Math.min(tokens, NANOS_PER_SECOND / interval);
+    }
+
+    /** {@inheritDoc} */
+    public ThrottleResult checkLimit(int maxFrequency, Policy policy)
+    {
+        if (maxFrequency <= 0)
+            return new ThrottleResult();
+
+        // At least one token is left while the bucket is due to be full in
+        // less than a second minus one refill interval.
+        long interval = NANOS_PER_SECOND / maxFrequency;
+        if (interval != refillIntervalNanos)
+            refillIntervalNanos = interval;
+        long wait = fullTime.get() - currentTimeNanos() - (NANOS_PER_SECOND - interval);
+        return wait > 0 ? ThrottleManager.getThrottleResult(policy) : new ThrottleResult();
+    }
+
+    /** {@inheritDoc} */
+    public void updateMessageFrequency()
+    {
+        long interval = refillIntervalNanos;
+        if (interval <= 0)
+            return;
+
+        while (true)
+        {
+            long now = currentTimeNanos();
+            long current = fullTime.get();
+            long next = (current - now < 0 ? now : current) + interval;
+            if (fullTime.compareAndSet(current, next))
+                return;
+        }
+    }
+
+    /**
+     * Returns the current value of the clock used to refill the bucket.
+     *
+     * @return The current time in nanoseconds.
+     */
+    protected long currentTimeNanos()
+    {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of wildcard subtopics that finds the ones matching a subtopic
+ * without testing each of them in turn.
+ * <p>
+ * The wildcard subtopics are stored in a tree of their tokens, so resolving
+ * a subtopic walks one path per wildcard it can match and its cost depends on
+ * the depth of the subtopic rather than on the number of wildcard subtopics.
+ * Matches follow the rules of <code>Subtopic.matches</code>: a wildcard token
+ * matches any single token, and a wildcard as the last token also matches
+ * any number of further tokens.
+ * </p>
+ * <p>
+ * Lookups do not lock and may run concurrently with updates. Updates are
+ * serialized on the index.
+ * </p>
+ *
+ * @param <T> the type of value stored for each wildcard subtopic.
+ */
+public class WildcardSubtopicIndex<T>
+{
+    private final Node<T> root = new Node<T>();
+
+    /**
+     * The separator the indexed subtopics were tokenized with.
+     */
+    private volatile String separator;
+
+    /**
+     * Set if subtopics with different separators were indexed, in which case
+     * lookups cannot be answered from the tree.
+     */
+    private volatile boolean mixedSeparators;
+
+    /**
+     * Adds a wildcard subtopic to the index, replacing the value of an
+     * existing entry.
+     *
+     * @param subtopic the wildcard subtopic.
+     * @param value the value to return when the subtopic matches.
+     */
+    public synchronized void put(Subtopic subtopic, T value)
+    {
+        String subtopicSeparator = subtopic.getSeparator();
+        if (subtopicSeparator == null)
+            mixedSeparators = true;
+        else if (separator == null)
+            separator = subtopicSeparator;
+        else if (!separator.equals(subtopicSeparator))
+            mixedSeparators = true;
+
+        Node<T> node = root;
+        for (String token : tokenize(subtopic))
+        {
+            Node<T> child = node.children.get(token);
+            if (child == null)
+            {
+                child = new Node<T>();
+                node.children.put(token, child);
+            }
+            node = child;
+        }
+        node.value = value;
+    }
+
+    /**
+     * Removes a wildcard subtopic from the index.
+     *
+     * @param subtopic the wildcard subtopic.
+     */
+    public synchronized void remove(Subtopic subtopic)
+    {
+        String[] tokens = tokenize(subtopic);
+        List<Node<T>> path = new ArrayList<Node<T>>(tokens.length + 1);
+        Node<T> node = root;
+        path.add(node);
+        for (String token : tokens)
+        {
+            node = node.children.get(token);
+            if (node == null)
+                return;
+            path.add(node);
+        }
+        node.value = null;
+
+        // Prune the branch back to the last node that is still in use.
+        for (int i = tokens.length; i > 0; i--)
+        {
+            Node<T> current = path.get(i);
+            if (current.value != null || !current.children.isEmpty())
+                break;
+            path.get(i - 1).children.remove(tokens[i - 1]);
+        }
+    }
+
+    /**
+     * Adds the values of the indexed wildcard subtopics that match a subtopic
+     * to a collection.
+     *
+     * @param subtopic the subtopic to match, typically the subtopic of a message.
+     * @param matches the collection to add the values of the matching subtopics to.
+     * @return <code>true</code> if the matches were added; <code>false</code>
+     * if the subtopic cannot be resolved by the index, because it contains a
+     * wildcard itself or does not use the separator of the indexed subtopics,
+     * and has to be matched against each wildcard subtopic instead.
+     */
+    public boolean addMatches(Subtopic subtopic, Collection<? super T> matches)
+    {
+        if (mixedSeparators || subtopic.containsSubtopicWildcard())
+            return false;
+
+        String indexSeparator = separator;
+        if (indexSeparator == null)
+            return true; // Nothing indexed yet.
+        if (!indexSeparator.equals(subtopic.getSeparator()))
+            return false;
+
+        addMatches(root, tokenize(subtopic), 0, matches);
+        return true;
+    }
+
+    private void addMatches(Node<T> node, String[] tokens, int depth, Collection<? super T> matches)
+    {
+        if (depth == tokens.length)
+        {
+            T value = node.value;
+            if (value != null)
+                matches.add(value);
+            return;
+        }
+
+        Node<T> child = node.children.get(tokens[depth]);
+        if (child != null)
+            addMatches(child, tokens, depth + 1, matches);
+
+        Node<T> wildcard = node.children.get(Subtopic.SUBTOPIC_WILDCARD);
+        if (wildcard != null)
+        {
+            // A trailing wildcard also matches the remaining tokens.
+            if (depth + 1 < tokens.length)
+            {
+                T value = wildcard.value;
+                if (value != null)
+                    matches.add(value);
+            }
+            addMatches(wildcard, tokens, depth + 1, matches);
+        }
+    }
+
+    /**
+     * Tokenizes a subtopic the same way <code>Subtopic.matches</code> does.
+     */
+    private static String[] tokenize(Subtopic subtopic)
+    {
+        String separator = subtopic.getSeparator();
+        if (separator == null)
+            return new String[] {subtopic.getValue()};
+
+        StringTokenizer tokenizer = new StringTokenizer(subtopic.getValue(), separator);
+        String[] tokens = new String[tokenizer.countTokens()];
+        for (int i = 0; i < tokens.length; i++)
+            tokens[i] = tokenizer.nextToken();
+        return tokens;
+    }
+
+    private static class Node<T>
+    {
+        final Map<String, Node<T>> children = new ConcurrentHashMap<String, Node<T>>(4);
+        volatile T value;
+    }
+}
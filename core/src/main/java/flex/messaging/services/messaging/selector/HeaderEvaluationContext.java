@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flex.messaging.services.messaging.selector;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.filter.MessageEvaluationContext;
+
+import flex.messaging.messages.Message;
+
+/**
+ * A selector evaluation context whose properties are the headers of a Flex
+ * message. The headers are read in place when the selector references them,
+ * rather than being copied into an <code>ActiveMQMessage</code> for each match.
+ */
+class HeaderEvaluationContext extends MessageEvaluationContext
+{
+    private final HeaderMessage headerMessage;
+
+    HeaderEvaluationContext(Message message)
+    {
+        headerMessage = new HeaderMessage(message.getHeaders());
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean isDropped()
+    {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override public org.apache.activemq.command.Message getMessage()
+    {
+        return headerMessage;
+    }
+
+    /**
+     * The ActiveMQ message view of the headers. Only property lookups are
+     * supported, which is all the selector expressions need.
+     */
+    private static class HeaderMessage extends ActiveMQMessage
+    {
+        private final Map headers;
+
+        HeaderMessage(Map headers)
+        {
+            this.headers = headers;
+        }
+
+        /**
+         * Returns the header with the given name. Headers that are not of a
+         * type a selector can compare are rejected, as they would be if the
+         * headers were set as ActiveMQ message properties.
+         */
+        @Override public Object getProperty(String name) throws IOException
+        {
+            Object value = headers != null ? headers.get(name) : null;
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean)
+                return value;
+            throw new IOException("Header '" + name + "' of type " + value.getClass().getName() + " cannot be used in a selector.");
+        }
+    }
+}
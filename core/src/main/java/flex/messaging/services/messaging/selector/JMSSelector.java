@@ -20,9 +20,7 @@ package flex.messaging.services.messaging.selector;
 import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
 
-import org.apache.activemq.command.ActiveMQMessage;
 import org.apache.activemq.filter.BooleanExpression;
-import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.selector.SelectorParser;
 
 import flex.messaging.log.Log;
@@ -37,28 +35,20 @@ import flex.messaging.messages.Message;
  * proprietary code, that eventually found its way into Glassfish. The license
  * was still CDDL (or CDDL+GPL) and therefore unfit for donation to Apache.
  * 
- * The current implementation relies on Apache ActiveMQ to do the same. Since
- * the selector is evaluated against the message headers (called properties in
- * ActiveMQ parlance), and both ActiveMQ messages and Flex messages use a Map<String, Object>
- * to store the header-value pair, it is easy to create a minimally sufficient
- * ActiveMQMessage from a Flex message.
- * 
- * Possible performance improvement: prevent creation of an ActiveMQMessage for each selector.
- * This isn't exactly a lightweight object but there seem to be only two choices at the moment:
- * a. Use a static field and synchronize access to it
- * 						OR
- * b. Instantiate a new ActiveMQMessage for each selector
- * 
- * Re-using the same instance (approach a.) would entail calling clearProperties() followed
- * by setProperties() and that too by one thread at a time, which is why approach b. has been
- * chosen for now.
- *
+ * The current implementation relies on Apache ActiveMQ to do the same. The
+ * selector is evaluated against the message headers (called properties in
+ * ActiveMQ parlance). The expression is parsed once per selector instance and
+ * each match evaluates it against a <code>HeaderEvaluationContext</code> that
+ * reads the Flex message headers in place, so a selector instance can be
+ * cached and shared by the threads that match messages against it; see
+ * <code>JMSSelectorCache</code>.
  */
 public class JMSSelector
 {
     public static final String LOG_CATEGORY = LogCategories.MESSAGE_SELECTOR; // Because we're not always JMS-specific.
 
     private String pattern = null;
+    private volatile BooleanExpression expression;
 
     /**
      * Class Constructor.
@@ -88,33 +78,42 @@ public class JMSSelector
         boolean matched = false;
 
         try
-        {    	
-            // Parse selector pattern
-            BooleanExpression expr = SelectorParser.parse(pattern);	
-			
-			//Create a disposable ActiveMQMessage
-            ActiveMQMessage dummyMessage = new ActiveMQMessage();
-
-            // Populate dummyMessage from Flex message
-            dummyMessage.setProperties(msg.getHeaders());
-
-            // Set up an evaluation context
-            MessageEvaluationContext context = new MessageEvaluationContext();
-            context.setMessageReference(dummyMessage);
-
-            // Check whether message (headers) matches selector expression
-            matched = expr.matches(context);
-
-        }
-        catch (InvalidSelectorException e)
         {
-            throw new JMSSelectorException(e);
+            // Check whether message (headers) matches selector expression
+            matched = getExpression().matches(new HeaderEvaluationContext(msg));
         }
         catch (JMSException e)
         {
             throw new JMSSelectorException(e);
         }
-        Log.getLogger(LOG_CATEGORY).debug("Selector: " + pattern + (matched ? " matched " : " did not match ") + " message with id: " + msg.getMessageId());
+        if (Log.isDebug())
+            Log.getLogger(LOG_CATEGORY).debug("Selector: " + pattern + (matched ? " matched " : " did not match ") + " message with id: " + msg.getMessageId());
         return matched;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the selector pattern.
+     *
+     * @return the selector pattern.
+     */
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    /**
+     * Returns the compiled selector expression, parsing the pattern the first
+     * time it is needed. Parsing is idempotent so a race between threads only
+     * costs a redundant parse.
+     */
+    private BooleanExpression getExpression() throws InvalidSelectorException
+    {
+        BooleanExpression expr = expression;
+        if (expr == null)
+        {
+            expr = SelectorParser.parse(pattern);
+            expression = expr;
+        }
+        return expr;
+    }
+}
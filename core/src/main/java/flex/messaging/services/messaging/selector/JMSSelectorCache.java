@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flex.messaging.services.messaging.selector;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of compiled selectors keyed by selector pattern. Each
+ * message destination keeps one so that the selectors of its subscriptions
+ * are parsed once, rather than every time a message is matched against them.
+ * <p>
+ * When the cache is full an arbitrary entry is evicted to make room for a new
+ * one. The bound only needs to keep a destination with many distinct, short
+ * lived selectors from growing the cache without limit, so no access order is
+ * tracked on the lookup path.
+ * </p>
+ */
+public class JMSSelectorCache
+{
+    /**
+     * The default maximum number of compiled selectors kept per destination.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final ConcurrentMap<String, JMSSelector> selectors = new ConcurrentHashMap<String, JMSSelector>();
+    private final int maxSize;
+
+    /**
+     * Constructs a cache with the default maximum size.
+     */
+    public JMSSelectorCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a cache that holds up to the given number of selectors.
+     *
+     * @param maxSize the maximum number of selectors to cache; 0 or less
+     * disables caching.
+     */
+    public JMSSelectorCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the compiled selector for a pattern, creating and caching it
+     * if it is not cached yet.
+     *
+     * @param pattern the selector pattern.
+     * @return the selector.
+     */
+    public JMSSelector getSelector(String pattern)
+    {
+        if (pattern == null)
+            pattern = "";
+
+        JMSSelector selector = selectors.get(pattern);
+        if (selector != null)
+            return selector;
+
+        selector = new JMSSelector(pattern);
+        if (maxSize <= 0)
+            return selector;
+
+        if (selectors.size() >= maxSize)
+            evict();
+
+        JMSSelector existing = selectors.putIfAbsent(pattern, selector);
+        return existing != null ? existing : selector;
+    }
+
+    /**
+     * Removes the selector for a pattern from the cache.
+     *
+     * @param pattern the selector pattern.
+     */
+    public void remove(String pattern)
+    {
+        if (pattern != null)
+            selectors.remove(pattern);
+    }
+
+    /**
+     * Returns the number of cached selectors.
+     *
+     * @return the number of cached selectors.
+     */
+    public int size()
+    {
+        return selectors.size();
+    }
+
+    /**
+     * Returns the maximum number of cached selectors.
+     *
+     * @return the maximum number of cached selectors.
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    private void evict()
+    {
+        Iterator<String> iter = selectors.keySet().iterator();
+        while (selectors.size() >= maxSize && iter.hasNext())
+        {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util;
+
+import flex.messaging.log.Log;
+import flex.messaging.log.LogCategories;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A timer that runs tasks on a single thread with a precision of one tick,
+ * for large numbers of timeouts that are rarely due.
+ * <p>
+ * Tasks are kept in a circular array of buckets, one per tick, and each tick
+ * the timer thread runs the tasks of the current bucket that are due. Scheduling
+ * and cancelling a task are constant time operations that do not lock: new tasks
+ * and cancellations are queued and applied by the timer thread on its next tick,
+ * unlike a <code>ScheduledThreadPoolExecutor</code> that keeps all tasks in one
+ * heap and has to search it to remove a cancelled task.
+ * </p>
+ */
+public class HashedWheelTimer
+{
+    private static final String LOG_CATEGORY = LogCategories.TIMEOUT;
+
+    private static final int STATE_SCHEDULED = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<WheelTimeout> scheduled = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final long startTime;
+    private final Thread workerThread;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a <code>HashedWheelTimer</code>. Its thread starts when the first
+     * task is scheduled.
+     *
+     * @param tf The ThreadFactory to create the timer thread with, or <code>null</code>
+     * for a daemon thread.
+     * @param tickMillis The duration of a tick in milliseconds.
+     * @param ticksPerWheel The number of buckets, rounded up to a power of two.
+     * Timeouts further than a full turn of the wheel away are checked each turn.
+     */
+    public HashedWheelTimer(ThreadFactory tf, long tickMillis, int ticksPerWheel)
+    {
+        if (tickMillis < 1)
+            tickMillis = 1;
+        int buckets = 1;
+        while (buckets < ticksPerWheel && buckets < (1 << 30))
+            buckets <<= 1;
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++)
+            wheel[i] = new Bucket();
+        mask = buckets - 1;
+
+        Runnable worker = new Worker();
+        if (tf != null)
+        {
+            workerThread = tf.newThread(worker);
+        }
+        else
+        {
+            workerThread = new Thread(worker, "HashedWheelTimer");
+            workerThread.setDaemon(true);
+        }
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Schedules a task to run after the given delay, rounded up to the next tick.
+     *
+     * @param task The task to run.
+     * @param delayMillis The delay in milliseconds.
+     * @return A Future to cancel the task with.
+     */
+    public Future schedule(Runnable task, long delayMillis)
+    {
+        if (shutdown)
+            throw new IllegalStateException("The timer has been shut down.");
+
+        long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        WheelTimeout timeout = new WheelTimeout(task, deadline);
+        size.incrementAndGet();
+        scheduled.add(timeout);
+        if (!started.get() && started.compareAndSet(false, true))
+            workerThread.start();
+        return timeout;
+    }
+
+    /**
+     * Returns the number of tasks that have been scheduled and have neither
+     * run nor been cancelled.
+     *
+     * @return The number of pending tasks.
+     */
+    public int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * Stops the timer thread and discards the pending tasks.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        workerThread.interrupt();
+    }
+
+    /**
+     * Runs the buckets of the wheel, one per tick.
+     */
+    private class Worker implements Runnable
+    {
+        private long tick;
+
+        public void run()
+        {
+            while (!shutdown)
+            {
+                long deadline = tickNanos * (tick + 1);
+                long sleepNanos = deadline - (System.nanoTime() - startTime);
+                if (sleepNanos > 0)
+                {
+                    try
+                    {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        if (shutdown)
+                            break;
+                    }
+                    continue;
+                }
+
+                removeCancelled();
+                addScheduled();
+                wheel[(int)(tick & mask)].expire(deadline);
+                tick++;
+            }
+
+            scheduled.clear();
+            cancelled.clear();
+            for (Bucket bucket : wheel)
+                bucket.clear();
+        }
+
+        private void addScheduled()
+        {
+            WheelTimeout timeout;
+            while ((timeout = scheduled.poll()) != null)
+            {
+                if (timeout.state != STATE_SCHEDULED)
+                    continue;
+
+                long ticks = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (ticks - tick) / wheel.length;
+                // Timeouts that are already due run on this tick.
+                wheel[(int)(Math.max(ticks, tick) & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelled()
+        {
+            WheelTimeout timeout;
+            while ((timeout = cancelled.poll()) != null)
+            {
+                if (timeout.bucket != null)
+                    timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts of one tick, only accessed by the timer thread.
+     */
+    private final class Bucket
+    {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout)
+        {
+            timeout.bucket = this;
+            if (head == null)
+            {
+                head = tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(WheelTimeout timeout)
+        {
+            WheelTimeout next = timeout.next;
+            if (timeout.prev != null)
+                timeout.prev.next = next;
+            if (next != null)
+                next.prev = timeout.prev;
+            if (timeout == head)
+                head = next;
+            if (timeout == tail)
+                tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire(long deadline)
+        {
+            WheelTimeout timeout = head;
+            while (timeout != null)
+            {
+                WheelTimeout next = timeout.next;
+                if (timeout.state == STATE_CANCELLED)
+                {
+                    remove(timeout);
+                }
+                else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline)
+                {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void clear()
+        {
+            head = tail = null;
+        }
+    }
+
+    /**
+     * A scheduled task and the Future to cancel it.
+     */
+    private final class WheelTimeout implements Future
+    {
+        private final Runnable task;
+        private final long deadline;
+        volatile int state; // Updated with STATE_UPDATER.
+        private long remainingRounds;
+        private Bucket bucket;
+        private WheelTimeout prev;
+        private WheelTimeout next;
+
+        WheelTimeout(Runnable task, long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void expire()
+        {
+            if (!STATE_UPDATER.compareAndSet(this, STATE_SCHEDULED, STATE_EXPIRED))
+                return;
+
+            size.decrementAndGet();
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                if (Log.isError())
+                    Log.getLogger(LOG_CATEGORY).error("HashedWheelTimer '" + System.identityHashCode(HashedWheelTimer.this)
+                            + "' encountered an error running a task of type '" + task.getClass().getName() + "'.", t);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    notifyAll();
+                }
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (!STATE_UPDATER.compareAndSet(this, STATE_SCHEDULED, STATE_CANCELLED))
+                return false;
+
+            size.decrementAndGet();
+            cancelled.add(this);
+            synchronized (this)
+            {
+                notifyAll();
+            }
+            return true;
+        }
+
+        public boolean isCancelled()
+        {
+            return state == STATE_CANCELLED;
+        }
+
+        public boolean isDone()
+        {
+            return state != STATE_SCHEDULED;
+        }
+
+        public Object get() throws InterruptedException, ExecutionException
+        {
+            synchronized (this)
+            {
+                while (state == STATE_SCHEDULED)
+                    wait();
+            }
+            if (state == STATE_CANCELLED)
+                throw new CancellationException();
+            return null;
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this)
+            {
+                while (state == STATE_SCHEDULED)
+                {
+                    long remaining = end - System.nanoTime();
+                    if (remaining <= 0)
+                        throw new TimeoutException();
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            if (state == STATE_CANCELLED)
+                throw new CancellationException();
+            return null;
+        }
+    }
+}
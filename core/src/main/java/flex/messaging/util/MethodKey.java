@@ -72,9 +72,9 @@ public class MethodKey
     /** {@inheritDoc} */
     public int hashCode()
     {
-        // Don't consider parameter types in hashcode to speed up
-        // calculation.
-        return enclosingClass.hashCode() * 10003 +
-            methodName.hashCode();
+        // Parameter types are considered so that the signatures a method is
+        // called with do not all end up in the same bucket.
+        return (enclosingClass.hashCode() * 10003 +
+            methodName.hashCode()) * 31 + Arrays.hashCode(parameterTypes);
     }
 }
@@ -20,9 +20,11 @@ import flex.messaging.io.TypeMarshaller;
 import flex.messaging.io.TypeMarshallingContext;
 import flex.messaging.MessageException;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 /**
@@ -33,20 +35,45 @@ import java.lang.reflect.Method;
  * there isn't a great guarantee for which method will be selected
  * when several overloaded methods match very closely through the use
  * of various combinations of generic types.
- *
+ * <p>
+ * Methods invoked through <code>invoke</code> are also cached as call sites
+ * keyed on the class, the method name and the types of the arguments. A call
+ * site holds the resolved method and a conversion plan for each argument, so
+ * that later calls with the same argument types skip the method search and
+ * only convert the arguments that need it. At most <code>MAX_CALL_SITES</code>
+ * call sites are cached per matcher.
+ * </p>
  *
  */
 public class MethodMatcher
 {
-    private final Map<MethodKey, Method> methodCache = new HashMap<MethodKey, Method>();
+    private final ConcurrentHashMap<MethodKey, Method> methodCache = new ConcurrentHashMap<MethodKey, Method>();
+    private final ConcurrentMap<MethodKey, CallSite> callSiteCache = new ConcurrentHashMap<MethodKey, CallSite>();
+    private final int maxCallSites;
     private static final int ARGUMENT_CONVERSION_ERROR = 10006;
     private static final int CANNOT_INVOKE_METHOD = 10007;
 
+    /**
+     * The maximum number of call sites a matcher caches.
+     */
+    public static final int MAX_CALL_SITES = 1000;
+
     /**
      * Default constructor.
      */
     public MethodMatcher()
     {
+        this(MAX_CALL_SITES);
+    }
+
+    /**
+     * Constructs a matcher that caches up to the given number of call sites.
+     *
+     * @param maxCallSites the maximum number of call sites to cache.
+     */
+    MethodMatcher(int maxCallSites)
+    {
+        this.maxCallSites = maxCallSites;
     }
 
     /**
@@ -70,11 +97,9 @@ public class MethodMatcher
         // Create a key to search our method cache
         MethodKey methodKey = new MethodKey(c, methodName, suppliedParamTypes);
 
-        Method method = null;
-        if (methodCache.containsKey(methodKey))
+        Method method = methodCache.get(methodKey);
+        if (method != null)
         {
-            method = methodCache.get(methodKey);
-
             String thisMethodName = method.getName();
             bestMatch.matchedMethodName = thisMethodName;
         }
@@ -83,14 +108,9 @@ public class MethodMatcher
             try // First, try an exact match.
             {
                 method = c.getMethod(methodName, suppliedParamTypes);
-                synchronized(methodCache)
-                {
-                    Method method2 = methodCache.get(methodKey);
-                    if (method2 == null)
-                        methodCache.put(methodKey, method);
-                    else
-                        method = method2;
-                }
+                Method method2 = methodCache.putIfAbsent(methodKey, method);
+                if (method2 != null)
+                    method = method2;
             }
             catch (SecurityException e)
             {
@@ -149,14 +169,7 @@ public class MethodMatcher
                             && bestMatch == currentMatch)
                     {
                         method = thisMethod;
-                        synchronized(methodCache)
-                        {
-                            Method method2 = methodCache.get(methodKey);
-                            if (method2 == null || method2 != method)
-                                methodCache.put(methodKey, method);
-                            else
-                                method = method2;
-                        }
+                        methodCache.put(methodKey, method);
                         // Don't break as there might be other methods with the
                         // same number of arguments but with better match count.
                         // break;
@@ -172,11 +185,7 @@ public class MethodMatcher
         else if (bestMatch.paramTypeConversionFailure != null)
         {
             //Error occurred while attempting to convert an input argument's type.
-            MessageException me = new MessageException();
-            me.setMessage(ARGUMENT_CONVERSION_ERROR);
-            me.setCode("Server.Processing");
-            me.setRootCause(bestMatch.paramTypeConversionFailure);
-            throw me;
+            argumentConversionFailed(bestMatch.paramTypeConversionFailure);
         }
 
         // Call convertParams one last time before returning method. This ensures
@@ -184,9 +193,80 @@ public class MethodMatcher
         Class<?>[] desiredParamTypes = method.getParameterTypes();
         bestMatch.methodParamTypes = desiredParamTypes;
         convertParams(parameters, desiredParamTypes, bestMatch, true);
+
+        // A method found in the cache was not checked against these parameters.
+        if (bestMatch.paramTypeConversionFailure != null)
+            argumentConversionFailed(bestMatch.paramTypeConversionFailure);
         return method;
     }
 
+    private static void argumentConversionFailed(Throwable cause)
+    {
+        MessageException me = new MessageException();
+        me.setMessage(ARGUMENT_CONVERSION_ERROR);
+        me.setCode("Server.Processing");
+        me.setRootCause(cause);
+        throw me;
+    }
+
+
+    /**
+     * Finds the method of the instance's class that best matches the supplied
+     * parameters, converts the parameters to the types of the method and
+     * invokes it. The method and the conversions the parameters need are cached
+     * for the types of the supplied parameters, so calls with the same types
+     * neither search for the method nor convert parameters that already have
+     * the desired type.
+     *
+     * @param instance The object to invoke the method on.
+     * @param methodName The name of the method.
+     * @param parameters The parameters of the invocation; converted in place.
+     * @return The result of the invocation.
+     * @throws IllegalAccessException If the method is not accessible.
+     * @throws InvocationTargetException If the method threw an exception.
+     */
+    public Object invoke(Object instance, String methodName, List parameters)
+            throws IllegalAccessException, InvocationTargetException
+    {
+        Class c = instance.getClass();
+        Class[] suppliedParamTypes = paramTypes(parameters);
+        MethodKey methodKey = new MethodKey(c, methodName, suppliedParamTypes);
+
+        CallSite callSite = callSiteCache.get(methodKey);
+        Object[] args = callSite != null ? callSite.convertParams(parameters) : null;
+        if (args == null)
+        {
+            // Search for the method the long way, which also reports a missing
+            // method or a failed conversion.
+            Method method = getMethod(c, methodName, parameters);
+            callSite = new CallSite(method, suppliedParamTypes);
+            if (callSiteCache.size() >= maxCallSites)
+                evictCallSites();
+            callSiteCache.put(methodKey, callSite);
+            args = parameters.toArray();
+        }
+        return callSite.method.invoke(instance, args);
+    }
+
+    /**
+     * Returns the number of cached call sites.
+     *
+     * @return the number of cached call sites.
+     */
+    int getCallSiteCount()
+    {
+        return callSiteCache.size();
+    }
+
+    private void evictCallSites()
+    {
+        Iterator<MethodKey> iter = callSiteCache.keySet().iterator();
+        while (callSiteCache.size() >= maxCallSites && iter.hasNext())
+        {
+            iter.next();
+            iter.remove();
+        }
+    }
 
     /**
      * Utility method to convert a collection of parameters to desired types. We keep track
@@ -401,6 +481,94 @@ public class MethodMatcher
         throw ex;
     }
 
+    /**
+     * Returns true if instances of the class cannot change and are not
+     * changed by the <code>TypeMarshaller</code> when they are converted to a
+     * type they are already assignable to.
+     */
+    private static boolean isImmutableType(Class c)
+    {
+        return c == String.class || c == Integer.class || c == Double.class || c == Long.class
+            || c == Boolean.class || c == Character.class || c == Float.class || c == Short.class
+            || c == Byte.class;
+    }
+
+    /**
+     * A method resolved for a given set of argument types, along with the
+     * arguments that have to be converted before it is invoked.
+     */
+    static class CallSite
+    {
+        final Method method;
+        final Class[] methodParamTypes;
+        final boolean[] convert;
+
+        /**
+         * Constructor.
+         *
+         * @param method the resolved method
+         * @param suppliedParamTypes the types of the arguments the method was resolved for
+         */
+        CallSite(Method method, Class[] suppliedParamTypes)
+        {
+            this.method = method;
+            methodParamTypes = method.getParameterTypes();
+            convert = new boolean[methodParamTypes.length];
+            for (int i = 0; i < methodParamTypes.length; i++)
+            {
+                Class suppliedType = suppliedParamTypes[i];
+                convert[i] = !(isImmutableType(suppliedType) && isAssignableFrom(methodParamTypes[i], suppliedType));
+            }
+        }
+
+        /**
+         * Converts the parameters to the types of the method. The converted
+         * values are set in the list only once all parameters have been
+         * converted, so that a failed conversion leaves the list unchanged
+         * for the method search.
+         *
+         * @param parameters the parameters of the invocation
+         * @return the arguments to invoke the method with, or null if a
+         * parameter could not be converted to the type of the method
+         */
+        Object[] convertParams(List parameters)
+        {
+            TypeMarshaller marshaller = TypeMarshallingContext.getTypeMarshaller();
+            Object[] args = new Object[methodParamTypes.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                Object param = parameters.get(i);
+                if (param == null || !convert[i] || marshaller == null)
+                {
+                    args[i] = param;
+                    continue;
+                }
+
+                Object obj;
+                try
+                {
+                    obj = marshaller.convert(param, methodParamTypes[i]);
+                }
+                catch (Exception e)
+                {
+                    return null;
+                }
+
+                if (obj == null || !isAssignableFrom(methodParamTypes[i], obj.getClass()))
+                    return null;
+
+                args[i] = obj;
+            }
+
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i] != parameters.get(i))
+                    parameters.set(i, args[i]);
+            }
+            return args;
+        }
+    }
+
     /**
      * A utility class to help rank methods in the search
      * for a best match, given a name and collection of
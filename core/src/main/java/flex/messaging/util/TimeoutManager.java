@@ -28,15 +28,28 @@ import java.util.concurrent.TimeUnit;
  * This class provides a means of managing TimeoutCapable objects. It leverages
  * facilities in the the Java concurrency package to provide a common utility
  * for scheduling timeout Futures and managing the underlying worker thread pools.
- *
+ * <p>
+ * A TimeoutManager constructed with a tick duration schedules timeouts on a
+ * <code>HashedWheelTimer</code> instead of a <code>ScheduledThreadPoolExecutor</code>.
+ * Timeouts then fire up to one tick late, but scheduling and cancelling them
+ * takes constant time however many objects are monitored, which suits managers
+ * of large numbers of long timeouts such as FlexClients and sessions.
+ * </p>
  *
  */
 public class TimeoutManager
 {
     private static final String LOG_CATEGORY = LogCategories.TIMEOUT;
 
+    /**
+     * Default settings of the timer wheel.
+     */
+    public static final long DEFAULT_WHEEL_TICK_MILLIS = 100;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
     private ScheduledThreadPoolExecutor timeoutService;
-    
+    private HashedWheelTimer timeoutWheel;
+
     /**
      * Default constructor calls parameterized constructor will a null factory argument.
      */
@@ -74,6 +87,24 @@ public class TimeoutManager
         timeoutService = new ScheduledThreadPoolExecutor(numberOfThreads, tf);
     }
 
+    /**
+     * Constructs a new TimeoutManager that schedules timeouts on a hashed timer wheel
+     * run by a single thread created with the passed in factory.
+     *
+     * @param tf The ThreadFactory to use.
+     * @param tickMillis The duration of a tick of the wheel in milliseconds; timeouts
+     * fire up to one tick late.
+     * @param ticksPerWheel The number of ticks in one turn of the wheel.
+     */
+    public TimeoutManager(ThreadFactory tf, long tickMillis, int ticksPerWheel)
+    {
+        if (tf == null)
+        {
+            tf = new MonitorThreadFactory();
+        }
+        timeoutWheel = new HashedWheelTimer(tf, tickMillis, ticksPerWheel);
+    }
+
     /**
      * Schedule a task to be executed in the future.
      * 
@@ -86,7 +117,7 @@ public class TimeoutManager
         if (t.getTimeoutPeriod() > 0)
         {
             Runnable timeoutTask = new TimeoutTask(t);
-            future = timeoutService.schedule(timeoutTask, t.getTimeoutPeriod(), TimeUnit.MILLISECONDS);
+            future = schedule(timeoutTask, t.getTimeoutPeriod());
             t.setTimeoutFuture(future);
             if (t instanceof TimeoutAbstractObject)
             {
@@ -96,7 +127,7 @@ public class TimeoutManager
             }
             if (Log.isDebug())
                 Log.getLogger(LOG_CATEGORY).debug("TimeoutManager '" + System.identityHashCode(this) + "' has scheduled instance '" +
-                    System.identityHashCode(t) + "' of type '" + t.getClass().getName() + "' to be timed out in " + t.getTimeoutPeriod() + " milliseconds. Task queue size: "+ timeoutService.getQueue().size());
+                    System.identityHashCode(t) + "' of type '" + t.getClass().getName() + "' to be timed out in " + t.getTimeoutPeriod() + " milliseconds. Task queue size: "+ getQueueSize());
         }
         return future;
     }
@@ -109,6 +140,17 @@ public class TimeoutManager
      */
     public boolean unscheduleTimeout(TimeoutAbstractObject timeoutAbstract)
     {
+        if (timeoutWheel != null)
+        {
+            // Cancelled timeouts are dropped from the wheel by its thread.
+            timeoutAbstract.getTimeoutFuture().cancel(false);
+            if (Log.isDebug())
+                Log.getLogger(LOG_CATEGORY).debug("TimeoutManager '" + System.identityHashCode(this) + "' cancelling timeout task for instance '" +
+                    System.identityHashCode(timeoutAbstract) + "' of type '" + timeoutAbstract.getClass().getName() + "' that has requested its timeout be cancelled. Task queue size: "+ getQueueSize());
+            clearTimeoutTask(timeoutAbstract);
+            return true;
+        }
+
         Object toRemove = timeoutAbstract.getTimeoutFuture();
         /*
          * In more recent versions of the backport, they are requiring that we
@@ -140,20 +182,31 @@ public class TimeoutManager
             }
         }
         
-        // to aggressively clean up memory remove the reference from the unscheduled timeout to its 
-        // time out object
-        Object unscheduledTimeoutTask = timeoutAbstract.getTimeoutTask();
-        if (unscheduledTimeoutTask != null && unscheduledTimeoutTask instanceof TimeoutTask)
-            ((TimeoutTask)timeoutAbstract.getTimeoutTask()).clearTimeoutCapable();
-        
+        clearTimeoutTask(timeoutAbstract);
         return true;
     }
+
+    /**
+     * Returns the number of timeouts that are scheduled.
+     *
+     * @return The number of scheduled timeouts.
+     */
+    public int getQueueSize()
+    {
+        return timeoutWheel != null ? timeoutWheel.size() : timeoutService.getQueue().size();
+    }
     
     /**
      * Cancel all outstanding and any future tasks.
      */
     public void shutdown()
     {
+        if (timeoutWheel != null)
+        {
+            timeoutWheel.shutdown();
+            return;
+        }
+
         timeoutService.shutdownNow();
         // shutdownNow() returns List<Runnable> for all unexecuted tasks
         // but we ignore these because we're only queuing dependent tasks
@@ -165,6 +218,22 @@ public class TimeoutManager
         // which does not return handles to any queued, unexecuted tasks.
     }
 
+    private Future schedule(Runnable task, long delayMillis)
+    {
+        if (timeoutWheel != null)
+            return timeoutWheel.schedule(task, delayMillis);
+        return timeoutService.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void clearTimeoutTask(TimeoutAbstractObject timeoutAbstract)
+    {
+        // to aggressively clean up memory remove the reference from the unscheduled timeout to its 
+        // time out object
+        Object unscheduledTimeoutTask = timeoutAbstract.getTimeoutTask();
+        if (unscheduledTimeoutTask != null && unscheduledTimeoutTask instanceof TimeoutTask)
+            ((TimeoutTask)unscheduledTimeoutTask).clearTimeoutCapable();
+    }
+
     class MonitorThreadFactory implements ThreadFactory
     {
         public Thread newThread(Runnable r)
@@ -200,6 +269,8 @@ public class TimeoutManager
             // Because of the weird clearTimeCapable() in the middle of timeout call, we got NPE in the debug log level.
             // Now copy the reference to local varable
             TimeoutCapable timeoutObject = this.timeoutObject;
+            if (timeoutObject == null)
+                return; // The timeout was unscheduled.
             long inactiveMillis = System.currentTimeMillis() - timeoutObject.getLastUse();
             if (inactiveMillis >= timeoutObject.getTimeoutPeriod())
             {
@@ -209,22 +280,22 @@ public class TimeoutManager
                     
                     if (Log.isDebug())
                         Log.getLogger(LOG_CATEGORY).debug("TimeoutManager '" + System.identityHashCode(TimeoutManager.this) + "' has run the timeout task for instance '" +
-                            System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ timeoutService.getQueue().size());
+                            System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ getQueueSize());
                 }
                 catch (Throwable t)
                 {
                     if (Log.isError())
                         Log.getLogger(LOG_CATEGORY).error("TimeoutManager '" + System.identityHashCode(TimeoutManager.this) + "' encountered an error running the timeout task for instance '" +
-                            System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ timeoutService.getQueue().size(), t);   
+                            System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ getQueueSize(), t);   
                 }
             }
             else
             {
                 // Reschedule timeout and store new Future for cancellation.
-                timeoutObject.setTimeoutFuture(timeoutService.schedule(this, (timeoutObject.getTimeoutPeriod()-inactiveMillis), TimeUnit.MILLISECONDS));
+                timeoutObject.setTimeoutFuture(schedule(this, timeoutObject.getTimeoutPeriod() - inactiveMillis));
                 if (Log.isDebug())
                     Log.getLogger(LOG_CATEGORY).debug("TimeoutManager '" + System.identityHashCode(TimeoutManager.this) + "' has rescheduled a timeout for the active instance '" +
-                        System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ timeoutService.getQueue().size());
+                        System.identityHashCode(timeoutObject) + "' of type '" + timeoutObject.getClass().getName() + "'. Task queue size: "+ getQueueSize());
             }
         }
     }
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util.concurrent;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies listeners when <code>Future</code>s complete.
+ * <p>
+ * On Java 8 and later, a <code>CompletionStage</code>, such as a
+ * <code>CompletableFuture</code>, notifies the listener as soon as it completes.
+ * Since this class is compiled for older Java versions, the stage is accessed
+ * reflectively. Other <code>Future</code>s are polled by a shared daemon
+ * thread every <code>POLL_INTERVAL_MILLIS</code>. The thread ends once it has
+ * been idle for <code>POLLER_KEEP_ALIVE_SECONDS</code>, and is stopped by
+ * <code>shutdown()</code> when the <code>MessageBroker</code> stops; futures
+ * that are still polled then no longer notify their listeners.
+ * </p>
+ */
+public final class FutureCompletion
+{
+    /**
+     * How often futures that cannot notify listeners themselves are polled.
+     */
+    public static final long POLL_INTERVAL_MILLIS = 10;
+
+    /**
+     * How long the polling thread is kept while no future is polled.
+     */
+    public static final long POLLER_KEEP_ALIVE_SECONDS = 60;
+
+    private static final Class<?> completionStageClass;
+    private static final Class<?> biConsumerClass;
+    private static final Method whenCompleteMethod;
+    private static final Method toCompletableFutureMethod;
+
+    static
+    {
+        Class<?> stageClass = null;
+        Class<?> consumerClass = null;
+        Method whenComplete = null;
+        Method toCompletableFuture = null;
+        try
+        {
+            stageClass = Class.forName("java.util.concurrent.CompletionStage");
+            consumerClass = Class.forName("java.util.function.BiConsumer");
+            whenComplete = stageClass.getMethod("whenComplete", consumerClass);
+            toCompletableFuture = stageClass.getMethod("toCompletableFuture");
+        }
+        catch (Exception e)
+        {
+            // Java 7 or earlier; only futures are supported.
+            stageClass = null;
+        }
+        completionStageClass = stageClass;
+        biConsumerClass = consumerClass;
+        whenCompleteMethod = whenComplete;
+        toCompletableFutureMethod = toCompletableFuture;
+    }
+
+    private static ScheduledExecutorService poller;
+
+    private FutureCompletion()
+    {
+    }
+
+    /**
+     * Returns the object as a <code>Future</code> if it is one, or if it is a
+     * <code>CompletionStage</code> that can be converted to one.
+     *
+     * @param value The object.
+     * @return The future, or null if the object is neither.
+     */
+    public static Future<?> asFuture(Object value)
+    {
+        if (value instanceof Future)
+            return (Future<?>)value;
+
+        if (completionStageClass != null && completionStageClass.isInstance(value))
+        {
+            try
+            {
+                return (Future<?>)toCompletableFutureMethod.invoke(value);
+            }
+            catch (Exception e)
+            {
+                // Stages that cannot be converted are returned as is.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the listener once the future has completed. The listener runs
+     * immediately if the future is already done; otherwise it runs on the
+     * thread that completes the future or on the polling thread, so it
+     * should not block.
+     *
+     * @param future The future.
+     * @param listener The listener.
+     */
+    public static void whenDone(final Future<?> future, final Runnable listener)
+    {
+        if (future.isDone())
+        {
+            listener.run();
+            return;
+        }
+
+        if (completionStageClass != null && completionStageClass.isInstance(future))
+        {
+            try
+            {
+                Object action = Proxy.newProxyInstance(FutureCompletion.class.getClassLoader(),
+                        new Class[] {biConsumerClass}, new CompletionHandler(listener));
+                whenCompleteMethod.invoke(future, action);
+                return;
+            }
+            catch (Exception e)
+            {
+                // Fall back to polling.
+            }
+        }
+
+        final ScheduledExecutorService executor = getPoller();
+        executor.schedule(new Runnable()
+        {
+            public void run()
+            {
+                if (future.isDone())
+                {
+                    listener.run();
+                    return;
+                }
+                try
+                {
+                    executor.schedule(this, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // Shut down; stop polling.
+                }
+            }
+        }, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the polling thread. Futures that are still polled no longer notify
+     * their listeners. A later call to <code>whenDone()</code> starts a new thread.
+     */
+    public static synchronized void shutdown()
+    {
+        if (poller != null)
+        {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getPoller()
+    {
+        if (poller == null)
+        {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("FutureCompletionPoller");
+                    return t;
+                }
+            });
+            executor.setKeepAliveTime(POLLER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            poller = executor;
+        }
+        return poller;
+    }
+
+    /**
+     * The <code>BiConsumer</code> passed to <code>CompletionStage.whenComplete</code>.
+     */
+    private static class CompletionHandler implements InvocationHandler
+    {
+        private final Runnable listener;
+
+        CompletionHandler(Runnable listener)
+        {
+            this.listener = listener;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                String name = method.getName();
+                if ("equals".equals(name))
+                    return Boolean.valueOf(proxy == args[0]);
+                if ("hashCode".equals(name))
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                return "CompletionHandler[" + listener + "]";
+            }
+            listener.run();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import flex.messaging.MessageBroker;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConflatingOutboundQueueProcessorTest {
+
+    private ConflatingOutboundQueueProcessor processor;
+    private List<Message> queue;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        broker.initThreadLocals();
+        FlexClientManager manager = new FlexClientManager(broker);
+
+        processor = new ConflatingOutboundQueueProcessor();
+        processor.setFlexClient(manager.createFlexClient("client"));
+        queue = new ArrayList<Message>();
+    }
+
+    @Test
+    public void testLatestValueReplacesQueuedMessageInPlace() {
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 1));
+        processor.add(queue, message("prices", "sub1", "MSFT", "last", 2));
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 3));
+        processor.add(queue, message("prices", "sub1", "AAPL", "last", 4));
+        processor.add(queue, message("prices", "sub1", "MSFT", "last", 5));
+
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(2, processor.getConflatedCount());
+
+        List<Message> flushed = processor.flush(queue).getMessages();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(3, flushed.size());
+        // Flushed in the order the keys first arrived, with the latest values.
+        Assert.assertEquals(3, flushed.get(0).getBody());
+        Assert.assertEquals(5, flushed.get(1).getBody());
+        Assert.assertEquals(4, flushed.get(2).getBody());
+
+        // Keys start over after a flush.
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 6));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(2, processor.getConflatedCount());
+    }
+
+    @Test
+    public void testConflationKeyHeaderAndSubscription() {
+        processor.add(queue, message("prices", "sub1", "IBM", "bid", 1));
+        processor.add(queue, message("prices", "sub1", "IBM", "ask", 2));
+        processor.add(queue, message("prices", "sub2", "IBM", "bid", 3));
+        processor.add(queue, message("prices", "sub1", "IBM", "bid", 4));
+
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(4, queue.get(0).getBody());
+        Assert.assertEquals(2, queue.get(1).getBody());
+        Assert.assertEquals(3, queue.get(2).getBody());
+    }
+
+    @Test
+    public void testMessagesWithoutKeyAreNotConflated() {
+        processor.add(queue, message("prices", "sub1", null, null, 1));
+        processor.add(queue, message("prices", "sub1", null, null, 2));
+
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, processor.getConflatedCount());
+    }
+
+    @Test
+    public void testSubtopicAloneDoesNotConflate() {
+        processor.add(queue, message("chat", "sub1", "room1", null, 1));
+        processor.add(queue, message("chat", "sub1", "room1", null, 2));
+        processor.add(queue, message("chat", "sub1", "room1", "last", 3));
+        processor.add(queue, message("chat", "sub1", "room1", "last", 4));
+
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(1, queue.get(0).getBody());
+        Assert.assertEquals(2, queue.get(1).getBody());
+        Assert.assertEquals(4, queue.get(2).getBody());
+        Assert.assertEquals(1, processor.getConflatedCount());
+    }
+
+    @Test
+    public void testOnlyConfiguredDestinationsAreConflated() {
+        ConfigMap properties = new ConfigMap();
+        properties.addProperty("destination", "prices");
+        properties.addProperty("conflate-on-subtopic", "false");
+        processor.initialize(properties);
+
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 1));
+        processor.add(queue, message("prices", "sub1", "MSFT", "last", 2));
+        processor.add(queue, message("news", "sub2", null, "last", 3));
+        processor.add(queue, message("news", "sub2", null, "last", 4));
+
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(2, queue.get(0).getBody());
+    }
+
+    @Test
+    public void testQueueModifiedOutsideProcessor() {
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 1));
+        processor.add(queue, message("prices", "sub2", "IBM", "last", 2));
+        processor.add(queue, message("prices", "sub1", "MSFT", "last", 3));
+
+        // As when the subscription sub1 is invalidated.
+        queue.remove(0);
+        processor.add(queue, message("prices", "sub1", "MSFT", "last", 4));
+        processor.add(queue, message("prices", "sub1", "IBM", "last", 5));
+
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(2, queue.get(0).getBody());
+        Assert.assertEquals(4, queue.get(1).getBody());
+        Assert.assertEquals(5, queue.get(2).getBody());
+    }
+
+    private static Message message(String destination, String clientId, String subtopic, String key, int body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setDestination(destination);
+        message.setClientId(clientId);
+        if (subtopic != null)
+            message.setHeader(AsyncMessage.SUBTOPIC_HEADER_NAME, subtopic);
+        if (key != null)
+            message.setHeader(ConflatingOutboundQueueProcessor.CONFLATION_KEY_HEADER, key);
+        message.setBody(body);
+        return message;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.endpoints.AMFEndpoint;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.services.messaging.ThrottleManager.ThrottleResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FlexClientOutboundQueueProcessorTest {
+
+    @Test
+    public void testDefaultProcessorDoesNotBatch() {
+        FlexClientOutboundQueueProcessor processor = new FlexClientOutboundQueueProcessor();
+        List<Message> queue = new ArrayList<Message>();
+        queue.add(new AsyncMessage());
+
+        Assert.assertEquals(0, processor.getLingerMillis());
+        Assert.assertTrue(processor.isBatchReady(queue));
+    }
+
+    @Test
+    public void testBatchReadyAtMaxBatchSize() {
+        ConfigMap properties = new ConfigMap();
+        properties.addProperty("linger-millis", "5");
+        properties.addProperty("max-batch-size", "3");
+        FlexClientOutboundQueueProcessor processor = new FlexClientOutboundQueueProcessor();
+        processor.initialize(properties);
+
+        Assert.assertEquals(5, processor.getLingerMillis());
+        Assert.assertEquals(3, processor.getMaxBatchSize());
+
+        List<Message> queue = new ArrayList<Message>();
+        queue.add(new AsyncMessage());
+        Assert.assertFalse(processor.isBatchReady(queue));
+        queue.add(new AsyncMessage());
+        Assert.assertFalse(processor.isBatchReady(queue));
+        queue.add(new AsyncMessage());
+        Assert.assertTrue(processor.isBatchReady(queue));
+    }
+
+    @Test
+    public void testLingerWithoutMaxBatchSize() {
+        FlexClientOutboundQueueProcessor processor = new FlexClientOutboundQueueProcessor();
+        processor.setLingerMillis(5);
+        processor.setMaxBatchSize(-1);
+
+        List<Message> queue = new ArrayList<Message>();
+        for (int i = 0; i < 1000; i++)
+            queue.add(new AsyncMessage());
+
+        Assert.assertEquals(0, processor.getMaxBatchSize());
+        Assert.assertFalse(processor.isBatchReady(queue));
+    }
+
+    @Test
+    public void testQueueLatencyIgnoresMessageTimestamp() {
+        FlexClientOutboundQueueProcessor processor = new FlexClientOutboundQueueProcessor();
+        processor.getOrCreateOutboundQueueThrottleManager();
+        List<Message> queue = new ArrayList<Message>();
+        long now = System.currentTimeMillis();
+
+        // A client clock that runs an hour behind must not make the queue look congested.
+        Message first = new AsyncMessage();
+        first.setTimestamp(now - 3600000L);
+        processor.add(queue, first);
+        processor.messageQueued(first, now - 200);
+        Message second = new AsyncMessage();
+        processor.add(queue, second);
+        processor.messageQueued(second, now);
+
+        long latency = processor.getQueueLatencyMillis(queue);
+        Assert.assertTrue(latency >= 200);
+        Assert.assertTrue(latency < 3600000L);
+
+        queue.remove(0);
+        latency = processor.getQueueLatencyMillis(queue);
+        Assert.assertTrue(latency < 200);
+
+        queue.clear();
+        Assert.assertEquals(0, processor.getQueueLatencyMillis(queue));
+    }
+
+    @Test
+    public void testEnqueueTimesAreNotKeptWithoutClientThrottling() {
+        FlexClientOutboundQueueProcessor processor = new FlexClientOutboundQueueProcessor();
+        List<Message> queue = new ArrayList<Message>();
+        Message message = new AsyncMessage();
+        processor.add(queue, message);
+        processor.messageQueued(message, System.currentTimeMillis() - 1000);
+
+        Assert.assertEquals(0, processor.getQueueLatencyMillis(queue));
+    }
+
+    @Test
+    public void testStreamedBacklogCountsAsQueuePressure() throws InterruptedException {
+        FlexClient flexClient = new FlexClientManager(new MessageBroker(false)).createFlexClient("client");
+        AMFEndpoint endpoint = new AMFEndpoint();
+        endpoint.setId("streaming-amf");
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+
+        // Messages the client has not read yet.
+        List<Message> pushed = new ArrayList<Message>();
+        pushed.add(new AsyncMessage());
+        pushed.add(new AsyncMessage());
+        notifier.pushMessages(pushed);
+        Thread.sleep(50);
+
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.setFlexClient(flexClient);
+        processor.setEndpointId("streaming-amf");
+        processor.getOrCreateOutboundQueueThrottleManager();
+        List<Message> queue = new ArrayList<Message>();
+        Message message = new AsyncMessage();
+        message.setClientId("subscription");
+        message.setDestination("topic");
+        processor.add(queue, message);
+        processor.messageQueued(message, System.currentTimeMillis());
+
+        processor.flush(queue);
+        Assert.assertEquals(3, processor.queueDepth);
+        Assert.assertTrue(processor.queueLatencyMillis >= 50);
+
+        // Once the connection has drained the notifier only the queue counts.
+        notifier.drainMessages();
+        processor.add(queue, message);
+        processor.flush(queue);
+        Assert.assertEquals(1, processor.queueDepth);
+        Assert.assertTrue(processor.queueLatencyMillis < 50);
+    }
+
+    /**
+     * Records the queue pressure that client level throttling sees.
+     */
+    private static class RecordingProcessor extends FlexClientOutboundQueueProcessor {
+        int queueDepth;
+        long queueLatencyMillis;
+
+        @Override
+        protected MessageClient getMessageClient(Message message) {
+            return null;
+        }
+
+        @Override
+        protected ThrottleResult throttleOutgoingClientLevel(MessageClient msgClient, Message message, boolean buffered,
+                int queueDepth, long queueLatencyMillis) {
+            this.queueDepth = queueDepth;
+            this.queueLatencyMillis = queueLatencyMillis;
+            return new ThrottleResult();
+        }
+    }
+}
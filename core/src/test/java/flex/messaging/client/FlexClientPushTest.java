@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.MessageDestination;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.endpoints.AMFEndpoint;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.ErrorMessage;
+import flex.messaging.messages.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FlexClientPushTest {
+    private static final String ENDPOINT_ID = "amf";
+    private static final String SUBSCRIPTION_ID = "subscription";
+
+    private FlexClientManager flexClientManager;
+    private AMFEndpoint endpoint;
+    private FlexClient flexClient;
+    private MessageClient messageClient;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        flexClientManager = new FlexClientManager(broker);
+        flexClientManager.start();
+
+        endpoint = new AMFEndpoint();
+        endpoint.setId(ENDPOINT_ID);
+        endpoint.setUrl("http://localhost/messagebroker/amf");
+        endpoint.setMessageBroker(broker);
+
+        flexClient = flexClientManager.getFlexClient("client");
+        FlexContext.setThreadLocalObjects(flexClient, new TestSession(), broker);
+    }
+
+    @After
+    public void tearDown() {
+        FlexContext.clearThreadLocalObjects();
+        flexClientManager.stop();
+    }
+
+    @Test
+    public void testPushDropsOldestMessagesBeyondLimit() {
+        endpoint.setOutboundQueueLimit(new OutboundQueueLimit(3, 0, OutboundQueueLimit.DROP_OLDEST));
+        subscribe();
+
+        for (int i = 1; i <= 5; i++)
+            flexClient.push(message(null, i), messageClient);
+
+        assertBodies(flexClient.poll(ENDPOINT_ID).getMessages(), 3, 4, 5);
+        Assert.assertEquals(2, flexClient.getDroppedMessageCount());
+        Assert.assertEquals(2, flexClientManager.getDroppedMessageCount());
+    }
+
+    @Test
+    public void testConflatedPushesDoNotGrowEstimatedSize() {
+        endpoint.setFlexClientOutboundQueueProcessorClass(ConflatingOutboundQueueProcessor.class);
+        long size = OutboundQueueLimit.estimateSize(message("IBM", 0));
+        endpoint.setOutboundQueueLimit(new OutboundQueueLimit(0, size * 3, OutboundQueueLimit.DROP_OLDEST));
+        subscribe();
+
+        // Each update replaces the queued one, so the queue holds a single message throughout.
+        for (int i = 1; i <= 20; i++)
+            flexClient.push(message("IBM", i), messageClient);
+        flexClient.push(message("MSFT", 21), messageClient);
+
+        assertBodies(flexClient.poll(ENDPOINT_ID).getMessages(), 20, 21);
+        Assert.assertEquals(0, flexClient.getDroppedMessageCount());
+    }
+
+    @Test
+    public void testStreamedBacklogDropsOldestMessagesBeyondLimit() {
+        endpoint.setOutboundQueueLimit(new OutboundQueueLimit(3, 0, OutboundQueueLimit.DROP_OLDEST));
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        subscribe();
+
+        // Each push is handed to the notifier at once; the client has not read any of them.
+        for (int i = 1; i <= 5; i++)
+            flexClient.push(message(null, i), messageClient);
+
+        assertBodies(notifier.drainMessages(), 3, 4, 5);
+        Assert.assertEquals(2, flexClient.getDroppedMessageCount());
+
+        // The limit applies again to messages pushed after the client caught up.
+        for (int i = 6; i <= 9; i++)
+            flexClient.push(message(null, i), messageClient);
+        assertBodies(notifier.drainMessages(), 7, 8, 9);
+        Assert.assertEquals(3, flexClient.getDroppedMessageCount());
+    }
+
+    @Test
+    public void testStreamedBacklogDisconnectsSlowConsumer() {
+        endpoint.setOutboundQueueLimit(new OutboundQueueLimit(3, 0, OutboundQueueLimit.DISCONNECT));
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        subscribe();
+
+        for (int i = 1; i <= 4; i++)
+            flexClient.push(message(null, i), messageClient);
+
+        List<? extends Message> messages = notifier.drainMessages();
+        Assert.assertEquals(1, messages.size());
+        ErrorMessage error = (ErrorMessage) messages.get(0);
+        Assert.assertEquals(OutboundQueueLimit.SLOW_CONSUMER_FAULT_CODE, error.faultCode);
+        Assert.assertEquals(SUBSCRIPTION_ID, error.getClientId());
+        Assert.assertEquals(4, flexClient.getDroppedMessageCount());
+        Assert.assertEquals(1, flexClientManager.getSlowConsumerDisconnectCount());
+    }
+
+    @Test
+    public void testBatchIsHeldUntilLingerElapses() throws InterruptedException {
+        batch(100, 10);
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        subscribe();
+
+        flexClient.push(message(null, 1), messageClient);
+        flexClient.push(message(null, 2), messageClient);
+        Assert.assertEquals(0, notifier.getPendingMessageCount());
+
+        waitForPendingMessages(notifier, 2);
+        assertBodies(notifier.drainMessages(), 1, 2);
+
+        FlushResult flushResult = lastFlushResult();
+        Assert.assertEquals(2, flushResult.getBatchQueuedCount());
+        Assert.assertFalse(flushResult.isBatchFull());
+        Assert.assertTrue(flushResult.getBatchLingerMillis() >= 100);
+    }
+
+    @Test
+    public void testFullBatchIsFlushedBeforeLingerElapses() {
+        batch(60000, 3);
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        subscribe();
+
+        flexClient.push(message(null, 1), messageClient);
+        flexClient.push(message(null, 2), messageClient);
+        Assert.assertEquals(0, notifier.getPendingMessageCount());
+
+        flexClient.push(message(null, 3), messageClient);
+        assertBodies(notifier.drainMessages(), 1, 2, 3);
+
+        FlushResult flushResult = lastFlushResult();
+        Assert.assertEquals(3, flushResult.getBatchQueuedCount());
+        Assert.assertTrue(flushResult.isBatchFull());
+        Assert.assertTrue(flushResult.getBatchLingerMillis() < 60000);
+
+        // The next message starts a new batch.
+        flexClient.push(message(null, 4), messageClient);
+        Assert.assertEquals(0, notifier.getPendingMessageCount());
+    }
+
+    @Test
+    public void testPollFlushesLingeringBatch() {
+        batch(60000, 10);
+        subscribe();
+
+        flexClient.push(message(null, 1), messageClient);
+        flexClient.push(message(null, 2), messageClient);
+
+        FlushResult flushResult = flexClient.poll(ENDPOINT_ID);
+        assertBodies(flushResult.getMessages(), 1, 2);
+        Assert.assertEquals(2, flushResult.getBatchQueuedCount());
+        Assert.assertFalse(flushResult.isBatchFull());
+        Assert.assertTrue(flushResult.getBatchLingerMillis() < 60000);
+    }
+
+    private void batch(int lingerMillis, int maxBatchSize) {
+        ConfigMap properties = new ConfigMap();
+        properties.addProperty("linger-millis", String.valueOf(lingerMillis));
+        properties.addProperty("max-batch-size", String.valueOf(maxBatchSize));
+        endpoint.setFlexClientOutboundQueueProcessorConfig(properties);
+        endpoint.setFlexClientOutboundQueueProcessorClass(RecordingOutboundQueueProcessor.class);
+    }
+
+    private FlushResult lastFlushResult() {
+        return ((RecordingOutboundQueueProcessor) flexClient.getOutboundQueueProcessor(ENDPOINT_ID)).lastFlushResult;
+    }
+
+    private static void waitForPendingMessages(EndpointPushNotifier notifier, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (notifier.getPendingMessageCount() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(count, notifier.getPendingMessageCount());
+    }
+
+    private void subscribe() {
+        MessageDestination destination = new MessageDestination();
+        destination.setId("topic");
+        messageClient = new MessageClient(SUBSCRIPTION_ID, destination, ENDPOINT_ID);
+    }
+
+    private static AsyncMessage message(String key, int body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setDestination("topic");
+        message.setClientId(SUBSCRIPTION_ID);
+        if (key != null)
+            message.setHeader(ConflatingOutboundQueueProcessor.CONFLATION_KEY_HEADER, key);
+        message.setBody(body);
+        return message;
+    }
+
+    private static void assertBodies(List<? extends Message> messages, int... bodies) {
+        Assert.assertEquals(bodies.length, messages.size());
+        for (int i = 0; i < bodies.length; i++)
+            Assert.assertEquals(bodies[i], messages.get(i).getBody());
+    }
+
+    /**
+     * Keeps the result of the last flush, whose batch statistics are filled in by the FlexClient.
+     */
+    public static class RecordingOutboundQueueProcessor extends FlexClientOutboundQueueProcessor {
+        volatile FlushResult lastFlushResult;
+
+        @Override
+        public FlushResult flush(MessageClient client, List<Message> outboundQueue) {
+            FlushResult flushResult = super.flush(client, outboundQueue);
+            lastFlushResult = flushResult;
+            return flushResult;
+        }
+    }
+
+    private static class TestSession extends FlexSession {
+        public boolean isPushSupported() {
+            return false;
+        }
+
+        public String getId() {
+            return "test-session";
+        }
+    }
+}
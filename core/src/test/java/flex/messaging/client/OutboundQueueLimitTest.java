@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.client;
+
+import flex.messaging.config.ConfigurationException;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class OutboundQueueLimitTest {
+
+    @Test
+    public void testDropOldest() {
+        OutboundQueueLimit limit = new OutboundQueueLimit(3, 0, OutboundQueueLimit.DROP_OLDEST);
+        List<Message> queue = queue(1, 2, 3);
+        Assert.assertTrue(limit.trim(queue, queue.get(2), 0, null).isEmpty());
+
+        Message added = message("sub1", null, 4);
+        queue.add(added);
+        List<Message> dropped = limit.trim(queue, added, 0, null);
+
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertEquals(1, dropped.get(0).getBody());
+        assertBodies(queue, 2, 3, 4);
+    }
+
+    @Test
+    public void testDropNewest() {
+        OutboundQueueLimit limit = new OutboundQueueLimit(3, 0, OutboundQueueLimit.DROP_NEWEST);
+        List<Message> queue = queue(1, 2, 3);
+        Message added = message("sub1", null, 4);
+        queue.add(added);
+        List<Message> dropped = limit.trim(queue, added, 0, null);
+
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertSame(added, dropped.get(0));
+        assertBodies(queue, 1, 2, 3);
+    }
+
+    @Test
+    public void testConflateRemovesSupersededMessagesFirst() {
+        OutboundQueueLimit limit = new OutboundQueueLimit(3, 0, OutboundQueueLimit.CONFLATE);
+        List<Message> queue = new ArrayList<Message>();
+        queue.add(message("sub1", null, 1));
+        queue.add(message("sub1", "IBM", 2));
+        queue.add(message("sub1", "MSFT", 3));
+        Message added = message("sub1", "IBM", 4);
+        queue.add(added);
+
+        List<Message> dropped = limit.trim(queue, added, 0, null);
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertEquals(2, dropped.get(0).getBody());
+        assertBodies(queue, 1, 3, 4);
+
+        // Without superseded messages the oldest are dropped.
+        added = message("sub2", "IBM", 5);
+        queue.add(added);
+        dropped = limit.trim(queue, added, 0, null);
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertEquals(1, dropped.get(0).getBody());
+        assertBodies(queue, 3, 4, 5);
+    }
+
+    @Test
+    public void testConflateUsesKeyOfProcessor() {
+        ConflatingOutboundQueueProcessor processor = new ConflatingOutboundQueueProcessor();
+        processor.setConflationHeader("symbol");
+        OutboundQueueLimit limit = new OutboundQueueLimit(2, 0, OutboundQueueLimit.CONFLATE);
+        List<Message> queue = new ArrayList<Message>();
+        queue.add(message("sub1", "IBM", 1));
+        AsyncMessage keyed = (AsyncMessage)message("sub1", null, 2);
+        keyed.setHeader("symbol", "MSFT");
+        queue.add(keyed);
+        Message added = message("sub1", null, 3);
+        added.setHeader("symbol", "MSFT");
+        queue.add(added);
+
+        // The default header is not a key for this processor; the superseded MSFT
+        // message is dropped rather than the oldest one.
+        List<Message> dropped = limit.trim(queue, added, 0, processor);
+        Assert.assertEquals(1, dropped.size());
+        Assert.assertEquals(2, dropped.get(0).getBody());
+        assertBodies(queue, 1, 3);
+    }
+
+    @Test
+    public void testDropOldestRemovesSeveralMessages() {
+        OutboundQueueLimit limit = new OutboundQueueLimit(2, 0, OutboundQueueLimit.DROP_OLDEST);
+        List<Message> queue = queue(1, 2, 3, 4, 5);
+        List<Message> dropped = limit.trim(queue, queue.get(4), 0, null);
+
+        Assert.assertEquals(3, dropped.size());
+        assertBodies(dropped, 1, 2, 3);
+        assertBodies(queue, 4, 5);
+    }
+
+    @Test
+    public void testRecordedSizeIsSharedWithCopies() {
+        AsyncMessage message = new AsyncMessage();
+        message.setBody(new String(new char[1000]));
+        long size = OutboundQueueLimit.recordEstimatedSize(message);
+        AsyncMessage copy = (AsyncMessage)message.clone();
+
+        // The copy reports the recorded size without walking its body again.
+        copy.setBody("x");
+        Assert.assertEquals(size, OutboundQueueLimit.estimateSize(copy));
+    }
+
+    @Test
+    public void testDisconnect() {
+        OutboundQueueLimit limit = new OutboundQueueLimit(2, 0, OutboundQueueLimit.DISCONNECT);
+        List<Message> queue = queue(1, 2, 3);
+        Assert.assertNull(limit.trim(queue, queue.get(2), 0, null));
+        Assert.assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void testByteLimit() {
+        List<Message> queue = queue(1, 2, 3);
+        long bytes = 0;
+        for (Message message : queue)
+            bytes += OutboundQueueLimit.estimateSize(message);
+        long size = OutboundQueueLimit.estimateSize(queue.get(0));
+
+        OutboundQueueLimit limit = new OutboundQueueLimit(0, size * 2, OutboundQueueLimit.DROP_OLDEST);
+        Assert.assertTrue(limit.isExceeded(queue.size(), bytes));
+        List<Message> dropped = limit.trim(queue, queue.get(2), bytes, null);
+        Assert.assertEquals(1, dropped.size());
+        assertBodies(queue, 2, 3);
+
+        // A single message that exceeds the limit is kept.
+        limit = new OutboundQueueLimit(0, 1, OutboundQueueLimit.DROP_OLDEST);
+        dropped = limit.trim(queue, queue.get(1), bytes, null);
+        Assert.assertEquals(1, dropped.size());
+        assertBodies(queue, 3);
+    }
+
+    @Test
+    public void testEstimateSize() {
+        AsyncMessage small = new AsyncMessage();
+        small.setBody("x");
+        AsyncMessage large = new AsyncMessage();
+        large.setBody(Arrays.asList(new String[] {new String(new char[1000]), new String(new char[1000])}));
+        AsyncMessage bytes = new AsyncMessage();
+        bytes.setBody(new byte[5000]);
+
+        Assert.assertTrue(OutboundQueueLimit.estimateSize(large) > 2000);
+        Assert.assertTrue(OutboundQueueLimit.estimateSize(bytes) > 5000);
+        Assert.assertTrue(OutboundQueueLimit.estimateSize(small) < OutboundQueueLimit.estimateSize(large));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testUnsupportedPolicy() {
+        new OutboundQueueLimit(10, 0, "drop-everything");
+    }
+
+    private static List<Message> queue(int... bodies) {
+        List<Message> queue = new ArrayList<Message>();
+        for (int body : bodies)
+            queue.add(message("sub1", null, body));
+        return queue;
+    }
+
+    private static Message message(String clientId, String key, int body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setClientId(clientId);
+        if (key != null)
+            message.setHeader(ConflatingOutboundQueueProcessor.CONFLATION_KEY_HEADER, key);
+        message.setBody(body);
+        return message;
+    }
+
+    private static void assertBodies(List<Message> queue, int... bodies) {
+        Assert.assertEquals(bodies.length, queue.size());
+        for (int i = 0; i < bodies.length; i++)
+            Assert.assertEquals(bodies[i], queue.get(i).getBody());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints;
+
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.MessageDestination;
+import flex.messaging.client.FlexClient;
+import flex.messaging.client.FlexClientManager;
+import flex.messaging.client.FlushResult;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncPollingEndpointTest {
+    private static final String ENDPOINT_ID = "async-polling-amf";
+
+    private FlexClientManager flexClientManager;
+    private AsyncAMFPollingEndpoint endpoint;
+    private FlexClient flexClient;
+    private MessageClient messageClient;
+    private TestRequest request;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        flexClientManager = new FlexClientManager(broker);
+        flexClientManager.start();
+
+        endpoint = new AsyncAMFPollingEndpoint();
+        endpoint.setId(ENDPOINT_ID);
+        endpoint.setUrl("http://localhost/messagebroker/asyncamfpolling");
+        endpoint.setMessageBroker(broker);
+        endpoint.setWaitInterval(60000);
+
+        flexClient = flexClientManager.getFlexClient("client");
+        FlexContext.setThreadLocalObjects(flexClient, new TestSession(), broker);
+
+        MessageDestination destination = new MessageDestination();
+        destination.setId("topic");
+        messageClient = new MessageClient("subscription", destination, ENDPOINT_ID);
+
+        request = new TestRequest();
+        FlexContext.setThreadLocalHttpRequest(request.proxy());
+    }
+
+    @After
+    public void tearDown() {
+        FlexContext.clearThreadLocalObjects();
+        flexClientManager.stop();
+    }
+
+    @Test
+    public void testPushResumesParkedPoll() {
+        Assert.assertNull(poll());
+        Assert.assertTrue(request.actionContext.isResponseDeferred());
+        Assert.assertEquals(1, endpoint.getAsyncPollRequestsCount());
+        Assert.assertEquals(1, request.asyncContext.dispatches.getCount());
+
+        flexClient.push(message("update"), messageClient);
+
+        Assert.assertEquals(0, request.asyncContext.dispatches.getCount());
+        Assert.assertEquals(0, endpoint.getAsyncPollRequestsCount());
+
+        // The dispatched request writes the pushed message.
+        List<Message> messages = poll().getMessages();
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals("update", messages.get(0).getBody());
+    }
+
+    @Test
+    public void testParkedPollTimesOut() throws InterruptedException {
+        endpoint.setWaitInterval(50);
+
+        Assert.assertNull(poll());
+        Assert.assertTrue(request.asyncContext.dispatches.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, endpoint.getAsyncPollRequestsCount());
+
+        // Without a result the dispatched request falls back to a regular poll.
+        FlushResult flushResult = poll();
+        Assert.assertTrue(flushResult == null || flushResult.getMessages() == null
+                || flushResult.getMessages().isEmpty());
+
+        // Messages pushed after the timeout wait for the next poll.
+        flexClient.push(message("late"), messageClient);
+        Assert.assertEquals("late", poll().getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testUnsubscribeCompletesParkedPoll() {
+        Assert.assertNull(poll());
+
+        flexClient.unregisterMessageClient(messageClient);
+
+        Assert.assertEquals(0, request.asyncContext.dispatches.getCount());
+        Assert.assertEquals(0, endpoint.getAsyncPollRequestsCount());
+
+        // The client is told its subscription is gone rather than polling again.
+        List<Message> messages = poll().getMessages();
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(CommandMessage.SUBSCRIPTION_INVALIDATE_OPERATION,
+                ((CommandMessage) messages.get(0)).getOperation());
+    }
+
+    @Test
+    public void testConnectionErrorReleasesParkedPoll() throws IOException {
+        Assert.assertNull(poll());
+
+        request.asyncContext.listener.onError(null);
+
+        Assert.assertEquals(0, request.asyncContext.dispatches.getCount());
+        Assert.assertEquals(0, endpoint.getAsyncPollRequestsCount());
+
+        // The poll is no longer parked, so pushed messages stay queued.
+        flexClient.push(message("queued"), messageClient);
+        FlushResult flushResult = poll();
+        Assert.assertEquals("queued", flushResult.getMessages().get(0).getBody());
+    }
+
+    private FlushResult poll() {
+        return endpoint.handleFlexClientPoll(flexClient, new CommandMessage(CommandMessage.POLL_OPERATION));
+    }
+
+    private static AsyncMessage message(Object body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setClientId("subscription");
+        message.setBody(body);
+        return message;
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == int.class)
+            return Integer.valueOf(0);
+        if (type == long.class)
+            return Long.valueOf(0);
+        return null;
+    }
+
+    /**
+     * A request that supports async processing and has gone through the endpoint's filter chain.
+     */
+    private static class TestRequest implements InvocationHandler {
+        final ActionContext actionContext = new ActionContext();
+        final TestAsyncContext asyncContext = new TestAsyncContext();
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        TestRequest() {
+            attributes.put(BaseHTTPEndpoint.REQUEST_ATTR_ACTION_CONTEXT, actionContext);
+        }
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {HttpServletRequest.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("isAsyncSupported"))
+                return Boolean.TRUE;
+            if (name.equals("startAsync"))
+                return asyncContext.proxy();
+            if (name.equals("getAttribute"))
+                return attributes.get(args[0]);
+            if (name.equals("setAttribute"))
+                attributes.put((String) args[0], args[1]);
+            else if (name.equals("removeAttribute"))
+                attributes.remove(args[0]);
+            return defaultValue(method);
+        }
+    }
+
+    private static class TestAsyncContext implements InvocationHandler {
+        final CountDownLatch dispatches = new CountDownLatch(1);
+        volatile AsyncListener listener;
+
+        AsyncContext proxy() {
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {AsyncContext.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("addListener"))
+                listener = (AsyncListener) args[0];
+            else if (method.getName().equals("dispatch")) {
+                if (dispatches.getCount() == 0)
+                    throw new IllegalStateException("Already dispatched");
+                dispatches.countDown();
+            }
+            return defaultValue(method);
+        }
+    }
+
+    private static class TestSession extends FlexSession {
+        public boolean isPushSupported() {
+            return false;
+        }
+
+        public String getId() {
+            return "test-session";
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints;
+
+import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.client.EndpointPushNotifier;
+import flex.messaging.client.FlexClient;
+import flex.messaging.client.FlexClientManager;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.util.HashedWheelTimer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class AsyncStreamingConnectionTest {
+    private static final int MAX_PENDING_BYTES = 16;
+
+    private TestBroker broker;
+    private TestEndpoint endpoint;
+    private FlexClient flexClient;
+    private FlexSession session;
+    private TestOutputStream out;
+    private TestAsyncContext asyncContext;
+    private TestExecutor writers;
+
+    @Before
+    public void setUp() {
+        broker = new TestBroker();
+        endpoint = new TestEndpoint();
+        endpoint.setId("async-streaming-amf");
+        endpoint.setUrl("http://localhost/messagebroker/asyncstreamingamf");
+        endpoint.setMessageBroker(broker);
+        flexClient = new FlexClient(new FlexClientManager(broker), "client");
+        session = new TestSession();
+        out = new TestOutputStream();
+        asyncContext = new TestAsyncContext();
+        writers = new TestExecutor();
+    }
+
+    @Test
+    public void testBackloggedMessagesStayWithNotifier() throws IOException {
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        AsyncStreamingConnection connection = startConnection(notifier);
+
+        out.ready = false;
+        push(notifier, "first message");
+        writers.runAll();
+        push(notifier, "second message");
+        writers.runAll();
+
+        // The first chunk waits for the client, so the second message is not serialized.
+        Assert.assertEquals(0, out.bytes.size());
+        Assert.assertEquals(1, endpoint.streamed.size());
+
+        out.ready = true;
+        connection.onWritePossible();
+        writers.runAll();
+
+        Assert.assertEquals(2, endpoint.streamed.size());
+        Assert.assertTrue(out.bytes.toString("ASCII").contains("second message"));
+        Assert.assertFalse(asyncContext.completed);
+    }
+
+    @Test
+    public void testClosedNotifierEndsBackloggedConnection() throws IOException {
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        AsyncStreamingConnection connection = startConnection(notifier);
+
+        out.ready = false;
+        push(notifier, "first message");
+        writers.runAll();
+        push(notifier, "second message");
+        writers.runAll();
+        notifier.close();
+        writers.runAll();
+
+        out.ready = true;
+        connection.onWritePossible();
+
+        Assert.assertTrue(asyncContext.completed);
+        Assert.assertEquals(1, endpoint.streamed.size());
+        // The final chunk follows the pending message.
+        Assert.assertTrue(out.bytes.toString("ASCII").endsWith("0\r\n"));
+    }
+
+    @Test
+    public void testCloseCompletesConnection() {
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        AsyncStreamingConnection connection = startConnection(notifier);
+
+        connection.close();
+
+        Assert.assertTrue(asyncContext.completed);
+        Assert.assertTrue(notifier.isClosed());
+        Assert.assertEquals(0, out.bytes.size());
+    }
+
+    @Test
+    public void testRejectedResumeFinishesConnection() throws IOException {
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        AsyncStreamingConnection connection = startConnection(notifier);
+
+        out.ready = false;
+        push(notifier, "first message");
+        writers.runAll();
+        push(notifier, "second message");
+        writers.runAll();
+
+        // As when the endpoint stops while the client is behind.
+        writers.shutdown = true;
+        out.ready = true;
+        connection.onWritePossible();
+
+        Assert.assertTrue(asyncContext.completed);
+    }
+
+    @Test
+    public void testStopCompletesConnections() {
+        broker.running = true;
+        endpoint.start();
+        Assert.assertTrue(endpoint.isStarted());
+        EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+        out.ready = false;
+        Assert.assertTrue(endpoint.startAsyncStreaming(request(), out, flexClient, session, notifier));
+
+        endpoint.stop();
+
+        Assert.assertTrue(asyncContext.completed);
+        Assert.assertTrue(notifier.isClosed());
+    }
+
+    @Test
+    public void testIdleConnectionWritesHeartbeats() throws InterruptedException {
+        broker.running = true;
+        endpoint.setServerToClientHeartbeatMillis(20);
+        endpoint.start();
+        try {
+            EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+            Assert.assertTrue(endpoint.startAsyncStreaming(request(), out, flexClient, session, notifier));
+
+            waitForBytes(3);
+
+            for (byte b : out.bytes.toByteArray())
+                Assert.assertEquals(0, b);
+            Assert.assertFalse(asyncContext.completed);
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    @Test
+    public void testClosedConnectionStopsHeartbeats() throws InterruptedException {
+        HashedWheelTimer heartbeatTimer = new HashedWheelTimer(null, 1, 64);
+        try {
+            EndpointPushNotifier notifier = new EndpointPushNotifier(endpoint, flexClient);
+            AsyncStreamingConnection connection = new AsyncStreamingConnection(endpoint, asyncContext.proxy(), out,
+                    flexClient, session, notifier, writers, MAX_PENDING_BYTES, heartbeatTimer, 20);
+            connection.start();
+            waitForBytes(1);
+
+            connection.close();
+            int written = out.bytes.size();
+            Thread.sleep(100);
+
+            Assert.assertEquals(written, out.bytes.size());
+            Assert.assertEquals(0, heartbeatTimer.size());
+        } finally {
+            heartbeatTimer.shutdown();
+        }
+    }
+
+    private AsyncStreamingConnection startConnection(EndpointPushNotifier notifier) {
+        AsyncStreamingConnection connection = new AsyncStreamingConnection(endpoint, asyncContext.proxy(), out,
+                flexClient, session, notifier, writers, MAX_PENDING_BYTES, null, 0);
+        connection.start();
+        return connection;
+    }
+
+    private void waitForBytes(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (out.bytes.size() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        Assert.assertTrue(out.bytes.size() >= count);
+    }
+
+    private static void push(EndpointPushNotifier notifier, String body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setBody(body);
+        List<AsyncMessage> messages = new ArrayList<AsyncMessage>();
+        messages.add(message);
+        notifier.pushMessages(messages);
+    }
+
+    private HttpServletRequest request() {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("isAsyncSupported"))
+                            return Boolean.TRUE;
+                        if (method.getName().equals("startAsync"))
+                            return asyncContext.proxy();
+                        return defaultValue(method);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == int.class)
+            return Integer.valueOf(0);
+        if (type == long.class)
+            return Long.valueOf(0);
+        return null;
+    }
+
+    /**
+     * A broker that endpoints can be started in without starting its services.
+     */
+    private static class TestBroker extends MessageBroker {
+        boolean running;
+
+        TestBroker() {
+            super(false);
+        }
+
+        @Override
+        public boolean isStarted() {
+            return running;
+        }
+    }
+
+    /**
+     * Streams the body of each message as a chunk.
+     */
+    private static class TestEndpoint extends AsyncStreamingAMFEndpoint {
+        final List<Object> streamed = Collections.synchronizedList(new ArrayList<Object>());
+
+        @Override
+        protected void streamMessages(List messages, ServletOutputStream os, HttpServletResponse response)
+                throws IOException {
+            for (Object message : messages) {
+                Object body = ((AsyncMessage) message).getBody();
+                streamed.add(body);
+                streamChunk(String.valueOf(body).getBytes("ASCII"), os, response);
+            }
+        }
+    }
+
+    private static class TestAsyncContext implements InvocationHandler {
+        volatile boolean completed;
+        private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] {HttpServletResponse.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return defaultValue(method);
+                    }
+                });
+
+        AsyncContext proxy() {
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {AsyncContext.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getResponse"))
+                return response;
+            if (method.getName().equals("complete")) {
+                if (completed)
+                    throw new IllegalStateException("Already completed");
+                completed = true;
+            }
+            return defaultValue(method);
+        }
+    }
+
+    private static class TestOutputStream extends ServletOutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        volatile boolean ready = true;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+
+    /**
+     * Runs the writer tasks on the test thread.
+     */
+    private static class TestExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        boolean shutdown;
+
+        public void execute(Runnable task) {
+            if (shutdown)
+                throw new RejectedExecutionException("Shut down");
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty())
+                tasks.remove(0).run();
+        }
+    }
+
+    private static class TestSession extends FlexSession {
+        public boolean isPushSupported() {
+            return true;
+        }
+
+        public String getId() {
+            return "test-session";
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints.amf;
+
+import flex.messaging.FlexContext;
+import flex.messaging.MessageException;
+import flex.messaging.endpoints.AMFEndpoint;
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AmfMessageDeserializer;
+import flex.messaging.io.amf.AsyncResult;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.io.amf.ResponseOutputStream;
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.ErrorMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.RemotingMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncResultsTest {
+    private ActionContext context;
+    private RemotingMessage request;
+    private AcknowledgeMessage ack;
+    private MessageBody response;
+
+    @Before
+    public void setUp() {
+        context = new ActionContext();
+        context.setAsyncResultTimeoutMillis(50);
+        request = new RemotingMessage();
+        request.setMessageId("request-id");
+        request.setDestination("remoting");
+        ack = new AcknowledgeMessage();
+        response = new MessageBody("/1/onResult", null, ack);
+    }
+
+    @After
+    public void tearDown() {
+        FlexContext.clearThreadLocalObjects();
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testCompletedResultBecomesBody() {
+        CompletableFuture<String> future = CompletableFuture.completedFuture("result");
+        addResult(future);
+
+        AsyncResults.complete(context, false);
+
+        Assert.assertNull(context.getAsyncResults());
+        Assert.assertEquals("result", ack.getBody());
+        Assert.assertSame(ack, response.getData());
+        Assert.assertEquals(MessageIOConstants.RESULT_METHOD.substring(1), response.getReplyMethod());
+    }
+
+    @Test
+    public void testFailedResultBecomesError() {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        future.completeExceptionally(new IllegalArgumentException("bad input"));
+        addResult(future);
+
+        AsyncResults.complete(context, false);
+
+        ErrorMessage error = (ErrorMessage)response.getData();
+        Assert.assertEquals("Server.Processing", error.faultCode);
+        Assert.assertEquals("request-id", error.getCorrelationId());
+        Assert.assertTrue(error.faultString.contains("bad input"));
+        Assert.assertEquals(MessageIOConstants.STATUS_ERR, context.getStatus());
+        Assert.assertEquals(MessageIOConstants.STATUS_METHOD.substring(1), response.getReplyMethod());
+    }
+
+    @Test
+    public void testMessageExceptionIsPassedOn() {
+        MessageException exception = new MessageException("denied");
+        exception.setCode("Client.Denied");
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        future.completeExceptionally(exception);
+        addResult(future);
+
+        AsyncResults.complete(context, false);
+
+        Assert.assertEquals("Client.Denied", ((ErrorMessage)response.getData()).faultCode);
+    }
+
+    @Test
+    public void testPendingResultTimesOutWhenResumed() {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        addResult(future);
+
+        AsyncResults.complete(context, false);
+
+        Assert.assertEquals(AsyncResults.TIMEOUT_CODE, ((ErrorMessage)response.getData()).faultCode);
+        Assert.assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testWaitingForResultTimesOut() {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        addResult(future);
+
+        long start = System.currentTimeMillis();
+        AsyncResults.complete(context, true);
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 40);
+        Assert.assertEquals(AsyncResults.TIMEOUT_CODE, ((ErrorMessage)response.getData()).faultCode);
+    }
+
+    @Test
+    public void testRequestWithoutServletIsNotSuspended() {
+        addResult(new CompletableFuture<String>());
+
+        Assert.assertFalse(AsyncResults.suspend(context));
+        Assert.assertFalse(context.isResponseDeferred());
+    }
+
+    @Test
+    public void testSuspendedBatchIsSerializedOnceResultsComplete() throws Exception {
+        TestRequest servletRequest = new TestRequest();
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        RecordingBrokerFilter broker = new RecordingBrokerFilter();
+        SerializationFilter filter = new SerializationFilter(null);
+        filter.setNext(broker);
+
+        ActionContext first = servletRequest.service(filter, batch("sync", future));
+        Assert.assertTrue(first.isResponseDeferred());
+        Assert.assertEquals(0, servletRequest.written.size());
+        Assert.assertEquals(1, servletRequest.asyncContext.dispatches.getCount());
+
+        // Completing the last future dispatches the request back to the endpoint.
+        future.complete("async");
+        Assert.assertEquals(0, servletRequest.asyncContext.dispatches.getCount());
+
+        ActionContext resumed = servletRequest.service(filter, null);
+        Assert.assertSame(first, resumed);
+        Assert.assertFalse(resumed.isResponseDeferred());
+        Assert.assertEquals(1, broker.invocations.get());
+
+        ActionMessage decoded = servletRequest.decodeResponse();
+        Assert.assertEquals(2, decoded.getBodyCount());
+        Assert.assertEquals("sync", ((Message) decoded.getBody(0).getData()).getBody());
+        Assert.assertEquals("async", ((Message) decoded.getBody(1).getData()).getBody());
+    }
+
+    @Test
+    public void testSuspendedBatchTimesOut() throws Exception {
+        TestRequest servletRequest = new TestRequest();
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        RecordingBrokerFilter broker = new RecordingBrokerFilter();
+        SerializationFilter filter = new SerializationFilter(null);
+        filter.setNext(broker);
+
+        ActionContext first = servletRequest.service(filter, batch("sync", future));
+        Assert.assertTrue(first.isResponseDeferred());
+
+        // The container times the request out before the future completes.
+        servletRequest.asyncContext.listener.onTimeout(null);
+        Assert.assertEquals(0, servletRequest.asyncContext.dispatches.getCount());
+
+        servletRequest.service(filter, null);
+        Assert.assertEquals(1, broker.invocations.get());
+        Assert.assertTrue(future.isCancelled());
+
+        ActionMessage decoded = servletRequest.decodeResponse();
+        Assert.assertEquals(2, decoded.getBodyCount());
+        Assert.assertEquals("sync", ((Message) decoded.getBody(0).getData()).getBody());
+        ErrorMessage error = (ErrorMessage) decoded.getBody(1).getData();
+        Assert.assertEquals(AsyncResults.TIMEOUT_CODE, error.faultCode);
+        Assert.assertEquals("future-id", error.getCorrelationId());
+    }
+
+    private static ActionMessage batch(Object syncBody, Future<?> future) {
+        ActionMessage message = new ActionMessage(MessageIOConstants.AMF3);
+        message.addBody(new MessageBody(null, "/1", requestMessage("sync-id", syncBody)));
+        message.addBody(new MessageBody(null, "/2", requestMessage("future-id", future)));
+        return message;
+    }
+
+    private static AsyncMessage requestMessage(String messageId, Object body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setMessageId(messageId);
+        message.setDestination("remoting");
+        message.setBody(body);
+        return message;
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == int.class)
+            return Integer.valueOf(0);
+        if (type == long.class)
+            return Long.valueOf(0);
+        return null;
+    }
+
+    private void addResult(Future<?> future) {
+        ack.setBody(future);
+        context.addAsyncResult(new AsyncResult(request, ack, response, future));
+    }
+
+    /**
+     * Answers each message with its body, and with a result to complete later if
+     * the body is a future, as the MessageBrokerFilter does for a service that
+     * returns a future.
+     */
+    private static class RecordingBrokerFilter extends AMFFilter {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public void invoke(ActionContext context) {
+            invocations.incrementAndGet();
+            ActionMessage requestMessage = context.getRequestMessage();
+            for (int i = 0; i < requestMessage.getBodyCount(); i++) {
+                MessageBody requestBody = requestMessage.getBody(i);
+                Message request = (Message) requestBody.getData();
+                AcknowledgeMessage ack = new AcknowledgeMessage();
+                ack.setCorrelationId(request.getMessageId());
+                ack.setBody(request.getBody());
+                MessageBody responseBody = new MessageBody(requestBody.getResponseURI() + "/onResult", null, ack);
+                context.getResponseMessage().addBody(responseBody);
+                if (request.getBody() instanceof Future)
+                    context.addAsyncResult(new AsyncResult(request, ack, responseBody, (Future<?>) request.getBody()));
+            }
+        }
+    }
+
+    /**
+     * Exposes how the endpoint creates the context of a request.
+     */
+    private static class TestEndpoint extends AMFEndpoint {
+        ActionContext actionContext(HttpServletRequest request) {
+            return createActionContext(request);
+        }
+    }
+
+    /**
+     * A request that supports async processing, and is serviced by the endpoint
+     * again once it is dispatched.
+     */
+    private static class TestRequest implements InvocationHandler {
+        final TestAsyncContext asyncContext = new TestAsyncContext();
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final TestEndpoint endpoint = new TestEndpoint();
+        private ActionContext context;
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {HttpServletRequest.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("isAsyncSupported"))
+                return Boolean.TRUE;
+            if (name.equals("startAsync"))
+                return asyncContext.proxy();
+            if (name.equals("getAttribute"))
+                return attributes.get(args[0]);
+            if (name.equals("setAttribute"))
+                attributes.put((String) args[0], args[1]);
+            else if (name.equals("removeAttribute"))
+                attributes.remove(args[0]);
+            return defaultValue(method);
+        }
+
+        /**
+         * Services the request the way the endpoint does, with the given request
+         * message when it first arrives.
+         */
+        ActionContext service(SerializationFilter filter, ActionMessage requestMessage) throws IOException {
+            HttpServletRequest request = proxy();
+            FlexContext.setThreadLocalHttpRequest(request);
+            context = endpoint.actionContext(request);
+            if (requestMessage != null) {
+                context.setRequestMessage(requestMessage);
+                context.setVersion(MessageIOConstants.AMF3);
+            }
+            context.setResponseStream(new ResponseOutputStream(1 << 20) {
+                @Override
+                protected OutputStream openTarget() {
+                    return written;
+                }
+            });
+            filter.invoke(context);
+            if (!context.isResponseDeferred()) {
+                ByteArrayOutputStream output = context.getResponseOutput();
+                if (output != null)
+                    output.writeTo(written);
+                else
+                    context.getResponseStream().writeTo(written);
+            }
+            context.getResponseStream().release();
+            return context;
+        }
+
+        ActionMessage decodeResponse() throws Exception {
+            AmfMessageDeserializer deserializer = new AmfMessageDeserializer();
+            deserializer.initialize(SerializationContext.getSerializationContext(),
+                    new ByteArrayInputStream(written.toByteArray()), null);
+            ActionMessage decoded = new ActionMessage();
+            ActionContext decodeContext = new ActionContext();
+            decodeContext.setRequestMessage(decoded);
+            deserializer.readMessage(decoded, decodeContext);
+            return decoded;
+        }
+    }
+
+    private static class TestAsyncContext implements InvocationHandler {
+        final CountDownLatch dispatches = new CountDownLatch(1);
+        volatile AsyncListener listener;
+
+        AsyncContext proxy() {
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {AsyncContext.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("addListener"))
+                listener = (AsyncListener) args[0];
+            else if (method.getName().equals("dispatch")) {
+                if (dispatches.getCount() == 0)
+                    throw new IllegalStateException("Already dispatched");
+                dispatches.countDown();
+            }
+            return defaultValue(method);
+        }
+    }
+}
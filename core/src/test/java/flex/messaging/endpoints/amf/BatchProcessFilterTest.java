@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints.amf;
+
+import flex.messaging.FlexContext;
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageDestination;
+import flex.messaging.endpoints.AMFEndpoint;
+import flex.messaging.endpoints.Endpoint;
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.TypeMarshaller;
+import flex.messaging.io.TypeMarshallingContext;
+import flex.messaging.io.amf.translator.ASTranslator;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.io.amf.MessageHeader;
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.MessagePerformanceInfo;
+import flex.messaging.messages.MessagePerformanceUtils;
+import flex.messaging.messages.RemotingMessage;
+import flex.messaging.services.MessageService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BatchProcessFilterTest {
+    private static final int BODIES = 4;
+    private static final String PARALLEL_DESTINATION = "parallel";
+    private static final String SEQUENTIAL_DESTINATION = "sequential";
+
+    private ExecutorService executor;
+    private Endpoint endpoint;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(BODIES);
+        endpoint = new AMFEndpoint();
+        FlexContext.setThreadLocalEndpoint(endpoint);
+
+        MessageBroker broker = new MessageBroker(false);
+        MessageService service = new MessageService();
+        service.setId("service");
+        broker.addService(service);
+        MessageDestination parallel = new MessageDestination();
+        parallel.setId(PARALLEL_DESTINATION);
+        parallel.setParallelBatch(true);
+        parallel.setService(service);
+        MessageDestination sequential = new MessageDestination();
+        sequential.setId(SEQUENTIAL_DESTINATION);
+        sequential.setService(service);
+        FlexContext.setThreadLocalMessageBroker(broker);
+        SerializationContext.setSerializationContext(new SerializationContext());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        FlexContext.clearThreadLocalObjects();
+        SerializationContext.clearThreadLocalObjects();
+        TypeMarshallingContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testRemotingBatchIsProcessedInParallel() throws Exception {
+        RecordingFilter recorder = new RecordingFilter(new CountDownLatch(BODIES));
+        BatchProcessFilter filter = new BatchProcessFilter(executor);
+        filter.setNext(recorder);
+
+        ActionContext context = createContext(BODIES, false, PARALLEL_DESTINATION);
+        filter.invoke(context);
+
+        // Every body waited for all the others, so they must have run at the same time.
+        Assert.assertEquals(BODIES, recorder.threads.size());
+        Assert.assertEquals(BODIES, context.getMessageNumber());
+        Assert.assertEquals(MessageIOConstants.STATUS_ERR, context.getStatus());
+        ActionMessage response = context.getResponseMessage();
+        Assert.assertEquals(BODIES, response.getBodyCount());
+        for (int i = 0; i < BODIES; i++) {
+            Assert.assertEquals("/" + i + MessageIOConstants.RESULT_METHOD, response.getBody(i).getTargetURI());
+            Assert.assertEquals("result-" + i, response.getBody(i).getData());
+        }
+        Assert.assertEquals(BODIES, response.getHeaderCount());
+        Assert.assertTrue(recorder.failures.isEmpty());
+    }
+
+    @Test
+    public void testBatchWithCommandIsProcessedInSequence() throws Exception {
+        RecordingFilter recorder = new RecordingFilter(null);
+        BatchProcessFilter filter = new BatchProcessFilter(executor);
+        filter.setNext(recorder);
+
+        ActionContext context = createContext(BODIES, true, PARALLEL_DESTINATION);
+        filter.invoke(context);
+
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), recorder.threads);
+        for (int i = 0; i < BODIES; i++)
+            Assert.assertEquals("result-" + i, context.getResponseMessage().getBody(i).getData());
+    }
+
+    @Test
+    public void testFilterWithoutExecutorProcessesInSequence() throws Exception {
+        RecordingFilter recorder = new RecordingFilter(null);
+        BatchProcessFilter filter = new BatchProcessFilter();
+        filter.setNext(recorder);
+
+        filter.invoke(createContext(BODIES, false, PARALLEL_DESTINATION));
+
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), recorder.threads);
+    }
+
+    @Test
+    public void testBatchToDestinationWithoutParallelBatchIsProcessedInSequence() throws Exception {
+        RecordingFilter recorder = new RecordingFilter(null);
+        BatchProcessFilter filter = new BatchProcessFilter(executor);
+        filter.setNext(recorder);
+
+        filter.invoke(createContext(BODIES, false, SEQUENTIAL_DESTINATION));
+
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), recorder.threads);
+    }
+
+    @Test
+    public void testParallelBodiesShareOutgoingMPI() throws Exception {
+        RecordingFilter recorder = new RecordingFilter(new CountDownLatch(BODIES));
+        BatchProcessFilter filter = new BatchProcessFilter(executor);
+        filter.setNext(recorder);
+
+        ActionContext context = createContext(BODIES, false, PARALLEL_DESTINATION);
+        context.setRecordMessageTimes(true);
+        filter.invoke(context);
+
+        Assert.assertEquals(BODIES, recorder.threads.size());
+        MessagePerformanceInfo mpio = context.getMPIO();
+        Assert.assertNotNull(mpio);
+        for (int i = 0; i < BODIES; i++) {
+            Message response = (Message) context.getResponseMessage().getBody(i).getData();
+            Assert.assertEquals("result-" + i, response.getBody());
+            Assert.assertSame(mpio, MessagePerformanceUtils.getMPIO(response));
+        }
+    }
+
+    @Test
+    public void testWorkerThreadStateIsClearedAfterBodies() throws Exception {
+        final TypeMarshaller marshaller = new ASTranslator();
+        TypeMarshallingContext.setTypeMarshaller(marshaller);
+        RecordingFilter recorder = new RecordingFilter(new CountDownLatch(BODIES));
+        recorder.typeMarshaller = marshaller;
+        BatchProcessFilter filter = new BatchProcessFilter(executor);
+        filter.setNext(recorder);
+
+        filter.invoke(createContext(BODIES, false, PARALLEL_DESTINATION));
+        Assert.assertEquals(BODIES, recorder.threads.size());
+        Assert.assertTrue(recorder.failures.isEmpty());
+
+        // Run a task on every pooled thread, which must not see the state of the request.
+        final CountDownLatch started = new CountDownLatch(BODIES);
+        List<Future<String>> leaks = new ArrayList<Future<String>>();
+        for (int i = 0; i < BODIES; i++) {
+            leaks.add(executor.submit(new Callable<String>() {
+                public String call() throws InterruptedException {
+                    started.countDown();
+                    started.await(5, TimeUnit.SECONDS);
+                    if (FlexContext.getEndpoint() != null)
+                        return "endpoint";
+                    if (TypeMarshallingContext.getTypeMarshaller() == marshaller)
+                        return "type marshaller";
+                    return null;
+                }
+            }));
+        }
+        for (Future<String> leak : leaks)
+            Assert.assertNull(leak.get(5, TimeUnit.SECONDS));
+    }
+
+    private ActionContext createContext(int bodies, boolean withCommand, String destination) {
+        ActionMessage request = new ActionMessage();
+        for (int i = 0; i < bodies; i++) {
+            Message message = withCommand && i == 1 ? new CommandMessage() : new RemotingMessage();
+            message.setMessageId(String.valueOf(i));
+            message.setDestination(destination);
+            message.setHeader(Message.FLEX_CLIENT_ID_HEADER, "client-id");
+            request.addBody(new MessageBody(null, "/" + i, new Object[] {message}));
+        }
+        ActionContext context = new ActionContext();
+        context.setRequestMessage(request);
+        context.setResponseMessage(new ActionMessage());
+        return context;
+    }
+
+    private class RecordingFilter extends AMFFilter {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final Set<String> failures = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch started;
+        volatile TypeMarshaller typeMarshaller;
+
+        RecordingFilter(CountDownLatch started) {
+            this.started = started;
+        }
+
+        public void invoke(ActionContext context) throws IOException {
+            threads.add(Thread.currentThread());
+            if (FlexContext.getEndpoint() != endpoint)
+                failures.add("endpoint");
+            if (SerializationContext.getSerializationContext() == null)
+                failures.add("serialization context");
+            if (typeMarshaller != null && TypeMarshallingContext.getTypeMarshaller() != typeMarshaller)
+                failures.add("type marshaller");
+
+            if (started != null) {
+                started.countDown();
+                try {
+                    if (!started.await(5, TimeUnit.SECONDS))
+                        failures.add("not parallel");
+                } catch (InterruptedException e) {
+                    failures.add("interrupted");
+                }
+            }
+
+            Message message = context.getRequestMessageBody().getDataAsMessage();
+            MessageBody response = context.getResponseMessageBody();
+            if (context.isRecordMessageTimes()) {
+                AcknowledgeMessage ack = new AcknowledgeMessage();
+                ack.setBody("result-" + message.getMessageId());
+                MessagePerformanceUtils.updateOutgoingMPI(context, message, ack);
+                response.setData(ack);
+            } else {
+                response.setData("result-" + message.getMessageId());
+            }
+            response.setReplyMethod(MessageIOConstants.RESULT_METHOD);
+            context.getResponseMessage().addHeader(new MessageHeader("header-" + message.getMessageId(), false, null));
+            if (message.getMessageId().equals("2"))
+                context.setStatus(MessageIOConstants.STATUS_ERR);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.endpoints.amf;
+
+import flex.messaging.MessageException;
+import flex.messaging.io.MessageDeserializer;
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.MessageSerializer;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AmfMessageDeserializer;
+import flex.messaging.io.amf.AmfMessageSerializer;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.io.amf.ResponseOutputStream;
+import flex.messaging.io.amfx.AmfxMessageDeserializer;
+import flex.messaging.io.amfx.AmfxMessageSerializer;
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.ErrorMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.MessagePerformanceInfo;
+import flex.messaging.messages.MessagePerformanceUtils;
+import flex.messaging.util.UUIDUtils;
+import flex.messaging.validators.ClassDeserializationValidator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+public class SerializationFilterTest {
+    private SerializationContext context;
+
+    @Before
+    public void setUp() {
+        context = new SerializationContext();
+        ClassDeserializationValidator validator = new ClassDeserializationValidator();
+        validator.addAllowClassPattern("flex\\.messaging\\.messages\\.MessagePerformanceInfo");
+        validator.addAllowClassPattern("flex\\.messaging\\.endpoints\\.amf\\.SerializationFilterTest\\$SlowBean");
+        context.setDeserializationValidator(validator);
+        SerializationContext.setSerializationContext(context);
+    }
+
+    @After
+    public void tearDown() {
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testPatchAmf0MessageSize() throws Exception {
+        assertMessageSizePatched(new AmfMessageSerializer(), new AmfMessageDeserializer(), MessageIOConstants.AMF0);
+    }
+
+    @Test
+    public void testPatchAmf3MessageSize() throws Exception {
+        assertMessageSizePatched(new AmfMessageSerializer(), new AmfMessageDeserializer(), MessageIOConstants.AMF3);
+    }
+
+    @Test
+    public void testPatchAmfxMessageSize() throws Exception {
+        assertMessageSizePatched(new AmfxMessageSerializer(), new AmfxMessageDeserializer(), MessageIOConstants.AMF3);
+    }
+
+    @Test
+    public void testResponseOverheadAndSendTime() throws Exception {
+        final MessagePerformanceInfo mpio = new MessagePerformanceInfo();
+        mpio.recordMessageSizes = true;
+        mpio.recordMessageTimes = true;
+        mpio.overheadTime = 5;
+
+        final AcknowledgeMessage ack = new AcknowledgeMessage();
+        ack.setMessageId(UUIDUtils.createUUID());
+        ack.setBody(new SlowBean());
+        MessagePerformanceUtils.setMPIO(ack, mpio);
+
+        final ActionContext actionContext = new ActionContext();
+        actionContext.setRequestMessage(new ActionMessage(MessageIOConstants.AMF3));
+        actionContext.setVersion(MessageIOConstants.AMF3);
+        actionContext.setRecordMessageSizes(true);
+        actionContext.setRecordMessageTimes(true);
+        actionContext.setMPIO(mpio);
+
+        SerializationFilter filter = new SerializationFilter(null);
+        filter.setNext(new AMFFilter() {
+            @Override
+            public void invoke(ActionContext context) {
+                context.getResponseMessage().addBody(new MessageBody("/1/onResult", null, ack));
+            }
+        });
+        long start = System.currentTimeMillis();
+        filter.invoke(actionContext);
+
+        // The time spent serializing the response is added to its overhead
+        Assert.assertTrue(mpio.overheadTime >= 5 + SlowBean.DELAY);
+        Assert.assertTrue(mpio.sendTime >= start + SlowBean.DELAY);
+
+        byte[] encoded = actionContext.getResponseOutput().toByteArray();
+        AmfMessageDeserializer deserializer = new AmfMessageDeserializer();
+        deserializer.initialize(context, new ByteArrayInputStream(encoded), null);
+        ActionMessage decoded = new ActionMessage();
+        ActionContext decodeContext = new ActionContext();
+        decodeContext.setRequestMessage(decoded);
+        deserializer.readMessage(decoded, decodeContext);
+
+        MessagePerformanceInfo decodedMpio = MessagePerformanceUtils.getMPIO((Message) decoded.getBody(0).getData());
+        Assert.assertEquals(encoded.length, decodedMpio.messageSize);
+        Assert.assertEquals(mpio.overheadTime, decodedMpio.overheadTime);
+        Assert.assertEquals(mpio.sendTime, decodedMpio.sendTime);
+    }
+
+    @Test
+    public void testErrorResponseIsWrittenToResponseStream() throws Exception {
+        AcknowledgeMessage request = new AcknowledgeMessage();
+        request.setMessageId(UUIDUtils.createUUID());
+        ActionMessage requestMessage = new ActionMessage(MessageIOConstants.AMF3);
+        requestMessage.addBody(new MessageBody(null, "/1", request));
+
+        final AcknowledgeMessage ack = new AcknowledgeMessage();
+        ack.setBody(new FailingBean());
+
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ResponseOutputStream responseStream = new ResponseOutputStream(1 << 20) {
+            @Override
+            protected OutputStream openTarget() {
+                return target;
+            }
+        };
+        ActionContext actionContext = new ActionContext();
+        actionContext.setRequestMessage(requestMessage);
+        actionContext.setVersion(MessageIOConstants.AMF3);
+        actionContext.setResponseStream(responseStream);
+
+        SerializationFilter filter = new SerializationFilter(null);
+        filter.setNext(new AMFFilter() {
+            @Override
+            public void invoke(ActionContext context) {
+                context.getResponseMessage().addBody(new MessageBody("/1/onResult", null, ack));
+            }
+        });
+        filter.invoke(actionContext);
+
+        Assert.assertNull(actionContext.getResponseOutput());
+        Assert.assertFalse(responseStream.isCommitted());
+
+        AmfMessageDeserializer deserializer = new AmfMessageDeserializer();
+        deserializer.initialize(context, new ByteArrayInputStream(responseStream.toByteArray()), null);
+        ActionMessage decoded = new ActionMessage();
+        ActionContext decodeContext = new ActionContext();
+        decodeContext.setRequestMessage(decoded);
+        deserializer.readMessage(decoded, decodeContext);
+
+        Assert.assertEquals(1, decoded.getBodyCount());
+        ErrorMessage error = (ErrorMessage) decoded.getBody(0).getData();
+        Assert.assertEquals(request.getMessageId(), error.getCorrelationId());
+        responseStream.release();
+    }
+
+    @Test
+    public void testPatchWithoutPlaceholder() {
+        byte[] bytes = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        Assert.assertFalse(SerializationFilter.patchMessageSize(bytes, bytes.length, 42));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, bytes);
+    }
+
+    private void assertMessageSizePatched(MessageSerializer serializer, MessageDeserializer deserializer, int version)
+            throws Exception {
+        MessagePerformanceInfo mpio = new MessagePerformanceInfo();
+        mpio.recordMessageSizes = true;
+        mpio.messageSize = SerializationFilter.MESSAGE_SIZE_PLACEHOLDER;
+
+        AcknowledgeMessage ack = new AcknowledgeMessage();
+        ack.setMessageId(UUIDUtils.createUUID());
+        ack.setCorrelationId(UUIDUtils.createUUID());
+        ack.setBody("result");
+        MessagePerformanceUtils.setMPIO(ack, mpio);
+
+        ActionMessage message = new ActionMessage(version);
+        message.addBody(new MessageBody("/1/onResult", null, ack));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.setVersion(version);
+        serializer.initialize(context, bytes, null);
+        serializer.writeMessage(message);
+
+        byte[] encoded = bytes.toByteArray();
+        Assert.assertTrue(SerializationFilter.patchMessageSize(encoded, encoded.length, encoded.length));
+
+        deserializer.initialize(context, new ByteArrayInputStream(encoded), null);
+        ActionMessage decoded = new ActionMessage();
+        ActionContext actionContext = new ActionContext();
+        actionContext.setRequestMessage(decoded);
+        deserializer.readMessage(decoded, actionContext);
+
+        Message decodedAck = (Message) decoded.getBody(0).getData();
+        Assert.assertEquals(ack.getMessageId(), decodedAck.getMessageId());
+        Assert.assertEquals(encoded.length, MessagePerformanceUtils.getMPIO(decodedAck).messageSize);
+    }
+
+    /**
+     * A bean that fails to serialize.
+     */
+    public static class FailingBean implements Externalizable {
+        public void writeExternal(ObjectOutput out) {
+            throw new MessageException("Not serializable");
+        }
+
+        public void readExternal(ObjectInput in) {
+        }
+    }
+
+    /**
+     * A bean that takes a while to serialize.
+     */
+    public static class SlowBean {
+        static final long DELAY = 20;
+
+        public String getValue() {
+            try {
+                Thread.sleep(DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value";
+        }
+
+        public void setValue(String value) {
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import flex.messaging.io.amf.Amf3Input;
+import flex.messaging.io.amf.Amf3Output;
+import flex.messaging.validators.ClassDeserializationValidator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+
+public class GeneratedBeanProxyTest {
+
+    @Before
+    public void setUp() {
+        SerializationContext.setSerializationContext(new SerializationContext());
+    }
+
+    @After
+    public void tearDown() {
+        GeneratedBeanProxy.clearAccessors();
+        PropertyProxyRegistry.release();
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testPropertiesUseGeneratedAccessor() {
+        GeneratedBeanProxy proxy = new GeneratedBeanProxy();
+        Map<String, BeanProxy.BeanProperty> props = proxy.getBeanProperties(new Quote());
+        for (String name : new String[] {"symbol", "size", "price", "active", "tags", "venue"})
+            Assert.assertNotSame(name, BeanProxy.BeanProperty.class, props.get(name).getClass());
+        Assert.assertSame(props, proxy.getBeanProperties(new Quote()));
+    }
+
+    @Test
+    public void testGetAndSetMatchBeanProxy() {
+        Quote quote = new Quote();
+        GeneratedBeanProxy proxy = new GeneratedBeanProxy();
+        proxy.setValue(quote, "symbol", "IBM");
+        proxy.setValue(quote, "size", Integer.valueOf(300));
+        proxy.setValue(quote, "price", Double.valueOf(101.25));
+        proxy.setValue(quote, "active", Boolean.TRUE);
+        proxy.setValue(quote, "tags", new String[] {"a", "b"});
+        proxy.setValue(quote, "venue", "NYSE");
+
+        BeanProxy reflective = new BeanProxy();
+        for (Object name : reflective.getPropertyNames(quote))
+            Assert.assertEquals(reflective.getValue(quote, (String) name), proxy.getValue(quote, (String) name));
+        Assert.assertEquals("IBM", quote.getSymbol());
+        Assert.assertEquals(300, quote.getSize());
+        Assert.assertEquals(101.25, quote.getPrice(), 0);
+        Assert.assertTrue(quote.isActive());
+        Assert.assertArrayEquals(new String[] {"a", "b"}, quote.getTags());
+        Assert.assertEquals("NYSE", quote.venue);
+    }
+
+    @Test
+    public void testConvertedValuesAreAssigned() {
+        Quote quote = new Quote();
+        new GeneratedBeanProxy().setValue(quote, "size", "42");
+        Assert.assertEquals(42, quote.getSize());
+    }
+
+    @Test
+    public void testGetterExceptionIsWrapped() throws Exception {
+        Faulty faulty = new Faulty();
+        BeanProxy.BeanProperty bp = new GeneratedBeanProxy().getBeanProperties(faulty).get("broken");
+        Assert.assertNotSame(BeanProxy.BeanProperty.class, bp.getClass());
+        try {
+            bp.get(faulty);
+            Assert.fail("Expected the getter failure to be reported.");
+        } catch (InvocationTargetException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testNonPublicClassFallsBackToReflection() {
+        Hidden hidden = new Hidden();
+        GeneratedBeanProxy proxy = new GeneratedBeanProxy();
+        proxy.setValue(hidden, "name", "value");
+        Assert.assertEquals("value", proxy.getValue(hidden, "name"));
+        Assert.assertSame(BeanProxy.BeanProperty.class, proxy.getBeanProperties(hidden).get("name").getClass());
+    }
+
+    @Test
+    public void testRegistrySelectsGeneratedProxy() {
+        PropertyProxyRegistry registry = PropertyProxyRegistry.getRegistry();
+        Assert.assertFalse(PropertyProxyRegistry.getProxy(new Quote()) instanceof GeneratedBeanProxy);
+
+        registry.addGeneratedProxyClass(Quote.class.getName());
+        Assert.assertTrue(PropertyProxyRegistry.getProxy(new Quote()) instanceof GeneratedBeanProxy);
+        Assert.assertFalse(PropertyProxyRegistry.getProxy(new Faulty()) instanceof GeneratedBeanProxy);
+
+        registry.addGeneratedProxyPackage("flex.messaging");
+        Assert.assertTrue(PropertyProxyRegistry.getProxy(new Faulty()) instanceof GeneratedBeanProxy);
+        Assert.assertFalse(registry.isGeneratedProxyEnabled(String.class));
+
+        registry.clear();
+        Assert.assertFalse(registry.isGeneratedProxyEnabled(Quote.class));
+    }
+
+    @Test
+    public void testAmf3RoundTrip() throws Exception {
+        PropertyProxyRegistry.getRegistry().addGeneratedProxyClass(Quote.class.getName());
+        SerializationContext context = new SerializationContext();
+        ClassDeserializationValidator validator = new ClassDeserializationValidator();
+        validator.addAllowClassPattern("flex\\.messaging\\.io\\.GeneratedBeanProxyTest.*");
+        context.setDeserializationValidator(validator);
+        SerializationContext.setSerializationContext(context);
+
+        Quote quote = new Quote();
+        quote.setSymbol("IBM");
+        quote.setSize(7);
+        quote.venue = "LSE";
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(context);
+        output.setOutputStream(bytes);
+        output.writeObject(quote);
+        output.flush();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PropertyProxyRegistry.getRegistry().clear();
+        Amf3Output reflectiveOutput = new Amf3Output(context);
+        reflectiveOutput.setOutputStream(expected);
+        reflectiveOutput.writeObject(quote);
+        reflectiveOutput.flush();
+        Assert.assertArrayEquals(expected.toByteArray(), bytes.toByteArray());
+
+        Amf3Input input = new Amf3Input(context);
+        input.setInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        PropertyProxyRegistry.getRegistry().addGeneratedProxyClass(Quote.class.getName());
+        Quote decoded = (Quote) input.readObject();
+        Assert.assertEquals("IBM", decoded.getSymbol());
+        Assert.assertEquals(7, decoded.getSize());
+        Assert.assertEquals("LSE", decoded.venue);
+    }
+
+    public static class Quote {
+        public String venue;
+        private String symbol;
+        private int size;
+        private double price;
+        private boolean active;
+        private String[] tags;
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public void setSymbol(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public String[] getTags() {
+            return tags;
+        }
+
+        public void setTags(String[] tags) {
+            this.tags = tags;
+        }
+    }
+
+    public static class Faulty {
+        public String getBroken() {
+            throw new IllegalStateException("broken");
+        }
+
+        public void setBroken(String value) {
+        }
+    }
+
+    static class Hidden {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+public class PropertyProxyRegistryTest {
+
+    @After
+    public void tearDown() {
+        PropertyProxyRegistry.release();
+    }
+
+    @Test
+    public void testMissIsCachedUntilRegistryChanges() {
+        PropertyProxyRegistry registry = new PropertyProxyRegistry();
+        Assert.assertNull(registry.getProxy(Leaf.class));
+        Assert.assertNull(registry.getProxy(Leaf.class));
+
+        BeanProxy proxy = new BeanProxy();
+        registry.register(Marker.class, proxy);
+        Assert.assertSame(proxy, registry.getProxy(Leaf.class));
+
+        registry.unregister(Marker.class);
+        Assert.assertNull(registry.getProxy(Leaf.class));
+    }
+
+    @Test
+    public void testAutoRegisterFromSuperclass() {
+        PropertyProxyRegistry registry = new PropertyProxyRegistry();
+        BeanProxy proxy = new BeanProxy();
+        registry.register(Base.class, proxy);
+
+        Assert.assertNull(registry.getProxy(Leaf.class, false, false));
+        Assert.assertSame(proxy, registry.getProxyAndRegister(Leaf.class));
+        Assert.assertSame(proxy, registry.getProxy(Leaf.class, false, false));
+
+        registry.clear();
+        Assert.assertNull(registry.getProxy(Leaf.class));
+    }
+
+    @Test
+    public void testRegisterNullRemovesProxy() {
+        PropertyProxyRegistry registry = new PropertyProxyRegistry();
+        registry.register(Base.class, new BeanProxy());
+        registry.register(Base.class, null);
+        Assert.assertNull(registry.getProxy(Base.class));
+    }
+
+    @Test
+    public void testArraysUseComponentType() {
+        PropertyProxyRegistry registry = new PropertyProxyRegistry();
+        BeanProxy proxy = new BeanProxy();
+        registry.register(Base.class, proxy);
+        Assert.assertSame(proxy, registry.getProxy(Base[].class));
+    }
+
+    public interface Marker extends Serializable {
+    }
+
+    public static class Base {
+    }
+
+    public static class Leaf extends Base implements Marker {
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import flex.messaging.io.SerializationContext;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Amf3EncodedValueTest {
+    private SerializationContext context;
+
+    @Before
+    public void setUp() {
+        context = new SerializationContext();
+    }
+
+    @Test
+    public void testEncodedValueMatchesPlainEncoding() throws IOException {
+        Object value = createValue();
+        Amf3EncodedValue encoded = new Amf3EncodedValue(value);
+
+        Assert.assertArrayEquals(encode(value), encode(encoded));
+        Assert.assertArrayEquals(encode(value), encode(encoded));
+        Assert.assertSame(encoded.getTemplate(context), encoded.getTemplate(context));
+    }
+
+    @Test
+    public void testEncodedValueRelocatesWhenNested() throws IOException {
+        Amf3EncodedValue encoded = new Amf3EncodedValue(createValue());
+        ASObject other = new ASObject();
+        other.put("name", "first");
+
+        Object[] decoded = (Object[]) decode(encode(new Object[] {other, "country", encoded, other}));
+
+        Assert.assertSame(decoded[0], decoded[3]);
+        Assert.assertEquals("first", ((ASObject) decoded[0]).get("name"));
+        Assert.assertEquals("country", decoded[1]);
+        List countries = (List) ((ASObject) decoded[2]).get("countries");
+        Assert.assertEquals(2, countries.size());
+        Assert.assertEquals("country", ((ASObject) decoded[2]).get("kind"));
+    }
+
+    @Test
+    public void testAmf0OutputWritesValue() throws IOException {
+        Amf3EncodedValue encoded = new Amf3EncodedValue("value");
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        Amf0Output output = new Amf0Output(context);
+        output.setOutputStream(plain);
+        output.writeObject("value");
+
+        ByteArrayOutputStream wrapped = new ByteArrayOutputStream();
+        output = new Amf0Output(context);
+        output.setOutputStream(wrapped);
+        output.writeObject(encoded);
+
+        Assert.assertArrayEquals(plain.toByteArray(), wrapped.toByteArray());
+    }
+
+    private Object createValue() {
+        ASObject value = new ASObject();
+        value.put("kind", "country");
+        List<Object> countries = new ArrayList<Object>();
+        countries.add("Norway");
+        countries.add("Chile");
+        value.put("countries", countries);
+        return value;
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(context);
+        output.setOutputStream(bytes);
+        output.writeObject(value);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private Object decode(byte[] bytes) throws IOException {
+        Amf3Input input = new Amf3Input(context);
+        input.setInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
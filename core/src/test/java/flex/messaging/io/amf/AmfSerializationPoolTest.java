@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import flex.messaging.io.MessageDeserializer;
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.MessageSerializer;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amfx.AmfxMessageSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AmfSerializationPoolTest {
+    private AmfSerializationPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new AmfSerializationPool(4, 100, 4096);
+        SerializationContext.setSerializationContext(new SerializationContext());
+    }
+
+    @After
+    public void tearDown() {
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testRecycledSerializerMatchesNewSerializer() throws Exception {
+        for (int version = MessageIOConstants.AMF0; version <= MessageIOConstants.AMF3; version += 3) {
+            ActionMessage message = createMessage(version, 10);
+            MessageSerializer first = pool.getSerializer(new SerializationContext());
+            byte[] expected = serialize(first, message);
+            pool.releaseSerializer(first);
+
+            MessageSerializer second = pool.getSerializer(new SerializationContext());
+            Assert.assertSame(first, second);
+            Assert.assertArrayEquals(expected, serialize(second, message));
+            Assert.assertArrayEquals(expected, serialize(new AmfMessageSerializer(), message));
+            pool.releaseSerializer(second);
+        }
+    }
+
+    @Test
+    public void testRecycledDeserializerReadsNextMessage() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            byte[] bytes = serialize(new AmfMessageSerializer(), createMessage(MessageIOConstants.AMF3, i + 1));
+
+            MessageDeserializer deserializer = pool.getDeserializer(new SerializationContext());
+            deserializer.initialize(new SerializationContext(), new ByteArrayInputStream(bytes), null);
+            ActionMessage message = new ActionMessage();
+            deserializer.readMessage(message, new ActionContext());
+            pool.releaseDeserializer(deserializer);
+
+            Object[] data = (Object[]) message.getBody(0).getData();
+            Assert.assertEquals(i + 1, ((List) data[0]).size());
+            Assert.assertSame(data[0], data[1]);
+        }
+    }
+
+    @Test
+    public void testOversizedSerializerIsDiscarded() throws Exception {
+        MessageSerializer serializer = pool.getSerializer(new SerializationContext());
+        serialize(serializer, createMessage(MessageIOConstants.AMF3, 500));
+        pool.releaseSerializer(serializer);
+
+        Assert.assertNotSame(serializer, pool.getSerializer(new SerializationContext()));
+    }
+
+    @Test
+    public void testOtherSerializersAreNotPooled() {
+        SerializationContext context = new SerializationContext();
+        context.setSerializerClass(AmfxMessageSerializer.class);
+        MessageSerializer serializer = pool.getSerializer(context);
+        Assert.assertTrue(serializer instanceof AmfxMessageSerializer);
+        pool.releaseSerializer(serializer);
+
+        Assert.assertTrue(pool.getSerializer(new SerializationContext()) instanceof AmfMessageSerializer);
+    }
+
+    @Test
+    public void testBuffers() {
+        AmfSerializationPool.PooledBuffer buffer = pool.getBuffer();
+        buffer.write(1);
+        pool.releaseBuffer(buffer);
+
+        AmfSerializationPool.PooledBuffer reused = pool.getBuffer();
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(0, reused.size());
+
+        reused.write(new byte[8192], 0, 8192);
+        pool.releaseBuffer(reused);
+        Assert.assertNotSame(reused, pool.getBuffer());
+
+        pool.releaseBuffer(new ByteArrayOutputStream());
+        pool.clear();
+        Assert.assertNotSame(buffer, pool.getBuffer());
+    }
+
+    private static ActionMessage createMessage(int version, int size) {
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < size; i++) {
+            ASObject item = new ASObject();
+            item.put("index", Integer.valueOf(i));
+            item.put("name", "item" + i);
+            list.add(item);
+        }
+
+        ActionMessage message = new ActionMessage(version);
+        message.addBody(new MessageBody("target", "response", new Object[] {list, list}));
+        return message;
+    }
+
+    private static byte[] serialize(MessageSerializer serializer, ActionMessage message) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.initialize(new SerializationContext(), bytes, null);
+        serializer.writeMessage(message);
+        return bytes.toByteArray();
+    }
+}
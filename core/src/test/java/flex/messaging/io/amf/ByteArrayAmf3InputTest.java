@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.SerializationContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class ByteArrayAmf3InputTest {
+    private SerializationContext context;
+
+    @Before
+    public void setUp() {
+        context = new SerializationContext();
+        SerializationContext.setSerializationContext(context);
+    }
+
+    @After
+    public void tearDown() {
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testReadsSameValuesAsStreamInput() throws Exception {
+        byte[] bytes = encode(createValues());
+
+        Object expected = new Amf3InputReader(new Amf3Input(context), new ByteArrayInputStream(bytes)).read();
+        ByteArrayAmfInputStream source = new ByteArrayAmfInputStream(bytes);
+        Object actual = new Amf3InputReader(new ByteArrayAmf3Input(context), source).read();
+
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(0, source.available());
+    }
+
+    @Test
+    public void testReadsFromByteBuffers() throws Exception {
+        List<Object> values = createValues();
+        byte[] bytes = encode(values);
+
+        byte[] padded = new byte[bytes.length + 7];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded, 3, bytes.length).slice();
+        Assert.assertEquals(values, new Amf3InputReader(new ByteArrayAmf3Input(context), new ByteArrayAmfInputStream(heap)).read());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Assert.assertEquals(values, new Amf3InputReader(new ByteArrayAmf3Input(context), new ByteArrayAmfInputStream(direct)).read());
+        Assert.assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testTruncatedInput() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(context);
+        output.setOutputStream(out);
+        output.writeObject(createValues());
+        byte[] bytes = out.toByteArray();
+        for (int length : new int[] {1, 2, bytes.length / 2, bytes.length - 1}) {
+            ByteArrayAmf3Input input = new ByteArrayAmf3Input(context);
+            input.setInputStream(new ByteArrayAmfInputStream(Arrays.copyOf(bytes, length)));
+            try {
+                input.readObject();
+                Assert.fail("Expected an EOFException for length " + length);
+            } catch (EOFException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testAmf0InputSwitchesToByteArrayInput() throws Exception {
+        ActionMessage message = new ActionMessage(MessageIOConstants.AMF3);
+        message.addBody(new MessageBody("target", "response", createValues()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AmfMessageSerializer serializer = new AmfMessageSerializer();
+        serializer.initialize(context, out, null);
+        serializer.writeMessage(message);
+
+        AmfMessageDeserializer deserializer = new AmfMessageDeserializer();
+        deserializer.initialize(context, new ByteArrayAmfInputStream(out.toByteArray()), null);
+        ActionMessage result = new ActionMessage();
+        deserializer.readMessage(result, new ActionContext());
+
+        Assert.assertTrue(((Amf0Input) deserializer.amfIn).avmPlusInput instanceof ByteArrayAmf3Input);
+        Assert.assertEquals(createValues(), result.getBody(0).getData());
+    }
+
+    private static List<Object> createValues() {
+        List<Object> values = new ArrayList<Object>();
+        for (int i : new int[] {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, -1, -268435456}) {
+            values.add(Integer.valueOf(i));
+        }
+        values.add(Double.valueOf(Math.PI));
+        values.add(Double.valueOf(-0.5));
+        values.add("ascii");
+        values.add("ascii");
+        values.add("caf\u00e9 \u20ac");
+        values.add(Boolean.TRUE);
+        values.add(new Date(1234567890123L));
+        ASObject object = new ASObject();
+        object.put("name", "value");
+        object.put("count", Integer.valueOf(3));
+        values.add(object);
+        values.add(object);
+        return values;
+    }
+
+    private byte[] encode(Object value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(context);
+        output.setOutputStream(bytes);
+        output.writeObject(value);
+        output.writeObject(new byte[] {1, 2, 3});
+        output.writeObject(new int[] {5, -5});
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static class Amf3InputReader {
+        private final Amf3Input input;
+
+        Amf3InputReader(Amf3Input input, java.io.InputStream in) {
+            this.input = input;
+            input.setInputStream(in);
+        }
+
+        Object read() throws Exception {
+            Object values = input.readObject();
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) input.readObject());
+            Object ints = input.readObject();
+            Assert.assertEquals(Arrays.asList(new Object[] {Integer.valueOf(5), Integer.valueOf(-5)}),
+                    ints instanceof Object[] ? Arrays.asList((Object[]) ints) : ints);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class ResponseOutputStreamTest {
+
+    @Test
+    public void testSmallResponseStaysBuffered() throws IOException {
+        TestStream stream = new TestStream(16);
+        stream.write(new byte[] {1, 2, 3});
+        stream.write(4);
+        stream.flush();
+
+        Assert.assertFalse(stream.isCommitted());
+        Assert.assertEquals(0, stream.opened);
+        Assert.assertEquals(4, stream.size());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3, 4}, stream.toByteArray());
+    }
+
+    @Test
+    public void testLargeResponseIsStreamed() throws IOException {
+        TestStream stream = new TestStream(8);
+        byte[] expected = new byte[100];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = (byte) i;
+
+        stream.write(expected, 0, 6);
+        stream.write(expected[6]);
+        stream.write(expected[7]);
+        Assert.assertFalse(stream.isCommitted());
+        stream.write(expected[8]);
+        Assert.assertTrue(stream.isCommitted());
+        stream.write(expected, 9, expected.length - 9);
+        stream.flush();
+
+        Assert.assertEquals(1, stream.opened);
+        try {
+            stream.toByteArray();
+            Assert.fail("The buffered response is no longer available");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(expected.length, stream.size());
+        Assert.assertArrayEquals(expected, stream.target.toByteArray());
+    }
+
+    @Test
+    public void testResetDiscardsBufferedBytes() throws IOException {
+        TestStream stream = new TestStream(8);
+        stream.write(new byte[] {1, 2, 3});
+        stream.reset();
+        stream.write(9);
+
+        Assert.assertEquals(1, stream.size());
+        Assert.assertArrayEquals(new byte[] {9}, stream.toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testResetAfterCommitFails() throws IOException {
+        TestStream stream = new TestStream(2);
+        stream.write(new byte[] {1, 2, 3});
+        stream.reset();
+    }
+
+    private static class TestStream extends ResponseOutputStream {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        int opened;
+
+        TestStream(int bufferLimit) {
+            super(bufferLimit);
+        }
+
+        @Override
+        protected OutputStream openTarget() {
+            opened++;
+            return target;
+        }
+    }
+}
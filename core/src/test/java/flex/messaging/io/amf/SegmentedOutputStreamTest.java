@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.io.amf;
+
+import flex.messaging.io.SerializationContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SegmentedOutputStreamTest {
+    private AmfSerializationPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new AmfSerializationPool(4, 100, 4096);
+        SerializationContext.setSerializationContext(new SerializationContext());
+    }
+
+    @After
+    public void tearDown() {
+        SerializationContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testWritesAcrossSegments() throws IOException {
+        byte[] expected = createBytes(AmfSerializationPool.SEGMENT_SIZE * 2 + 100);
+        SegmentedOutputStream stream = new SegmentedOutputStream(pool);
+        stream.write(expected, 0, 10);
+        for (int i = 10; i < 20; i++)
+            stream.write(expected[i]);
+        stream.write(expected, 20, expected.length - 20);
+
+        Assert.assertEquals(expected.length, stream.size());
+        Assert.assertArrayEquals(expected, stream.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.writeTo(out);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+
+        out.reset();
+        stream.writeTo(Channels.newChannel(out));
+        Assert.assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testGatheringWrite() throws IOException {
+        byte[] expected = createBytes(AmfSerializationPool.SEGMENT_SIZE + 1);
+        SegmentedOutputStream stream = new SegmentedOutputStream(pool);
+        stream.write(expected);
+
+        File file = File.createTempFile("segments", ".bin");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                stream.writeTo(channel);
+                Assert.assertEquals(expected.length, channel.size());
+                byte[] actual = new byte[expected.length];
+                raf.seek(0);
+                raf.readFully(actual);
+                Assert.assertArrayEquals(expected, actual);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSegmentsAreRecycled() throws IOException {
+        SegmentedOutputStream stream = new SegmentedOutputStream(pool);
+        byte[] first = stream.segment;
+        stream.write(createBytes(AmfSerializationPool.SEGMENT_SIZE + 1));
+        byte[] second = stream.segment;
+        Assert.assertNotSame(first, second);
+
+        stream.reset();
+        Assert.assertEquals(0, stream.size());
+        Assert.assertSame(second, stream.segment);
+        stream.write(7);
+        Assert.assertArrayEquals(new byte[] {7}, stream.toByteArray());
+        stream.release();
+
+        // Undersized arrays are not pooled
+        pool.releaseSegment(new byte[16]);
+        Assert.assertSame(first, pool.getSegment());
+        Assert.assertSame(second, pool.getSegment());
+        Assert.assertEquals(AmfSerializationPool.SEGMENT_SIZE, pool.getSegment().length);
+    }
+
+    @Test
+    public void testStringsAreEncodedIntoSegments() throws IOException {
+        List<Object> values = new ArrayList<Object>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < AmfSerializationPool.SEGMENT_SIZE; i++)
+            sb.append((char) ('a' + i % 26)).append(i % 3 == 0 ? "\u00e9" : "").append(i % 5 == 0 ? "\u20ac" : "");
+        for (int i = 0; i < 5; i++)
+            values.add(sb.substring(i, sb.length() - i));
+        values.add("short");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(SerializationContext.getSerializationContext());
+        output.setOutputStream(expected);
+        output.writeObject(values);
+
+        SegmentedOutputStream stream = new SegmentedOutputStream(pool);
+        output.setOutputStream(stream);
+        output.writeObject(values);
+        Assert.assertArrayEquals(expected.toByteArray(), stream.toByteArray());
+
+        // A response stream committed while a string is encoded
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ResponseOutputStream response = new ResponseOutputStream(1000) {
+            @Override
+            protected OutputStream openTarget() {
+                return target;
+            }
+        };
+        output.setOutputStream(response);
+        output.writeObject(values);
+        response.flush();
+        Assert.assertTrue(response.isCommitted());
+        Assert.assertEquals(expected.size(), response.size());
+        Assert.assertArrayEquals(expected.toByteArray(), target.toByteArray());
+    }
+
+    private static byte[] createBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (i * 31);
+        return bytes;
+    }
+}
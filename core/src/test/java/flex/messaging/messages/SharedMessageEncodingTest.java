@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.messages;
+
+import flex.messaging.io.ClassAliasRegistry;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.ASObject;
+import flex.messaging.io.amf.Amf3Input;
+import flex.messaging.io.amf.Amf3Output;
+import flex.messaging.util.UUIDUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SharedMessageEncodingTest {
+    private SerializationContext context;
+
+    @Before
+    public void setUp() {
+        ClassAliasRegistry.getRegistry().registerAlias(AsyncMessageExt.CLASS_ALIAS, AsyncMessageExt.class.getName());
+        context = new SerializationContext();
+    }
+
+    @Test
+    public void testSharedCopyMatchesIndividualEncoding() throws IOException {
+        AsyncMessage message = createMessage();
+        SharedMessageEncoding encoding = SharedMessageEncoding.create(message);
+        Assert.assertNotNull(encoding);
+
+        for (int i = 0; i < 3; i++) {
+            AsyncMessage copy = (AsyncMessage) message.clone();
+            copy.setClientId(UUIDUtils.createUUID());
+            AsyncMessage plain = (AsyncMessage) copy.clone();
+            encoding.share(copy);
+
+            Assert.assertArrayEquals(encode(new AsyncMessageExt(plain)), encode(new AsyncMessageExt(copy)));
+            Assert.assertArrayEquals(encode(plain), encode(copy));
+        }
+    }
+
+    @Test
+    public void testSharedCopiesRelocateWhenNested() throws IOException {
+        AsyncMessage message = createMessage();
+        SharedMessageEncoding encoding = SharedMessageEncoding.create(message);
+
+        List<Object> batch = new ArrayList<Object>();
+        List<String> clientIds = new ArrayList<String>();
+        batch.add(message.getBody());
+        for (int i = 0; i < 3; i++) {
+            AsyncMessage copy = (AsyncMessage) message.clone();
+            String clientId = UUIDUtils.createUUID();
+            copy.setClientId(clientId);
+            encoding.share(copy);
+            clientIds.add(clientId);
+            batch.add(new AsyncMessageExt(copy));
+        }
+        batch.add(message.getBody());
+
+        Object[] decoded = (Object[]) decode(encode(batch.toArray()));
+        Assert.assertEquals(5, decoded.length);
+        Assert.assertSame(decoded[0], decoded[4]);
+        for (int i = 0; i < 3; i++) {
+            AsyncMessage copy = (AsyncMessage) decoded[i + 1];
+            Assert.assertEquals(clientIds.get(i), copy.getClientId());
+            Assert.assertEquals(message.getMessageId(), copy.getMessageId());
+            Assert.assertEquals(message.getDestination(), copy.getDestination());
+            Assert.assertEquals("IBM", ((ASObject) copy.getBody()).get("symbol"));
+            Assert.assertNotSame(decoded[0], copy.getBody());
+        }
+    }
+
+    @Test
+    public void testModifiedCopyIsEncodedIndividually() throws IOException {
+        AsyncMessage message = createMessage();
+        SharedMessageEncoding encoding = SharedMessageEncoding.create(message);
+
+        AsyncMessage first = (AsyncMessage) message.clone();
+        first.setClientId(UUIDUtils.createUUID());
+        encoding.share(first);
+        encode(first);
+
+        AsyncMessage second = (AsyncMessage) message.clone();
+        second.setClientId(UUIDUtils.createUUID());
+        second.setHeader("extra", "value");
+        AsyncMessage plain = (AsyncMessage) second.clone();
+        encoding.share(second);
+        Assert.assertArrayEquals(encode(plain), encode(second));
+    }
+
+    @Test
+    public void testPerformanceInfoIsNotShared() {
+        AsyncMessage message = createMessage();
+        message.setHeader(MessagePerformanceUtils.MPI_HEADER_PUSH, new MessagePerformanceInfo());
+        Assert.assertNull(SharedMessageEncoding.create(message));
+    }
+
+    private AsyncMessage createMessage() {
+        ASObject body = new ASObject();
+        body.put("symbol", "IBM");
+        body.put("bid", Double.valueOf(101.25));
+        body.put("ask", Double.valueOf(101.5));
+
+        AsyncMessage message = new AsyncMessage();
+        message.setMessageId(UUIDUtils.createUUID());
+        message.setDestination("prices");
+        message.setTimestamp(System.currentTimeMillis());
+        message.setHeader(AsyncMessage.SUBTOPIC_HEADER_NAME, "nyse.ibm");
+        message.setBody(body);
+        return message;
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Amf3Output output = new Amf3Output(context);
+        output.setOutputStream(bytes);
+        output.writeObject(value);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private Object decode(byte[] bytes) throws IOException {
+        Amf3Input input = new Amf3Input(context);
+        input.setInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services;
+
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.MessageDestination;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.SharedMessageEncoding;
+import flex.messaging.services.messaging.SubscriptionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MessageServiceFanOutTest {
+
+    private static final int SUBSCRIBERS = 200;
+
+    private RecordingMessageService service;
+    private TestDestination destination;
+    private Set<Object> subscriberIds;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        broker.initThreadLocals();
+
+        service = new RecordingMessageService();
+        service.setId("message-service");
+        service.setFanOutThreads(3);
+        service.setFanOutThreshold(100);
+        broker.addService(service);
+
+        destination = new TestDestination();
+        destination.setId("topic");
+        destination.setService(service);
+
+        subscriberIds = new LinkedHashSet<Object>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            String clientId = "client" + i;
+            subscriberIds.add(clientId);
+            destination.subscribers.put(clientId, new MessageClient(clientId, destination, "endpoint", false));
+        }
+        service.start();
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testFanOutPushesToEverySubscriberInOrder() {
+        for (int i = 0; i < 5; i++)
+            service.pushMessageToClients(destination, subscriberIds, message(i), false);
+
+        Assert.assertEquals(SUBSCRIBERS, service.received.size());
+        for (Object clientId : subscriberIds) {
+            List<Object> bodies = service.received.get(clientId);
+            Assert.assertEquals(5, bodies.size());
+            for (int i = 0; i < 5; i++)
+                Assert.assertEquals(i, bodies.get(i));
+        }
+        Assert.assertTrue(service.threads.size() > 1);
+        Assert.assertTrue(service.threads.containsKey(Thread.currentThread()));
+    }
+
+    @Test
+    public void testSmallTopicsArePushedOnThePublishingThread() {
+        Set<Object> few = new LinkedHashSet<Object>(new ArrayList<Object>(subscriberIds).subList(0, 99));
+        service.pushMessageToClients(destination, few, message(0), false);
+
+        Assert.assertEquals(99, service.received.size());
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), service.threads.keySet());
+    }
+
+    @Test
+    public void testFailureOnAShardIsRethrown() {
+        service.failOn = "client" + (SUBSCRIBERS - 1);
+        try {
+            service.pushMessageToClients(destination, subscriberIds, message(0), false);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedPublishOnBusyFanOutThreadCompletes() {
+        service.stop();
+        service.setFanOutThreads(1);
+        service.start();
+        // The last subscriber is pushed to by the only fan-out thread, which then
+        // publishes again and finds no idle fan-out thread.
+        service.nestedOn = "client" + (SUBSCRIBERS - 1);
+        service.nestedTo = subscriberIds;
+
+        service.pushMessageToClients(destination, subscriberIds, message(0), false);
+
+        for (Object clientId : subscriberIds) {
+            List<Object> bodies = service.received.get(clientId);
+            Assert.assertEquals(2, bodies.size());
+            Assert.assertTrue(bodies.contains(0));
+            Assert.assertTrue(bodies.contains(1));
+        }
+    }
+
+    private static Message message(int body) {
+        AsyncMessage message = new AsyncMessage();
+        message.setMessageId("message" + body);
+        message.setDestination("topic");
+        message.setBody(body);
+        return message;
+    }
+
+    private static class RecordingMessageService extends MessageService {
+        final Map<Object, List<Object>> received = new ConcurrentHashMap<Object, List<Object>>();
+        final Map<Thread, Boolean> threads = new ConcurrentHashMap<Thread, Boolean>();
+        volatile String failOn;
+        volatile String nestedOn;
+        volatile Set<Object> nestedTo;
+
+        @Override
+        void pushMessageToClient(MessageClient client, MessageDestination destination, Message message,
+                                 boolean evalSelector, SharedMessageEncoding sharedEncoding) {
+            if (client.getClientId().equals(failOn))
+                throw new IllegalStateException();
+            threads.put(Thread.currentThread(), Boolean.TRUE);
+            List<Object> bodies = received.get(client.getClientId());
+            if (bodies == null) {
+                bodies = Collections.synchronizedList(new ArrayList<Object>());
+                received.put(client.getClientId(), bodies);
+            }
+            bodies.add(message.getBody());
+            if (client.getClientId().equals(nestedOn) && Integer.valueOf(0).equals(message.getBody()))
+                pushMessageToClients(destination, nestedTo, message(1), false);
+        }
+    }
+
+    private static class TestDestination extends MessageDestination {
+        final Map<Object, MessageClient> subscribers = new HashMap<Object, MessageClient>();
+        private final SubscriptionManager subscriptionManager = new SubscriptionManager(this) {
+            @Override
+            public MessageClient getSubscriber(Object clientId) {
+                return subscribers.get(clientId);
+            }
+        };
+
+        @Override
+        public SubscriptionManager getSubscriptionManager() {
+            return subscriptionManager;
+        }
+    }
+}
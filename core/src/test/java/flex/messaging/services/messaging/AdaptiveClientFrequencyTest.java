@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import flex.messaging.config.ThrottleSettings;
+import flex.messaging.config.ThrottleSettings.Policy;
+
+public class AdaptiveClientFrequencyTest {
+
+    private static final long INTERVAL = AdaptiveClientFrequency.ADJUSTMENT_INTERVAL_MILLIS;
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdaptiveClientFrequency frequency = new AdaptiveClientFrequency(100, 10, 50, 0);
+        long now = INTERVAL;
+        Assert.assertEquals(50, frequency.adjust(51, 0, now));
+        // At most one adjustment per interval.
+        Assert.assertEquals(50, frequency.adjust(500, 0, now + INTERVAL - 1));
+        Assert.assertEquals(500, frequency.getQueueDepth());
+        Assert.assertEquals(25, frequency.adjust(500, 0, now += INTERVAL));
+        Assert.assertEquals(12, frequency.adjust(500, 0, now += INTERVAL));
+        Assert.assertEquals(10, frequency.adjust(500, 0, now += INTERVAL));
+        Assert.assertEquals(10, frequency.adjust(500, 0, now += INTERVAL));
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        AdaptiveClientFrequency frequency = new AdaptiveClientFrequency(100, 1, 0, 200);
+        long now = INTERVAL;
+        Assert.assertEquals(50, frequency.adjust(0, 201, now));
+        Assert.assertEquals(60, frequency.adjust(0, 10, now += INTERVAL));
+        Assert.assertEquals(60, frequency.adjust(0, 10, now + 1));
+        for (int i = 0; i < 10; i++)
+            frequency.adjust(0, 10, now += INTERVAL);
+        Assert.assertEquals(100, frequency.getFrequency());
+    }
+
+    @Test
+    public void testUnknownQueueDepthDoesNotAdjust() {
+        AdaptiveClientFrequency frequency = new AdaptiveClientFrequency(100, 1, 50, 0);
+        Assert.assertEquals(100, frequency.adjust(-1, 0, INTERVAL));
+        Assert.assertEquals(50, frequency.adjust(60, 0, INTERVAL));
+    }
+
+    @Test
+    public void testThrottleManager() {
+        ThrottleSettings settings = new ThrottleSettings();
+        settings.setOutboundPolicy(Policy.IGNORE);
+        settings.setOutgoingClientFrequency(40);
+        settings.setAdaptive(true);
+        settings.setMaxQueueDepth(10);
+
+        ThrottleManager throttleManager = new ThrottleManager();
+        throttleManager.setThrottleSettings(settings);
+        throttleManager.start();
+
+        Assert.assertTrue(throttleManager.isAdaptiveOutboundClientThrottleEnabled());
+        Assert.assertEquals(20, throttleManager.getAdaptiveOutgoingClientFrequency("client", 11, 0));
+        Assert.assertEquals(1, throttleManager.getAdaptiveFrequencyDecreaseCount());
+        Assert.assertArrayEquals(new String[] {"client"}, throttleManager.getAdaptivelyThrottledClientIds());
+
+        throttleManager.removeClientThrottleMark("client");
+        Assert.assertNull(throttleManager.getAdaptiveClientFrequency("client"));
+        Assert.assertEquals(0, throttleManager.getAdaptivelyThrottledClientIds().length);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageClient;
+import flex.messaging.MessageDestination;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.services.MessageService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SubscriptionManagerStressTest {
+
+    private static final int CHURN_THREADS = 4;
+    private static final int CHURN_OPERATIONS = 5000;
+    private static final int STABLE_SUBSCRIBERS = 50;
+
+    private SubscriptionManager subscriptionManager;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        broker.initThreadLocals();
+
+        MessageService service = new MessageService();
+        service.setId("message-service");
+        broker.addService(service);
+
+        MessageDestination destination = new MessageDestination();
+        destination.setId("topic");
+        destination.getServerSettings().setAllowSubtopics(true);
+        destination.setService(service);
+
+        subscriptionManager = new SubscriptionManager(destination) {
+            @Override
+            protected MessageClient newMessageClient(Object clientId, String endpointId) {
+                return new MessageClient(clientId, destination, endpointId, false);
+            }
+        };
+    }
+
+    @Test
+    public void testSubscribeChurnKeepsSubscriptionsConsistent() throws Exception {
+        for (int i = 0; i < STABLE_SUBSCRIBERS; i++)
+            subscriptionManager.addSubscriber("stable" + i, null, "prices.stable", "endpoint");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch churnDone = new CountDownLatch(CHURN_THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int t = 0; t < CHURN_THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < CHURN_OPERATIONS; i++) {
+                            String clientId = "churn" + thread + "-" + i;
+                            // Half of the churn shares a subtopic across threads.
+                            String subtopic = (i % 2 == 0) ? "prices.shared" : "prices.churn" + thread + "." + (i % 10);
+                            subscriptionManager.addSubscriber(clientId, null, subtopic, "endpoint");
+                            subscriptionManager.removeSubscriber(clientId, null, subtopic, "endpoint");
+                        }
+                        // A subscription that stays must survive the concurrent removal of its subtopic.
+                        subscriptionManager.addSubscriber("kept" + thread, null, "prices.shared", "endpoint");
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        churnDone.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        final AtomicBoolean publishing = new AtomicBoolean(true);
+        final AtomicLong lookups = new AtomicLong();
+        Thread publisher = new Thread(new Runnable() {
+            public void run() {
+                Message message = new AsyncMessage();
+                message.setHeader(AsyncMessage.SUBTOPIC_HEADER_NAME, "prices.stable");
+                try {
+                    while (publishing.get()) {
+                        subscriptionManager.getSubscribeLock().readLock().lock();
+                        Set<Object> ids;
+                        try {
+                            ids = subscriptionManager.getSubscriberIds(message, false);
+                        } finally {
+                            subscriptionManager.getSubscribeLock().readLock().unlock();
+                        }
+                        lookups.incrementAndGet();
+                        if (ids.size() != STABLE_SUBSCRIBERS)
+                            throw new IllegalStateException("Expected " + STABLE_SUBSCRIBERS + " subscribers, found " + ids.size());
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        publisher.start();
+
+        start.countDown();
+        churnDone.await();
+        publishing.set(false);
+        publisher.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        // The throughput of the churn is measured by SubscriptionChurnBenchmark.
+        Assert.assertTrue(lookups.get() > 0);
+
+        Message shared = new AsyncMessage();
+        shared.setHeader(AsyncMessage.SUBTOPIC_HEADER_NAME, "prices.shared");
+        Set<Object> ids = subscriptionManager.getSubscriberIds(shared, false);
+        Assert.assertEquals(CHURN_THREADS, ids.size());
+        for (int t = 0; t < CHURN_THREADS; t++)
+            Assert.assertTrue(ids.contains("kept" + t));
+        Assert.assertEquals(STABLE_SUBSCRIBERS + CHURN_THREADS, subscriptionManager.getSubscriberIds().size());
+    }
+}
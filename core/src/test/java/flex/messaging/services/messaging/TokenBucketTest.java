@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import flex.messaging.config.ThrottleSettings;
+import flex.messaging.config.ThrottleSettings.Policy;
+import flex.messaging.services.messaging.ThrottleManager.ThrottleResult;
+import flex.messaging.services.messaging.ThrottleManager.ThrottleResult.Result;
+
+public class TokenBucketTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void testBurstUpToCapacity() {
+        TestBucket bucket = new TestBucket(10);
+        Assert.assertEquals(10, bucket.getAvailableTokens());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Result.OK, bucket.checkLimit(10, Policy.IGNORE).getResult());
+            bucket.updateMessageFrequency();
+        }
+        Assert.assertEquals(0, bucket.getAvailableTokens());
+        ThrottleResult result = bucket.checkLimit(10, Policy.IGNORE);
+        Assert.assertEquals(Result.IGNORE, result.getResult());
+        Assert.assertEquals(Result.ERROR, bucket.checkLimit(10, Policy.ERROR).getResult());
+    }
+
+    @Test
+    public void testRefill() {
+        TestBucket bucket = new TestBucket(10);
+        for (int i = 0; i < 10; i++)
+            bucket.updateMessageFrequency();
+
+        bucket.now += 99 * MILLIS;
+        Assert.assertEquals(Result.IGNORE, bucket.checkLimit(10, Policy.IGNORE).getResult());
+        bucket.now += MILLIS;
+        Assert.assertEquals(1, bucket.getAvailableTokens());
+        Assert.assertEquals(Result.OK, bucket.checkLimit(10, Policy.IGNORE).getResult());
+        bucket.updateMessageFrequency();
+        Assert.assertEquals(Result.IGNORE, bucket.checkLimit(10, Policy.IGNORE).getResult());
+
+        // An idle bucket does not fill past its capacity.
+        bucket.now += 60000 * MILLIS;
+        Assert.assertEquals(10, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testLowerFrequencySlowsRefill() {
+        TestBucket bucket = new TestBucket(10);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(Result.OK, bucket.checkLimit(2, Policy.IGNORE).getResult());
+            bucket.updateMessageFrequency();
+        }
+        Assert.assertEquals(Result.IGNORE, bucket.checkLimit(2, Policy.IGNORE).getResult());
+        bucket.now += 499 * MILLIS;
+        Assert.assertEquals(Result.IGNORE, bucket.checkLimit(2, Policy.IGNORE).getResult());
+        bucket.now += MILLIS;
+        Assert.assertEquals(Result.OK, bucket.checkLimit(2, Policy.IGNORE).getResult());
+    }
+
+    @Test
+    public void testZeroFrequencyIsNotChecked() {
+        TestBucket bucket = new TestBucket(0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Result.OK, bucket.checkLimit(0, Policy.ERROR).getResult());
+            bucket.updateMessageFrequency();
+        }
+    }
+
+    @Test
+    public void testResultsCanBeModified() {
+        TestBucket bucket = new TestBucket(1);
+        bucket.updateMessageFrequency();
+        ThrottleResult result = bucket.checkLimit(1, Policy.IGNORE);
+        result.setDetail("detail");
+        result.setResult(Result.ERROR);
+
+        ThrottleResult next = bucket.checkLimit(1, Policy.IGNORE);
+        Assert.assertNotSame(result, next);
+        Assert.assertEquals(Result.IGNORE, next.getResult());
+        Assert.assertNull(next.getDetail());
+    }
+
+    @Test
+    public void testCreateRateLimiter() {
+        Assert.assertTrue(ThrottleManager.createRateLimiter(ThrottleSettings.ENGINE_TOKEN_BUCKET, 5) instanceof TokenBucket);
+        Assert.assertTrue(ThrottleManager.createRateLimiter(ThrottleSettings.ENGINE_MESSAGE_HISTORY, 5) instanceof MessageFrequency);
+    }
+
+    private static class TestBucket extends TokenBucket {
+        // Starts at zero, also while the super constructor reads the clock.
+        long now;
+
+        TestBucket(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected long currentTimeNanos() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class WildcardSubtopicIndexTest {
+    private static final String SEPARATOR = ".";
+    private static final String[] TOKENS = {"a", "b", "c", Subtopic.SUBTOPIC_WILDCARD};
+
+    @Test
+    public void testTrailingWildcard() {
+        WildcardSubtopicIndex<String> index = new WildcardSubtopicIndex<String>();
+        index.put(subtopic("foo.*"), "foo.*");
+
+        Assert.assertEquals(setOf("foo.*"), match(index, "foo.bar"));
+        Assert.assertEquals(setOf("foo.*"), match(index, "foo.bar.baz"));
+        Assert.assertEquals(setOf(), match(index, "foo"));
+        Assert.assertEquals(setOf(), match(index, "bar.foo"));
+    }
+
+    @Test
+    public void testRemove() {
+        WildcardSubtopicIndex<String> index = new WildcardSubtopicIndex<String>();
+        index.put(subtopic("foo.*.baz"), "foo.*.baz");
+        index.put(subtopic("foo.*"), "foo.*");
+
+        index.remove(subtopic("foo.*"));
+        Assert.assertEquals(setOf("foo.*.baz"), match(index, "foo.bar.baz"));
+        Assert.assertEquals(setOf(), match(index, "foo.bar"));
+
+        index.remove(subtopic("foo.*.baz"));
+        Assert.assertEquals(setOf(), match(index, "foo.bar.baz"));
+    }
+
+    @Test
+    public void testWildcardSubtopicIsNotResolved() {
+        WildcardSubtopicIndex<String> index = new WildcardSubtopicIndex<String>();
+        index.put(subtopic("foo.*"), "foo.*");
+        Assert.assertFalse(index.addMatches(subtopic("foo.*"), new ArrayList<String>()));
+    }
+
+    @Test
+    public void testMatchesAgreeWithSubtopic() {
+        Random random = new Random(42);
+        List<Subtopic> patterns = new ArrayList<Subtopic>();
+        WildcardSubtopicIndex<Subtopic> index = new WildcardSubtopicIndex<Subtopic>();
+        while (patterns.size() < 200) {
+            Subtopic pattern = subtopic(randomSubtopic(random, TOKENS));
+            if (pattern.containsSubtopicWildcard() && !patterns.contains(pattern)) {
+                patterns.add(pattern);
+                index.put(pattern, pattern);
+            }
+        }
+
+        for (int i = 0; i < 500; i++) {
+            Subtopic subtopic = subtopic(randomSubtopic(random, new String[] {"a", "b", "c"}));
+            Set<Subtopic> expected = new HashSet<Subtopic>();
+            for (Subtopic pattern : patterns) {
+                if (pattern.matches(subtopic))
+                    expected.add(pattern);
+            }
+            Set<Subtopic> actual = new HashSet<Subtopic>();
+            Assert.assertTrue(index.addMatches(subtopic, actual));
+            Assert.assertEquals(subtopic.getValue(), expected, actual);
+        }
+    }
+
+    private static String randomSubtopic(Random random, String[] tokens) {
+        int depth = 1 + random.nextInt(4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0)
+                sb.append(SEPARATOR);
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static Subtopic subtopic(String value) {
+        return new Subtopic(value, SEPARATOR);
+    }
+
+    private static Set<String> match(WildcardSubtopicIndex<String> index, String subtopic) {
+        Set<String> matches = new HashSet<String>();
+        Assert.assertTrue(index.addMatches(subtopic(subtopic), matches));
+        return matches;
+    }
+
+    private static Set<String> setOf(String... values) {
+        Set<String> set = new HashSet<String>();
+        for (String value : values)
+            set.add(value);
+        return set;
+    }
+}
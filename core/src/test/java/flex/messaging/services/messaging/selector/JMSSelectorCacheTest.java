@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.messaging.selector;
+
+import flex.messaging.messages.AsyncMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JMSSelectorCacheTest {
+
+    @Test
+    public void testSelectorIsCompiledOnce() {
+        JMSSelectorCache cache = new JMSSelectorCache(10);
+        JMSSelector selector = cache.getSelector("price > 100");
+        Assert.assertSame(selector, cache.getSelector("price > 100"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        JMSSelectorCache cache = new JMSSelectorCache(3);
+        for (int i = 0; i < 10; i++) {
+            cache.getSelector("price > " + i);
+            Assert.assertTrue(cache.size() <= 3);
+        }
+    }
+
+    @Test
+    public void testMatchReadsHeaders() throws JMSSelectorException {
+        JMSSelector selector = new JMSSelectorCache().getSelector("symbol = 'IBM' AND price > 100");
+
+        AsyncMessage message = new AsyncMessage();
+        message.setHeader("symbol", "IBM");
+        message.setHeader("price", Double.valueOf(101.5));
+        Assert.assertTrue(selector.match(message));
+
+        message.setHeader("price", Integer.valueOf(99));
+        Assert.assertFalse(selector.match(message));
+
+        message.setHeader("symbol", "ADBE");
+        message.setHeader("price", Integer.valueOf(150));
+        Assert.assertFalse(selector.match(message));
+    }
+
+    @Test(expected = JMSSelectorException.class)
+    public void testInvalidSelector() throws JMSSelectorException {
+        new JMSSelectorCache().getSelector("price >").match(new AsyncMessage());
+    }
+}
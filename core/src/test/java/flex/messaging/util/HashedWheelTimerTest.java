@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+    private TimeoutManager manager;
+
+    @After
+    public void tearDown() {
+        if (timer != null)
+            timer.shutdown();
+        if (manager != null)
+            manager.shutdown();
+    }
+
+    @Test
+    public void testTaskRunsAfterDelay() throws Exception {
+        timer = new HashedWheelTimer(null, 10, 8);
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        Future future = timer.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 50);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+        future.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(0, timer.size());
+    }
+
+    @Test
+    public void testTaskRunsAfterSeveralRounds() throws Exception {
+        // 4 ticks of 10ms per turn, so the task waits for several turns of the wheel.
+        timer = new HashedWheelTimer(null, 10, 4);
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 200);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        timer = new HashedWheelTimer(null, 10, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        Future cancelled = timer.schedule(task, 30);
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 100);
+
+        Assert.assertTrue(cancelled.cancel(false));
+        Assert.assertFalse(cancelled.cancel(false));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals(1, timer.size());
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, runs.get());
+        Assert.assertEquals(0, timer.size());
+    }
+
+    @Test
+    public void testTimeoutManagerRechecksLastUse() throws Exception {
+        manager = new TimeoutManager(null, 10, 8);
+        TestTimeoutObject touched = new TestTimeoutObject(100);
+        TestTimeoutObject idle = new TestTimeoutObject(100);
+        long start = System.currentTimeMillis();
+        manager.scheduleTimeout(touched);
+        manager.scheduleTimeout(idle);
+
+        // Keep one object in use past its first deadline.
+        while (System.currentTimeMillis() - start < 200) {
+            touched.updateLastUse();
+            Thread.sleep(10);
+        }
+
+        Assert.assertTrue(idle.timedOut.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, touched.timedOut.getCount());
+        Assert.assertTrue(touched.timedOut.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(touched.timeoutTime - start >= 290);
+    }
+
+    @Test
+    public void testTimeoutManagerCancelsTimeout() throws Exception {
+        manager = new TimeoutManager(null, 10, 8);
+        TestTimeoutObject cancelled = new TestTimeoutObject(50);
+        TestTimeoutObject other = new TestTimeoutObject(100);
+        manager.scheduleTimeout(cancelled);
+        manager.scheduleTimeout(other);
+        cancelled.cancelTimeout();
+        Assert.assertEquals(1, manager.getQueueSize());
+
+        Assert.assertTrue(other.timedOut.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, cancelled.timedOut.getCount());
+    }
+
+    private static class TestTimeoutObject extends TimeoutAbstractObject {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        volatile long timeoutTime;
+
+        TestTimeoutObject(long timeoutPeriod) {
+            setTimeoutPeriod(timeoutPeriod);
+            updateLastUse();
+        }
+
+        public void timeout() {
+            timeoutTime = System.currentTimeMillis();
+            timedOut.countDown();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flex.messaging.MessageException;
+import flex.messaging.io.TypeMarshaller;
+import flex.messaging.io.TypeMarshallingContext;
+import flex.messaging.io.amf.translator.ASTranslator;
+
+public class MethodMatcherTest {
+
+    private CountingMarshaller marshaller;
+
+    @Before
+    public void setUp() {
+        marshaller = new CountingMarshaller();
+        TypeMarshallingContext.setTypeMarshaller(marshaller);
+    }
+
+    @After
+    public void tearDown() {
+        TypeMarshallingContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testConvertsArguments() throws Exception {
+        MethodMatcher matcher = new MethodMatcher();
+        for (int i = 0; i < 3; i++) {
+            marshaller.conversions = 0;
+            List parameters = params(Double.valueOf(2), Double.valueOf(3));
+            Assert.assertEquals(Integer.valueOf(5), matcher.invoke(new Service(), "add", parameters));
+            Assert.assertEquals(Integer.valueOf(2), parameters.get(0));
+            if (i > 0)
+                Assert.assertEquals(2, marshaller.conversions);
+        }
+    }
+
+    @Test
+    public void testSkipsConversionOfMatchingArguments() throws Exception {
+        MethodMatcher matcher = new MethodMatcher();
+        Assert.assertEquals("string:a", matcher.invoke(new Service(), "echo", params("a")));
+        marshaller.conversions = 0;
+        Assert.assertEquals("string:b", matcher.invoke(new Service(), "echo", params("b")));
+        Assert.assertEquals(0, marshaller.conversions);
+        Assert.assertEquals("list:1", matcher.invoke(new Service(), "echo", params(new ArrayList(Arrays.asList("x")))));
+    }
+
+    @Test
+    public void testNullArgument() throws Exception {
+        MethodMatcher matcher = new MethodMatcher();
+        Assert.assertEquals("string:null", matcher.invoke(new Service(), "echo", params((Object)null)));
+        Assert.assertEquals("string:null", matcher.invoke(new Service(), "echo", params((Object)null)));
+    }
+
+    @Test
+    public void testFailedConversionRetriesWithOriginalParameters() throws Exception {
+        MethodMatcher matcher = new MethodMatcher();
+        Assert.assertEquals(Integer.valueOf(5), matcher.invoke(new Service(), "add", params(Double.valueOf(2), Double.valueOf(3))));
+
+        // The cached call site converts the first parameter, then fails on the second.
+        Double flaky = Double.valueOf(4);
+        marshaller.failOnce = flaky;
+        marshaller.convertedIntegers = false;
+        List parameters = params(Double.valueOf(2), flaky);
+        Assert.assertEquals(Integer.valueOf(6), matcher.invoke(new Service(), "add", parameters));
+
+        // The method search saw the supplied values, not the partly converted ones.
+        Assert.assertFalse(marshaller.convertedIntegers);
+        Assert.assertEquals(Integer.valueOf(2), parameters.get(0));
+    }
+
+    @Test
+    public void testCallSiteCacheIsBounded() throws Exception {
+        MethodMatcher matcher = new MethodMatcher(2);
+        matcher.invoke(new Service(), "echo", params("a"));
+        matcher.invoke(new Service(), "echo", params(new ArrayList()));
+        matcher.invoke(new Service(), "add", params(Double.valueOf(2), Double.valueOf(3)));
+        Assert.assertTrue(matcher.getCallSiteCount() <= 2);
+
+        Assert.assertEquals("string:b", matcher.invoke(new Service(), "echo", params("b")));
+        Assert.assertTrue(matcher.getCallSiteCount() <= 2);
+    }
+
+    @Test(expected = MessageException.class)
+    public void testMethodNotFound() throws Exception {
+        new MethodMatcher().invoke(new Service(), "missing", params("a"));
+    }
+
+    private static List params(Object... values) {
+        return new ArrayList(Arrays.asList(values));
+    }
+
+    public static class Service {
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String echo(String s) {
+            return "string:" + s;
+        }
+
+        public String echo(List l) {
+            return "list:" + l.size();
+        }
+    }
+
+    private static class CountingMarshaller implements TypeMarshaller {
+        private final ASTranslator translator = new ASTranslator();
+        int conversions;
+        Object failOnce;
+        boolean convertedIntegers;
+
+        public Object createInstance(Object source, Class desiredClass) {
+            return translator.createInstance(source, desiredClass);
+        }
+
+        public Object convert(Object source, Class desiredClass) {
+            conversions++;
+            if (source == failOnce) {
+                failOnce = null;
+                throw new IllegalArgumentException("Cannot convert " + source);
+            }
+            if (source instanceof Integer)
+                convertedIntegers = true;
+            return translator.convert(source, desiredClass);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.util.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FutureCompletionTest {
+
+    @Test
+    public void testListenerRunsImmediatelyWhenDone() {
+        FutureTask<String> future = newTask();
+        future.run();
+
+        CountingListener listener = new CountingListener();
+        FutureCompletion.whenDone(future, listener);
+
+        Assert.assertEquals(1, listener.count.get());
+    }
+
+    @Test
+    public void testCompletionStageNotifiesWhenCompleted() {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        CountingListener listener = new CountingListener();
+        FutureCompletion.whenDone(future, listener);
+        Assert.assertEquals(0, listener.count.get());
+
+        future.complete("done");
+
+        Assert.assertEquals(1, listener.count.get());
+    }
+
+    @Test
+    public void testCompletionStageNotifiesWhenFailed() {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        CountingListener listener = new CountingListener();
+        FutureCompletion.whenDone(future, listener);
+
+        future.completeExceptionally(new IllegalStateException());
+
+        Assert.assertEquals(1, listener.count.get());
+    }
+
+    @Test
+    public void testPlainFutureIsPolled() throws InterruptedException {
+        FutureTask<String> future = newTask();
+        CountingListener listener = new CountingListener();
+        FutureCompletion.whenDone(future, listener);
+        Thread.sleep(FutureCompletion.POLL_INTERVAL_MILLIS * 3);
+        Assert.assertEquals(0, listener.count.get());
+
+        future.run();
+
+        Assert.assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(FutureCompletion.POLL_INTERVAL_MILLIS * 3);
+        Assert.assertEquals(1, listener.count.get());
+    }
+
+    @Test
+    public void testShutdownStopsPolling() throws InterruptedException {
+        FutureTask<String> future = newTask();
+        CountingListener listener = new CountingListener();
+        FutureCompletion.whenDone(future, listener);
+
+        FutureCompletion.shutdown();
+        future.run();
+        Thread.sleep(FutureCompletion.POLL_INTERVAL_MILLIS * 3);
+        Assert.assertEquals(0, listener.count.get());
+
+        // Polling starts again for futures registered after the shutdown.
+        FutureTask<String> next = newTask();
+        CountingListener nextListener = new CountingListener();
+        FutureCompletion.whenDone(next, nextListener);
+        next.run();
+        Assert.assertTrue(nextListener.latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsFuture() {
+        FutureTask<String> task = newTask();
+        Assert.assertSame(task, FutureCompletion.asFuture(task));
+
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        Assert.assertSame(stage, FutureCompletion.asFuture(stage));
+
+        Assert.assertNull(FutureCompletion.asFuture("result"));
+        Assert.assertNull(FutureCompletion.asFuture(null));
+    }
+
+    private static FutureTask<String> newTask() {
+        return new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                return "done";
+            }
+        });
+    }
+
+    private static class CountingListener implements Runnable {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        public void run() {
+            count.incrementAndGet();
+            latch.countDown();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import flex.management.BaseControl;
 import flex.management.runtime.AdminConsoleTypes;
 import flex.management.runtime.messaging.DestinationControl;
 import flex.messaging.services.remoting.RemotingDestination;
+import flex.messaging.services.remoting.ResultCache;
 
 /**
  * The <code>RemotingDestinationControl</code> class is the MBean implementation for
@@ -114,6 +115,41 @@ public class RemotingDestinationControl extends DestinationControl implements
         return Integer.valueOf(averageProcessingTimeMillis);
     }
 
+    /** {@inheritDoc} */
+    public Long getResultCacheHitCount() throws IOException
+    {
+        ResultCache cache = getResultCache();
+        return Long.valueOf(cache == null ? 0 : cache.getHitCount());
+    }
+
+    /** {@inheritDoc} */
+    public Long getResultCacheMissCount() throws IOException
+    {
+        ResultCache cache = getResultCache();
+        return Long.valueOf(cache == null ? 0 : cache.getMissCount());
+    }
+
+    /** {@inheritDoc} */
+    public Long getResultCacheEvictionCount() throws IOException
+    {
+        ResultCache cache = getResultCache();
+        return Long.valueOf(cache == null ? 0 : cache.getEvictionCount());
+    }
+
+    /** {@inheritDoc} */
+    public Integer getResultCacheEntryCount() throws IOException
+    {
+        ResultCache cache = getResultCache();
+        return Integer.valueOf(cache == null ? 0 : cache.getEntryCount());
+    }
+
+    /** {@inheritDoc} */
+    public Long getResultCacheSize() throws IOException
+    {
+        ResultCache cache = getResultCache();
+        return Long.valueOf(cache == null ? 0 : cache.getSize());
+    }
+
     /**
      * Callback used to register properties for display in the admin application.
      */
@@ -123,13 +159,19 @@ public class RemotingDestinationControl extends DestinationControl implements
         String name = this.getObjectName().getCanonicalName();
 
         String[] pollablePerInterval = { "InvocationSuccessCount", "InvocationFaultCount",
-                "AverageInvocationProcessingTimeMillis" };
+                "AverageInvocationProcessingTimeMillis", "ResultCacheHitCount", "ResultCacheMissCount",
+                "ResultCacheEvictionCount", "ResultCacheEntryCount", "ResultCacheSize" };
 
         getRegistrar().registerObjects(
                 new int[] {AdminConsoleTypes.DESTINATION_POLLABLE, AdminConsoleTypes.GRAPH_BY_POLL_INTERVAL},
                 name, pollablePerInterval);
     }
 
+    private ResultCache getResultCache()
+    {
+        return ((RemotingDestination)destination).getResultCache();
+    }
+
     /**
      * Helper method to reset state in the case of errors updating statistics.
      */
@@ -50,4 +50,48 @@ public interface RemotingDestinationControlMBean extends
      * @throws IOException Throws IOException.
      */
     Integer getAverageInvocationProcessingTimeMillis() throws IOException;
+
+    /**
+     * Returns the number of calls that were answered from the result cache
+     * of the destination.
+     *
+     * @return The number of result cache hits.
+     * @throws IOException Throws IOException.
+     */
+    Long getResultCacheHitCount() throws IOException;
+
+    /**
+     * Returns the number of calls to cached methods that were not answered
+     * from the result cache of the destination.
+     *
+     * @return The number of result cache misses.
+     * @throws IOException Throws IOException.
+     */
+    Long getResultCacheMissCount() throws IOException;
+
+    /**
+     * Returns the number of results that were evicted from the result cache
+     * of the destination to make room for others.
+     *
+     * @return The number of result cache evictions.
+     * @throws IOException Throws IOException.
+     */
+    Long getResultCacheEvictionCount() throws IOException;
+
+    /**
+     * Returns the number of results in the result cache of the destination.
+     *
+     * @return The number of cached results.
+     * @throws IOException Throws IOException.
+     */
+    Integer getResultCacheEntryCount() throws IOException;
+
+    /**
+     * Returns the number of bytes of the serialized results in the result
+     * cache of the destination.
+     *
+     * @return The size of the result cache in bytes.
+     * @throws IOException Throws IOException.
+     */
+    Long getResultCacheSize() throws IOException;
 }
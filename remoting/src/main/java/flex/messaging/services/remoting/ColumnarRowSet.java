@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import flex.messaging.FlexSession;
+import flex.messaging.FlexSessionBindingEvent;
+import flex.messaging.FlexSessionBindingListener;
+import flex.messaging.LocalizedException;
+import flex.messaging.io.PageableRowSet;
+
+/**
+ * A <code>PageableRowSet</code> whose rows have been copied out of the
+ * original row set into the blocks of a <code>RowSetPageStore</code>, so
+ * that the original <code>RowSet</code> and its connection do not have to be
+ * kept for paging. Blocks hold a fixed number of rows, so that a page is
+ * read from the few blocks it spans whatever its position.
+ * <p>
+ * The row set releases its blocks when it is removed from its
+ * <code>FlexSession</code>, and removes itself from the session if the store
+ * evicts it.
+ * </p>
+ *
+ * @see RowSetPageStore#cache(Object, PageableRowSet)
+ */
+public class ColumnarRowSet implements PageableRowSet, FlexSessionBindingListener
+{
+    private final RowSetPageStore store;
+    private final Object owner;
+    private final String id;
+    private final String[] columnNames;
+    private final int initialDownloadCount;
+    private String serviceName;
+
+    // Guarded by the store
+    private final List<RowSetPageStore.Slot> slots = new ArrayList<RowSetPageStore.Slot>();
+    private int rowCount;
+    private boolean released;
+
+    ColumnarRowSet(RowSetPageStore store, Object owner, PageableRowSet source) throws SQLException
+    {
+        this.store = store;
+        this.owner = owner != null ? owner : this;
+        id = source.getID();
+        serviceName = source.getServiceName();
+        columnNames = source.getColumnNames();
+        initialDownloadCount = source.getInitialDownloadCount();
+    }
+
+    /** {@inheritDoc} */
+    public String[] getColumnNames()
+    {
+        String[] names = new String[columnNames.length];
+        System.arraycopy(columnNames, 0, names, 0, columnNames.length);
+        return names;
+    }
+
+    /**
+     * Returns a page of records. Only the blocks that hold the records of the
+     * page are read, and blocks that were spilled to disk are loaded back.
+     *
+     * @param startIndex The index of the first record, starting at 1.
+     * @param count The number of records to return.
+     * @return A map with the page of records and the index of its first record.
+     * @throws SQLException if the row set has been evicted from its store.
+     */
+    public Map getRecords(int startIndex, int count) throws SQLException
+    {
+        if (startIndex < 1)
+            startIndex = 1;
+
+        int total = getRowCount();
+        int end = count <= 0 || startIndex > total ? startIndex - 1
+                : (int)Math.min((long)startIndex + count - 1, total);
+
+        Object[] page = new Object[end - startIndex + 1];
+        int row = startIndex - 1;
+        int i = 0;
+        while (row < end)
+        {
+            int blockIndex = row / RowSetPageStore.ROWS_PER_BLOCK;
+            RowBlock block = store.getBlock(this, blockIndex);
+            int offset = row - blockIndex * RowSetPageStore.ROWS_PER_BLOCK;
+            int rows = Math.min(block.getRowCount() - offset, end - row);
+            for (int j = 0; j < rows; j++)
+                page[i++] = block.getRow(offset + j);
+            row += rows;
+        }
+
+        Map result = new HashMap(2);
+        result.put(PAGE, page);
+        result.put(CURSOR, Integer.valueOf(startIndex));
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int getRowCount()
+    {
+        synchronized (store)
+        {
+            return rowCount;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getInitialDownloadCount()
+    {
+        return initialDownloadCount;
+    }
+
+    /** {@inheritDoc} */
+    public String getID()
+    {
+        return id;
+    }
+
+    /** {@inheritDoc} */
+    public String getServiceName()
+    {
+        return serviceName;
+    }
+
+    /** {@inheritDoc} */
+    public void setServicename(String serviceName)
+    {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Returns whether the row set has been released or evicted from its store.
+     *
+     * @return <code>true</code> if the rows are no longer available.
+     */
+    public boolean isReleased()
+    {
+        synchronized (store)
+        {
+            return released;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void valueBound(FlexSessionBindingEvent event)
+    {
+        // No-op.
+    }
+
+    /**
+     * Releases the blocks of the row set once it is removed from its session.
+     *
+     * @param event The event.
+     */
+    public void valueUnbound(FlexSessionBindingEvent event)
+    {
+        store.release(this);
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Protected/private APIs
+    //
+    //--------------------------------------------------------------------------
+
+    Object getOwner()
+    {
+        return owner;
+    }
+
+    List<RowSetPageStore.Slot> getSlots()
+    {
+        return slots;
+    }
+
+    void addRows(int rows)
+    {
+        rowCount += rows;
+    }
+
+    boolean markReleased()
+    {
+        boolean wasReleased = released;
+        released = true;
+        return !wasReleased;
+    }
+
+    /**
+     * Invoked by the store, outside of its lock, once the row set has been
+     * evicted, to remove the row set from its session.
+     */
+    void evicted()
+    {
+        if (owner instanceof FlexSession)
+        {
+            FlexSession session = (FlexSession)owner;
+            try
+            {
+                if (session.isValid() && session.getAttribute(id) == this)
+                    session.removeAttribute(id);
+            }
+            catch (LocalizedException e)
+            {
+                // The session was invalidated concurrently, which unbinds the row set.
+            }
+        }
+    }
+}
@@ -22,10 +22,15 @@ import java.util.Map;
 
 import javax.sql.RowSet;
 
+import flex.messaging.Destination;
 import flex.messaging.FlexContext;
 import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
 import flex.messaging.io.PageableRowSet;
 import flex.messaging.io.PagedRowSet;
+import flex.messaging.log.Log;
+import flex.messaging.services.RemotingService;
+import flex.messaging.services.Service;
 
 /**
  * A special RemotingService destination that caches a PageableRowSet
@@ -36,9 +41,17 @@ import flex.messaging.io.PagedRowSet;
  * of a java.sql.ResultSet because the data has to be disconnected and 
  * cacheable.
  * 
+ * The rows of a cached PageableRowSet are copied into the RowSetPageStore
+ * of the destination the row set is paged through, its service name, which
+ * bounds the memory the cached rows take overall and per session, so that
+ * the original RowSet does not have to be kept. The budgets of the store are
+ * configured with the row-set-cache property of that destination. A row set
+ * that does not fit is not cached; only its first page is sent.
+ * 
  * The RemotingService's JavaAdapter is expected to manage this instance.
  *
  * @see flex.messaging.io.PageableRowSet
+ * @see RowSetPageStore
  */
 public class PageableRowSetCache
 {
@@ -69,23 +82,19 @@ public class PageableRowSetCache
             pageSize = DEFAULT_PAGE_SIZE;
 
         PageableRowSet prs = new PagedRowSet(rowset, pageSize, true);
-        cachePageableRowSet(prs);
-        return prs;
+        return cache(prs);
     }
 
     /**
      * Stores the PageableRowSet result in the session to act as a cache
-     * for the legacy client RecordSet paging feature.
+     * for the legacy client RecordSet paging feature. The rows are copied
+     * into the RowSetPageStore and the copy is stored in the session.
      * 
      * @param rowset PageableRowSet to be cached for paged access.
      */
     public static void cachePageableRowSet(PageableRowSet rowset)
     {
-        if (rowset != null)
-        {
-            FlexSession session = FlexContext.getFlexSession();
-            session.setAttribute(rowset.getID(), rowset);
-        }
+        cache(rowset);
     }
 
     /**
@@ -132,4 +141,72 @@ public class PageableRowSetCache
             session.removeAttribute(id);
         }
     }
+
+    private static PageableRowSet cache(PageableRowSet rowset)
+    {
+        if (rowset == null)
+            return null;
+
+        FlexSession session = FlexContext.getFlexSession();
+        if (session == null)
+            return rowset;
+
+        if (rowset instanceof ColumnarRowSet)
+        {
+            session.setAttribute(rowset.getID(), rowset);
+            return rowset;
+        }
+
+        RowSetPageStore store = getRowSetPageStore(rowset.getServiceName());
+        ColumnarRowSet copy = null;
+        String reason = null;
+        if (store == null)
+        {
+            reason = "there is no remoting destination '" + rowset.getServiceName() + "' to page it through";
+        }
+        else
+        {
+            try
+            {
+                copy = store.cache(session, rowset);
+                if (copy == null)
+                    reason = "it does not fit within the budgets of the paging cache";
+            }
+            catch (SQLException e)
+            {
+                reason = "its rows could not be read: " + e;
+            }
+        }
+
+        if (copy != null)
+        {
+            session.setAttribute(rowset.getID(), copy);
+
+            // The copy may have been evicted before it was bound to the session.
+            if (!copy.isReleased())
+                return copy;
+
+            session.removeAttribute(rowset.getID());
+            reason = "it was evicted from the paging cache";
+        }
+
+        // The original row set is not kept in the session, where it would hold
+        // on to its RowSet without any bound. Its first page is still sent,
+        // but further pages cannot be requested.
+        if (Log.isWarn())
+            Log.getLogger(RemotingDestination.LOG_CATEGORY).warn("Row set '" + rowset.getID()
+                    + "' is not cached for paging because " + reason + ".");
+        return rowset;
+    }
+
+    private static RowSetPageStore getRowSetPageStore(String destinationId)
+    {
+        MessageBroker broker = FlexContext.getMessageBroker();
+        if (broker == null || destinationId == null)
+            return null;
+
+        Service service = broker.getServiceByType(RemotingService.class.getName());
+        Destination destination = service == null ? null : service.getDestination(destinationId);
+        return destination instanceof RemotingDestination ? ((RemotingDestination)destination).getRowSetPageStore() : null;
+    }
 }
@@ -20,6 +20,7 @@ import flex.management.runtime.messaging.services.remoting.RemotingDestinationCo
 import flex.messaging.FactoryDestination;
 import flex.messaging.MessageBroker;
 import flex.messaging.MessageException;
+import flex.messaging.config.ConfigMap;
 import flex.messaging.util.MethodMatcher;
 import flex.messaging.log.LogCategories;
 import flex.messaging.services.RemotingService;
@@ -42,6 +43,8 @@ public class RemotingDestination extends FactoryDestination
 
     // RemotingDestination internal
     private MethodMatcher methodMatcher;
+    private ResultCache resultCache;
+    private RowSetPageStore rowSetPageStore;
 
     private RemotingDestinationControl controller;
 
@@ -112,6 +115,103 @@ public class RemotingDestination extends FactoryDestination
     //
     //--------------------------------------------------------------------------
 
+    /**
+     * Initializes the <code>RemotingDestination</code> with the properties,
+     * including the settings of its result cache and of the store of the
+     * row sets it pages.
+     *
+     * @param id The id of the destination.
+     * @param properties Properties for the destination.
+     */
+    @Override
+    public void initialize(String id, ConfigMap properties)
+    {
+        super.initialize(id, properties);
+
+        if (properties == null || properties.size() == 0)
+            return;
+
+        ConfigMap cacheSettings = properties.getPropertyAsMap(ResultCache.RESULT_CACHE_ELEMENT, null);
+        if (cacheSettings != null)
+        {
+            ResultCache cache = new ResultCache();
+            cache.initialize(id, cacheSettings);
+            resultCache = cache;
+        }
+
+        ConfigMap rowSetSettings = properties.getPropertyAsMap(RowSetPageStore.ROW_SET_CACHE_ELEMENT, null);
+        if (rowSetSettings != null)
+        {
+            RowSetPageStore store = new RowSetPageStore();
+            store.initialize(rowSetSettings);
+            rowSetPageStore = store;
+        }
+    }
+
+    /**
+     * Stops the <code>RemotingDestination</code>, releasing the row sets it
+     * pages and deleting their spill file.
+     */
+    @Override
+    public void stop()
+    {
+        super.stop();
+
+        RowSetPageStore store;
+        synchronized (this)
+        {
+            store = rowSetPageStore;
+        }
+        if (store != null)
+            store.clear();
+    }
+
+    /**
+     * Returns the cache of the results of the idempotent operations of
+     * the destination.
+     *
+     * @return The result cache, or <code>null</code> if results are not cached.
+     */
+    public ResultCache getResultCache()
+    {
+        return resultCache;
+    }
+
+    /**
+     * Sets the cache of the results of the idempotent operations of
+     * the destination.
+     *
+     * @param resultCache The result cache, or <code>null</code> to not cache results.
+     */
+    public void setResultCache(ResultCache resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the store of the row sets that are paged through the
+     * destination by <code>PageableRowSetCache</code>. A store with the
+     * default budgets is created if the destination does not configure one.
+     *
+     * @return The row set store.
+     */
+    public synchronized RowSetPageStore getRowSetPageStore()
+    {
+        if (rowSetPageStore == null)
+            rowSetPageStore = new RowSetPageStore();
+        return rowSetPageStore;
+    }
+
+    /**
+     * Sets the store of the row sets that are paged through the destination.
+     *
+     * @param rowSetPageStore The row set store.
+     */
+    public synchronized void setRowSetPageStore(RowSetPageStore rowSetPageStore)
+    {
+        this.rowSetPageStore = rowSetPageStore;
+    }
+
     /**
      * Returns the log category of the <code>RemotingDestination</code>.
      *
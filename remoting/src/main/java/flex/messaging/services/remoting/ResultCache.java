@@ -0,0 +1,590 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import flex.messaging.FlexContext;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.config.ConfigurationException;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.Amf3EncodedValue;
+import flex.messaging.io.amf.Amf3Template;
+import flex.messaging.log.Log;
+import flex.messaging.util.concurrent.FutureCompletion;
+
+/**
+ * Caches the results of the idempotent operations of a
+ * <code>RemotingDestination</code>, such as operations that serve reference
+ * data that rarely changes.
+ * <p>
+ * A result is cached in its serialized AMF 3 form, as an
+ * <code>Amf3EncodedValue</code> that is returned in place of the result, so
+ * that a cache hit skips both the invocation and the serialization of the
+ * result. Only the methods listed in <code>include-methods</code> are cached,
+ * either per method or, with <code>key-by-arguments</code>, per method and
+ * arguments; the arguments are encoded into the key before the method runs, so
+ * a method that modifies them does not change the key its result is cached
+ * under. Entries expire after <code>time-to-live-millis</code>, and the
+ * least recently used entries are evicted once the cache holds more than
+ * <code>max-entries</code> results or more than <code>max-bytes</code> bytes.
+ * </p>
+ * <p>
+ * A cached result keeps an encoding for each set of serialization settings it
+ * is written with, and the result itself, which AMF 0 and AMFX responses are
+ * written from. All of its encodings count towards <code>max-bytes</code>, as
+ * does the result, which is estimated at the size of its first encoding.
+ * </p>
+ * <p>
+ * Cached results are shared by all clients, so only operations whose results
+ * do not depend on the caller should be cached, unless
+ * <code>key-by-principal</code> keys them by the authenticated user as well.
+ * Methods that have a security constraint, or whose destination has one, are
+ * not cached unless <code>key-by-principal</code> is set. Method level security
+ * constraints are still checked on every call. Results must not be modified
+ * once they have been returned.
+ * </p>
+ * <pre>
+ * &lt;result-cache&gt;
+ *     &lt;include-methods&gt;
+ *         &lt;method name="getCountries"/&gt;
+ *     &lt;/include-methods&gt;
+ *     &lt;time-to-live-millis&gt;60000&lt;/time-to-live-millis&gt;
+ *     &lt;max-entries&gt;1000&lt;/max-entries&gt;
+ *     &lt;max-bytes&gt;10485760&lt;/max-bytes&gt;
+ *     &lt;key-by-arguments&gt;true&lt;/key-by-arguments&gt;
+ *     &lt;key-by-principal&gt;false&lt;/key-by-principal&gt;
+ * &lt;/result-cache&gt;
+ * </pre>
+ */
+public class ResultCache
+{
+    /** The element of the destination properties that configures the cache. */
+    public static final String RESULT_CACHE_ELEMENT = "result-cache";
+
+    private static final String INCLUDE_METHODS_ELEMENT = "include-methods";
+    private static final String METHOD_ELEMENT = "method";
+    private static final String NAME_ELEMENT = "name";
+    private static final String TIME_TO_LIVE_MILLIS_ELEMENT = "time-to-live-millis";
+    private static final String MAX_ENTRIES_ELEMENT = "max-entries";
+    private static final String MAX_BYTES_ELEMENT = "max-bytes";
+    private static final String KEY_BY_ARGUMENTS_ELEMENT = "key-by-arguments";
+    private static final String KEY_BY_PRINCIPAL_ELEMENT = "key-by-principal";
+
+    /** The default number of milliseconds a result is cached for. */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+
+    /** The default maximum number of cached results. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The default maximum number of bytes of cached results. */
+    public static final long DEFAULT_MAX_BYTES = 10485760;
+
+    private final Set<String> includeMethods = new HashSet<String>();
+    private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private boolean keyByArguments = true;
+    private boolean keyByPrincipal;
+
+    // Guarded by this. Iterates from the least to the most recently used entry.
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs an empty <code>ResultCache</code> that caches no methods.
+     */
+    public ResultCache()
+    {
+    }
+
+    /**
+     * Initializes the cache with the settings of the <code>result-cache</code>
+     * element of a destination.
+     *
+     * @param destinationId The id of the destination.
+     * @param properties The cache settings.
+     */
+    public void initialize(String destinationId, ConfigMap properties)
+    {
+        ConfigMap methods = properties.getPropertyAsMap(INCLUDE_METHODS_ELEMENT, null);
+        List methodList = methods == null ? null : methods.getPropertyAsList(METHOD_ELEMENT, null);
+        if (methodList == null || methodList.isEmpty())
+        {
+            ConfigurationException ce = new ConfigurationException();
+            ce.setMessage("The <" + RESULT_CACHE_ELEMENT + "> of remoting destination '" + destinationId
+                    + "' must list the methods to cache in <" + INCLUDE_METHODS_ELEMENT + ">.");
+            throw ce;
+        }
+        for (Object method : methodList)
+        {
+            String name = ((ConfigMap)method).getPropertyAsString(NAME_ELEMENT, null);
+            if (name != null)
+                addIncludeMethod(name);
+        }
+
+        setTimeToLiveMillis(properties.getPropertyAsLong(TIME_TO_LIVE_MILLIS_ELEMENT, timeToLiveMillis));
+        setMaxEntries(properties.getPropertyAsInt(MAX_ENTRIES_ELEMENT, maxEntries));
+        setMaxBytes(properties.getPropertyAsLong(MAX_BYTES_ELEMENT, maxBytes));
+        setKeyByArguments(properties.getPropertyAsBoolean(KEY_BY_ARGUMENTS_ELEMENT, keyByArguments));
+        setKeyByPrincipal(properties.getPropertyAsBoolean(KEY_BY_PRINCIPAL_ELEMENT, keyByPrincipal));
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Public Getters and Setters for ResultCache properties
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Adds a method whose results are cached. Methods must be added before
+     * the destination is started.
+     *
+     * @param methodName The name of the method.
+     */
+    public void addIncludeMethod(String methodName)
+    {
+        includeMethods.add(methodName);
+    }
+
+    /**
+     * Returns the names of the methods whose results are cached.
+     *
+     * @return The names of the methods.
+     */
+    public Set<String> getIncludeMethods()
+    {
+        return Collections.unmodifiableSet(includeMethods);
+    }
+
+    public long getTimeToLiveMillis()
+    {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Sets how long a result is cached. A value of 0 caches results until
+     * they are evicted.
+     *
+     * @param value The time to live in milliseconds.
+     */
+    public void setTimeToLiveMillis(long value)
+    {
+        if (value < 0)
+            invalidValue(TIME_TO_LIVE_MILLIS_ELEMENT, value);
+        timeToLiveMillis = value;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of cached results.
+     *
+     * @param value The maximum number of entries.
+     */
+    public void setMaxEntries(int value)
+    {
+        if (value < 1)
+            invalidValue(MAX_ENTRIES_ELEMENT, value);
+        maxEntries = value;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes the cached results and their encodings
+     * may take. Results that are larger on their own are not cached.
+     *
+     * @param value The maximum number of bytes.
+     */
+    public void setMaxBytes(long value)
+    {
+        if (value < 1)
+            invalidValue(MAX_BYTES_ELEMENT, value);
+        maxBytes = value;
+    }
+
+    public boolean isKeyByArguments()
+    {
+        return keyByArguments;
+    }
+
+    /**
+     * Sets whether results are cached per method and arguments, or per
+     * method only.
+     *
+     * @param value <code>true</code> to key results by their arguments.
+     */
+    public void setKeyByArguments(boolean value)
+    {
+        keyByArguments = value;
+    }
+
+    public boolean isKeyByPrincipal()
+    {
+        return keyByPrincipal;
+    }
+
+    /**
+     * Sets whether results are cached per authenticated user. Only caches
+     * keyed by principal cache the methods of secured destinations.
+     *
+     * @param value <code>true</code> to key results by the user principal.
+     */
+    public void setKeyByPrincipal(boolean value)
+    {
+        keyByPrincipal = value;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Other Public APIs
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns whether the results of a method are cached.
+     *
+     * @param methodName The name of the method.
+     * @return <code>true</code> if the results of the method are cached.
+     */
+    public boolean isCacheable(String methodName)
+    {
+        return includeMethods.contains(methodName);
+    }
+
+    /**
+     * Creates the key a call is cached under. The key must be created before
+     * the method is invoked, which may convert its arguments in place. The
+     * arguments are encoded in AMF 3 rather than referenced by the key.
+     *
+     * @param methodName The name of the method.
+     * @param parameters The arguments of the call.
+     * @return The key, or <code>null</code> if the call cannot be cached
+     * because its arguments cannot be encoded.
+     */
+    public Object createKey(String methodName, List parameters)
+    {
+        byte[] arguments = null;
+        if (keyByArguments)
+        {
+            try
+            {
+                Object[] values = parameters == null ? new Object[0] : parameters.toArray();
+                arguments = new Amf3EncodedValue(values).getTemplate(SerializationContext.getSerializationContext()).getBytes();
+            }
+            catch (Exception e)
+            {
+                if (Log.isDebug())
+                    Log.getLogger(RemotingDestination.LOG_CATEGORY).debug("Unable to cache the results of '" + methodName
+                            + "' for arguments that cannot be encoded: " + e);
+                return null;
+            }
+        }
+
+        String principal = null;
+        if (keyByPrincipal)
+        {
+            Principal user = FlexContext.getUserPrincipal();
+            principal = user == null ? null : user.getName();
+        }
+        return new Key(methodName, arguments, principal);
+    }
+
+    /**
+     * Returns the cached result of a call.
+     *
+     * @param key The key returned by <code>createKey()</code>.
+     * @return The cached result, or <code>null</code> if the call is not cached.
+     */
+    public Object get(Object key)
+    {
+        Entry entry;
+        synchronized (this)
+        {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= currentTimeMillis())
+            {
+                remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null)
+        {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches the result of a call in its serialized form.
+     *
+     * @param key The key returned by <code>createKey()</code>.
+     * @param result The result of the call.
+     * @return The value to answer the call with: the cached result, or the
+     * result itself if it cannot be cached.
+     */
+    public Object put(Object key, Object result)
+    {
+        if (result == null || result instanceof Amf3EncodedValue || FutureCompletion.asFuture(result) != null)
+            return result;
+
+        CachedValue value = new CachedValue(result);
+        long valueSize;
+        try
+        {
+            // The result itself is estimated at the size of its encoding.
+            valueSize = 2L * value.getTemplate(SerializationContext.getSerializationContext()).getBytes().length;
+        }
+        catch (Exception e)
+        {
+            if (Log.isDebug())
+                Log.getLogger(RemotingDestination.LOG_CATEGORY).debug("Unable to cache the result of '" + key + "': " + e);
+            return result;
+        }
+
+        // The result is already encoded, so it is answered in its encoded form.
+        if (valueSize > maxBytes)
+            return value;
+
+        long expires = timeToLiveMillis > 0 ? currentTimeMillis() + timeToLiveMillis : Long.MAX_VALUE;
+        synchronized (this)
+        {
+            remove(key);
+            Entry entry = new Entry(key, value, valueSize, expires);
+            value.entry = entry;
+            entries.put(key, entry);
+            size += valueSize;
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Statistics
+    //
+    //--------------------------------------------------------------------------
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of results that were removed to make room for others.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of bytes of the cached results and their encodings.
+     *
+     * @return The size of the cache in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Protected/private APIs
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the current time. Tests override this to control expiry.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Counts an encoding of a cached result that was added when the result
+     * was written with other serialization settings.
+     */
+    private synchronized void templateEncoded(Entry entry, int templateSize)
+    {
+        // The entry may have expired or been evicted since. The lookup counts
+        // as a use, as the result is being written.
+        if (entries.get(entry.key) != entry)
+            return;
+        entry.size += templateSize;
+        size += templateSize;
+        evict();
+    }
+
+    // Callers must hold the lock of the cache.
+    private void evict()
+    {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || size > maxBytes) && iterator.hasNext())
+        {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.size;
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void remove(Object key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            size -= entry.size;
+    }
+
+    private static void invalidValue(String element, long value)
+    {
+        ConfigurationException ce = new ConfigurationException();
+        ce.setMessage("Invalid value '" + value + "' for <" + element + "> of <" + RESULT_CACHE_ELEMENT + ">.");
+        throw ce;
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry
+    {
+        final Object key;
+        final Amf3EncodedValue value;
+        final long expires;
+        // Guarded by the cache.
+        long size;
+
+        Entry(Object key, Amf3EncodedValue value, long size, long expires)
+        {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A cached result, which reports the encodings added to it once it has
+     * been cached.
+     */
+    private final class CachedValue extends Amf3EncodedValue
+    {
+        volatile Entry entry;
+
+        CachedValue(Object value)
+        {
+            super(value);
+        }
+
+        @Override
+        protected void templateEncoded(Amf3Template template)
+        {
+            Entry cached = entry;
+            if (cached != null)
+                ResultCache.this.templateEncoded(cached, template.getBytes().length);
+        }
+    }
+
+    /**
+     * The key of a cached call: the method, the encoded arguments if results are
+     * keyed by arguments, and the principal name if they are keyed by principal.
+     */
+    private static final class Key
+    {
+        private final String methodName;
+        private final byte[] arguments;
+        private final String principal;
+        private final int hash;
+
+        Key(String methodName, byte[] arguments, String principal)
+        {
+            this.methodName = methodName;
+            this.arguments = arguments;
+            this.principal = principal;
+            hash = (methodName.hashCode() * 31 + Arrays.hashCode(arguments)) * 31
+                    + (principal == null ? 0 : principal.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key)o;
+            return hash == other.hash && methodName.equals(other.methodName) && Arrays.equals(arguments, other.arguments)
+                    && (principal == null ? other.principal == null : principal.equals(other.principal));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return principal == null ? methodName : methodName + " for " + principal;
+        }
+    }
+}
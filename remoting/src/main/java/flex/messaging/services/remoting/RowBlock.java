@@ -0,0 +1,602 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A block of consecutive rows of a <code>ColumnarRowSet</code>, stored column
+ * by column. Columns whose values are all <code>Integer</code>,
+ * <code>Long</code>, <code>Double</code> or <code>Boolean</code> are stored
+ * as primitive arrays, other columns as arrays of values. A block is
+ * immutable, and can be encoded in a compact binary form to be spilled to
+ * disk as long as its values are of the common JDBC types.
+ */
+final class RowBlock
+{
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_INT = 1;
+    private static final byte KIND_LONG = 2;
+    private static final byte KIND_DOUBLE = 3;
+    private static final byte KIND_BOOLEAN = 4;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_SHORT = 6;
+    private static final byte TAG_BYTE = 7;
+    private static final byte TAG_BOOLEAN = 8;
+    private static final byte TAG_CHARACTER = 9;
+    private static final byte TAG_BIG_DECIMAL = 10;
+    private static final byte TAG_BIG_INTEGER = 11;
+    private static final byte TAG_BYTES = 12;
+    private static final byte TAG_DATE = 13;
+    private static final byte TAG_SQL_DATE = 14;
+    private static final byte TAG_TIME = 15;
+    private static final byte TAG_TIMESTAMP = 16;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final int rowCount;
+    private final byte[] kinds;
+    private final Object[] columns;
+    // The null values of primitive columns, or null if a column has none
+    private final BitSet[] nulls;
+    // The length of each row, or null if every row has a value per column
+    private final int[] rowLengths;
+    private final long size;
+
+    private RowBlock(int rowCount, byte[] kinds, Object[] columns, BitSet[] nulls, int[] rowLengths)
+    {
+        this.rowCount = rowCount;
+        this.kinds = kinds;
+        this.columns = columns;
+        this.nulls = nulls;
+        this.rowLengths = rowLengths;
+        size = estimateSize();
+    }
+
+    /**
+     * Creates a block from a page of rows, as returned by
+     * <code>PageableRowSet.getRecords()</code>.
+     *
+     * @param rows The rows, each an array or a list of column values.
+     * @param columnCount The number of columns of the row set.
+     * @return The block.
+     */
+    static RowBlock create(Object[] rows, int columnCount)
+    {
+        Object[][] values = new Object[rows.length][];
+        int width = columnCount;
+        boolean uniform = true;
+        for (int i = 0; i < rows.length; i++)
+        {
+            Object row = rows[i];
+            if (row instanceof Object[])
+                values[i] = (Object[])row;
+            else if (row instanceof List)
+                values[i] = ((List)row).toArray();
+            else
+                values[i] = new Object[0];
+
+            if (values[i].length != columnCount)
+                uniform = false;
+            width = Math.max(width, values[i].length);
+        }
+
+        int[] rowLengths = null;
+        if (!uniform)
+        {
+            rowLengths = new int[rows.length];
+            for (int i = 0; i < rows.length; i++)
+                rowLengths[i] = values[i].length;
+        }
+
+        byte[] kinds = new byte[width];
+        Object[] columns = new Object[width];
+        BitSet[] nulls = new BitSet[width];
+        for (int c = 0; c < width; c++)
+        {
+            byte kind = columnKind(values, c);
+            BitSet columnNulls = null;
+            Object column;
+            if (kind == KIND_OBJECT)
+            {
+                Object[] objects = new Object[rows.length];
+                for (int i = 0; i < rows.length; i++)
+                    objects[i] = value(values[i], c);
+                column = objects;
+            }
+            else
+            {
+                columnNulls = new BitSet(rows.length);
+                column = primitiveColumn(kind, rows.length);
+                for (int i = 0; i < rows.length; i++)
+                {
+                    Object value = value(values[i], c);
+                    if (value == null)
+                        columnNulls.set(i);
+                    else
+                        setPrimitive(kind, column, i, value);
+                }
+                if (columnNulls.isEmpty())
+                    columnNulls = null;
+            }
+            kinds[c] = kind;
+            columns[c] = column;
+            nulls[c] = columnNulls;
+        }
+
+        return new RowBlock(rows.length, kinds, columns, nulls, rowLengths);
+    }
+
+    /**
+     * Decodes a block encoded by <code>encode()</code>.
+     *
+     * @param bytes The encoded block.
+     * @return The block.
+     * @throws IOException if the bytes are not an encoded block.
+     */
+    static RowBlock decode(byte[] bytes) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int rowCount = in.readInt();
+        int width = in.readInt();
+
+        int[] rowLengths = null;
+        if (in.readBoolean())
+        {
+            rowLengths = new int[rowCount];
+            for (int i = 0; i < rowCount; i++)
+                rowLengths[i] = in.readInt();
+        }
+
+        byte[] kinds = new byte[width];
+        Object[] columns = new Object[width];
+        BitSet[] nulls = new BitSet[width];
+        for (int c = 0; c < width; c++)
+        {
+            byte kind = in.readByte();
+            kinds[c] = kind;
+            if (kind == KIND_OBJECT)
+            {
+                Object[] objects = new Object[rowCount];
+                for (int i = 0; i < rowCount; i++)
+                    objects[i] = readValue(in);
+                columns[c] = objects;
+                continue;
+            }
+
+            if (in.readBoolean())
+                nulls[c] = readBits(in, rowCount);
+            Object column = primitiveColumn(kind, rowCount);
+            for (int i = 0; i < rowCount; i++)
+            {
+                if (kind == KIND_INT)
+                    ((int[])column)[i] = in.readInt();
+                else if (kind == KIND_LONG)
+                    ((long[])column)[i] = in.readLong();
+                else if (kind == KIND_DOUBLE)
+                    ((double[])column)[i] = in.readDouble();
+                else
+                    ((boolean[])column)[i] = in.readBoolean();
+            }
+            columns[c] = column;
+        }
+
+        return new RowBlock(rowCount, kinds, columns, nulls, rowLengths);
+    }
+
+    /**
+     * Returns the number of rows of the block.
+     *
+     * @return The number of rows.
+     */
+    int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns the estimated number of bytes of heap the block takes.
+     *
+     * @return The estimated size of the block.
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns a new array with the values of a row.
+     *
+     * @param index The index of the row in the block.
+     * @return The values of the row.
+     */
+    Object[] getRow(int index)
+    {
+        int length = rowLengths == null ? columns.length : rowLengths[index];
+        Object[] row = new Object[length];
+        for (int c = 0; c < length; c++)
+        {
+            Object column = columns[c];
+            byte kind = kinds[c];
+            if (kind == KIND_OBJECT)
+                row[c] = ((Object[])column)[index];
+            else if (nulls[c] != null && nulls[c].get(index))
+                row[c] = null;
+            else if (kind == KIND_INT)
+                row[c] = Integer.valueOf(((int[])column)[index]);
+            else if (kind == KIND_LONG)
+                row[c] = Long.valueOf(((long[])column)[index]);
+            else if (kind == KIND_DOUBLE)
+                row[c] = Double.valueOf(((double[])column)[index]);
+            else
+                row[c] = Boolean.valueOf(((boolean[])column)[index]);
+        }
+        return row;
+    }
+
+    /**
+     * Encodes the block so that it can be spilled to disk.
+     *
+     * @return The encoded block, or <code>null</code> if the block holds a
+     * value of a type that cannot be encoded.
+     */
+    byte[] encode()
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)Math.min(size, 65536));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(rowCount);
+            out.writeInt(columns.length);
+
+            out.writeBoolean(rowLengths != null);
+            if (rowLengths != null)
+            {
+                for (int i = 0; i < rowCount; i++)
+                    out.writeInt(rowLengths[i]);
+            }
+
+            for (int c = 0; c < columns.length; c++)
+            {
+                byte kind = kinds[c];
+                Object column = columns[c];
+                out.writeByte(kind);
+                if (kind == KIND_OBJECT)
+                {
+                    for (Object value : (Object[])column)
+                    {
+                        if (!writeValue(out, value))
+                            return null;
+                    }
+                    continue;
+                }
+
+                out.writeBoolean(nulls[c] != null);
+                if (nulls[c] != null)
+                    writeBits(out, nulls[c], rowCount);
+                for (int i = 0; i < rowCount; i++)
+                {
+                    if (kind == KIND_INT)
+                        out.writeInt(((int[])column)[i]);
+                    else if (kind == KIND_LONG)
+                        out.writeLong(((long[])column)[i]);
+                    else if (kind == KIND_DOUBLE)
+                        out.writeDouble(((double[])column)[i]);
+                    else
+                        out.writeBoolean(((boolean[])column)[i]);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            // Not thrown by a ByteArrayOutputStream
+            return null;
+        }
+    }
+
+    private static Object value(Object[] row, int column)
+    {
+        return column < row.length ? row[column] : null;
+    }
+
+    private static byte columnKind(Object[][] values, int column)
+    {
+        Class type = null;
+        for (Object[] row : values)
+        {
+            Object value = value(row, column);
+            if (value == null)
+                continue;
+            if (type == null)
+                type = value.getClass();
+            else if (type != value.getClass())
+                return KIND_OBJECT;
+        }
+
+        if (type == Integer.class)
+            return KIND_INT;
+        if (type == Long.class)
+            return KIND_LONG;
+        if (type == Double.class)
+            return KIND_DOUBLE;
+        if (type == Boolean.class)
+            return KIND_BOOLEAN;
+        return KIND_OBJECT;
+    }
+
+    private static Object primitiveColumn(byte kind, int length)
+    {
+        if (kind == KIND_INT)
+            return new int[length];
+        if (kind == KIND_LONG)
+            return new long[length];
+        if (kind == KIND_DOUBLE)
+            return new double[length];
+        return new boolean[length];
+    }
+
+    private static void setPrimitive(byte kind, Object column, int index, Object value)
+    {
+        if (kind == KIND_INT)
+            ((int[])column)[index] = ((Integer)value).intValue();
+        else if (kind == KIND_LONG)
+            ((long[])column)[index] = ((Long)value).longValue();
+        else if (kind == KIND_DOUBLE)
+            ((double[])column)[index] = ((Double)value).doubleValue();
+        else
+            ((boolean[])column)[index] = ((Boolean)value).booleanValue();
+    }
+
+    private long estimateSize()
+    {
+        // Object headers and references are estimated for a 64-bit VM
+        long estimate = 64 + (rowLengths == null ? 0 : 16 + 4L * rowCount);
+        for (int c = 0; c < columns.length; c++)
+        {
+            estimate += 16;
+            if (nulls[c] != null)
+                estimate += 40 + rowCount / 8;
+
+            byte kind = kinds[c];
+            if (kind == KIND_INT)
+                estimate += 4L * rowCount;
+            else if (kind == KIND_LONG || kind == KIND_DOUBLE)
+                estimate += 8L * rowCount;
+            else if (kind == KIND_BOOLEAN)
+                estimate += rowCount;
+            else
+            {
+                for (Object value : (Object[])columns[c])
+                    estimate += 8 + valueSize(value);
+            }
+        }
+        return estimate;
+    }
+
+    private static long valueSize(Object value)
+    {
+        if (value == null)
+            return 0;
+        if (value instanceof String)
+            return 40 + 2L * ((String)value).length();
+        if (value instanceof byte[])
+            return 16 + ((byte[])value).length;
+        if (value instanceof BigDecimal || value instanceof BigInteger)
+            return 64;
+        return 24;
+    }
+
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(TAG_NULL);
+            return true;
+        }
+
+        Class type = value.getClass();
+        if (type == String.class)
+        {
+            out.writeByte(TAG_STRING);
+            writeBytes(out, ((String)value).getBytes(UTF8));
+        }
+        else if (type == Integer.class)
+        {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt(((Integer)value).intValue());
+        }
+        else if (type == Long.class)
+        {
+            out.writeByte(TAG_LONG);
+            out.writeLong(((Long)value).longValue());
+        }
+        else if (type == Double.class)
+        {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Double)value).doubleValue());
+        }
+        else if (type == Float.class)
+        {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat(((Float)value).floatValue());
+        }
+        else if (type == Short.class)
+        {
+            out.writeByte(TAG_SHORT);
+            out.writeShort(((Short)value).shortValue());
+        }
+        else if (type == Byte.class)
+        {
+            out.writeByte(TAG_BYTE);
+            out.writeByte(((Byte)value).byteValue());
+        }
+        else if (type == Boolean.class)
+        {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean(((Boolean)value).booleanValue());
+        }
+        else if (type == Character.class)
+        {
+            out.writeByte(TAG_CHARACTER);
+            out.writeChar(((Character)value).charValue());
+        }
+        else if (type == BigDecimal.class)
+        {
+            BigDecimal decimal = (BigDecimal)value;
+            out.writeByte(TAG_BIG_DECIMAL);
+            out.writeInt(decimal.scale());
+            writeBytes(out, decimal.unscaledValue().toByteArray());
+        }
+        else if (type == BigInteger.class)
+        {
+            out.writeByte(TAG_BIG_INTEGER);
+            writeBytes(out, ((BigInteger)value).toByteArray());
+        }
+        else if (type == byte[].class)
+        {
+            out.writeByte(TAG_BYTES);
+            writeBytes(out, (byte[])value);
+        }
+        else if (type == Date.class)
+        {
+            out.writeByte(TAG_DATE);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if (type == java.sql.Date.class)
+        {
+            out.writeByte(TAG_SQL_DATE);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if (type == Time.class)
+        {
+            out.writeByte(TAG_TIME);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if (type == Timestamp.class)
+        {
+            Timestamp timestamp = (Timestamp)value;
+            out.writeByte(TAG_TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException
+    {
+        byte tag = in.readByte();
+        switch (tag)
+        {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return new String(readBytes(in), UTF8);
+            case TAG_INTEGER:
+                return Integer.valueOf(in.readInt());
+            case TAG_LONG:
+                return Long.valueOf(in.readLong());
+            case TAG_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TAG_FLOAT:
+                return Float.valueOf(in.readFloat());
+            case TAG_SHORT:
+                return Short.valueOf(in.readShort());
+            case TAG_BYTE:
+                return Byte.valueOf(in.readByte());
+            case TAG_BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+            case TAG_CHARACTER:
+                return Character.valueOf(in.readChar());
+            case TAG_BIG_DECIMAL:
+                int scale = in.readInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case TAG_BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case TAG_BYTES:
+                return readBytes(in);
+            case TAG_DATE:
+                return new Date(in.readLong());
+            case TAG_SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case TAG_TIME:
+                return new Time(in.readLong());
+            case TAG_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            default:
+                throw new IOException("Unknown value tag " + tag + " in a spilled row block.");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits, int length) throws IOException
+    {
+        byte[] bytes = new byte[(length + 7) / 8];
+        for (int i = bits.nextSetBit(0); i >= 0 && i < length; i = bits.nextSetBit(i + 1))
+            bytes[i >> 3] |= 1 << (i & 7);
+        out.write(bytes);
+    }
+
+    private static BitSet readBits(DataInputStream in, int length) throws IOException
+    {
+        byte[] bytes = new byte[(length + 7) / 8];
+        in.readFully(bytes);
+        BitSet bits = new BitSet(length);
+        for (int i = 0; i < length; i++)
+        {
+            if ((bytes[i >> 3] & (1 << (i & 7))) != 0)
+                bits.set(i);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import flex.messaging.config.ConfigMap;
+import flex.messaging.config.ConfigurationException;
+import flex.messaging.io.PageableRowSet;
+import flex.messaging.log.Log;
+
+/**
+ * Holds the rows of the row sets cached for paging by
+ * <code>PageableRowSetCache</code> within byte budgets. Each
+ * <code>RemotingDestination</code> that row sets are paged through has a
+ * store of its own, configured by its <code>row-set-cache</code> property and
+ * cleared when the destination stops.
+ * <p>
+ * The rows of a cached row set are copied into blocks of
+ * <code>ROWS_PER_BLOCK</code> rows stored column by column, see
+ * <code>ColumnarRowSet</code>. The blocks held on the heap may take at most
+ * <code>max-bytes</code> bytes in total, and at most
+ * <code>max-session-bytes</code> bytes for the row sets of one session. Once
+ * a budget is exceeded the least recently used blocks are spilled to a
+ * memory-mapped temporary file, which may grow to <code>max-spill-bytes</code>
+ * bytes, and are loaded back when they are read again. A block that cannot be
+ * spilled, because spilling is disabled, the file is full or the block holds
+ * values of uncommon types, evicts its whole row set from the store and from
+ * its session instead.
+ * </p>
+ * <pre>
+ * &lt;row-set-cache&gt;
+ *     &lt;max-bytes&gt;67108864&lt;/max-bytes&gt;
+ *     &lt;max-session-bytes&gt;8388608&lt;/max-session-bytes&gt;
+ *     &lt;max-spill-bytes&gt;268435456&lt;/max-spill-bytes&gt;
+ *     &lt;spill-directory&gt;/var/tmp&lt;/spill-directory&gt;
+ * &lt;/row-set-cache&gt;
+ * </pre>
+ */
+public class RowSetPageStore
+{
+    /** The element of the destination properties that configures the store. */
+    public static final String ROW_SET_CACHE_ELEMENT = "row-set-cache";
+
+    private static final String MAX_BYTES_ELEMENT = "max-bytes";
+    private static final String MAX_SESSION_BYTES_ELEMENT = "max-session-bytes";
+    private static final String MAX_SPILL_BYTES_ELEMENT = "max-spill-bytes";
+    private static final String SPILL_DIRECTORY_ELEMENT = "spill-directory";
+
+    /** The number of rows of a block. */
+    public static final int ROWS_PER_BLOCK = 128;
+
+    /** The default maximum number of bytes of blocks held on the heap. */
+    public static final long DEFAULT_MAX_BYTES = 67108864;
+
+    /** The default maximum number of bytes of blocks held on the heap for one session. */
+    public static final long DEFAULT_MAX_SESSION_BYTES = 8388608;
+
+    /** The default maximum size of the spill file. */
+    public static final long DEFAULT_MAX_SPILL_BYTES = 268435456;
+
+    private static final int SEGMENT_SIZE = 4194304;
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxSessionBytes = DEFAULT_MAX_SESSION_BYTES;
+    private long maxSpillBytes = DEFAULT_MAX_SPILL_BYTES;
+    private File spillDirectory;
+
+    // Guarded by this. Iterates from the least to the most recently used block.
+    private final LinkedHashMap<Slot, Slot> resident = new LinkedHashMap<Slot, Slot>(16, 0.75f, true);
+    private final Map<Object, long[]> residentBytesByOwner = new HashMap<Object, long[]>();
+    private final Set<ColumnarRowSet> rowSets = new HashSet<ColumnarRowSet>();
+    private long residentBytes;
+    private SpillFile spillFile;
+    private boolean spillFailed;
+    private long spillCount;
+    private long loadCount;
+    private long evictionCount;
+
+    /**
+     * Constructs an empty <code>RowSetPageStore</code> with the default budgets.
+     */
+    public RowSetPageStore()
+    {
+    }
+
+    /**
+     * Applies the settings of the <code>row-set-cache</code> element of a
+     * destination.
+     *
+     * @param properties The store settings.
+     */
+    public void initialize(ConfigMap properties)
+    {
+        setMaxBytes(properties.getPropertyAsLong(MAX_BYTES_ELEMENT, getMaxBytes()));
+        setMaxSessionBytes(properties.getPropertyAsLong(MAX_SESSION_BYTES_ELEMENT, getMaxSessionBytes()));
+        setMaxSpillBytes(properties.getPropertyAsLong(MAX_SPILL_BYTES_ELEMENT, getMaxSpillBytes()));
+        String directory = properties.getPropertyAsString(SPILL_DIRECTORY_ELEMENT, null);
+        if (directory != null)
+            setSpillDirectory(new File(directory));
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Public Getters and Setters for RowSetPageStore properties
+    //
+    //--------------------------------------------------------------------------
+
+    public synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of blocks held on the heap.
+     *
+     * @param value The maximum number of bytes.
+     */
+    public synchronized void setMaxBytes(long value)
+    {
+        if (value < 1)
+            invalidValue(MAX_BYTES_ELEMENT, value);
+        maxBytes = value;
+    }
+
+    public synchronized long getMaxSessionBytes()
+    {
+        return maxSessionBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of blocks held on the heap for the
+     * row sets of one session.
+     *
+     * @param value The maximum number of bytes.
+     */
+    public synchronized void setMaxSessionBytes(long value)
+    {
+        if (value < 1)
+            invalidValue(MAX_SESSION_BYTES_ELEMENT, value);
+        maxSessionBytes = value;
+    }
+
+    public synchronized long getMaxSpillBytes()
+    {
+        return maxSpillBytes;
+    }
+
+    /**
+     * Sets the maximum size of the spill file. A value of 0 disables spilling,
+     * so that row sets are evicted once the budgets are exceeded.
+     *
+     * @param value The maximum number of bytes.
+     */
+    public synchronized void setMaxSpillBytes(long value)
+    {
+        if (value < 0)
+            invalidValue(MAX_SPILL_BYTES_ELEMENT, value);
+        maxSpillBytes = value;
+    }
+
+    public synchronized File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    /**
+     * Sets the directory of the spill file. The directory only applies if it
+     * is set before the first block is spilled.
+     *
+     * @param value The directory, or <code>null</code> for the default
+     * temporary directory.
+     */
+    public synchronized void setSpillDirectory(File value)
+    {
+        spillDirectory = value;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Other Public APIs
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Copies the rows of a row set into the store. The rows are read from the
+     * row set one block at a time, so that the budgets hold while it is copied.
+     *
+     * @param owner The owner of the row set whose budget it counts against,
+     * usually its <code>FlexSession</code>.
+     * @param source The row set to copy.
+     * @return The copy, or <code>null</code> if the copy did not fit in the
+     * store and was evicted.
+     * @throws SQLException if the row set cannot be read.
+     */
+    public ColumnarRowSet cache(Object owner, PageableRowSet source) throws SQLException
+    {
+        ColumnarRowSet rowSet = new ColumnarRowSet(this, owner, source);
+        synchronized (this)
+        {
+            rowSets.add(rowSet);
+        }
+
+        boolean cached = false;
+        try
+        {
+            int columnCount = rowSet.getColumnNames().length;
+            int start = 1;
+            while (true)
+            {
+                Map page = source.getRecords(start, ROWS_PER_BLOCK);
+                Object[] rows = page == null ? null : (Object[])page.get(PageableRowSet.PAGE);
+                if (rows == null || rows.length == 0)
+                    break;
+
+                if (!addBlock(rowSet, RowBlock.create(rows, columnCount)))
+                    return null;
+
+                start += rows.length;
+                if (rows.length < ROWS_PER_BLOCK)
+                    break;
+            }
+            cached = true;
+            return rowSet;
+        }
+        finally
+        {
+            if (!cached)
+                release(rowSet);
+        }
+    }
+
+    /**
+     * Releases the blocks of a row set.
+     *
+     * @param rowSet The row set.
+     */
+    public synchronized void release(ColumnarRowSet rowSet)
+    {
+        if (!rowSet.markReleased())
+            return;
+
+        rowSets.remove(rowSet);
+        for (Slot slot : rowSet.getSlots())
+        {
+            if (slot.block != null)
+                removeResident(slot);
+            if (slot.region != null)
+            {
+                spillFile.free(slot.region);
+                slot.region = null;
+            }
+        }
+        rowSet.getSlots().clear();
+    }
+
+    /**
+     * Releases all row sets and deletes the spill file.
+     */
+    public void clear()
+    {
+        List<ColumnarRowSet> evicted = new ArrayList<ColumnarRowSet>();
+        synchronized (this)
+        {
+            evicted.addAll(rowSets);
+            for (ColumnarRowSet rowSet : evicted)
+                release(rowSet);
+            if (spillFile != null)
+            {
+                spillFile.close();
+                spillFile = null;
+            }
+            spillFailed = false;
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Returns the number of row sets in the store.
+     *
+     * @return The number of row sets.
+     */
+    public synchronized int getRowSetCount()
+    {
+        return rowSets.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes of blocks held on the heap.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getResidentBytes()
+    {
+        return residentBytes;
+    }
+
+    /**
+     * Returns the number of bytes of blocks in the spill file.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getSpilledBytes()
+    {
+        return spillFile == null ? 0 : spillFile.getLiveBytes();
+    }
+
+    /**
+     * Returns the number of blocks written to the spill file.
+     *
+     * @return The number of spilled blocks.
+     */
+    public synchronized long getSpillCount()
+    {
+        return spillCount;
+    }
+
+    /**
+     * Returns the number of blocks loaded back from the spill file.
+     *
+     * @return The number of loaded blocks.
+     */
+    public synchronized long getLoadCount()
+    {
+        return loadCount;
+    }
+
+    /**
+     * Returns the number of row sets evicted to keep within the budgets.
+     *
+     * @return The number of evicted row sets.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    //--------------------------------------------------------------------------
+    //
+    // Protected/private APIs
+    //
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns a block of a row set, loading it back if it was spilled.
+     */
+    RowBlock getBlock(ColumnarRowSet rowSet, int index) throws SQLException
+    {
+        List<ColumnarRowSet> evicted = new ArrayList<ColumnarRowSet>(0);
+        try
+        {
+            return loadBlock(rowSet, index, evicted);
+        }
+        finally
+        {
+            notifyEvicted(evicted);
+        }
+    }
+
+    private boolean addBlock(ColumnarRowSet rowSet, RowBlock block)
+    {
+        List<ColumnarRowSet> evicted = new ArrayList<ColumnarRowSet>(0);
+        try
+        {
+            synchronized (this)
+            {
+                if (rowSet.isReleased())
+                    return false;
+
+                Slot slot = new Slot(rowSet, block.getSize());
+                slot.block = block;
+                rowSet.getSlots().add(slot);
+                rowSet.addRows(block.getRowCount());
+                addResident(slot);
+                enforceBudgets(slot, evicted);
+                return !rowSet.isReleased();
+            }
+        }
+        finally
+        {
+            // The row set being cached is not in its session yet.
+            evicted.remove(rowSet);
+            notifyEvicted(evicted);
+        }
+    }
+
+    private synchronized RowBlock loadBlock(ColumnarRowSet rowSet, int index, List<ColumnarRowSet> evicted)
+            throws SQLException
+    {
+        if (rowSet.isReleased())
+            throw new SQLException("The rows of row set '" + rowSet.getID() + "' are no longer cached.");
+
+        Slot slot = rowSet.getSlots().get(index);
+        RowBlock block = slot.block;
+        if (block != null)
+        {
+            resident.get(slot);
+            return block;
+        }
+
+        try
+        {
+            block = RowBlock.decode(spillFile.read(slot.region));
+        }
+        catch (IOException e)
+        {
+            SQLException se = new SQLException("Unable to load rows of row set '" + rowSet.getID() + "' from the spill file.");
+            se.initCause(e);
+            throw se;
+        }
+        loadCount++;
+        slot.block = block;
+        addResident(slot);
+        enforceBudgets(slot, evicted);
+        return block;
+    }
+
+    private void enforceBudgets(Slot pinned, List<ColumnarRowSet> evicted)
+    {
+        Object owner = pinned.rowSet.getOwner();
+        while (ownerBytes(owner) > maxSessionBytes)
+        {
+            Slot victim = leastRecentlyUsed(owner, pinned);
+            if (victim == null)
+                break;
+            evict(victim, evicted);
+        }
+
+        while (residentBytes > maxBytes)
+        {
+            Slot victim = leastRecentlyUsed(null, pinned);
+            if (victim == null)
+                break;
+            evict(victim, evicted);
+        }
+    }
+
+    private Slot leastRecentlyUsed(Object owner, Slot pinned)
+    {
+        for (Slot slot : resident.keySet())
+        {
+            if (slot != pinned && (owner == null || slot.rowSet.getOwner() == owner))
+                return slot;
+        }
+        return null;
+    }
+
+    private void evict(Slot slot, List<ColumnarRowSet> evicted)
+    {
+        if (slot.region == null)
+        {
+            byte[] bytes = slot.block.encode();
+            if (bytes != null)
+                slot.region = spill(bytes);
+            if (slot.region != null)
+                spillCount++;
+        }
+
+        if (slot.region != null)
+        {
+            removeResident(slot);
+        }
+        else
+        {
+            ColumnarRowSet rowSet = slot.rowSet;
+            release(rowSet);
+            evicted.add(rowSet);
+            evictionCount++;
+            if (Log.isDebug())
+                Log.getLogger(RemotingDestination.LOG_CATEGORY).debug("Evicted row set '" + rowSet.getID()
+                        + "' from the paging cache.");
+        }
+    }
+
+    private SpillFile.Region spill(byte[] bytes)
+    {
+        if (maxSpillBytes == 0 || spillFailed)
+            return null;
+
+        try
+        {
+            if (spillFile == null)
+                spillFile = new SpillFile(spillDirectory, SEGMENT_SIZE);
+            return spillFile.write(bytes, maxSpillBytes);
+        }
+        catch (IOException e)
+        {
+            // Fall back to evicting row sets rather than failing on every block
+            spillFailed = true;
+            if (Log.isWarn())
+                Log.getLogger(RemotingDestination.LOG_CATEGORY).warn("Unable to spill paged rows to disk, row sets will be evicted instead: " + e);
+            return null;
+        }
+    }
+
+    private void addResident(Slot slot)
+    {
+        resident.put(slot, slot);
+        residentBytes += slot.size;
+        Object owner = slot.rowSet.getOwner();
+        long[] bytes = residentBytesByOwner.get(owner);
+        if (bytes == null)
+        {
+            bytes = new long[1];
+            residentBytesByOwner.put(owner, bytes);
+        }
+        bytes[0] += slot.size;
+    }
+
+    private void removeResident(Slot slot)
+    {
+        resident.remove(slot);
+        slot.block = null;
+        residentBytes -= slot.size;
+        Object owner = slot.rowSet.getOwner();
+        long[] bytes = residentBytesByOwner.get(owner);
+        bytes[0] -= slot.size;
+        if (bytes[0] == 0)
+            residentBytesByOwner.remove(owner);
+    }
+
+    private long ownerBytes(Object owner)
+    {
+        long[] bytes = residentBytesByOwner.get(owner);
+        return bytes == null ? 0 : bytes[0];
+    }
+
+    private static void notifyEvicted(List<ColumnarRowSet> evicted)
+    {
+        for (Iterator<ColumnarRowSet> iter = evicted.iterator(); iter.hasNext();)
+            iter.next().evicted();
+    }
+
+    private static void invalidValue(String element, long value)
+    {
+        ConfigurationException ce = new ConfigurationException();
+        ce.setMessage("Invalid value '" + value + "' for <" + element + "> of <" + ROW_SET_CACHE_ELEMENT + ">.");
+        throw ce;
+    }
+
+    /**
+     * A block of a row set, held on the heap, in the spill file or both.
+     */
+    static final class Slot
+    {
+        final ColumnarRowSet rowSet;
+        final long size;
+        RowBlock block;
+        SpillFile.Region region;
+
+        Slot(ColumnarRowSet rowSet, long size)
+        {
+            this.rowSet = rowSet;
+            this.size = size;
+        }
+    }
+}
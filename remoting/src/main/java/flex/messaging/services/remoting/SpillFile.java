@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A temporary file that row blocks evicted from the heap are spilled to.
+ * <p>
+ * The file is memory-mapped in segments of a fixed size that are filled
+ * one after the other. The bytes of a freed region are not reused on their
+ * own; a segment is reused once all of its regions have been freed. The file
+ * is deleted when it is closed, or when the VM exits. Instances are not
+ * thread-safe.
+ * </p>
+ */
+final class SpillFile
+{
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final int segmentSize;
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final LinkedList<Segment> freeSegments = new LinkedList<Segment>();
+    private Segment current;
+    private long liveBytes;
+
+    /**
+     * Creates a spill file.
+     *
+     * @param directory The directory to create the file in, or <code>null</code>
+     * for the default temporary directory.
+     * @param segmentSize The number of bytes mapped at a time.
+     * @throws IOException if the file cannot be created.
+     */
+    SpillFile(File directory, int segmentSize) throws IOException
+    {
+        this.segmentSize = segmentSize;
+        file = File.createTempFile("rowset-", ".spill", directory);
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Writes bytes to a new region of the file.
+     *
+     * @param bytes The bytes to write.
+     * @param maxBytes The number of bytes the file may grow to.
+     * @return The region the bytes were written to, or <code>null</code> if
+     * the file is full or the bytes do not fit in a segment.
+     * @throws IOException if a segment cannot be mapped.
+     */
+    Region write(byte[] bytes, long maxBytes) throws IOException
+    {
+        if (bytes.length > segmentSize)
+            return null;
+
+        if (current == null || segmentSize - current.position < bytes.length)
+        {
+            if (current != null && current.liveBytes == 0)
+            {
+                current.position = 0;
+            }
+            else
+            {
+                Segment next = freeSegments.poll();
+                if (next == null)
+                {
+                    if ((long)(segments.size() + 1) * segmentSize > maxBytes)
+                        return null;
+                    long offset = (long)segments.size() * segmentSize;
+                    next = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, offset, segmentSize));
+                    segments.add(next);
+                }
+                current = next;
+            }
+        }
+
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(current.position);
+        buffer.put(bytes);
+
+        Region region = new Region(current, current.position, bytes.length);
+        current.position += bytes.length;
+        current.liveBytes += bytes.length;
+        liveBytes += bytes.length;
+        return region;
+    }
+
+    /**
+     * Reads the bytes of a region.
+     *
+     * @param region A region returned by <code>write()</code> that has not
+     * been freed.
+     * @return The bytes of the region.
+     */
+    byte[] read(Region region)
+    {
+        ByteBuffer buffer = region.segment.buffer.duplicate();
+        buffer.position(region.offset);
+        byte[] bytes = new byte[region.length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Frees a region so that its segment can be reused.
+     *
+     * @param region A region returned by <code>write()</code>.
+     */
+    void free(Region region)
+    {
+        Segment segment = region.segment;
+        segment.liveBytes -= region.length;
+        liveBytes -= region.length;
+        if (segment.liveBytes == 0 && segment != current)
+        {
+            segment.position = 0;
+            freeSegments.add(segment);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of regions that have not been freed.
+     *
+     * @return The number of live bytes.
+     */
+    long getLiveBytes()
+    {
+        return liveBytes;
+    }
+
+    /**
+     * Closes and deletes the file. Regions must not be read afterwards.
+     */
+    void close()
+    {
+        segments.clear();
+        freeSegments.clear();
+        current = null;
+        liveBytes = 0;
+        try
+        {
+            randomAccessFile.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing to do
+        }
+        file.delete();
+    }
+
+    /**
+     * A region of the file that holds the bytes of a row block.
+     */
+    static final class Region
+    {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Region(Segment segment, int offset, int length)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A mapped segment of the file.
+     */
+    static final class Segment
+    {
+        final MappedByteBuffer buffer;
+        int position;
+        int liveBytes;
+
+        Segment(MappedByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import flex.messaging.messages.RemotingMessage;
 import flex.messaging.security.SecurityException;
 import flex.messaging.services.ServiceAdapter;
 import flex.messaging.services.remoting.RemotingDestination;
+import flex.messaging.services.remoting.ResultCache;
 import flex.messaging.util.MethodMatcher;
 import flex.messaging.util.MethodMatcher.Match;
 import flex.messaging.util.ExceptionUtil;
@@ -371,6 +372,17 @@ public class JavaAdapter extends ServiceAdapter
             // Test that the target method may be invoked based upon include/exclude method settings.
             validateAgainstMethodFilters(methodName);
 
+            // Answer idempotent calls from the result cache of the destination.
+            ResultCache resultCache = remotingDestination.getResultCache();
+            Object cacheKey = null;
+            if (resultCache != null && isCached(resultCache, methodName))
+            {
+                cacheKey = resultCache.createKey(methodName, parameters);
+                Object cachedResult = cacheKey == null ? null : resultCache.get(cacheKey);
+                if (cachedResult != null)
+                    return cachedResult;
+            }
+
             // Lookup and invoke.
             Object instance = createInstance(factoryInstance.getInstanceClass());
             if (instance == null)
@@ -379,13 +391,13 @@ public class JavaAdapter extends ServiceAdapter
                 me.setCode("Server.Processing");
                 throw me;
             }
-            Class c = instance.getClass();
-
             MethodMatcher methodMatcher = remotingDestination.getMethodMatcher();
-            Method method = methodMatcher.getMethod(c, methodName, parameters);
-            result = method.invoke(instance, parameters.toArray());
+            result = methodMatcher.invoke(instance, methodName, parameters);
 
             saveInstance(instance);
+
+            if (cacheKey != null)
+                result = resultCache.put(cacheKey, result);
         }
         catch (InvocationTargetException ex)
         {
@@ -461,6 +473,25 @@ public class JavaAdapter extends ServiceAdapter
             MethodMatcher.methodNotFound(methodName, null, new Match(null));
     }
 
+    /**
+     * Returns whether the results of a method are answered from the result cache.
+     * The results of secured methods, or of methods of a secured destination, are
+     * only cached if the cache is keyed by principal, so that a user is never
+     * answered with a result that was computed for another user.
+     */
+    private boolean isCached(ResultCache resultCache, String methodName)
+    {
+        if (!resultCache.isCacheable(methodName))
+            return false;
+        if (resultCache.isKeyByPrincipal())
+            return true;
+
+        if (getDestination().getSecurityConstraint() != null)
+            return false;
+        RemotingMethod method = includeMethods == null ? null : (RemotingMethod)includeMethods.get(methodName);
+        return method == null || method.getSecurityConstraint() == null;
+    }
+
     /**
      * This method returns the instance of the given class.  You can override this in
      * your subclass to control how the instance is constructed.  Note that you can
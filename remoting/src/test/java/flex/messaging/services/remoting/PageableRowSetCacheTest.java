@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.io.PageableRowSet;
+import flex.messaging.services.RemotingService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+public class PageableRowSetCacheTest {
+    private static final int ROWS = 300;
+
+    private RemotingDestination destination;
+    private FlexSession session;
+
+    @Before
+    public void setUp() {
+        MessageBroker broker = new MessageBroker(false);
+        FlexContext.setThreadLocalMessageBroker(broker);
+
+        RemotingService service = new RemotingService();
+        service.setId("remoting-service");
+        broker.addService(service);
+
+        destination = new RemotingDestination();
+        destination.setId("PageableRowSetCache");
+        destination.setService(service);
+
+        session = new TestSession();
+        FlexContext.setThreadLocalSession(session);
+    }
+
+    @After
+    public void tearDown() {
+        destination.stop();
+        FlexContext.clearThreadLocalObjects();
+    }
+
+    @Test
+    public void testRowSetIsPagedFromSession() throws SQLException {
+        PageableRowSet source = new RowSetPageStoreTest.TestRowSet(ROWS);
+        PageableRowSetCache.cachePageableRowSet(source);
+        Object cached = session.getAttribute(source.getID());
+
+        Assert.assertTrue(cached instanceof ColumnarRowSet);
+        Map page = new PageableRowSetCache().getRecords(source.getID(), 10, 5);
+        Assert.assertEquals(5, ((Object[]) page.get(PageableRowSet.PAGE)).length);
+        Assert.assertEquals(1, destination.getRowSetPageStore().getRowSetCount());
+    }
+
+    @Test
+    public void testRowSetLargerThanBudgetIsNotBoundToSession() {
+        RowSetPageStore store = destination.getRowSetPageStore();
+        store.setMaxSpillBytes(0);
+        store.setMaxBytes(1);
+        PageableRowSet source = new RowSetPageStoreTest.TestRowSet(ROWS);
+
+        PageableRowSetCache.cachePageableRowSet(source);
+
+        Assert.assertNull(session.getAttribute(source.getID()));
+        Assert.assertEquals(0, store.getRowSetCount());
+    }
+
+    @Test
+    public void testRowSetOfUnknownDestinationIsNotBoundToSession() {
+        RowSetPageStoreTest.TestRowSet source = new RowSetPageStoreTest.TestRowSet(ROWS) {
+            public String getServiceName() {
+                return "unknown";
+            }
+        };
+
+        PageableRowSetCache.cachePageableRowSet(source);
+
+        Assert.assertNull(session.getAttribute(source.getID()));
+    }
+
+    @Test
+    public void testStoppingDestinationClearsStore() {
+        PageableRowSet source = new RowSetPageStoreTest.TestRowSet(ROWS);
+        PageableRowSetCache.cachePageableRowSet(source);
+        ColumnarRowSet cached = (ColumnarRowSet) session.getAttribute(source.getID());
+
+        destination.stop();
+
+        Assert.assertTrue(cached.isReleased());
+        Assert.assertEquals(0, destination.getRowSetPageStore().getRowSetCount());
+        Assert.assertNull(session.getAttribute(source.getID()));
+    }
+
+    private static class TestSession extends FlexSession {
+        public boolean isPushSupported() {
+            return false;
+        }
+
+        public String getId() {
+            return "test-session";
+        }
+    }
+}
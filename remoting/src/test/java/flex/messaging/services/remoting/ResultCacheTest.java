@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import flex.messaging.FlexContext;
+import flex.messaging.FlexSession;
+import flex.messaging.config.ConfigMap;
+import flex.messaging.config.ConfigurationException;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.Amf3EncodedValue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+public class ResultCacheTest {
+    private TestCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new TestCache();
+        cache.addIncludeMethod("getCountries");
+    }
+
+    @Test
+    public void testHitReturnsEncodedResult() {
+        Object key = cache.createKey("getCountries", args("en"));
+        Assert.assertNull(cache.get(key));
+
+        Object value = cache.put(key, "Norway");
+        Assert.assertTrue(value instanceof Amf3EncodedValue);
+        Assert.assertEquals("Norway", ((Amf3EncodedValue) value).getValue());
+
+        Assert.assertSame(value, cache.get(cache.createKey("getCountries", args("en"))));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertTrue(cache.getSize() > 0);
+    }
+
+    @Test
+    public void testKeyByArguments() {
+        cache.put(cache.createKey("getCountries", args("en")), "Norway");
+        Assert.assertNull(cache.get(cache.createKey("getCountries", args("fr"))));
+        Assert.assertNotNull(cache.get(cache.createKey("getCountries", args("en"))));
+
+        cache.setKeyByArguments(false);
+        cache.put(cache.createKey("getCountries", args("en")), "Norway");
+        Assert.assertNotNull(cache.get(cache.createKey("getCountries", args("fr"))));
+    }
+
+    @Test
+    public void testArrayArgumentsAreComparedByValue() {
+        cache.put(cache.createKey("getCountries", args(new Object[] {"en", 1}, "x")), "Norway");
+        Assert.assertNotNull(cache.get(cache.createKey("getCountries", args(new Object[] {"en", 1}, "x"))));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        cache.setTimeToLiveMillis(1000);
+        Object key = cache.createKey("getCountries", args());
+        cache.put(key, "Norway");
+
+        cache.now += 999;
+        Assert.assertNotNull(cache.get(key));
+        cache.now += 1;
+        Assert.assertNull(cache.get(key));
+        Assert.assertEquals(0, cache.getEntryCount());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        cache.setMaxEntries(2);
+        cache.put(cache.createKey("getCountries", args("a")), "A");
+        cache.put(cache.createKey("getCountries", args("b")), "B");
+        cache.get(cache.createKey("getCountries", args("a")));
+        cache.put(cache.createKey("getCountries", args("c")), "C");
+
+        Assert.assertEquals(2, cache.getEntryCount());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNotNull(cache.get(cache.createKey("getCountries", args("a"))));
+        Assert.assertNull(cache.get(cache.createKey("getCountries", args("b"))));
+    }
+
+    @Test
+    public void testMaxBytesBoundsSize() {
+        Object first = cache.put(cache.createKey("getCountries", args("a")), "0123456789");
+        long entrySize = cache.getSize();
+        cache.setMaxBytes(entrySize * 2);
+        cache.put(cache.createKey("getCountries", args("b")), "0123456789");
+        cache.put(cache.createKey("getCountries", args("c")), "0123456789");
+
+        Assert.assertEquals(2, cache.getEntryCount());
+        Assert.assertEquals(entrySize * 2, cache.getSize());
+
+        // Results larger than the cache are answered but not cached.
+        cache.setMaxBytes(entrySize - 1);
+        Object large = cache.put(cache.createKey("getCountries", args("d")), "0123456789");
+        Assert.assertTrue(large instanceof Amf3EncodedValue);
+        Assert.assertNull(cache.get(cache.createKey("getCountries", args("d"))));
+        Assert.assertTrue(first instanceof Amf3EncodedValue);
+    }
+
+    @Test
+    public void testSizeCountsResultAndEveryEncoding() throws IOException {
+        Amf3EncodedValue value = (Amf3EncodedValue) cache.put(cache.createKey("getCountries", args("a")), "0123456789");
+        int encodedSize = value.getTemplate(SerializationContext.getSerializationContext()).getBytes().length;
+        Assert.assertEquals(2L * encodedSize, cache.getSize());
+
+        // Writing the result with other serialization settings adds an encoding.
+        value.getTemplate(legacyContext());
+        Assert.assertEquals(3L * encodedSize, cache.getSize());
+        value.getTemplate(legacyContext());
+        Assert.assertEquals(3L * encodedSize, cache.getSize());
+    }
+
+    @Test
+    public void testNewEncodingEvictsLeastRecentlyUsedEntry() throws IOException {
+        Amf3EncodedValue first = (Amf3EncodedValue) cache.put(cache.createKey("getCountries", args("a")), "0123456789");
+        long entrySize = cache.getSize();
+        cache.setMaxBytes(entrySize * 2 + entrySize / 4);
+        cache.put(cache.createKey("getCountries", args("b")), "0123456789");
+        Assert.assertEquals(2, cache.getEntryCount());
+
+        first.getTemplate(legacyContext());
+
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(entrySize * 3 / 2, cache.getSize());
+        Assert.assertNull(cache.get(cache.createKey("getCountries", args("b"))));
+
+        // Encodings of results that are no longer cached are not counted.
+        cache.clear();
+        cache.put(cache.createKey("getCountries", args("c")), "0123456789");
+        SerializationContext context = legacyContext();
+        context.legacyMap = true;
+        first.getTemplate(context);
+        Assert.assertEquals(entrySize, cache.getSize());
+    }
+
+    @Test
+    public void testArgumentsModifiedByTheCallDoNotChangeTheKey() {
+        List<Object> countries = new ArrayList<Object>(Arrays.asList("en"));
+        Object key = cache.createKey("getCountries", args(countries));
+        countries.add("fr");
+        cache.put(key, "Norway");
+
+        Assert.assertNotNull(cache.get(cache.createKey("getCountries", args(Arrays.asList("en")))));
+        Assert.assertNull(cache.get(cache.createKey("getCountries", args(Arrays.asList("en", "fr")))));
+    }
+
+    @Test
+    public void testKeyByPrincipal() {
+        cache.setKeyByPrincipal(true);
+        TestSession session = new TestSession();
+        FlexContext.setThreadLocalSession(session);
+        try {
+            session.setUserPrincipal(principal("alice"));
+            cache.put(cache.createKey("getCountries", args("en")), "Norway");
+            Assert.assertNotNull(cache.get(cache.createKey("getCountries", args("en"))));
+
+            session.setUserPrincipal(principal("bob"));
+            Assert.assertNull(cache.get(cache.createKey("getCountries", args("en"))));
+
+            session.setUserPrincipal(null);
+            Assert.assertNull(cache.get(cache.createKey("getCountries", args("en"))));
+        } finally {
+            FlexContext.clearThreadLocalObjects();
+        }
+    }
+
+    @Test
+    public void testUncacheableResultsAreReturnedAsIs() {
+        Object key = cache.createKey("getCountries", args());
+        Assert.assertNull(cache.put(key, null));
+        FutureTask<String> future = new FutureTask<String>(new Runnable() {
+            public void run() {
+            }
+        }, "result");
+        Assert.assertSame(future, cache.put(key, future));
+        Assert.assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testInitialize() {
+        ConfigMap method = new ConfigMap();
+        method.addProperty("name", "getCountries");
+        ConfigMap methods = new ConfigMap();
+        methods.addProperty("method", method);
+        ConfigMap settings = new ConfigMap();
+        settings.addProperty("include-methods", methods);
+        settings.addProperty("time-to-live-millis", "5000");
+        settings.addProperty("max-entries", "10");
+        settings.addProperty("key-by-arguments", "false");
+        settings.addProperty("key-by-principal", "true");
+
+        ResultCache configured = new ResultCache();
+        configured.initialize("reference", settings);
+
+        Assert.assertTrue(configured.isCacheable("getCountries"));
+        Assert.assertFalse(configured.isCacheable("saveCountry"));
+        Assert.assertEquals(5000, configured.getTimeToLiveMillis());
+        Assert.assertEquals(10, configured.getMaxEntries());
+        Assert.assertEquals(ResultCache.DEFAULT_MAX_BYTES, configured.getMaxBytes());
+        Assert.assertFalse(configured.isKeyByArguments());
+        Assert.assertTrue(configured.isKeyByPrincipal());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testInitializeRequiresIncludeMethods() {
+        new ResultCache().initialize("reference", new ConfigMap());
+    }
+
+    private static SerializationContext legacyContext() {
+        SerializationContext context = new SerializationContext();
+        context.legacyCollection = true;
+        return context;
+    }
+
+    private static List<Object> args(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    private static Principal principal(final String name) {
+        return new Principal() {
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    private static class TestSession extends FlexSession {
+        public boolean isPushSupported() {
+            return false;
+        }
+
+        public String getId() {
+            return "test-session";
+        }
+    }
+
+    private static class TestCache extends ResultCache {
+        long now = 1000000;
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package flex.messaging.services.remoting;
+
+import flex.messaging.io.PageableRowSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RowSetPageStoreTest {
+    private static final int ROWS = 300;
+
+    private RowSetPageStore store;
+
+    @Before
+    public void setUp() {
+        store = new RowSetPageStore();
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    @Test
+    public void testPagesMatchSource() throws SQLException {
+        TestRowSet source = new TestRowSet(ROWS);
+        ColumnarRowSet rowSet = store.cache(new Object(), source);
+
+        Assert.assertEquals(ROWS, rowSet.getRowCount());
+        Assert.assertEquals(source.getID(), rowSet.getID());
+        Assert.assertArrayEquals(source.getColumnNames(), rowSet.getColumnNames());
+        assertSamePage(source, rowSet, 1, 25);
+        assertSamePage(source, rowSet, 120, 20);
+        assertSamePage(source, rowSet, 290, 50);
+        assertSamePage(source, rowSet, 0, 5);
+        assertSamePage(source, rowSet, 1, Integer.MAX_VALUE);
+        assertSamePage(source, rowSet, ROWS + 1, 10);
+        assertSamePage(source, rowSet, 10, 0);
+    }
+
+    @Test
+    public void testRowsOfDifferentLengthsArePreserved() throws SQLException {
+        TestRowSet source = new TestRowSet(3);
+        source.rows.set(1, new Object[] {Integer.valueOf(7)});
+        source.rows.set(2, new Object[] {Integer.valueOf(8), "a", null, null, "extra"});
+
+        assertSamePage(source, store.cache(new Object(), source), 1, 3);
+    }
+
+    @Test
+    public void testBlocksSpillAndLoadBack() throws SQLException {
+        store.setMaxBytes(1);
+        TestRowSet source = new TestRowSet(ROWS);
+        ColumnarRowSet rowSet = store.cache(new Object(), source);
+
+        Assert.assertEquals(2, store.getSpillCount());
+        Assert.assertTrue(store.getSpilledBytes() > 0);
+        assertSamePage(source, rowSet, 1, ROWS);
+        Assert.assertEquals(3, store.getLoadCount());
+        Assert.assertEquals(3, store.getSpillCount());
+
+        // Blocks that are loaded back keep their spilled copy
+        assertSamePage(source, rowSet, 1, ROWS);
+        Assert.assertEquals(6, store.getLoadCount());
+        Assert.assertEquals(3, store.getSpillCount());
+        Assert.assertEquals(0, store.getEvictionCount());
+    }
+
+    @Test
+    public void testSessionBudgetSpillsOwnBlocks() throws SQLException {
+        Object first = new Object();
+        Object second = new Object();
+        store.cache(first, new TestRowSet(ROWS));
+        long firstBytes = store.getResidentBytes();
+
+        store.setMaxSessionBytes(1);
+        store.cache(second, new TestRowSet(ROWS));
+
+        Assert.assertEquals(2, store.getSpillCount());
+        Assert.assertTrue(store.getResidentBytes() > firstBytes);
+        Assert.assertTrue(store.getResidentBytes() < firstBytes * 2);
+    }
+
+    @Test
+    public void testRowSetIsEvictedWhenSpillingIsDisabled() throws SQLException {
+        store.setMaxSpillBytes(0);
+        ColumnarRowSet first = store.cache(new Object(), new TestRowSet(ROWS));
+        store.setMaxBytes(store.getResidentBytes());
+        ColumnarRowSet second = store.cache(new Object(), new TestRowSet(ROWS));
+
+        Assert.assertTrue(first.isReleased());
+        Assert.assertFalse(second.isReleased());
+        Assert.assertEquals(1, store.getEvictionCount());
+        Assert.assertEquals(1, store.getRowSetCount());
+        try {
+            first.getRecords(1, 10);
+            Assert.fail("The rows of an evicted row set are no longer available");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRowSetLargerThanBudgetIsNotCached() throws SQLException {
+        store.setMaxSpillBytes(0);
+        store.setMaxBytes(1);
+
+        Assert.assertNull(store.cache(new Object(), new TestRowSet(ROWS)));
+        Assert.assertEquals(0, store.getRowSetCount());
+        Assert.assertEquals(0, store.getResidentBytes());
+    }
+
+    @Test
+    public void testUnspillableValuesEvictRowSet() throws SQLException {
+        TestRowSet source = new TestRowSet(ROWS);
+        source.rows.set(0, new Object[] {Integer.valueOf(0), new StringBuilder("x"), null, null});
+        ColumnarRowSet first = store.cache(new Object(), source);
+        store.setMaxBytes(store.getResidentBytes());
+        store.cache(new Object(), new TestRowSet(ROWS));
+
+        Assert.assertTrue(first.isReleased());
+        Assert.assertEquals(1, store.getEvictionCount());
+    }
+
+    @Test
+    public void testReleaseFreesBlocks() throws SQLException {
+        store.setMaxBytes(1);
+        ColumnarRowSet rowSet = store.cache(new Object(), new TestRowSet(ROWS));
+        store.release(rowSet);
+
+        Assert.assertTrue(rowSet.isReleased());
+        Assert.assertEquals(0, store.getRowSetCount());
+        Assert.assertEquals(0, store.getResidentBytes());
+        Assert.assertEquals(0, store.getSpilledBytes());
+    }
+
+    private static void assertSamePage(PageableRowSet expected, PageableRowSet actual, int start, int count)
+            throws SQLException {
+        Map expectedPage = expected.getRecords(start, count);
+        Map actualPage = actual.getRecords(start, count);
+        Assert.assertEquals(expectedPage.get(PageableRowSet.CURSOR), actualPage.get(PageableRowSet.CURSOR));
+        Assert.assertTrue(Arrays.deepEquals((Object[]) expectedPage.get(PageableRowSet.PAGE),
+                (Object[]) actualPage.get(PageableRowSet.PAGE)));
+    }
+
+    /**
+     * An in-memory row set that pages like PagedRowSet.
+     */
+    static class TestRowSet implements PageableRowSet {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+
+        TestRowSet(int count) {
+            for (int i = 0; i < count; i++) {
+                rows.add(new Object[] {
+                        Integer.valueOf(i),
+                        i % 7 == 0 ? null : "row " + i,
+                        new BigDecimal(i).movePointLeft(2),
+                        i % 3 == 0 ? null : new Timestamp(1000000L * i)});
+            }
+        }
+
+        public String[] getColumnNames() {
+            return new String[] {"id", "name", "price", "updated"};
+        }
+
+        public Map getRecords(int startIndex, int count) {
+            if (startIndex < 1)
+                startIndex = 1;
+            List<Object[]> page = new ArrayList<Object[]>();
+            for (int i = startIndex - 1; i < rows.size() && page.size() < count; i++)
+                page.add(rows.get(i).clone());
+            Map result = new HashMap();
+            result.put(PAGE, page.toArray());
+            result.put(CURSOR, Integer.valueOf(startIndex));
+            return result;
+        }
+
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        public int getInitialDownloadCount() {
+            return 25;
+        }
+
+        public String getID() {
+            return "test-row-set";
+        }
+
+        public String getServiceName() {
+            return "PageableRowSetCache";
+        }
+
+        public void setServicename(String serviceName) {
+        }
+    }
+}